@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package org.apache.spark.sql.execution.columnar.impl
+
+import java.util.Properties
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable.ArrayBuffer
+
+import com.gemstone.gemfire.cache.IsolationLevel
+import com.gemstone.gemfire.internal.cache.store.SerializedDiskBuffer
+import com.gemstone.gemfire.internal.cache.{PartitionedRegion, TXManagerImpl, TXStateInterface}
+import com.pivotal.gemfirexd.internal.engine.Misc
+import io.snappydata.cluster.ClusterManagerTestBase
+
+import org.apache.spark.memory.TaskMemoryManager
+import org.apache.spark.sql.SnappyContext
+import org.apache.spark.{SparkEnv, TaskContextImpl}
+
+/**
+ * Tests for the scan of remote buckets by [[RemoteEntriesIterator]].
+ */
+class RemoteEntriesIteratorDUnitTest(s: String) extends ClusterManagerTestBase(s) {
+
+  def testRemoteBucketScanWithPrefetch(): Unit = {
+    val snc = SnappyContext(sc)
+    snc.sql("create table remoteScan (id int, data string) using column options " +
+        "(buckets '8', column_max_delta_rows '100')")
+    snc.range(20000).selectExpr("cast(id as int)", "concat('data_', id)")
+        .write.insertInto("remoteScan")
+
+    val args = Array("APP.REMOTESCAN").asInstanceOf[Array[AnyRef]]
+    Array(vm0, vm1, vm2).foreach(_.invoke(classOf[RemoteEntriesIteratorDUnitTest],
+      "scanRemoteBuckets", args))
+
+    snc.sql("drop table remoteScan")
+    Array(vm0, vm1, vm2).foreach(_.invoke(classOf[ClusterManagerTestBase],
+      "validateNoActiveSnapshotTX"))
+  }
+}
+
+object RemoteEntriesIteratorDUnitTest {
+
+  /**
+   * Scan all the buckets of the table not hosted on this member with and without
+   * prefetch, requesting the columns of only every other batch so that the
+   * prefetched columns of the skipped batches are discarded, and check that both
+   * scans return the same data and that all of the prefetch memory is released.
+   */
+  def scanRemoteBuckets(tableName: String): Unit = {
+    val pr = Misc.getRegionForTable(ColumnFormatRelation.columnBatchTableName(tableName),
+      true).asInstanceOf[PartitionedRegion]
+    val localBuckets = pr.getDataStore.getAllLocalBucketIds.asScala.map(_.intValue()).toSet
+    val remoteBuckets = (0 until pr.getTotalNumberOfBuckets).filterNot(localBuckets.contains)
+    assert(remoteBuckets.nonEmpty, s"No remote buckets on ${Misc.getMyId}")
+
+    val txMgr = Misc.getGemFireCache.getCacheTransactionManager
+    val tx = txMgr.beginTX(TXManagerImpl.getOrCreateTXContext, IsolationLevel.SNAPSHOT,
+      null, null)
+    try {
+      for (bucketId <- remoteBuckets) {
+        val expected = scanBucket(pr, bucketId, tx, null)
+        assert(expected.nonEmpty, s"No batches in remote bucket $bucketId")
+
+        val taskMemoryManager = new TaskMemoryManager(SparkEnv.get.memoryManager, 0L)
+        val context = new TaskContextImpl(0, 0, taskAttemptId = bucketId, 0,
+          taskMemoryManager, new Properties, null)
+        val result = scanBucket(pr, bucketId, tx, context)
+        assert(result == expected, s"Mismatch in scan of remote bucket $bucketId: " +
+            s"with prefetch = $result, without prefetch = $expected")
+        // all of the memory acquired for prefetch should have been released
+        assert(taskMemoryManager.cleanUpAllAllocatedMemory() == 0L)
+      }
+    } finally {
+      txMgr.masqueradeAs(tx)
+      txMgr.commit()
+    }
+  }
+
+  private def scanBucket(pr: PartitionedRegion, bucketId: Int,
+      tx: TXStateInterface, context: TaskContextImpl): Seq[(Long, Long)] = {
+    val iter = new RemoteEntriesIterator(bucketId, Array(1, 2), pr, tx, context)
+    val result = new ArrayBuffer[(Long, Long)]
+    var qualifies = true
+    try {
+      while (iter.hasNext) {
+        val key = iter.next().getKey.asInstanceOf[ColumnFormatKey]
+        // request the columns of only every other batch
+        if (qualifies) {
+          val size = iter.getColumnValue(2) match {
+            case b: SerializedDiskBuffer => b.size().toLong
+            case _ => -1L
+          }
+          result += key.uuid -> size
+          if ((context ne null) && iter.hasNext) {
+            // columns of the next batch should be getting prefetched
+            assert(context.taskMemoryManager().getMemoryConsumptionForThisTask > 0L)
+          }
+        }
+        qualifies = !qualifies
+      }
+    } finally {
+      iter.close()
+    }
+    result
+  }
+}
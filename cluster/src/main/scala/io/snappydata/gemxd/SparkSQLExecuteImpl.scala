@@ -46,6 +46,7 @@ import org.apache.spark.sql._
 import org.apache.spark.sql.catalyst.expressions
 import org.apache.spark.sql.catalyst.util.DateTimeUtils
 import org.apache.spark.sql.collection.Utils
+import org.apache.spark.sql.execution.aggregate.CollectAggregateExec
 import org.apache.spark.sql.types._
 import org.apache.spark.storage.RDDBlockId
 import org.apache.spark.util.SnappyUtils
@@ -120,77 +121,99 @@ class SparkSQLExecuteImpl(
     }
 
     var blockReadSuccess = false
-    try {
-      // get the results and put those in block manager to avoid going OOM
-      // TODO: can optimize to ship immediately if plan is not ordered
-      // TODO: can ship CollectAggregateExec processing to the server node
-      // which is supported via the "skipLocalCollectProcessing" flag to the
-      // call below (but that has additional overheads of plan
-      //   shipping/compilation etc and lack of proper BlockManager usage in
-      //   messaging + server-side final processing, so do it selectively)
-      val partitionBlocks = df match {
-        case cdf: CachedDataFrame => cdf.collectWithHandler(CachedDataFrame,
-           CachedDataFrame.localBlockStoreResultHandler(rddId, bm),
-           CachedDataFrame.localBlockStoreDecoder(querySchema.length, bm))
-        case dataFrame: DataFrame => {
-          Iterator(CachedDataFrame(null,
-            dataFrame.queryExecution.executedPlan.executeCollect().iterator)._1)
-        }
-      }
+    var metaDataWritten = false
+    var id = 0
+
+    // metadata is written lazily to include the warnings raised during execution
+    def writeMetaData(): Unit = if (!metaDataWritten) {
       hdos.clearForReuse()
       SparkSQLExecuteImpl.writeMetaData(srh, hdos, tableNames, nullability, getColumnNames,
         colTypes, getColumnDataTypes, session.getWarnings)
+      metaDataWritten = true
+    }
 
-      var id = 0
-      for (block <- partitionBlocks) {
-        block match {
-          case null => // skip but still id has to be incremented
-          case data: Array[Byte] => if (data.length > 0) {
-            hdos.write(data)
-          }
-          case p: RDDBlockId =>
-            val partitionData = Utils.getPartitionData(p, bm)
-            // remove the block once a local handle to it has been obtained
-            bm.removeBlock(p, tellMaster = false)
-            hdos.write(partitionData)
+    def writeBlock(block: Any): Unit = {
+      writeMetaData()
+      block match {
+        case null => // skip but still id has to be incremented
+        case data: Array[Byte] => if (data.length > 0) {
+          hdos.write(data)
         }
-        logTrace(s"Writing data for partition ID = $id: $block")
-        val dosSize = hdos.size()
-        if (dosSize > GemFireXDUtils.DML_MAX_CHUNK_SIZE) {
-          if (isLocalExecution) {
-            // prepare SnappyResultHolder with all data and create new one
-            SparkSQLExecuteImpl.handleLocalExecution(srh, hdos)
-            msg.sendResult(srh)
-            srh = new SnappyResultHolder(this, execObject.isUpdateOrDeleteOrPut)
-          } else {
-            // throttle sending if target node is CRITICAL_UP
-            val targetMember = msg.getSender
-            if (thresholdListener.isCritical ||
-                thresholdListener.isCriticalUp(targetMember)) {
-              try {
-                var throttle = true
-                for (_ <- 1 to 5 if throttle) {
-                  Thread.sleep(4)
-                  throttle = thresholdListener.isCritical ||
-                      thresholdListener.isCriticalUp(targetMember)
-                }
-              } catch {
-                case ie: InterruptedException => Misc.checkIfCacheClosing(ie)
+        case p: RDDBlockId =>
+          val partitionData = Utils.getPartitionData(p, bm)
+          // remove the block once a local handle to it has been obtained
+          bm.removeBlock(p, tellMaster = false)
+          hdos.write(partitionData)
+      }
+      logTrace(s"Writing data for partition ID = $id: $block")
+      val dosSize = hdos.size()
+      if (dosSize > GemFireXDUtils.DML_MAX_CHUNK_SIZE) {
+        if (isLocalExecution) {
+          // prepare SnappyResultHolder with all data and create new one
+          SparkSQLExecuteImpl.handleLocalExecution(srh, hdos)
+          msg.sendResult(srh)
+          srh = new SnappyResultHolder(this, execObject.isUpdateOrDeleteOrPut)
+        } else {
+          // throttle sending if target node is CRITICAL_UP
+          val targetMember = msg.getSender
+          if (thresholdListener.isCritical ||
+              thresholdListener.isCriticalUp(targetMember)) {
+            try {
+              var throttle = true
+              for (_ <- 1 to 5 if throttle) {
+                Thread.sleep(4)
+                throttle = thresholdListener.isCritical ||
+                    thresholdListener.isCriticalUp(targetMember)
               }
+            } catch {
+              case ie: InterruptedException => Misc.checkIfCacheClosing(ie)
             }
-
-            msg.sendResult(srh)
-            // clear the metadata flag for subsequent chunks
-            srh.clearHasMetadata()
           }
-          logTrace(s"Sent one batch for result, current partition ID = $id")
-          hdos.clearForReuse()
-          // 0/1 indicator is now written in serializeRows itself to allow
-          // ByteBuffer to be passed as is in the chunks list of
-          // GfxdHeapDataOutputStream and avoid a copy
+
+          msg.sendResult(srh)
+          // clear the metadata flag for subsequent chunks
+          srh.clearHasMetadata()
         }
-        id += 1
+        logTrace(s"Sent one batch for result, current partition ID = $id")
+        hdos.clearForReuse()
+        // 0/1 indicator is now written in serializeRows itself to allow
+        // ByteBuffer to be passed as is in the chunks list of
+        // GfxdHeapDataOutputStream and avoid a copy
       }
+      id += 1
+    }
+
+    try {
+      // get the results and put those in block manager to avoid going OOM;
+      // for unordered plans each partition's results are shipped as soon as
+      // its task finishes else these are shipped in order after the job ends;
+      // the final merge of CollectAggregateExec is shipped to the server node
+      // along with the partial results unless the server is this node itself
+      df match {
+        case cdf: CachedDataFrame =>
+          val handler = CachedDataFrame.localBlockStoreResultHandler(rddId, bm) _
+          val decoder = CachedDataFrame.localBlockStoreDecoder(querySchema.length, bm) _
+          val conf = session.sessionState.conf
+          val skipLocalCollect = !isLocalExecution && Property.ServerCollectAggregate.get(conf)
+          val results = if (Property.StreamQueryResults.get(conf)) {
+            cdf.collectWithHandler(CachedDataFrame, handler, decoder,
+              skipLocalCollectProcessing = skipLocalCollect,
+              resultConsumer = (_: Int, block: Any) => writeBlock(block))
+          } else {
+            cdf.collectWithHandler(CachedDataFrame, handler, decoder,
+              skipLocalCollectProcessing = skipLocalCollect)
+          }
+          results match {
+            case partialResults: AggregatePartialDataIterator =>
+              writeMetaData()
+              partialResults.writeTo(hdos, bm)
+            case _ => results.foreach(writeBlock)
+          }
+        case dataFrame: DataFrame =>
+          writeBlock(CachedDataFrame(null,
+            dataFrame.queryExecution.executedPlan.executeCollect().iterator)._1)
+      }
+      writeMetaData()
       blockReadSuccess = true
 
       if (isLocalExecution) {
@@ -408,9 +431,14 @@ object SparkSQLExecuteImpl {
     }
     val execRow = new ValueRow(dvds)
     val numFields = types.length
-    val unsafeRows = CachedDataFrame.decodeUnsafeRows(numFields,
-      input.array(), input.position(), input.available())
-    unsafeRows.map { row =>
+    val rows = if (CollectAggregateExec.isPartialResults(input)) {
+      // final merge of aggregation shipped by lead
+      CollectAggregateExec.mergePartialResults(input)
+    } else {
+      CachedDataFrame.decodeUnsafeRows(numFields,
+        input.array(), input.position(), input.available())
+    }
+    rows.map { row =>
       var index = 0
       var refTypeIndex = 0
       while (index < numFields) {
@@ -492,7 +520,7 @@ object SparkSQLExecuteImpl {
           index += 1
         }
       }
-      if ((generators ne null) && !unsafeRows.hasNext) {
+      if ((generators ne null) && !rows.hasNext) {
         generators.foreach(Utils.closeJsonGenerator)
       }
 
@@ -29,7 +29,9 @@ import com.pivotal.gemfirexd.internal.engine.Misc
 import com.pivotal.gemfirexd.internal.engine.distributed.utils.GemFireXDUtils
 import org.apache.spark.deploy.SparkHadoopUtil
 import org.apache.spark.serializer.KryoSerializerPool
+import org.apache.spark.sql.execution.columnar.impl.ColumnBatchCompactor
 import org.apache.spark.sql.internal.ContextJarUtils
+import org.apache.spark.sql.store.PersistentCodeCache
 import org.apache.spark.util.{MutableURLClassLoader, ShutdownHookManager, SparkExitCode, Utils}
 import org.apache.spark.{Logging, SparkConf, SparkEnv, SparkFiles}
 
@@ -76,6 +78,12 @@ class SnappyExecutor(
     Thread.setDefaultUncaughtExceptionHandler(exceptionHandler)
   }
 
+  // load the generated code stored before a restart of the node, if enabled
+  PersistentCodeCache.start(env.conf)
+
+  // compact the column batches having many deletes or updates in the background
+  ColumnBatchCompactor.start(env.conf)
+
   private val classLoaderCache = {
     val loader = new CacheLoader[ClassLoaderKey, ClassLoader]() {
       override def load(key: ClassLoaderKey): ClassLoader = {
@@ -231,6 +239,15 @@ class SnappyExecutor(
     SystemFailure.setSkipOOMEForThread(init)
   }
 
+  override def stop(): Unit = {
+    // store the generated code compiled since the last periodic save
+    try {
+      PersistentCodeCache.stop()
+    } finally {
+      super.stop()
+    }
+  }
+
   def updateMainLoader(jars: Array[String]): Unit = {
     synchronized {
       lazy val hadoopConf = SparkHadoopUtil.get.newConfiguration(conf)
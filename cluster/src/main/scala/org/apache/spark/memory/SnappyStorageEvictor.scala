@@ -30,7 +30,7 @@ import com.gemstone.gemfire.internal.i18n.LocalizedStrings
 import com.pivotal.gemfirexd.internal.engine.Misc
 
 import org.apache.spark.Logging
-import org.apache.spark.sql.execution.columnar.impl.ColumnFormatRelation
+import org.apache.spark.sql.execution.columnar.impl.{AccessHeat, ColumnFormatRelation}
 
 
 class SnappyStorageEvictor extends Logging {
@@ -76,41 +76,16 @@ class SnappyStorageEvictor extends Logging {
     val stats = cache.getCachePerfStats
     stats.incEvictorJobsStarted()
     var totalBytesEvicted: Long = 0
-    val regionSet = Random.shuffle(getAllRegionList(offHeap, hasOffHeap))
     val start = CachePerfStats.getStatTime
     try {
-      while (regionSet.nonEmpty) {
-        for (i <- (regionSet.length - 1) to 0 by -1) {
-          val region = regionSet(i)
-          try {
-            val bytesEvicted = region.entries.asInstanceOf[AbstractLRURegionMap]
-                .centralizedLruUpdateCallback(offHeap, true)
-            if (bytesEvicted == 0) {
-              regionSet.remove(i)
-            } else {
-              // for off-heap don't change on-heap pool sizes assuming
-              // the on-heap eviction to be small (actual accounting of
-              //   the reduction of on-heap data would already have been
-              //   taken care of in the centralizedLruUpdateCallback)
-              if (offHeap) {
-                // off-heap is returned in MSB
-                totalBytesEvicted += (bytesEvicted >>> 32L) & 0xffffffffL
-              } else {
-                totalBytesEvicted += bytesEvicted
-              }
-              if (totalBytesEvicted >= bytesRequired) {
-                return totalBytesEvicted
-              }
-            }
-          } catch {
-            case rd: RegionDestroyedException =>
-              cache.getCancelCriterion.checkCancelInProgress(rd)
-            case e: Exception =>
-              cache.getCancelCriterion.checkCancelInProgress(e)
-              cache.getLoggerI18n.warning(LocalizedStrings.Eviction_EVICTOR_TASK_EXCEPTION,
-                Array[AnyRef](e.getMessage), e)
-          }
-        }
+      // evict from the coldest regions first sparing the hot column batches, and
+      // if that is not enough, then evict again without sparing those
+      val regions = getRegionsByHeat(offHeap, hasOffHeap)
+      totalBytesEvicted = evictRegions(cache, regions, offHeap, bytesRequired, 0L,
+        spareHotBatches = true)
+      if (totalBytesEvicted < bytesRequired) {
+        totalBytesEvicted = evictRegions(cache, regions, offHeap, bytesRequired,
+          totalBytesEvicted, spareHotBatches = false)
       }
     } finally {
       if (start != 0L) {
@@ -122,6 +97,79 @@ class SnappyStorageEvictor extends Logging {
     totalBytesEvicted
   }
 
+  /**
+   * All the regions to be evicted in the order of their increasing heat (as tracked by
+   * [[AccessHeat]]) with the regions having the same heat in random order. The regions
+   * whose accesses are not tracked (e.g. of row tables) are given the average heat of
+   * the tracked regions so that they are neither evicted first nor last.
+   */
+  private def getRegionsByHeat(offHeap: Boolean,
+      hasOffHeap: Boolean): IndexedSeq[LocalRegion] = {
+    val now = System.currentTimeMillis()
+    val heats = Random.shuffle(getAllRegionList(offHeap, hasOffHeap))
+        .map(r => r -> AccessHeat.regionHeat(r, now))
+    val tracked = heats.flatMap(_._2)
+    val neutralHeat = if (tracked.isEmpty) 0.0 else tracked.sum / tracked.length
+    heats.map(p => p._1 -> p._2.getOrElse(neutralHeat)).sortBy(_._2).map(_._1)
+  }
+
+  /**
+   * Evict the regions in given order, each one till nothing more can be evicted from it,
+   * till total bytes evicted reach the required bytes. Returns the total bytes evicted.
+   */
+  private def evictRegions(cache: GemFireCacheImpl, regions: IndexedSeq[LocalRegion],
+      offHeap: Boolean, bytesRequired: Long, bytesEvicted: Long,
+      spareHotBatches: Boolean): Long = {
+    var totalBytesEvicted = bytesEvicted
+    for (region <- regions) {
+      try {
+        totalBytesEvicted = if (spareHotBatches) {
+          AccessHeat.withHotBatchesSpared(AccessHeat.tableId(region))(
+            evictRegion(region, offHeap, bytesRequired, totalBytesEvicted))
+        } else evictRegion(region, offHeap, bytesRequired, totalBytesEvicted)
+        if (totalBytesEvicted >= bytesRequired) {
+          return totalBytesEvicted
+        }
+      } catch {
+        case rd: RegionDestroyedException =>
+          cache.getCancelCriterion.checkCancelInProgress(rd)
+        case e: Exception =>
+          cache.getCancelCriterion.checkCancelInProgress(e)
+          cache.getLoggerI18n.warning(LocalizedStrings.Eviction_EVICTOR_TASK_EXCEPTION,
+            Array[AnyRef](e.getMessage), e)
+      }
+    }
+    totalBytesEvicted
+  }
+
+  /**
+   * Evict given region till nothing more can be evicted from it or the total bytes
+   * evicted reach the required bytes. Returns the total bytes evicted.
+   */
+  private def evictRegion(region: LocalRegion, offHeap: Boolean, bytesRequired: Long,
+      bytesEvicted: Long): Long = {
+    var totalBytesEvicted = bytesEvicted
+    var regionBytesEvicted = 1L
+    while (regionBytesEvicted != 0) {
+      regionBytesEvicted = region.entries.asInstanceOf[AbstractLRURegionMap]
+          .centralizedLruUpdateCallback(offHeap, true)
+      // for off-heap don't change on-heap pool sizes assuming
+      // the on-heap eviction to be small (actual accounting of
+      //   the reduction of on-heap data would already have been
+      //   taken care of in the centralizedLruUpdateCallback)
+      if (offHeap) {
+        // off-heap is returned in MSB
+        totalBytesEvicted += (regionBytesEvicted >>> 32L) & 0xffffffffL
+      } else {
+        totalBytesEvicted += regionBytesEvicted
+      }
+      if (totalBytesEvicted >= bytesRequired) {
+        return totalBytesEvicted
+      }
+    }
+    totalBytesEvicted
+  }
+
   protected def includePartitionedRegion(region: PartitionedRegion,
       offHeap: Boolean, hasOffHeap: Boolean): Boolean = {
     val hasLRU = (region.getEvictionAttributes.getAlgorithm.isLRUHeap
@@ -24,8 +24,10 @@ import scala.collection.JavaConverters._
 
 import com.pivotal.gemfirexd.TestUtil
 import com.pivotal.gemfirexd.internal.shared.common.reference.Limits
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap
 import org.junit.Assert._
 
+import org.apache.spark.sql.execution.WholeStageCodegenExec
 import org.apache.spark.sql.execution.benchmark.ColumnCacheBenchmark
 import org.apache.spark.sql.execution.exchange.{BroadcastExchangeExec, ShuffleExchange}
 import org.apache.spark.sql.internal.SQLConf
@@ -316,6 +318,64 @@ class QueryTest extends SnappyFunSuite {
     }
   }
 
+  test("multiple column dictionary optimized group by and joins") {
+    val snc = this.snc
+    val t1 = "multiDict"
+    val t2 = "multiDict_2"
+
+    snc.sql(s"create table $t1 (id int, country string, city string, device string) " +
+      s"using column options (COLUMN_BATCH_SIZE '50')")
+    snc.sql(s"create table $t2 (id int, country string, city string, device string) " +
+      s"using column options (COLUMN_BATCH_SIZE '5000')")
+
+    val data = snc.range(10000).selectExpr("cast(id as int) as id",
+      "concat('country_', cast((id % 3) as string)) as country",
+      "(case when id%2=0 then null else concat('city_', cast((id%10) as string)) end) as city",
+      "concat('device_', cast((id % 7) as string)) as device")
+    data.cache()
+    data.count()
+    data.createOrReplaceTempView("multiDictData")
+    data.write.insertInto(t1)
+    data.write.insertInto(t2)
+
+    val queries = Array(
+      "select count(*), country, city from $t group by country, city",
+      "select count(*), country, city, device from $t group by country, city, device",
+      "select count(*), city, country, city from $t where device like 'device_1%' " +
+        "group by city, country, city",
+      "select sum(id), country, device from $t group by country, device",
+      "select count(*) from $t a join multiDictData b on (a.country = b.country and " +
+        "a.device = b.device) where a.id < 100 and b.id < 100",
+      "select a.id, b.id from $t a join multiDictData b on (a.country = b.country and " +
+        "a.city = b.city and a.device = b.device) where b.id < 50"
+    )
+
+    try {
+      snc.sql("set snappydata.sql.hashAggregateSize=-1")
+      val expectedResults = queries.map(q => snc.sql(q.replace("$t", "multiDictData")).collect())
+
+      snc.sql("set snappydata.sql.hashAggregateSize=0")
+      // the default ByteBuffer map based aggregation should use the combined
+      // dictionary indexes of the grouping columns to lookup the value offsets
+      val groupBy = snc.sql(queries(1).replace("$t", t1))
+      val generatedCode = groupBy.queryExecution.executedPlan.collect {
+        case w: WholeStageCodegenExec => w.doCodeGen()._2.body
+      }.mkString("\n")
+      assert(generatedCode.contains(classOf[Long2LongOpenHashMap].getName), generatedCode)
+
+      // check with both ByteBuffer and ObjectHashMapAccessor based aggregation
+      for (optimized <- Seq(true, false)) {
+        snc.sql(s"set ${Property.UseOptimzedHashAggregate.name}=$optimized")
+        for ((q, e) <- queries.zip(expectedResults)) {
+          checkAnswer(snc.sql(q.replace("$t", t1)), e)
+          checkAnswer(snc.sql(q.replace("$t", t2)), e)
+        }
+      }
+    } finally {
+      snc.sql(s"set ${Property.UseOptimzedHashAggregate.name}=true")
+    }
+  }
+
   test("SNAP-2080 alter table add column and then index on that") {
     val snc = this.snc
     snc.sql(s"CREATE TABLE APP.TEST ( COL1 VARCHAR(36) NOT NULL ) using row options()")
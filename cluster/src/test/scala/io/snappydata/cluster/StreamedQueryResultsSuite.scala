@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package io.snappydata.cluster
+
+import java.sql.{Connection, DriverManager, SQLException}
+
+import scala.collection.mutable.ArrayBuffer
+
+import com.pivotal.gemfirexd.TestUtil
+import com.pivotal.gemfirexd.internal.engine.distributed.utils.GemFireXDUtils
+import io.snappydata.{Property, SnappyFunSuite}
+import org.scalatest.BeforeAndAfterAll
+
+/**
+ * Compare the results of queries streamed from lead to the JDBC client as soon as
+ * each partition finishes against those sent after the whole query completes.
+ */
+class StreamedQueryResultsSuite extends SnappyFunSuite with BeforeAndAfterAll {
+
+  private val defaultChunkSize = GemFireXDUtils.DML_MAX_CHUNK_SIZE
+  private var serverHostPort = ""
+  private val numRows = 50000
+
+  override def beforeAll(): Unit = {
+    super.beforeAll()
+    // reduce DML chunk size to force lead node to send results in many chunks
+    GemFireXDUtils.DML_MAX_CHUNK_SIZE = 2000L
+    serverHostPort = TestUtil.startNetServer()
+    snc.sql("create table streamResults (id long, data string) using column " +
+        "options (partition_by 'id', buckets '16') as " +
+        s"select id, 'someTestData_' || id from range($numRows)")
+  }
+
+  override def afterAll(): Unit = {
+    snc.sql("drop table if exists streamResults")
+    GemFireXDUtils.DML_MAX_CHUNK_SIZE = defaultChunkSize
+    TestUtil.stopNetServer()
+    super.afterAll()
+  }
+
+  private def getConnection(streamResults: Boolean): Connection = {
+    val conn = DriverManager.getConnection(s"jdbc:snappydata://$serverHostPort")
+    val stmt = conn.createStatement()
+    stmt.execute(s"set ${Property.StreamQueryResults.name}=$streamResults")
+    stmt.close()
+    conn
+  }
+
+  private def query(sql: String, streamResults: Boolean): Seq[(Long, String)] = {
+    val conn = getConnection(streamResults)
+    try {
+      val rs = conn.createStatement().executeQuery(sql)
+      val rows = new ArrayBuffer[(Long, String)]
+      while (rs.next()) {
+        rows += rs.getLong(1) -> rs.getString(2)
+      }
+      rs.close()
+      rows
+    } finally {
+      conn.close()
+    }
+  }
+
+  test("multi-partition results larger than the chunk size") {
+    val sql = "select id, data from streamResults"
+    val streamed = query(sql, streamResults = true)
+    val buffered = query(sql, streamResults = false)
+    assert(streamed.length === numRows)
+    assert(buffered.length === numRows)
+    assert(streamed.sorted === buffered.sorted)
+    assert(streamed.sorted === (0L until numRows).map(id => id -> s"someTestData_$id"))
+  }
+
+  test("results of ordered plans are not streamed out of order") {
+    for (order <- Seq("id", "id desc", "data")) {
+      val sql = s"select id, data from streamResults order by $order"
+      val streamed = query(sql, streamResults = true)
+      val buffered = query(sql, streamResults = false)
+      assert(streamed.length === numRows)
+      assert(streamed === buffered)
+      val expected = snc.sql(sql).collect().map(r => r.getLong(0) -> r.getString(1)).toSeq
+      assert(streamed === expected)
+    }
+  }
+
+  test("task failure in the middle of streamed results") {
+    // fails the task of only the partition having the last row
+    val sql = "select id, data from streamResults " +
+        s"where assert_true(id <> ${numRows - 1}) is null"
+    for (streamResults <- Seq(true, false)) {
+      val e = intercept[SQLException](query(sql, streamResults))
+      val messages = Iterator.iterate[Throwable](e)(_.getCause).takeWhile(_ ne null)
+          .map(t => String.valueOf(t.getMessage))
+      assert(messages.exists(_.contains("is not true")), s"Unexpected exception: $e")
+    }
+    // subsequent queries should be unaffected by the failure
+    val sql2 = "select id, data from streamResults"
+    val streamed = query(sql2, streamResults = true)
+    assert(streamed.length === numRows)
+    assert(streamed.sorted === query(sql2, streamResults = false).sorted)
+  }
+}
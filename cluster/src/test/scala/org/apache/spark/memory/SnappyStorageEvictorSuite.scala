@@ -20,6 +20,7 @@ import com.gemstone.gemfire.internal.cache.LocalRegion
 import com.pivotal.gemfirexd.TestUtil
 
 import org.apache.spark.SparkEnv
+import org.apache.spark.sql.execution.columnar.impl.{AccessHeat, ColumnDelta, ColumnFormatEntry, ColumnFormatKey}
 import org.apache.spark.sql.types.{IntegerType, StructField, StructType}
 import org.apache.spark.sql.{Row, SnappySession}
 import org.apache.spark.storage.TestBlockId
@@ -66,6 +67,41 @@ class SnappyStorageEvictorSuite extends MemoryFunSuite {
   }
 
 
+  test("Test access heat of column batches and columns") {
+    val heat = new AccessHeat
+    assert(heat.value(1000L) == 0.0)
+    heat.recordAccess(1000L)
+    heat.recordAccess(1000L)
+    assert(heat.value(1000L) == 2.0)
+    assert(heat.value(1000L + AccessHeat.HALF_LIFE_MILLIS) == 1.0)
+
+    // a batch scanned once is not hot while the one scanned again is hot
+    // only when the hot batches are being spared
+    val deleteKey = ColumnFormatEntry.DELETE_MASK_COL_INDEX
+    AccessHeat.recordBatchAccess(1, 0, 1L, System.currentTimeMillis())
+    val batchHeat = AccessHeat.recordBatchAccess(1, 0, 2L, System.currentTimeMillis())
+    AccessHeat.recordBatchAccess(1, 0, 2L, System.currentTimeMillis())
+    // only the first column of the hot batch is read repeatedly
+    batchHeat.recordColumnAccess(1, System.currentTimeMillis())
+    batchHeat.recordColumnAccess(1, System.currentTimeMillis())
+    batchHeat.recordColumnAccess(2, System.currentTimeMillis())
+    assert(!AccessHeat.isHot(new ColumnFormatKey(2L, 0, deleteKey)))
+    AccessHeat.withHotBatchesSpared(1) {
+      assert(!AccessHeat.isHot(new ColumnFormatKey(1L, 0, deleteKey)))
+      assert(AccessHeat.isHot(new ColumnFormatKey(2L, 0, deleteKey)))
+      assert(AccessHeat.isHot(new ColumnFormatKey(2L, 0, 1)))
+      assert(AccessHeat.isHot(new ColumnFormatKey(2L, 0, ColumnDelta.deltaColumnIndex(1, 0))))
+      assert(!AccessHeat.isHot(new ColumnFormatKey(2L, 0, 2)))
+      assert(!AccessHeat.isHot(new ColumnFormatKey(2L, 0, 3)))
+    }
+    // same batch id in the same bucket of another table is not hot
+    AccessHeat.withHotBatchesSpared(2) {
+      assert(!AccessHeat.isHot(new ColumnFormatKey(2L, 0, deleteKey)))
+      assert(!AccessHeat.isHot(new ColumnFormatKey(2L, 0, 1)))
+    }
+    assert(!AccessHeat.isHot(new ColumnFormatKey(2L, 0, 1)))
+  }
+
   test("Test storage when storage can borrow from execution memory") {
     val sparkSession = createSparkSession(1, 0)
     val snSession = new SnappySession(sparkSession.sparkContext)
@@ -21,7 +21,7 @@ import java.sql.DriverManager
 import scala.util.Random
 
 import com.pivotal.gemfirexd.TestUtil
-import io.snappydata.SnappyFunSuite
+import io.snappydata.{Property, SnappyFunSuite}
 import io.snappydata.core.Data
 import org.scalatest.{BeforeAndAfter, BeforeAndAfterAll}
 
@@ -514,6 +514,115 @@ class SnappyTableMutableAPISuite extends SnappyFunSuite with Logging with Before
     assert(resultdf.filter(r => r.equals(Row(3, null, 3))).size == 2)
   }
 
+  test("PutInto with key range filter") {
+    val snc = new SnappySession(sc)
+    snc.sql("create table col_table(col1 INT, col2 STRING, col3 INT)" +
+        " using column options(BUCKETS '4', PARTITION_BY 'col1', key_columns 'col1') ")
+    snc.sql("create table row_table(col1 INT, col2 STRING, col3 INT)")
+
+    snc.range(100).selectExpr("cast(id as int)", "cast(id as string)", "cast(id as int)")
+        .write.insertInto("col_table")
+    snc.range(90, 110).selectExpr("cast(id as int)", "'new'", "cast(id as int)")
+        .write.insertInto("row_table")
+
+    // bounds of small data are not aggregated so also check with broadcast disabled
+    for (useFilter <- Seq(true, false); broadcastSize <- Seq("-1", "10485760")) {
+      snc.sql(s"set ${Property.PutIntoKeyRangeFilter.name}=$useFilter")
+      snc.sql(s"set spark.sql.autoBroadcastJoinThreshold=$broadcastSize")
+      snc.sql("put into table col_table select * from row_table")
+      val result = snc.table("col_table").collect()
+      assert(result.length === 110)
+      assert(result.count(_.getString(1) == "new") === 20)
+      assert(result.filter(_.getInt(0) < 90).forall(r => r.getString(1) == r.getInt(0).toString))
+    }
+    snc.conf.unset("spark.sql.autoBroadcastJoinThreshold")
+    // nothing to update for no non-null keys
+    snc.sql(s"set ${Property.PutIntoKeyRangeFilter.name}=true")
+    snc.sql("put into table col_table select cast(null as int), 'none', 0")
+    assert(snc.table("col_table").count() === 111)
+    // bounds of local data are found on the driver
+    snc.sql("put into table col_table values (5, 'five', 5), (200, 'two hundred', 200)")
+    var result = snc.table("col_table").collect()
+    assert(result.length === 112)
+    assert(result.count(r => r.getString(1) == "five" || r.getString(1) == "two hundred") === 2)
+    // non-deterministic data is not filtered and still updates all the matching keys
+    snc.sql("put into table col_table select col1, " +
+        "case when rand() < 2.0 then 'random' end, col3 from row_table")
+    result = snc.table("col_table").collect()
+    assert(result.length === 112)
+    assert(result.count(_.getString(1) == "random") === 20)
+    snc.conf.unset(Property.PutIntoKeyRangeFilter.name)
+  }
+
+  test("Point lookups and PutInto with key index") {
+    val snc = new SnappySession(sc)
+    intercept[AnalysisException](snc.sql("create table col_table(col1 INT, col2 STRING) " +
+        "using column options(key_index 'true')"))
+    intercept[AnalysisException](snc.sql("create table col_table(col1 INT, col2 DOUBLE) " +
+        "using column options(key_columns 'col2', key_index 'true')"))
+    snc.dropTable("col_table", ifExists = true)
+    snc.sql("create table col_table(col1 INT, col2 STRING, col3 INT) using column " +
+        "options(BUCKETS '4', PARTITION_BY 'col1', key_columns 'col2', key_index 'true')")
+
+    snc.range(1000).selectExpr("cast(id as int)", "cast(id as string)", "cast(id as int)")
+        .write.insertInto("col_table")
+    for (i <- Seq(0, 1, 499, 999)) {
+      assert(snc.sql(s"select col1, col3 from col_table where col2 = '$i'").collect() ===
+          Array(Row(i, i)))
+    }
+    assert(snc.sql("select * from col_table where col2 = '1000'").collect().isEmpty)
+
+    // updates of the key column and puts of single keys
+    snc.sql("update col_table set col2 = 'updated' where col2 = '10'")
+    assert(snc.sql("select col1 from col_table where col2 = 'updated'").collect() ===
+        Array(Row(10)))
+    assert(snc.sql("select * from col_table where col2 = '10'").collect().isEmpty)
+    snc.sql("put into table col_table select 20, '20', -20")
+    snc.sql("put into table col_table select 1000, '1000', -1000")
+    assert(snc.sql("select col3 from col_table where col2 = '20'").collect() === Array(Row(-20)))
+    assert(snc.sql("select col3 from col_table where col2 = '1000'").collect() ===
+        Array(Row(-1000)))
+    assert(snc.table("col_table").count() === 1001)
+    // lookups and puts of multiple keys
+    assert(snc.sql("select col1 from col_table where col2 in ('3', '30', '3000')")
+        .collect().map(_.getInt(0)).sorted === Array(3, 30))
+    snc.sql("put into table col_table values (30, '30', -30), (300, '300', -300), " +
+        "(2000, '2000', -2000)")
+    assert(snc.sql("select col2, col3 from col_table where col2 in ('30', '300', '2000')")
+        .collect().sortBy(_.getInt(1)) === Array(Row("2000", -2000), Row("300", -300),
+      Row("30", -30)))
+    assert(snc.table("col_table").count() === 1002)
+
+    // changes to the batches after the index has been built
+    snc.dropTable("col_table")
+    snc.sql("create table col_table(col1 INT, col2 STRING, col3 INT) using column " +
+        "options(BUCKETS '4', PARTITION_BY 'col1', key_columns 'col2', key_index 'true', " +
+        "column_max_delta_rows '50')")
+    snc.range(2000).selectExpr("cast(id as int)", "cast(id as string)", "cast(id as int)")
+        .write.insertInto("col_table")
+    def lookup(key: String): Array[Row] =
+      snc.sql(s"select col1, col3 from col_table where col2 = '$key'").collect()
+    // repeated lookups with no changes in between
+    for (_ <- 1 to 3; i <- Seq(5, 1500)) assert(lookup(i.toString) === Array(Row(i, i)))
+    assert(lookup("2500").isEmpty)
+    // new batches
+    snc.range(2000, 3000).selectExpr("cast(id as int)", "cast(id as string)",
+      "cast(id as int)").write.insertInto("col_table")
+    assert(lookup("2500") === Array(Row(2500, 2500)))
+    assert(lookup("5") === Array(Row(5, 5)))
+    // update of key column in a batch already indexed
+    snc.sql("update col_table set col2 = '1500' where col2 = '5'")
+    assert(lookup("1500").sortBy(_.getInt(0)) === Array(Row(5, 5), Row(1500, 1500)))
+    assert(lookup("5").isEmpty)
+    // update of non-key column and deletes
+    snc.sql("update col_table set col3 = -col3 where col1 < 1000")
+    assert(lookup("999") === Array(Row(999, -999)))
+    snc.sql("delete from col_table where col1 >= 100 and col1 < 2000")
+    assert(lookup("1500") === Array(Row(5, -5)))
+    assert(lookup("2500") === Array(Row(2500, 2500)))
+    assert(snc.table("col_table").count() === 1100)
+  }
+
   test("PutInto op changed row count validation") {
     val snc = new SnappySession(sc)
     snc.sql("create table col_table(col1 INT, col2 STRING, col3 INT)" +
@@ -20,10 +20,11 @@ import java.sql.SQLException
 
 import com.pivotal.gemfirexd.Attribute
 import com.pivotal.gemfirexd.internal.iapi.error.StandardException
+import io.snappydata.Property
 import org.junit.Assert.assertEquals
 
 import org.apache.spark.SparkConf
-import org.apache.spark.sql.SnappyContext
+import org.apache.spark.sql.{SnappyContext, SnappySession}
 
 class SecurityEnabledPolicyTest extends PolicyTestBase {
 
@@ -146,6 +147,38 @@ class SecurityEnabledPolicyTest extends PolicyTestBase {
     assertEquals(numElements, rs.collect().length)
   }
 
+  test("cached plans on tables with row level security not shared across users") {
+    ownerContext.sql(s"create policy cachedPlanPolicy on $rowTableName " +
+        s"for select to $user2 using id < 10")
+    ownerContext.sql(s"alter table $rowTableName enable row level security")
+    ownerContext.sql(s"GRANT select ON TABLE $rowTableName TO $user2, gemfire7")
+
+    def newUserSession(user: String): SnappySession = {
+      val session = snc.snappySession.newSession()
+      session.conf.set(Attribute.USERNAME_ATTR, user)
+      session.conf.set(Attribute.PASSWORD_ATTR, user)
+      Property.PlanCaching.set(session.sessionState.conf, true)
+      Property.SharedPlanCaching.set(session.sessionState.conf, true)
+      session
+    }
+
+    val session2 = newUserSession(user2)
+    val session7 = newUserSession("gemfire7")
+    val query = s"select * from $rowTableName where id >= 0"
+    try {
+      val sharedHits = SnappySession.getPlanCacheStats.sharedHits
+      for (_ <- 1 to 3) {
+        assertEquals(10, session2.sql(query).collect().length)
+        assertEquals(numElements, session7.sql(query).collect().length)
+      }
+      // the policy filter resolved for one user is never used for the other
+      assertEquals(sharedHits, SnappySession.getPlanCacheStats.sharedHits)
+    } finally {
+      ownerContext.sql(s"alter table $rowTableName disable row level security")
+      ownerContext.sql(s"drop policy $tableOwner.cachedPlanPolicy")
+    }
+  }
+
   test("test sql function CURRENT_USER_LDAP_GROUPS()") {
     val snc3 = snc.newSession()
     snc3.snappySession.conf.set(Attribute.USERNAME_ATTR, "gemfire3")
@@ -16,9 +16,14 @@
  */
 package org.apache.spark.sql.store
 
+import java.nio.{ByteBuffer, ByteOrder}
+
+import com.gemstone.gemfire.internal.shared.{BufferAllocator, HeapBufferAllocator}
 import io.snappydata.Property
 
 import org.apache.spark.sql.SnappySession
+import org.apache.spark.sql.execution.columnar.encoding.{BigDictionaryDecoder, BooleanBitSetDecoder, ColumnDecoder, ColumnEncoder, ColumnEncoding, DeltaValueDecoder, DictionaryDecoder, FrameOfReferenceDecoder, FrameOfReferenceDecoderNullable, RunLengthDecoder, UncompressedDecoder, UncompressedDecoderNullable, UncompressedEncoderNullable}
+import org.apache.spark.sql.types.{BooleanType, DataType, IntegerType, LongType, StructField, TimestampType}
 
 /**
  * Tests for ColumnEncoder and ColumnDecoder implementations.
@@ -30,4 +35,206 @@ class ColumnEncodersTest extends ColumnTablesTestBase {
     session.conf.set(Property.ColumnBatchSize.name, "8k")
     runAllTypesTest(session, numRowsLower = 10000, numRowsUpper = 20000, numIterations = 5)
   }
+
+  test("frame-of-reference encoding") {
+    val numValues = 10000
+    // narrow range of longs should get bit-packed
+    val longField = StructField("id", LongType, nullable = false)
+    val longEncoder = ColumnEncoding.getColumnEncoder(longField)
+    var cursor = longEncoder.initialize(longField, numValues, withHeader = true)
+    for (i <- 0 until numValues) {
+      cursor = longEncoder.writeLong(cursor, 1000000000000L + (i * 7) % 1001)
+    }
+    var buffer = longEncoder.finish(cursor)
+    var decoder = ColumnEncoding.getColumnDecoder(buffer, longField)
+    assert(decoder.isInstanceOf[FrameOfReferenceDecoder])
+    var columnBytes = ColumnEncoding.getAllocator(buffer).baseObject(buffer)
+    for (i <- 0 until numValues) {
+      assert(decoder.readLong(columnBytes, i) === 1000000000000L + (i * 7) % 1001)
+    }
+    decoder.close()
+    BufferAllocator.releaseBuffer(buffer)
+
+    // nullable integers with nulls and negative values
+    val intField = StructField("value", IntegerType, nullable = true)
+    val intEncoder = ColumnEncoding.getColumnEncoder(intField)
+    cursor = intEncoder.initialize(intField, numValues, withHeader = true)
+    for (i <- 0 until numValues) {
+      if (i % 10 == 0) intEncoder.writeIsNull(i)
+      else cursor = intEncoder.writeInt(cursor, (i % 100) - 50)
+    }
+    buffer = intEncoder.finish(cursor)
+    decoder = ColumnEncoding.getColumnDecoder(buffer, intField)
+    assert(decoder.isInstanceOf[FrameOfReferenceDecoderNullable])
+    columnBytes = ColumnEncoding.getAllocator(buffer).baseObject(buffer)
+    var nonNullPosition = 0
+    for (i <- 0 until numValues) {
+      assert(decoder.isNullAt(columnBytes, i) === (i % 10 == 0))
+      if (i % 10 != 0) {
+        assert(decoder.readInt(columnBytes, nonNullPosition) === (i % 100) - 50)
+        nonNullPosition += 1
+      }
+    }
+    decoder.close()
+    BufferAllocator.releaseBuffer(buffer)
+
+    // full range should fall back to uncompressed
+    cursor = longEncoder.initialize(longField, numValues, withHeader = true)
+    for (i <- 0 until numValues) {
+      cursor = longEncoder.writeLong(cursor,
+        if (i % 2 == 0) Long.MinValue + i else Long.MaxValue - i)
+    }
+    buffer = longEncoder.finish(cursor)
+    decoder = ColumnEncoding.getColumnDecoder(buffer, longField)
+    assert(decoder.isInstanceOf[UncompressedDecoder])
+    columnBytes = ColumnEncoding.getAllocator(buffer).baseObject(buffer)
+    for (i <- 0 until numValues) {
+      assert(decoder.readLong(columnBytes, i) ===
+          (if (i % 2 == 0) Long.MinValue + i else Long.MaxValue - i))
+    }
+    decoder.close()
+    BufferAllocator.releaseBuffer(buffer)
+
+    longEncoder.close()
+    intEncoder.close()
+  }
+
+  private def checkLongEncoding(dataType: DataType, numValues: Int, value: Int => Long,
+      checkDecoder: ColumnDecoder => Boolean): Unit = {
+    val field = StructField("col", dataType, nullable = false)
+    val encoder: ColumnEncoder = ColumnEncoding.getColumnEncoder(field)
+    var cursor = encoder.initialize(field, numValues, withHeader = true)
+    for (i <- 0 until numValues) {
+      cursor = encoder.writeLong(cursor, value(i))
+    }
+    val buffer = encoder.finish(cursor)
+    val decoder = ColumnEncoding.getColumnDecoder(buffer, field)
+    assert(checkDecoder(decoder), s"unexpected decoder $decoder")
+    val columnBytes = ColumnEncoding.getAllocator(buffer).baseObject(buffer)
+    for (i <- 0 until numValues) {
+      assert(decoder.readLong(columnBytes, i) === value(i))
+    }
+    // random access should also work for all encodings
+    assert(decoder.readLong(columnBytes, numValues >> 1) === value(numValues >> 1))
+    assert(decoder.readLong(columnBytes, numValues - 1) === value(numValues - 1))
+    decoder.close()
+    // bulk reads in chunks that do not align with runs or words
+    val bulkDecoder = ColumnEncoding.getColumnDecoder(buffer, field)
+    val values = new Array[Long](777)
+    for (from <- 0 until numValues by values.length) {
+      val count = math.min(values.length, numValues - from)
+      bulkDecoder.readLongs(columnBytes, from, count, values)
+      for (i <- 0 until count) assert(values(i) === value(from + i))
+    }
+    bulkDecoder.close()
+    encoder.close()
+    BufferAllocator.releaseBuffer(buffer)
+  }
+
+  test("adaptive encoding selection") {
+    val numValues = 20000
+    // sorted timestamps with small jitter in intervals should use delta values
+    checkLongEncoding(TimestampType, numValues, i => 1500000000000000L + i * 1000000L + i % 3,
+      _.isInstanceOf[DeltaValueDecoder])
+    // long runs should use run-length
+    checkLongEncoding(LongType, numValues, i => (i / 1000) * 1000000007L,
+      _.isInstanceOf[RunLengthDecoder])
+    // few distinct values in a wide range without runs should use dictionary
+    checkLongEncoding(LongType, numValues, i => (i % 17) * 100000000000L,
+      _.isInstanceOf[DictionaryDecoder])
+    // large number of distinct values in a wide range should use big dictionary
+    checkLongEncoding(LongType, 200000, i => (i % 40000) * 100000000000L,
+      _.isInstanceOf[BigDictionaryDecoder])
+    // random values should be uncompressed
+    val rnd = new java.util.Random(numValues)
+    val randomValues = Array.fill(numValues)(rnd.nextLong())
+    checkLongEncoding(LongType, numValues, randomValues(_), _.isInstanceOf[UncompressedDecoder])
+  }
+
+  test("bulk decode of values and nulls") {
+    val numValues = 10000
+    val rnd = new java.util.Random(numValues)
+    val intField = StructField("value", IntegerType, nullable = true)
+    val intEncoder = new UncompressedEncoderNullable
+    var cursor = intEncoder.initialize(intField, numValues, withHeader = true)
+    val intValues = Array.fill(numValues)(rnd.nextInt())
+    for (i <- 0 until numValues) {
+      if (i % 7 == 0) intEncoder.writeIsNull(i)
+      else cursor = intEncoder.writeInt(cursor, intValues(i))
+    }
+    var buffer = intEncoder.finish(cursor)
+    var decoder = ColumnEncoding.getColumnDecoder(buffer, intField)
+    assert(decoder.isInstanceOf[UncompressedDecoderNullable])
+    var columnBytes = ColumnEncoding.getAllocator(buffer).baseObject(buffer)
+    val nulls = new Array[Boolean](333)
+    val ints = new Array[Int](333)
+    var nonNullPosition = 0
+    for (from <- 0 until numValues by nulls.length) {
+      val count = math.min(nulls.length, numValues - from)
+      val numNulls = decoder.readNulls(columnBytes, from, count, nulls)
+      assert(numNulls === (from until from + count).count(_ % 7 == 0))
+      decoder.readInts(columnBytes, nonNullPosition, count - numNulls, ints)
+      var index = 0
+      for (i <- 0 until count) {
+        assert(nulls(i) === ((from + i) % 7 == 0))
+        if (!nulls(i)) {
+          assert(ints(index) === intValues(from + i))
+          index += 1
+        }
+      }
+      nonNullPosition += index
+    }
+    decoder.close()
+    intEncoder.close()
+    BufferAllocator.releaseBuffer(buffer)
+
+    val boolField = StructField("flag", BooleanType, nullable = false)
+    val boolEncoder = ColumnEncoding.getColumnEncoder(boolField)
+    cursor = boolEncoder.initialize(boolField, numValues, withHeader = true)
+    val boolValues = Array.fill(numValues)(rnd.nextBoolean())
+    for (i <- 0 until numValues) {
+      cursor = boolEncoder.writeBoolean(cursor, boolValues(i))
+    }
+    buffer = boolEncoder.finish(cursor)
+    decoder = ColumnEncoding.getColumnDecoder(buffer, boolField)
+    assert(decoder.isInstanceOf[BooleanBitSetDecoder])
+    columnBytes = ColumnEncoding.getAllocator(buffer).baseObject(buffer)
+    val booleans = new Array[Boolean](100)
+    for (from <- 0 until numValues by booleans.length) {
+      decoder.readBooleans(columnBytes, from, booleans.length, booleans)
+      for (i <- booleans.indices) assert(booleans(i) === boolValues(from + i))
+    }
+    assert(decoder.readNulls(columnBytes, 0, nulls.length, nulls) === 0)
+    assert(!nulls.exists(b => b))
+    decoder.close()
+    boolEncoder.close()
+    BufferAllocator.releaseBuffer(buffer)
+  }
+
+  test("compression codecs and levels") {
+    val allocator = HeapBufferAllocator.instance()
+    val len = 64 * 1024
+    val input = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN)
+    for (i <- 0 until (len >> 3)) input.putLong((i % 100) * 31L)
+    input.flip()
+    for (name <- Seq("lz4", "snappy", "lz4hc", "lz4hc:12", "zstd", "zstd:19")) {
+      val codecId = CompressionCodecId.fromName(name).id
+      val level = CompressionCodecId.levelFromName(name)
+      val result = CompressionUtils.acquireBufferForCompress(codecId, input, len,
+        allocator, level)
+      val compressed = CompressionUtils.codecCompress(codecId, input, len, result,
+        allocator, level)
+      assert(compressed ne input, s"no compression for $name")
+      // LZ4-HC should be readable as plain LZ4 by older releases
+      assert(-compressed.getInt(0) === CompressionCodecId.headerId(codecId))
+      val decompressed = CompressionUtils.codecDecompressIfRequired(compressed, allocator)
+      assert(decompressed.limit() === len)
+      assert(decompressed === input)
+    }
+    assert(CompressionCodecId.nameWithLevel("zstd", Some("7")) === "zstd:7")
+    assert(CompressionCodecId.levelFromName("zstd:7") === 7)
+    assert(CompressionCodecId.levelFromName("zstd") === CompressionCodecId.DEFAULT_LEVEL)
+    intercept[IllegalArgumentException](CompressionCodecId.nameWithLevel("zstd", Some("30")))
+    intercept[IllegalArgumentException](CompressionCodecId.nameWithLevel("snappy", Some("2")))
+  }
 }
@@ -24,6 +24,7 @@ import io.snappydata.cluster.PreparedQueryRoutingSingleNodeSuite
 import org.apache.spark.SparkConf
 import org.apache.spark.memory.SnappyUnifiedMemoryManager
 import org.apache.spark.sql.SnappySession
+import org.apache.spark.sql.execution.columnar.impl.ColumnBatchCompactor
 
 /**
  * Tests for updates/deletes on column table.
@@ -94,6 +95,37 @@ class ColumnUpdateDeleteTest extends ColumnTablesTestBase {
     ColumnUpdateDeleteTests.testSNAP2124(this.snc.snappySession)
   }
 
+  test("compaction of batches with deletes and updates") {
+    val session = this.snc.snappySession
+    session.sql("create table compact1 (id int, name string, amount decimal(18, 2)) " +
+        "using column options (buckets '2', column_max_delta_rows '100')")
+    session.range(0, 10000, 1, 1).selectExpr("cast(id as int)", "concat('name_', id)",
+      "cast(id * 1.5 as decimal(18, 2))").write.insertInto("compact1")
+    session.sql("delete from compact1 where id % 2 = 0")
+    session.sql("update compact1 set name = concat(name, '_u'), amount = null " +
+        "where id % 3 = 0")
+    val expected = session.sql("select * from compact1").collect().sortBy(_.getInt(0))
+    assert(expected.length === 5000)
+
+    val numBatches = ColumnBatchCompactor.numRewrittenBatches
+    val numRows = ColumnBatchCompactor.numRewrittenRows
+    ColumnBatchCompactor.compactAll(deleteRatio = 0.3, deltaRatio = 0.3, minBatchFill = 0.25)
+    assert(ColumnBatchCompactor.numRewrittenBatches > numBatches)
+    assert(ColumnBatchCompactor.numRewrittenRows - numRows === 5000)
+    assert(ColumnBatchCompactor.numRewrittenBytes > 0)
+
+    // nothing left to compact
+    val newNumBatches = ColumnBatchCompactor.numRewrittenBatches
+    ColumnBatchCompactor.compactAll(deleteRatio = 0.3, deltaRatio = 0.3, minBatchFill = 0.25)
+    assert(ColumnBatchCompactor.numRewrittenBatches === newNumBatches)
+
+    val result = session.sql("select * from compact1").collect().sortBy(_.getInt(0))
+    assert(result.toSeq === expected.toSeq)
+    assert(session.sql("select count(*) from compact1 where name like '%_u'")
+        .collect()(0).getLong(0) === 1667)
+    session.sql("drop table compact1")
+  }
+
   test("SNAP-1985: update delete on string type") {
     val tableName1 = "order_line_1_col_str"
     val tableName2 = "order_line_2_ud_str"
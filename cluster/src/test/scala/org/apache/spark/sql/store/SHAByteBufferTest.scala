@@ -19,22 +19,28 @@ package org.apache.spark.sql.store
 import java.io.File
 import java.math.BigDecimal
 import java.sql.{Connection, Date, DriverManager, SQLException, SQLType, Timestamp, Types}
-import java.util.Random
+import java.util.{Properties, Random}
 
 import scala.collection.mutable
 
+import com.gemstone.gemfire.internal.cache.GemFireCacheImpl
 import com.pivotal.gemfirexd.{Attribute, TestUtil}
 import com.pivotal.gemfirexd.security.SecurityTestUtils
+import io.snappydata.collection.ByteBufferHashMap
 import io.snappydata.{Constant, Property, SnappyFunSuite}
 import org.scalatest.BeforeAndAfterAll
 import org.junit.Assert._
 
-import org.apache.spark.SparkConf
+import org.apache.spark.memory.TaskMemoryManager
+import org.apache.spark.{SparkConf, SparkEnv, TaskContext, TaskContextImpl}
 import org.apache.spark.sql.{Row, SaveMode, SnappyContext, SnappySession}
+import org.apache.spark.sql.catalyst.expressions.aggregate.Final
 import org.apache.spark.sql.catalyst.util.DateTimeUtils
+import org.apache.spark.sql.execution.aggregate.SnappyHashAggregateExec
 import org.apache.spark.sql.execution.benchmark.ColumnCacheBenchmark
 import org.apache.spark.sql.execution.{SparkPlan, WholeStageCodegenExec}
 import org.apache.spark.sql.types.{ArrayType, CalendarIntervalType, IntegerType, LongType, StringType, StructField, StructType}
+import org.apache.spark.unsafe.Platform
 import org.apache.spark.unsafe.types.CalendarInterval
 
 class SHAByteBufferTest extends SnappyFunSuite with BeforeAndAfterAll {
@@ -1383,6 +1389,114 @@ class SHAByteBufferTest extends SnappyFunSuite with BeforeAndAfterAll {
     snc.dropTable("test1")
   }
 
+  test("spill of BBMap to disk for high cardinality group by") {
+    snc
+    snc.sql("drop table if exists test1")
+    snc.sql("create table test1 (col1 int, col2 string, col3 long) using column ")
+    val numKeys = 20000
+    snc.range(numKeys * 3).selectExpr("cast(id % 20000 as int)",
+      "concat('str_', cast(id % 20000 as string))", "id").write.insertInto("test1")
+
+    val query = "select col2, col1, sum(col3), count(*) from test1 group by col2, col1"
+    val snc1 = snc.newSession()
+    snc1.setConf("snappydata.sql.approxMaxCapacityOfBBMap", "65536")
+    snc1.setConf("snappydata.sql.initialCapacityOfSHABBMap", "64")
+    // spilled runs are merged by key when read back
+    val spilled = snc1.sql(query).collect()
+    snc1.setConf("snappydata.sql.spillOptimizedHashAggregate", "false")
+    val overflow = snc1.sql(query).collect()
+    assertEquals(numKeys, spilled.length)
+    assertEquals(numKeys, overflow.length)
+    spilled.foreach { row =>
+      val key = row.getInt(1)
+      assertEquals(s"str_$key", row.getString(0))
+      assertEquals(3L * key + 3L * numKeys, row.getLong(2))
+      assertEquals(3L, row.getLong(3))
+    }
+    assertEquals(overflow.sortBy(_.getInt(1)).toSeq, spilled.sortBy(_.getInt(1)).toSeq)
+    snc.dropTable("test1")
+  }
+
+  test("spill of BBMap in final aggregation merges the spilled runs") {
+    snc
+    snc.sql("drop table if exists test1")
+    snc.sql("create table test1 (col1 int, col2 string, col3 long) using column ")
+    val numKeys = 50000
+    snc.range(numKeys * 2).selectExpr(s"cast(id % $numKeys as int)",
+      s"concat('str_', cast(id % $numKeys as string))", "id").write.insertInto("test1")
+
+    val snc1 = snc.newSession()
+    snc1.setConf("snappydata.sql.approxMaxCapacityOfBBMap", "65536")
+    snc1.setConf("snappydata.sql.initialCapacityOfSHABBMap", "64")
+    val df = snc1.sql("select col2, col1, sum(col3), count(*), max(col3) from test1 " +
+        "group by col2, col1")
+    // each partition of final aggregation has many more groups than fit in the map
+    val result = df.collect()
+    assertEquals(numKeys, result.length)
+    result.foreach { row =>
+      val key = row.getInt(1)
+      assertEquals(s"str_$key", row.getString(0))
+      assertEquals(2L * key + numKeys, row.getLong(2))
+      assertEquals(2L, row.getLong(3))
+      assertEquals(key.toLong + numKeys, row.getLong(4))
+    }
+    val finalAggregates = df.queryExecution.executedPlan.collect {
+      case agg: SnappyHashAggregateExec if agg.aggregateExpressions.exists(_.mode == Final) =>
+        agg
+    }
+    assertEquals(1, finalAggregates.length)
+    assert(finalAggregates.head.metrics("spillSize").value > 0L)
+    snc.dropTable("test1")
+  }
+
+  test("spill of BBMap shrinks the map and releases its memory") {
+    val taskMemoryManager = new TaskMemoryManager(SparkEnv.get.memoryManager, 0L)
+    val context = new TaskContextImpl(0, 0, taskAttemptId = 1, 0, taskMemoryManager,
+      new Properties, null)
+    TaskContext.setTaskContext(context)
+    try {
+      val map = new ByteBufferHashMap(16, 0.75, 8, 8,
+        GemFireCacheImpl.getCurrentBufferAllocator)
+      map.enableSpill()
+      val initialCapacity = map.capacity
+      val initialKeyDataSize = map.getKeyData.capacity
+      val initialValueDataSize = map.getValueData.capacity
+      val initialMemory = taskMemoryManager.getMemoryConsumptionForThisTask
+      assert(initialMemory > 0L)
+
+      val numKeys = 10000
+      val key = new Array[Byte](8)
+      for (i <- 0 until numKeys) {
+        Platform.putLong(key, Platform.BYTE_ARRAY_OFFSET, i)
+        map.putBufferIfAbsent(key, Platform.BYTE_ARRAY_OFFSET, 8, 8, i * 0x9E3779B9)
+      }
+      assertEquals(numKeys, map.size)
+      assert(map.capacity > initialCapacity)
+      assert(taskMemoryManager.getMemoryConsumptionForThisTask > initialMemory)
+
+      // each entry has the 4 byte key size followed by the 8 byte key
+      assertEquals(numKeys * 12L, map.spill())
+      assertEquals(0, map.size)
+      assertEquals(initialCapacity, map.capacity)
+      assertEquals(initialKeyDataSize, map.getKeyData.capacity)
+      assertEquals(initialValueDataSize, map.getValueData.capacity)
+      assertEquals(initialMemory, taskMemoryManager.getMemoryConsumptionForThisTask)
+
+      // the map should be usable after spill and the spilled run loaded back
+      Platform.putLong(key, Platform.BYTE_ARRAY_OFFSET, numKeys)
+      map.putBufferIfAbsent(key, Platform.BYTE_ARRAY_OFFSET, 8, 8, numKeys * 0x9E3779B9)
+      assertEquals(1, map.size)
+      assertEquals(1, map.numPendingSpills)
+      assert(map.loadNextSpill())
+      assertEquals(numKeys * 12L, map.valueDataSize)
+      assert(!map.loadNextSpill())
+    } finally {
+      context.markTaskCompleted()
+      TaskContext.unset()
+    }
+    assertEquals(0L, taskMemoryManager.cleanUpAllAllocatedMemory())
+  }
+
   test("SNAP-2567. Code size exceeds limit") {
     snc
     val numStrCols = 450
@@ -202,6 +202,8 @@ class SplitClusterDUnitSecurityTest(s: String)
 
   override def testUpdateDeleteOnColumnTables(): Unit = {}
 
+  override def testConnectorScanOfMultipleBucketsPerPartition(): Unit = {}
+
   // Test to make sure that stock spark-shell works with SnappyData core jar
   def testSparkShell(): Unit = {
     val props = new Properties()
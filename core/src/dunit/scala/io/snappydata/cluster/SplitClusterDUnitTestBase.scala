@@ -30,14 +30,14 @@ import com.pivotal.gemfirexd.internal.engine.Misc
 import io.snappydata.Property.PlanCaching
 import io.snappydata.test.dunit.{SerializableRunnable, VM}
 import io.snappydata.util.TestUtils
-import io.snappydata.{ColumnUpdateDeleteTests, ConcurrentOpsTests, Constant, SnappyFunSuite}
+import io.snappydata.{ColumnUpdateDeleteTests, ConcurrentOpsTests, Constant, Property, SnappyFunSuite}
 import org.junit.Assert
 
 import org.apache.spark.sql.catalyst.InternalRow
 import org.apache.spark.sql.collection.{Utils, WrappedInternalRow}
 import org.apache.spark.sql.store.{MetadataTest, StoreUtils}
 import org.apache.spark.sql.types.Decimal
-import org.apache.spark.sql.{SnappyContext, ThinClientConnectorMode}
+import org.apache.spark.sql.{SnappyContext, SnappySession, ThinClientConnectorMode}
 import org.apache.spark.util.collection.OpenHashSet
 import org.apache.spark.{Logging, SparkConf, SparkContext}
 
@@ -217,6 +217,32 @@ trait SplitClusterDUnitTestBase extends ClusterUtils with Logging {
       }
     })
   }
+
+  def testConnectorScanOfMultipleBucketsPerPartition(): Unit = {
+    val testObject = this.testObject
+    val netPort = this.locatorClientPort
+    // check scans, updates and deletes fetching multiple buckets in a task
+    vm3.invoke(new SerializableRunnable() {
+      override def run(): Unit = {
+        val snc = testObject.getSnappyContextForConnector(netPort)
+        val session = snc.snappySession
+        session.setConf(Property.ConnectorBucketsPerPartition.name, "4")
+        try {
+          testObject.checkMultipleBucketsPerPartition(session)
+          // updates and deletes rely on the bucket of each row in the clubbed partitions
+          StoreUtils.TEST_RANDOM_BUCKETID_ASSIGNMENT = true
+          try {
+            ColumnUpdateDeleteTests.testBasicUpdate(session)
+            ColumnUpdateDeleteTests.testBasicDelete(session)
+          } finally {
+            StoreUtils.TEST_RANDOM_BUCKETID_ASSIGNMENT = false
+          }
+        } finally {
+          session.conf.unset(Property.ConnectorBucketsPerPartition.name)
+        }
+      }
+    })
+  }
 }
 
 trait SplitClusterDUnitTestObject extends Logging {
@@ -251,6 +277,60 @@ trait SplitClusterDUnitTestObject extends Logging {
       locatorClientPort: Int): Unit = {
   }
 
+  /**
+   * Check that the connector scans club the buckets on a server into a partition as per
+   * [[Property.ConnectorBucketsPerPartition]] set on the session and return the same
+   * results as the scans of individual buckets including after updates and deletes.
+   */
+  def checkMultipleBucketsPerPartition(session: SnappySession): Unit = {
+    val numBuckets = 16
+    val numRows = 10000
+    session.sql("drop table if exists connectorBuckets")
+    session.sql("create table connectorBuckets (id int, data string, amount long) " +
+        s"using column options (buckets '$numBuckets', column_max_delta_rows '100')")
+    session.range(numRows).selectExpr("cast(id as int)", "concat('data_', id)", "id * 2")
+        .write.insertInto("connectorBuckets")
+
+    val query = "select id, data, amount from connectorBuckets"
+    val numPartitions = session.sql(query).queryExecution.executedPlan
+        .execute().getNumPartitions
+    assert(numPartitions < numBuckets, s"Buckets not clubbed: partitions = $numPartitions")
+
+    def checkResults(expected: Seq[(Int, String, Long)]): Unit = {
+      val result = session.sql(query).collect()
+          .map(r => (r.getInt(0), r.getString(1), r.getLong(2))).sortBy(_._1).toSeq
+      assert(result.length === expected.length)
+      assert(result === expected)
+      // compare against the scan of one bucket per partition
+      val bucketsPerPartition = Property.ConnectorBucketsPerPartition.get(
+        session.sessionState.conf)
+      session.conf.set(Property.ConnectorBucketsPerPartition.name, "1")
+      try {
+        val singleBucketResult = session.sql(query).collect()
+            .map(r => (r.getInt(0), r.getString(1), r.getLong(2))).sortBy(_._1).toSeq
+        assert(singleBucketResult === expected)
+      } finally {
+        session.conf.set(Property.ConnectorBucketsPerPartition.name,
+          bucketsPerPartition.toString)
+      }
+    }
+
+    var expected = (0 until numRows).map(id => (id, s"data_$id", id * 2L))
+    checkResults(expected)
+
+    session.sql("update connectorBuckets set amount = amount + 1 where id % 3 = 0")
+    expected = expected.map(e => if (e._1 % 3 == 0) e.copy(_3 = e._3 + 1) else e)
+    checkResults(expected)
+
+    session.sql("delete from connectorBuckets where id % 5 = 0")
+    expected = expected.filter(_._1 % 5 != 0)
+    checkResults(expected)
+    assert(session.sql("select count(*) from connectorBuckets").collect()(0).getLong(0) ===
+        expected.length)
+
+    session.sql("drop table connectorBuckets")
+  }
+
   def verifyMetadataQueries(locatorClientPort: Int): Unit = {
 
     val session = getSnappyContextForConnector(locatorClientPort).snappySession
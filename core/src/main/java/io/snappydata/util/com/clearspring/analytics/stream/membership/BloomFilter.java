@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package io.snappydata.util.com.clearspring.analytics.stream.membership;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import io.snappydata.util.com.clearspring.analytics.hash.MurmurHash;
+
+/**
+ * A bloom filter on a bit set held as an array of longs so that it can be
+ * written out as is and probed in place by readers (see {@link #bucket}).
+ * <p>
+ * Keys are first reduced to a 64-bit hash using {@link #hashLong} or
+ * {@link #hashBytes} and the bucket indexes are derived from the two 32-bit
+ * halves of that hash by the combinatorial approach of
+ * {@link Filter#getHashBuckets}.
+ */
+public class BloomFilter extends Filter {
+
+    private static final BloomFilterSerializer serializer_ = new BloomFilterSerializer();
+
+    private static final int MAX_WORDS = Integer.MAX_VALUE >>> 6;
+
+    private final long[] words;
+
+    public BloomFilter(int numElements, int bucketsPerElement) {
+        this(BloomCalculations.computeBestK(bucketsPerElement),
+                new long[numWords(numElements, bucketsPerElement)]);
+    }
+
+    public BloomFilter(int numElements, double maxFalsePosProbability) {
+        this(numElements, BloomCalculations.computeBucketsAndK(maxFalsePosProbability));
+    }
+
+    private BloomFilter(int numElements, BloomCalculations.BloomSpecification spec) {
+        this(spec.K, new long[numWords(numElements, spec.bucketsPerElement)]);
+    }
+
+    BloomFilter(int hashCount, long[] words) {
+        this.hashCount = hashCount;
+        this.words = words;
+    }
+
+    public static ICompactSerializer<BloomFilter> serializer() {
+        return serializer_;
+    }
+
+    /**
+     * Number of longs in the bit set for given number of elements and buckets per element.
+     */
+    public static int numWords(int numElements, int bucketsPerElement) {
+        long numBuckets = (long)Math.max(numElements, 1) * bucketsPerElement;
+        return (int)Math.min((numBuckets + 63) >>> 6, MAX_WORDS);
+    }
+
+    /**
+     * 64-bit hash of an integral key.
+     */
+    public static long hashLong(long key) {
+        return ((long)MurmurHash.hashLong(key) << 32) |
+                (MurmurHash.hashLong((key * seed2) ^ seed1) & 0xffffffffL);
+    }
+
+    /**
+     * 64-bit hash of given number of bytes of a key.
+     */
+    public static long hashBytes(byte[] key, int length) {
+        return MurmurHash.hash64(key, length);
+    }
+
+    /**
+     * Index of the bucket for the hash function at given index (less than the
+     * hash count) of a key having given 64-bit hash.
+     */
+    public static int bucket(long hash, int index, int numBuckets) {
+        int hash1 = (int)(hash >>> 32);
+        int hash2 = (int)hash;
+        return ((hash1 + index * hash2) & Integer.MAX_VALUE) % numBuckets;
+    }
+
+    public long[] getWords() {
+        return words;
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0L);
+    }
+
+    @Override
+    int buckets() {
+        return words.length << 6;
+    }
+
+    public void addHash(long hash) {
+        final int numBuckets = buckets();
+        for (int i = 0; i < hashCount; i++) {
+            int bucket = bucket(hash, i, numBuckets);
+            words[bucket >>> 6] |= 1L << bucket;
+        }
+    }
+
+    public boolean isPresentHash(long hash) {
+        final int numBuckets = buckets();
+        for (int i = 0; i < hashCount; i++) {
+            int bucket = bucket(hash, i, numBuckets);
+            if ((words[bucket >>> 6] & (1L << bucket)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void add(long key) {
+        addHash(hashLong(key));
+    }
+
+    public boolean isPresent(long key) {
+        return isPresentHash(hashLong(key));
+    }
+
+    @Override
+    public void add(String key) {
+        byte[] b = key.getBytes(StandardCharsets.UTF_8);
+        addHash(hashBytes(b, b.length));
+    }
+
+    @Override
+    public boolean isPresent(String key) {
+        byte[] b = key.getBytes(StandardCharsets.UTF_8);
+        return isPresentHash(hashBytes(b, b.length));
+    }
+
+    @Override
+    int emptyBuckets() {
+        int setBuckets = 0;
+        for (long word : words) {
+            setBuckets += Long.bitCount(word);
+        }
+        return buckets() - setBuckets;
+    }
+
+    static class BloomFilterSerializer implements ICompactSerializer<BloomFilter> {
+
+        public void serialize(BloomFilter bf, DataOutputStream dos) throws IOException {
+            dos.writeInt(bf.getHashCount());
+            dos.writeInt(bf.words.length);
+            for (long word : bf.words) {
+                dos.writeLong(word);
+            }
+        }
+
+        public BloomFilter deserialize(DataInputStream dis) throws IOException {
+            int hashCount = dis.readInt();
+            long[] words = new long[dis.readInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = dis.readLong();
+            }
+            return new BloomFilter(hashCount, words);
+        }
+    }
+}
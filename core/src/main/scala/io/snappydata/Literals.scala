@@ -122,10 +122,44 @@ object Property extends Enumeration {
   val PlanCacheSize: SparkValue[Int] = Val[Int](s"${Constant.PROPERTY_PREFIX}sql.planCacheSize",
     s"Number of query plans that will be cached.", Some(3000))
 
+  val CodeCacheDir: SparkValue[String] = Val[String](
+    s"${Constant.PROPERTY_PREFIX}sql.codeCacheDir",
+    "Directory where the classes compiled for the generated code are stored so that " +
+        "those need not be compiled again after a restart of the node. A relative path " +
+        "is resolved against the working directory of the node. Default is to not store.",
+    None)
+
+  val CodeCacheWarmupSize: SparkValue[Int] = Val[Int](
+    s"${Constant.PROPERTY_PREFIX}sql.codeCacheWarmupSize",
+    s"Number of the most used classes stored in ${Constant.PROPERTY_PREFIX}" +
+        "sql.codeCacheDir that are loaded at the startup of the node.", Some(100))
+
   val CatalogCacheSize: SparkValue[Int] = Val[Int](
     s"${Constant.PROPERTY_PREFIX}sql.catalogCacheSize",
     s"Number of catalog tables whose meta-data will be cached.", Some(2000))
 
+  val ColumnCompactionInterval: SparkValue[Int] = Val[Int](
+    s"${Constant.PROPERTY_PREFIX}column.compactionInterval",
+    "Interval in seconds at which the column batches of the primary buckets on each " +
+        "data server are checked for compaction in the background. Zero or negative " +
+        "value disables the compaction.", Some(300))
+
+  val ColumnCompactionDeleteRatio: SparkValue[Double] = Val[Double](
+    s"${Constant.PROPERTY_PREFIX}column.compactionDeleteRatio",
+    "Fraction of the rows of a column batch that have to be deleted for it to be " +
+        "rewritten by the background compaction.", Some(0.3))
+
+  val ColumnCompactionDeltaRatio: SparkValue[Double] = Val[Double](
+    s"${Constant.PROPERTY_PREFIX}column.compactionDeltaRatio",
+    "Fraction of the rows of a column batch that have to be updated in any column " +
+        "for it to be rewritten by the background compaction.", Some(0.3))
+
+  val ColumnCompactionMinBatchFill: SparkValue[Double] = Val[Double](
+    s"${Constant.PROPERTY_PREFIX}column.compactionMinBatchFill",
+    "Column batches having fewer remaining rows than this fraction of the maxDeltaRows " +
+        "of their table are merged with other such batches of the same bucket by the " +
+        "background compaction.", Some(0.25))
+
   val ColumnBatchSize: SQLValue[String] = SQLVal[String](
     s"${Constant.PROPERTY_PREFIX}column.batchSize",
     "The default size of blocks to use for storage in SnappyData column " +
@@ -181,14 +215,44 @@ object Property extends Enumeration {
         "scalability of queries in the interest of reduced memory usage for " +
         "secondary buckets. Default is false.", Some(false), Constant.SPARK_PREFIX)
 
+  val ConnectorBucketsPerPartition: SQLValue[Int] = SQLVal[Int](
+    s"${Constant.PROPERTY_PREFIX}sql.connectorBucketsPerPartition",
+    "Maximum number of buckets of a column/row table hosted on the same server that will " +
+        "be fetched by a single task using a single connection and request in smart " +
+        s"connector mode. Has no effect when $ForceLinkPartitionsToBuckets or " +
+        s"$PreferPrimariesInQuery is set or when buckets get linked to partitions for " +
+        "a query. Default is 1 i.e. one task for each bucket.", Some(1))
+
   val PartitionPruning: SQLValue[Boolean] = SQLVal[Boolean](
     s"${Constant.PROPERTY_PREFIX}sql.partitionPruning",
     "Property to set/unset partition pruning of queries", Some(true))
 
+  val RowScanFilterCodegen: SQLValue[Boolean] = SQLVal[Boolean](
+    s"${Constant.PROPERTY_PREFIX}sql.rowScanFilterCodegen",
+    "Evaluate filters on partitioned row tables using generated code directly on the " +
+        "rows of the bucket scan when none of the filters can use an index or the primary " +
+        "key of the table. Filters that can use those are always executed as a SQL query " +
+        "in the store. Default is true.", Some(true))
+
+  val RowIndexScanSelectivity: SQLValue[Double] = SQLVal[Double](
+    s"${Constant.PROPERTY_PREFIX}sql.rowIndexScanSelectivity",
+    "Maximum estimated fraction of rows selected by filters on the leading columns " +
+        "of an index of a row table for the query planner to choose a scan on that " +
+        "index instead of a full scan of the table. A value <= 0 disables such index " +
+        "scans though those for ordering are still used. Default is 0.1.", Some(0.1))
+
   val PlanCaching: SQLValue[Boolean] = SQLVal[Boolean](
     s"${Constant.PROPERTY_PREFIX}sql.planCaching",
     "Property to set/unset plan caching", Some(false))
 
+  val SharedPlanCaching: SQLValue[Boolean] = SQLVal[Boolean](
+    s"${Constant.PROPERTY_PREFIX}sql.sharedPlanCaching",
+    "If true, then the cached plans are shared by all the sessions on a node having the " +
+        "same current schema and session configuration, with the parameter values " +
+        "bound for each execution. Plans that refer to temporary views or functions " +
+        "of a session are never shared. Has no effect if plan caching is disabled.",
+    Some(true))
+
   val SerializeWrites: SQLValue[Boolean] = SQLVal[Boolean](
     s"${Constant.PROPERTY_PREFIX}sql.serializeWrites",
     "Property to set/unset serialized writes on column table." +
@@ -286,6 +350,16 @@ object Property extends Enumeration {
           "caching only if the data being put is a local relation created from a list of Rows " +
           s"and its size is within the limit specified by ${HashJoinSize.name}.", Some(false))
 
+  val PutIntoKeyRangeFilter: SQLValue[Boolean] =
+    SQLVal[Boolean](s"${Constant.PROPERTY_PREFIX}sql.putIntoKeyRangeFilter",
+      "Restrict the scan of a column table for the updates of putInto to the range of " +
+          "the key values being put. This needs an additional aggregation on the data " +
+          "being put but allows skipping the column batches outside of the range which " +
+          "avoids a full scan of the table when keys are ordered. The aggregation is skipped " +
+          "when the data being put is small enough to be broadcast, or is not local and the " +
+          "table has the key index. Local data being put into a table having the key index " +
+          "looks up its keys in the index. Default is true.", Some(true))
+
   val TestExplodeComplexDataTypeInSHA: SQLValue[Boolean] = SQLVal[Boolean](
     s"${Constant.PROPERTY_PREFIX}sql.explodeStructInSHA",
     "Explodes the Struct or Array Field in Group By Keys even if the struct object is " +
@@ -314,6 +388,30 @@ object Property extends Enumeration {
     s"The initial capacity of SHAMap. " +
       s"Default value is 8192", Some(8192))
 
+  val SpillOptimizedHashAggregate: SQLValue[Boolean] = SQLVal[Boolean](
+    s"${Constant.PROPERTY_PREFIX}sql.spillOptimizedHashAggregate",
+    "Spill the results of ByteBufferMap based SnappyHashAggregateExec to disk when " +
+      "the map reaches its maximum capacity or execution memory runs short instead of " +
+      "creating more maps in memory. The spilled runs are sorted by hash code and merged " +
+      "when read back to combine the results for the same group. Default is true.",
+    Some(true))
+
+  val StreamQueryResults: SQLValue[Boolean] = SQLVal[Boolean](
+    s"${Constant.PROPERTY_PREFIX}sql.streamQueryResults",
+    "Send the results of each partition of a query from lead to the JDBC/ODBC client " +
+      "as soon as its task finishes instead of waiting for the whole query to complete. " +
+      "Results of plans having an output ordering are always sent in partition order " +
+      "after the query completes. Default is true.",
+    Some(true))
+
+  val ServerCollectAggregate: SQLValue[Boolean] = SQLVal[Boolean](
+    s"${Constant.PROPERTY_PREFIX}sql.serverCollectAggregate",
+    "Ship the final merge of top-level aggregates without grouping columns from lead " +
+      "to the server that received the JDBC/ODBC query, along with the partial results " +
+      "of all partitions, to reduce the load on lead node. The plan of final merge is " +
+      "compiled once on each server and cached for subsequent executions. Default is true.",
+    Some(true))
+
   val TestDisableCodeGenFlag: SQLValue[Boolean] = SQLVal[Boolean](
     s"${Constant.PROPERTY_PREFIX}sql.disableCodegenFallback",
     s"The test flag if set to true will throw Exception instead of creating CodegenSparkFallback " +
@@ -35,6 +35,7 @@ import io.snappydata.recovery.RecoveryService
 
 import org.apache.spark.sql.SnappySession
 import org.apache.spark.sql.collection.Utils
+import org.apache.spark.sql.sources.JdbcExtendedUtils
 import org.apache.spark.{Logging, SparkContext}
 
 trait TableStatsProviderService extends Logging {
@@ -75,17 +76,19 @@ trait TableStatsProviderService extends Logging {
           running = false
           notifyAll()
         }
-        // check if there has been a substantial change in table
-        // stats, and clear the plan cache if so
-        if (prevTableSizeInfo.size != tableSizeInfo.size) {
-          SnappySession.clearAllCache(onlyQueryPlanCache = true)
-        } else {
-          val prevTotalRows = prevTableSizeInfo.values.map(_.getRowCount).sum
-          val newTotalRows = tableSizeInfo.values.map(_.getRowCount).sum
-          if (math.abs(newTotalRows - prevTotalRows) > 0.1 * prevTotalRows) {
-            SnappySession.clearAllCache(onlyQueryPlanCache = true)
+        // check the tables that have been added, removed or had a substantial
+        // change in stats, and clear the cached plans depending on them
+        val changedTables = (prevTableSizeInfo.keySet ++ tableSizeInfo.keySet).filter { table =>
+          (prevTableSizeInfo.get(table), tableSizeInfo.get(table)) match {
+            case (Some(prevStats), Some(newStats)) =>
+              math.abs(newStats.getRowCount - prevStats.getRowCount) > 0.1 * prevStats.getRowCount
+            case _ => true
           }
         }
+        if (changedTables.nonEmpty) {
+          SnappySession.clearPlanCache(changedTables.toSeq.map(
+            JdbcExtendedUtils.getTableWithSchema(_, conn = null, session = None)))
+        }
       }
     } catch {
       case _: CancelException => // ignore
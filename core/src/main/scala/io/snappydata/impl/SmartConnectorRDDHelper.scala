@@ -17,7 +17,6 @@
 package io.snappydata.impl
 
 import java.sql.{Connection, PreparedStatement, ResultSet, SQLException}
-import java.util.Collections
 
 import scala.collection.mutable.ArrayBuffer
 import scala.util.Random
@@ -48,13 +47,12 @@ final class SmartConnectorRDDHelper {
     }
     pstmt match {
       case clientStmt: ClientPreparedStatement =>
-        val bucketSet = Collections.singleton(Int.box(partition.bucketId))
-        clientStmt.setLocalExecutionBucketIds(bucketSet, columnTable, true)
+        clientStmt.setLocalExecutionBucketIds(partition.buckets, columnTable, true)
         clientStmt.setCatalogVersion(catalogVersion)
         clientStmt.setSnapshotTransactionId(txId)
       case _ =>
         pstmt.execute("call sys.SET_BUCKETS_FOR_LOCAL_EXECUTION(" +
-            s"'$columnTable', '${partition.bucketId}', $catalogVersion)")
+            s"'$columnTable', '${partition.bucketsString}', $catalogVersion)")
         if (txId ne null) {
           pstmt.execute(s"call sys.USE_SNAPSHOT_TXID('$txId')")
         }
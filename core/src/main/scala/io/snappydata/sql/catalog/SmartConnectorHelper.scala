@@ -196,6 +196,31 @@ object SmartConnectorHelper {
     partitions
   }
 
+  /**
+   * Club the per-bucket partitions returned by [[getPartitions]] that are hosted on the
+   * same server into partitions having upto the given number of buckets each, so that
+   * a single task fetches all of them using one connection and a single request.
+   * Buckets without any known server are left as separate partitions.
+   */
+  def clubBucketPartitions(partitions: Array[Partition],
+      maxBucketsPerPartition: Int): Array[Partition] = {
+    if (maxBucketsPerPartition <= 1 || partitions.length <= 1) return partitions
+    val serverBuckets = new mutable.LinkedHashMap[Seq[(String, String)], ArrayBuffer[Int]]
+    val result = new ArrayBuffer[Partition](partitions.length)
+    for (p <- partitions) {
+      val part = p.asInstanceOf[SmartExecutorBucketPartition]
+      if (part.hostList.isEmpty) {
+        result += new SmartExecutorBucketPartition(result.length, part.bucketId, part.hostList)
+      } else {
+        serverBuckets.getOrElseUpdate(part.hostList, new ArrayBuffer[Int]) += part.bucketId
+      }
+    }
+    for ((hostList, buckets) <- serverBuckets; group <- buckets.grouped(maxBucketsPerPartition)) {
+      result += new SmartExecutorBucketPartition(result.length, group.toArray, hostList)
+    }
+    result.toArray
+  }
+
   def preferHostName(session: SparkSession): Boolean = {
     // check if Spark executors are using IP addresses or host names
     Utils.executorsListener(session.sparkContext) match {
@@ -45,7 +45,7 @@ import org.apache.log4j.{Level, LogManager}
 import org.apache.spark.sql.catalyst.TableIdentifier
 import org.apache.spark.sql.catalyst.catalog.CatalogTypes.TablePartitionSpec
 import org.apache.spark.sql.catalyst.catalog.{CatalogDatabase, CatalogFunction, CatalogStorageFormat, CatalogTable}
-import org.apache.spark.sql.execution.columnar.ExternalStoreUtils
+import org.apache.spark.sql.execution.columnar.{ColumnBloomFilters, ExternalStoreUtils}
 import org.apache.spark.sql.execution.columnar.ExternalStoreUtils.CaseInsensitiveMutableHashMap
 import org.apache.spark.sql.execution.datasources.DataSource
 import org.apache.spark.sql.hive.{HiveClientUtil, SnappyHiveExternalCatalog}
@@ -53,6 +53,7 @@ import org.apache.spark.sql.internal.ContextJarUtils
 import org.apache.spark.sql.policy.PolicyProperties
 import org.apache.spark.sql.sources.JdbcExtendedUtils.{toLowerCase, toUpperCase}
 import org.apache.spark.sql.sources.{DataSourceRegister, JdbcExtendedUtils}
+import org.apache.spark.sql.store.CompressionCodecId
 import org.apache.spark.sql.{AnalysisException, SnappyContext}
 import org.apache.spark.{Logging, SparkConf, SparkEnv}
 
@@ -385,8 +386,9 @@ class StoreHiveCatalog extends ExternalCatalog with Logging {
         case None => null.asInstanceOf[R]
         case Some(table) =>
           val qualifiedName = table.identifier.unquotedString
-          val schema = table.schema
           val parameters = new CaseInsensitiveMutableHashMap[String](table.storage.properties)
+          val schema = ColumnBloomFilters.markColumns(table.schema,
+            parameters.get(ExternalStoreUtils.COLUMN_BLOOM_FILTERS), qualifiedName)
           val partitions = parameters.get(ExternalStoreUtils.BUCKETS) match {
             case None =>
               // get the partitions from the actual table if not in catalog
@@ -416,8 +418,12 @@ class StoreHiveCatalog extends ExternalCatalog with Logging {
           val tableType = CatalogObjectType.getTableType(table)
           val compressionCodec = parameters.get(ExternalStoreUtils.COMPRESSION_CODEC) match {
             case None =>
-              if (CatalogObjectType.isColumnTable(tableType)) Constant.DEFAULT_CODEC else "NA"
-            case Some(c) => c
+              if (CatalogObjectType.isColumnTable(tableType)) {
+                CompressionCodecId.nameWithLevel(Constant.DEFAULT_CODEC,
+                  parameters.get(ExternalStoreUtils.COMPRESSION_LEVEL))
+              } else "NA"
+            case Some(c) => CompressionCodecId.nameWithLevel(c,
+              parameters.get(ExternalStoreUtils.COMPRESSION_LEVEL))
           }
           val tblDataSourcePath = getDataSourcePath(parameters, table.storage)
           val driverClass = parameters.get("driver") match {
@@ -16,8 +16,11 @@
  */
 package org.apache.spark.sql
 
+import java.io.DataOutput
 import java.nio.ByteBuffer
 import java.sql.SQLException
+import java.util.concurrent.locks.ReentrantLock
+import java.util.concurrent.{LinkedBlockingQueue, TimeUnit}
 
 import scala.annotation.tailrec
 import scala.collection.JavaConverters._
@@ -26,6 +29,7 @@ import scala.concurrent.ExecutionContext.Implicits.global
 import scala.concurrent.duration.Duration
 import scala.concurrent.{Await, Future}
 import scala.reflect.ClassTag
+import scala.util.Failure
 
 import com.esotericsoftware.kryo.io.{Input, Output}
 import com.esotericsoftware.kryo.{Kryo, KryoSerializable}
@@ -118,6 +122,41 @@ class CachedDataFrame(snappySession: SnappySession, queryExecution: QueryExecuti
   @transient
   private var prepared: Boolean = _
 
+  /**
+   * The session that created the cached plan. This is different from the session
+   * of this DataFrame when a cached plan is shared from another session.
+   */
+  @transient
+  private[sql] var ownerSession: SnappySession = snappySession
+
+  /**
+   * Serializes the executions of a cached plan that update its ParamLiterals and
+   * RDD partitions in place. This is shared by all the duplicates of the plan.
+   */
+  private var executionLock: ReentrantLock = if (isCached) new ReentrantLock() else null
+
+  /**
+   * Returns true if the cached plan is being executed in some session. This is only
+   * a hint to avoid waiting for the execution and it does not guarantee that the
+   * lock will be free when the plan is executed.
+   */
+  private[sql] def isExecuting: Boolean = (executionLock ne null) && executionLock.isLocked
+
+  /**
+   * The catalog relations as (schema, table) in lower case that the cached plan depends
+   * on. These include the views referenced by the query and the tables under them.
+   */
+  @transient
+  private[sql] var dependentRelations: Array[(String, String)] = _
+
+  /**
+   * Returns true if the cached plan depends on any of the given relations as recorded
+   * in [[dependentRelations]], or if those are unknown.
+   */
+  private[sql] def dependsOn(relations: Seq[(String, String)]): Boolean = {
+    (dependentRelations eq null) || dependentRelations.exists(relations.contains)
+  }
+
   private[sql] def startShuffleCleanups(sc: SparkContext): Unit = {
     val numShuffleDeps = shuffleDependencies.length
     if (numShuffleDeps > 0) {
@@ -152,10 +191,15 @@ class CachedDataFrame(snappySession: SnappySession, queryExecution: QueryExecuti
     }
   }
 
-  private[sql] def duplicate(): CachedDataFrame = {
-    val cdf = new CachedDataFrame(snappySession, queryExecution, queryExecutionString,
+  /**
+   * Create a copy of this cached plan for execution in the given session.
+   */
+  private[sql] def duplicate(session: SnappySession = snappySession): CachedDataFrame = {
+    val cdf = new CachedDataFrame(session, queryExecution, queryExecutionString,
       queryPlanInfo, null, null, cachedRDD, shuffleDependencies, encoder, shuffleCleanups,
       rddId, noSideEffects, queryHints, -1L, -1L, -1L, linkPart)
+    cdf.ownerSession = ownerSession
+    cdf.executionLock = executionLock
     cdf.log_ = log_
     cdf.levelFlags = levelFlags
     cdf._boundEnc = boundEnc // force materialize boundEnc which is commonly used
@@ -228,44 +272,77 @@ class CachedDataFrame(snappySession: SnappySession, queryExecution: QueryExecuti
 
 
   private def prepareForCollect(): Boolean = {
-    if (prepared) return false
     if (isCached) {
-      reset()
-      applyCurrentLiterals()
+      // The lock is taken before looking at any state of the execution since the
+      // ParamLiterals and RDD partitions of the plan are shared by its duplicates
+      // in other sessions. It is released in endCollect or on failure below.
+      executionLock.lock()
+      // nested action in the same execution (e.g. count within withCallback) that
+      // holds the lock already so release the extra hold count taken above
+      if (prepared) {
+        executionLock.unlock()
+        return false
+      }
+    } else if (prepared) return false
+    try {
+      if (isCached) prepareCachedRDD()
+      else snappySession.linkPartitionsToBuckets(flag = linkPart)
+      setPoolForExecution()
+      // update the strings in query execution and planInfo
+      if (currentQueryExecutionString eq null) {
+        currentQueryExecutionString = SnappySession.replaceParamLiterals(
+          queryExecutionString, currentLiterals, paramsId)
+        currentQueryPlanInfo = PartitionedPhysicalScan.updatePlanInfo(
+          queryPlanInfo, currentLiterals, paramsId)
+      }
+      // set the query hints as would be set at the end of un-cached sql()
+      snappySession.synchronized {
+        snappySession.queryHints.clear()
+        snappySession.queryHints.putAll(queryHints)
+      }
+      queryExecution.executedPlan.foreach(_.resetMetrics())
+      waitForPendingShuffleCleanups()
+    } catch {
+      case t: Throwable =>
+        if (isCached) executionLock.unlock()
+        throw t
     }
-    // Reset the linkPartitionToBuckets flag before determining RDD partitions.
-    snappySession.linkPartitionsToBuckets(flag = linkPart)
-    // Forcibly re-evaluate the partitions.
-    reEvaluatePartitions(cachedRDD :: Nil)
-    setPoolForExecution()
-    // update the strings in query execution and planInfo
-    if (currentQueryExecutionString eq null) {
-      currentQueryExecutionString = SnappySession.replaceParamLiterals(
-        queryExecutionString, currentLiterals, paramsId)
-      currentQueryPlanInfo = PartitionedPhysicalScan.updatePlanInfo(
-        queryPlanInfo, currentLiterals, paramsId)
-    }
-    // set the query hints as would be set at the end of un-cached sql()
-    snappySession.synchronized {
-      snappySession.queryHints.clear()
-      snappySession.queryHints.putAll(queryHints)
-    }
-    queryExecution.executedPlan.foreach(_.resetMetrics())
-    waitForPendingShuffleCleanups()
     prepared = true
     true
   }
 
+  private def prepareCachedRDD(): Unit = {
+    reset()
+    applyCurrentLiterals()
+    // Reset the linkPartitionToBuckets flag before determining RDD partitions.
+    snappySession.linkPartitionsToBuckets(flag = linkPart)
+    // Forcibly re-evaluate the partitions. The RDDs of a plan shared from another
+    // session determine the table partitions using the session of the owner, so
+    // the flag is passed explicitly instead of changing the state of that session.
+    if (ownerSession ne snappySession) {
+      CachedDataFrame.sharedPlanLinkPartitions.set(linkPart)
+      try {
+        reEvaluatePartitions(cachedRDD :: Nil)
+      } finally {
+        CachedDataFrame.sharedPlanLinkPartitions.remove()
+      }
+    } else reEvaluatePartitions(cachedRDD :: Nil)
+  }
+
   private def endCollect(didPrepare: Boolean): Unit = {
     if (didPrepare) {
-      prepared = false
-      // reset the pool
-      if (isLowLatencyQuery) {
-        val pool = snappySession.sessionState.conf.activeSchedulerPool
-        snappySession.sparkContext.setLocalProperty("spark.scheduler.pool", pool)
+      try {
+        prepared = false
+        // reset the pool
+        if (isLowLatencyQuery) {
+          val pool = snappySession.sessionState.conf.activeSchedulerPool
+          snappySession.sparkContext.setLocalProperty("spark.scheduler.pool", pool)
+        }
+        // clear the shuffle dependencies asynchronously after the execution.
+        startShuffleCleanups(snappySession.sparkContext)
+      } finally {
+        if (isCached) executionLock.unlock()
       }
-      // clear the shuffle dependencies asynchronously after the execution.
-      startShuffleCleanups(snappySession.sparkContext)
     }
   }
 
@@ -346,12 +423,21 @@ class CachedDataFrame(snappySession: SnappySession, queryExecution: QueryExecuti
     }
   }
 
+  /**
+   * Execute the plan processing the rows of each partition with the given functions.
+   *
+   * If a resultConsumer is provided, then the results are passed to it and an empty
+   * iterator is returned. For plans without any output ordering the result of each
+   * partition is passed as soon as its task finishes (in the order of completion),
+   * while for others the results are passed in partition order after the job ends.
+   */
   def collectWithHandler[U: ClassTag, R: ClassTag](
       processPartition: (TaskContext, Iterator[InternalRow]) => (U, Int),
       resultHandler: (Int, U) => R,
       decodeResult: R => Iterator[InternalRow],
       skipUnpartitionedDataProcessing: Boolean = false,
-      skipLocalCollectProcessing: Boolean = false): Iterator[R] = {
+      skipLocalCollectProcessing: Boolean = false,
+      resultConsumer: (Int, R) => Unit = null): Iterator[R] = {
     val sc = snappySession.sparkContext
     val hasLocalCallSite = sc.getLocalProperties.containsKey(CallSite.LONG_FORM)
     if (!hasLocalCallSite) {
@@ -366,17 +452,30 @@ class CachedDataFrame(snappySession: SnappySession, queryExecution: QueryExecuti
         else executedPlan.executeCollect()
       }
 
-      executedPlan match {
+      // check if code generation of final aggregation fails so that the
+      // fallback path of executeCollect is used instead of shipping the plan
+      def hasCodeGenerationFailure(plan: CollectAggregateExec): Boolean = {
+        try {
+          plan.generatedClass
+          false
+        } catch {
+          case t: Throwable if (withFallback ne null) &&
+              withFallback.isCodeGenerationException(t) =>
+            logInfo(s"Failed code generation of ${plan.nodeName} so using fallback", t)
+            true
+        }
+      }
+
+      val results: Iterator[R] = executedPlan match {
         case plan: CollectLimitExec =>
           val takeRDD = if (isCached) cachedRDD else plan.child.execute()
           CachedDataFrame.executeTake(takeRDD, plan.limit, processPartition,
             resultHandler, decodeResult, schema, snappySession)
 
         case plan: CollectAggregateExec =>
-          if (skipLocalCollectProcessing) {
+          if (skipLocalCollectProcessing && !hasCodeGenerationFailure(plan)) {
             // special case where caller will do processing of the blocks
             // (returns a AggregatePartialDataIterator)
-            // TODO: handle fallback for this case
             new AggregatePartialDataIterator(plan.generatedSource,
               plan.generatedReferences, plan.child.schema.length,
               plan.executeCollectData()).asInstanceOf[Iterator[R]]
@@ -404,9 +503,11 @@ class CachedDataFrame(snappySession: SnappySession, queryExecution: QueryExecuti
             // no processing required
             executeCollect().iterator.asInstanceOf[Iterator[R]]
           } else {
+            val streamResults = (resultConsumer ne null) && executedPlan.outputOrdering.isEmpty
             try {
               val execRDD = getExecRDD
-              runAsJob(execRDD, processPartition, resultHandler, sc)
+              runAsJob(execRDD, processPartition, resultHandler, sc,
+                if (streamResults) resultConsumer else null)
             } catch {
               case t: Throwable
                 if CachedDataFrame.isConnectorCatalogStaleException(t, snappySession) =>
@@ -418,7 +519,8 @@ class CachedDataFrame(snappySession: SnappySession, queryExecution: QueryExecuti
                   case Some(exec) =>
                     CachedDataFrame.retryOnStaleCatalogException(snappySession = snappySession) {
                       val execRDD = exec().executedPlan.execute()
-                      runAsJob(execRDD, processPartition, resultHandler, sc)
+                      runAsJob(execRDD, processPartition, resultHandler, sc,
+                        if (streamResults) resultConsumer else null)
                     }
                   case _ => throw t
                 }
@@ -426,6 +528,18 @@ class CachedDataFrame(snappySession: SnappySession, queryExecution: QueryExecuti
 
           }
       }
+      // partial aggregation results are always returned as is for processing by caller
+      if ((resultConsumer eq null) || results.isInstanceOf[AggregatePartialDataIterator]) {
+        results
+      } else {
+        // pass any results that have not been streamed in order
+        var index = 0
+        while (results.hasNext) {
+          resultConsumer(index, results.next())
+          index += 1
+        }
+        Iterator.empty
+      }
     }
 
     try {
@@ -440,7 +554,13 @@ class CachedDataFrame(snappySession: SnappySession, queryExecution: QueryExecuti
   private def runAsJob[R: ClassTag, U: ClassTag](
       execRdd: RDD[InternalRow],
       processPartition: (TaskContext, Iterator[InternalRow]) => (U, Int),
-      resultHandler: (Int, U) => R, sc: SparkContext) = {
+      resultHandler: (Int, U) => R, sc: SparkContext,
+      resultConsumer: (Int, R) => Unit): Iterator[R] = {
+    if (resultConsumer ne null) {
+      CachedDataFrame.streamJobResults(execRdd, processPartition, resultHandler,
+        resultConsumer, sc)
+      return Iterator.empty
+    }
     val numPartitions = execRdd.getNumPartitions
     val results = new Array[R](numPartitions)
     sc.runJob(execRdd, processPartition, 0 until numPartitions,
@@ -457,6 +577,43 @@ final class AggregatePartialDataIterator(
 
   private val numResults = partialAggregateResult.length
 
+  /**
+   * Write the plan of final aggregation with the partial results for
+   * merge on another node by [[CollectAggregateExec.mergePartialResults]].
+   * The blocks stored in BlockManager for large results are removed.
+   */
+  def writeTo(out: DataOutput, bm: BlockManager): Unit = {
+    val planBytes = CollectAggregateExec.serializePlan(generatedSource, generatedReferences)
+    out.writeInt(CollectAggregateExec.PARTIAL_RESULTS_MARKER)
+    out.writeInt(numFields)
+    out.writeInt(planBytes.length)
+    out.write(planBytes)
+    out.writeInt(numResults)
+    var success = false
+    try {
+      while (hasNext) next() match {
+        case null => out.writeInt(0)
+        case data: Array[Byte] =>
+          out.writeInt(data.length)
+          out.write(data)
+        case id: RDDBlockId =>
+          val data = Utils.getPartitionData(id, bm)
+          // remove the block once a local handle to it has been obtained
+          bm.removeBlock(id, tellMaster = false)
+          out.writeInt(data.remaining())
+          out.write(data.array(), data.arrayOffset() + data.position(), data.remaining())
+      }
+      success = true
+    } finally {
+      if (!success) {
+        // remove any remaining results from block manager
+        partialAggregateResult.collectFirst {
+          case id: RDDBlockId => id.rddId
+        }.foreach(bm.removeRdd)
+      }
+    }
+  }
+
   private var index = 0
 
   override def hasNext: Boolean = index < numResults
@@ -475,6 +632,12 @@ object CachedDataFrame
   @transient @volatile var sparkConf: SparkConf = _
   @transient @volatile var compressionCodec: String = _
 
+  /**
+   * Set while determining the partitions of a cached plan shared from another session
+   * to the flag for linking partitions to buckets (see SnappySessionState.getTablePartitions).
+   */
+  private[sql] val sharedPlanLinkPartitions = new ThreadLocal[java.lang.Boolean]
+
   override def write(kryo: Kryo, output: Output): Unit = {}
 
   override def read(kryo: Kryo, input: Input): Unit = {}
@@ -594,6 +757,43 @@ object CachedDataFrame
     }
   }
 
+  /**
+   * Run a job on the RDD and pass the result of each partition to the consumer in the
+   * calling thread as soon as its task finishes. The consumer can take its time (e.g.
+   * to throttle for a slow receiver) since the results are queued by the handler.
+   */
+  private def streamJobResults[U: ClassTag, R](rdd: RDD[InternalRow],
+      processPartition: (TaskContext, Iterator[InternalRow]) => (U, Int),
+      resultHandler: (Int, U) => R, resultConsumer: (Int, R) => Unit,
+      sc: SparkContext): Unit = {
+    val numPartitions = rdd.getNumPartitions
+    val results = new LinkedBlockingQueue[(Int, R)]()
+    val job = sc.submitJob[InternalRow, (U, Int), Unit](rdd,
+      (iter: Iterator[InternalRow]) => processPartition(TaskContext.get(), iter),
+      0 until numPartitions,
+      (index: Int, r: (U, Int)) => results.put(index -> resultHandler(index, r._1)), ())
+    var remaining = numPartitions
+    try {
+      while (remaining > 0) {
+        val result = results.poll(10, TimeUnit.MILLISECONDS)
+        if (result ne null) {
+          resultConsumer(result._1, result._2)
+          remaining -= 1
+        } else if (job.isCompleted && results.isEmpty) {
+          // all results are queued before job completion so this can only be a failure
+          job.value match {
+            case Some(Failure(t)) => throw t
+            case _ =>
+          }
+        }
+      }
+    } catch {
+      case t: Throwable =>
+        if (!job.isCompleted) job.cancel()
+        throw t
+    }
+  }
+
   def localBlockStoreResultHandler(rddId: Int, bm: BlockManager)(
       partitionId: Int, data: Array[Byte]): Any = {
     // put in block manager only if result is large
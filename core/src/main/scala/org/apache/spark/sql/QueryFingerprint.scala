@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package org.apache.spark.sql
+
+import scala.collection.mutable.ArrayBuffer
+
+import org.apache.spark.sql.catalyst.expressions.{ParamLiteral, RefParamLiteral}
+import org.apache.spark.sql.catalyst.parser.ParserUtils
+import org.apache.spark.sql.types.{BooleanType, DataType, IntegerType, LongType, StringType}
+import org.apache.spark.unsafe.types.UTF8String
+
+/**
+ * The text of a query with its literals replaced by a marker and whitespace collapsed,
+ * together with the values of those literals as created by the parser. This allows
+ * repeated queries that differ only in the literal values to find their cached plan
+ * without parsing (see SnappySession.sqlPlan).
+ *
+ * The fingerprint is valid for a cached plan only if its literals [[matches]] all the
+ * ParamLiterals of the parsed plan in order which excludes the cases where some
+ * literals are not tokenized by the parser or plan depends on their values.
+ */
+private[sql] final class QueryFingerprint(val text: String,
+    val values: Array[Any], val types: Array[DataType]) {
+
+  /**
+   * Returns true if the literals of this fingerprint map one-to-one to the given
+   * ParamLiterals of the parsed query. RefParamLiterals are not allowed since
+   * the plan depends on literals having equal values for those.
+   */
+  def matches(literals: Array[ParamLiteral]): Boolean = {
+    if (literals.length != values.length) return false
+    var i = 0
+    while (i < literals.length) {
+      val p = literals(i)
+      if (p.isInstanceOf[RefParamLiteral] || p.pos != i || p.dataType != types(i) ||
+          p.value != values(i)) {
+        return false
+      }
+      i += 1
+    }
+    true
+  }
+
+  /**
+   * Returns true if some literals have equal values for which the parser
+   * would have created RefParamLiterals.
+   */
+  def hasEqualValues: Boolean = values.length > 1 && values.toSet.size != values.length
+
+  /** ParamLiterals for the values to be bound to the cached plan. */
+  def toParamLiterals(paramsId: Int): Array[ParamLiteral] = {
+    val literals = new Array[ParamLiteral](values.length)
+    var i = 0
+    while (i < literals.length) {
+      literals(i) = ParamLiteral(values(i), types(i), i, paramsId, tokenized = true)
+      i += 1
+    }
+    literals
+  }
+}
+
+private[sql] object QueryFingerprint {
+
+  private val LITERAL_MARKER = '?'
+
+  private def isIdentifierChar(c: Char): Boolean = Character.isLetterOrDigit(c) || c == '_'
+
+  /**
+   * Position of the closing quote of a quoted string or identifier starting at given
+   * position handling the doubled quotes and, for strings, backslash escapes.
+   */
+  private def endOfQuoted(s: String, start: Int, quote: Char, escapes: Boolean): Int = {
+    val len = s.length
+    var i = start + 1
+    while (i < len) {
+      val c = s.charAt(i)
+      if (c == quote) {
+        if (i + 1 < len && s.charAt(i + 1) == quote) i += 2
+        else return i
+      } else if (escapes && c == '\\') i += 2
+      else i += 1
+    }
+    -1
+  }
+
+  /**
+   * Fingerprint of the given query or null if the query has anything other than
+   * string, integral and boolean literals, has comments or hints, variables for
+   * substitution or parameters, LIKE/RLIKE patterns or signed numeric literals.
+   */
+  def apply(sqlText: String): QueryFingerprint = {
+    val len = sqlText.length
+    val sb = new java.lang.StringBuilder(len)
+    val values = new ArrayBuffer[Any](4)
+    val types = new ArrayBuffer[DataType](4)
+
+    def lastChar: Char = if (sb.length() > 0) sb.charAt(sb.length() - 1) else ' '
+
+    def addLiteral(value: Any, dataType: DataType): Unit = {
+      values += value
+      types += dataType
+      sb.append(LITERAL_MARKER)
+    }
+
+    var i = 0
+    while (i < len) {
+      val c = sqlText.charAt(i)
+      if (Character.isWhitespace(c)) {
+        if (lastChar != ' ') sb.append(' ')
+        i += 1
+      } else if (c == '\'') {
+        // typed literals like X'..' or DATE '..' are not handled
+        if (isIdentifierChar(lastChar)) return null
+        val end = endOfQuoted(sqlText, i, c, escapes = true)
+        if (end == -1) return null
+        // same conversion as in SnappyBaseParser.stringLiteral
+        val s = sqlText.substring(i, end + 1)
+        addLiteral(UTF8String.fromString(ParserUtils.unescapeSQLString(
+          if (s.indexOf("''") >= 0) "'" + s.substring(1, s.length - 1).replace("''", "\\'") + "'"
+          else s)), StringType)
+        i = end + 1
+      } else if (c == '`' || c == '"') {
+        val end = endOfQuoted(sqlText, i, c, escapes = false)
+        if (end == -1) return null
+        sb.append(sqlText, i, end + 1)
+        i = end + 1
+      } else if (isIdentifierChar(c)) {
+        var end = i + 1
+        while (end < len && (isIdentifierChar(sqlText.charAt(end)) ||
+            sqlText.charAt(end) == '.' && Character.isDigit(c))) {
+          end += 1
+        }
+        val token = sqlText.substring(i, end)
+        if (Character.isDigit(c)) {
+          // a sign attached to the number is part of the literal for the parser
+          if (lastChar == '-' || lastChar == '+') return null
+          var j = 0
+          while (j < token.length) {
+            if (!Character.isDigit(token.charAt(j))) return null
+            j += 1
+          }
+          val v = try {
+            java.lang.Long.parseLong(token)
+          } catch {
+            case _: NumberFormatException => return null
+          }
+          // same types as in SnappyParser.toNumericLiteral
+          if (v >= Int.MinValue && v <= Int.MaxValue) addLiteral(v.toInt, IntegerType)
+          else addLiteral(v, LongType)
+        } else if (token.equalsIgnoreCase("true")) addLiteral(true, BooleanType)
+        else if (token.equalsIgnoreCase("false")) addLiteral(false, BooleanType)
+        else if (token.equalsIgnoreCase("like") || token.equalsIgnoreCase("rlike") ||
+            token.equalsIgnoreCase("regexp") || token.equalsIgnoreCase("interval")) {
+          return null
+        } else sb.append(token)
+        i = end
+      } else if (c == '?' || c == '$' || c == '{' ||
+          (c == '-' && i + 1 < len && sqlText.charAt(i + 1) == '-') ||
+          (c == '/' && i + 1 < len && sqlText.charAt(i + 1) == '*')) {
+        return null
+      } else {
+        sb.append(c)
+        i += 1
+      }
+    }
+    val text = if (lastChar == ' ') sb.substring(0, sb.length() - 1) else sb.toString
+    new QueryFingerprint(text, values.toArray, types.toArray)
+  }
+}
@@ -52,11 +52,12 @@ import org.apache.spark.sql.catalyst.analysis.NoSuchTableException
 import org.apache.spark.sql.catalyst.expressions.SortDirection
 import org.apache.spark.sql.collection.{ToolsCallbackInit, Utils}
 import org.apache.spark.sql.execution.columnar.ExternalStoreUtils.CaseInsensitiveMutableHashMap
+import org.apache.spark.sql.execution.columnar.impl.ColumnBatchCompactor
 import org.apache.spark.sql.execution.joins.HashedObjectCache
 import org.apache.spark.sql.execution.{ConnectionPool, DeployCommand, DeployJarCommand, RefreshMetadata}
 import org.apache.spark.sql.hive.{HiveExternalCatalog, SnappyHiveExternalCatalog, SnappySessionState}
 import org.apache.spark.sql.internal.{ContextJarUtils, SharedState, SnappySharedState, StaticSQLConf}
-import org.apache.spark.sql.store.CodeGeneration
+import org.apache.spark.sql.store.{CodeGeneration, PersistentCodeCache}
 import org.apache.spark.sql.streaming._
 import org.apache.spark.sql.types.{StructField, StructType}
 import org.apache.spark.sql.{SnappyParserConsts => ParserConsts}
@@ -1093,6 +1094,7 @@ object SnappyContext extends Logging {
           invokeServices(sc)
           sc.addSparkListener(new SparkContextListener)
           initMemberBlockMap(sc)
+          PersistentCodeCache.start(sc.conf)
           _globalContextInitialized = true
         }
       }
@@ -1300,6 +1302,8 @@ object SnappyContext extends Logging {
   def clearStaticArtifacts(): Unit = {
     CachedDataFrame.clear()
     ConnectionPool.clear()
+    PersistentCodeCache.stop()
+    ColumnBatchCompactor.stop()
     CodeGeneration.clearAllCache(skipTypeCache = false)
     HashedObjectCache.close()
     SparkSession.sqlListener.set(null)
@@ -735,6 +735,20 @@ abstract class SnappyDDLParser(session: SnappySession)
     }
   }
 
+  protected def createStreamView: Rule1[LogicalPlan] = rule {
+    CREATE ~ STREAM ~ VIEW ~ ifNotExists ~ tableIdentifier ~ (USING ~ qualifiedName).? ~
+        (OPTIONS ~ options).? ~ AS ~ query ~> { (allowExisting: Boolean,
+        viewIdent: TableIdentifier, provider: Any, opts: Any, plan: LogicalPlan) =>
+      CreateStreamViewCommand(viewIdent, provider.asInstanceOf[Option[String]],
+        opts.asInstanceOf[Option[Map[String, String]]].getOrElse(Map.empty), plan,
+        allowExisting)
+    }
+  }
+
+  protected def dropStreamView: Rule1[LogicalPlan] = rule {
+    DROP ~ STREAM ~ VIEW ~ ifExists ~ tableIdentifier ~> DropStreamViewCommand
+  }
+
   protected final def resourceType: Rule1[FunctionResource] = rule {
     identifier ~ stringLiteral ~> { (rType: String, path: String) =>
       val resourceType = Utils.toLowerCase(rType)
@@ -1052,9 +1066,9 @@ abstract class SnappyDDLParser(session: SnappySession)
     describe | allowDDL ~ (createTableLike | createHiveTable | createTable | refreshTable |
     dropTable | truncateTable | createView | createTempViewUsing | dropView | alterView | createSchema |
     dropSchema | alterTableToggleRowLevelSecurity | createPolicy | dropPolicy |
-    alterTableProps | alterTableOrView | alterTable | createStream | streamContext |
-    createIndex | dropIndex | createFunction | dropFunction | grantRevokeIntp | grantRevokeExternal |
-      passThrough | interpretCode )
+    alterTableProps | alterTableOrView | alterTable | createStream | createStreamView |
+    dropStreamView | streamContext | createIndex | dropIndex | createFunction | dropFunction |
+    grantRevokeIntp | grantRevokeExternal | passThrough | interpretCode )
   }
 
   protected def partitionSpec: Rule1[Map[String, Option[String]]]
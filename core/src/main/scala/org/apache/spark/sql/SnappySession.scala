@@ -33,9 +33,10 @@ import com.gemstone.gemfire.internal.GemFireVersion
 import com.gemstone.gemfire.internal.cache.PartitionedRegion.RegionLock
 import com.gemstone.gemfire.internal.cache.{GemFireCacheImpl, PartitionedRegion}
 import com.gemstone.gemfire.internal.shared.{ClientResolverUtils, FinalizeHolder, FinalizeObject}
-import com.google.common.cache.{Cache, CacheBuilder}
+import com.google.common.cache.{Cache, CacheBuilder, RemovalListener, RemovalNotification}
 import com.pivotal.gemfirexd.Attribute
 import com.pivotal.gemfirexd.internal.GemFireXDVersion
+import com.pivotal.gemfirexd.internal.engine.store.GemFireStore
 import com.pivotal.gemfirexd.internal.iapi.sql.ParameterValueSet
 import com.pivotal.gemfirexd.internal.iapi.types.TypeId
 import com.pivotal.gemfirexd.internal.iapi.{types => stypes}
@@ -48,13 +49,13 @@ import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap
 import org.apache.spark.annotation.{DeveloperApi, Experimental}
 import org.apache.spark.jdbc.{ConnectionConf, ConnectionUtil}
 import org.apache.spark.rdd.RDD
-import org.apache.spark.sql.catalyst.analysis.{Analyzer, NoSuchTableException, UnresolvedAttribute, UnresolvedRelation, UnresolvedStar}
-import org.apache.spark.sql.catalyst.catalog.{BucketSpec, CatalogTable, CatalogTableType}
+import org.apache.spark.sql.catalyst.analysis.{Analyzer, NoSuchTableException, UnresolvedAttribute, UnresolvedFunction, UnresolvedRelation, UnresolvedStar}
+import org.apache.spark.sql.catalyst.catalog.{BucketSpec, CatalogRelation, CatalogTable, CatalogTableType}
 import org.apache.spark.sql.catalyst.encoders._
 import org.apache.spark.sql.catalyst.expressions.aggregate.AggregateExpression
 import org.apache.spark.sql.catalyst.expressions.codegen.CodegenContext
-import org.apache.spark.sql.catalyst.expressions.{Alias, Ascending, AttributeReference, Descending, Exists, ExprId, Expression, GenericRow, ListQuery, ParamLiteral, PredicateSubquery, ScalarSubquery, SortDirection, TokenLiteral}
-import org.apache.spark.sql.catalyst.plans.logical.{Command, Filter, LocalRelation, LogicalPlan, Union}
+import org.apache.spark.sql.catalyst.expressions.{Alias, Ascending, AttributeReference, Descending, Exists, ExprId, Expression, GenericRow, ListQuery, ParamLiteral, PredicateSubquery, ScalarSubquery, SortDirection, SubqueryExpression, TokenLiteral}
+import org.apache.spark.sql.catalyst.plans.logical.{Command, Filter, LocalRelation, LogicalPlan, SubqueryAlias, Union}
 import org.apache.spark.sql.catalyst.{DefinedByConstructorParams, InternalRow, ScalaReflection, TableIdentifier}
 import org.apache.spark.sql.collection.{ToolsCallbackInit, Utils, WrappedInternalRow}
 import org.apache.spark.sql.execution._
@@ -68,7 +69,7 @@ import org.apache.spark.sql.execution.datasources.{CreateTable, DataSource, Logi
 import org.apache.spark.sql.execution.exchange.BroadcastExchangeExec
 import org.apache.spark.sql.execution.joins.{BroadcastHashJoinExec, BroadcastNestedLoopJoinExec}
 import org.apache.spark.sql.execution.ui.{SparkListenerSQLExecutionEnd, SparkListenerSQLPlanExecutionEnd, SparkListenerSQLPlanExecutionStart}
-import org.apache.spark.sql.hive.{HiveClientUtil, SnappySessionState}
+import org.apache.spark.sql.hive.{HiveClientUtil, SnappyHiveExternalCatalog, SnappySessionState}
 import org.apache.spark.sql.internal.StaticSQLConf.SCHEMA_STRING_LENGTH_THRESHOLD
 import org.apache.spark.sql.internal._
 import org.apache.spark.sql.row.{JDBCMutableRelation, SnappyStoreDialect}
@@ -2557,27 +2558,210 @@ object SnappySession extends Logging {
     }
   }
 
+  private[this] val planCacheHits = new AtomicLong(0)
+  private[this] val planCacheSharedHits = new AtomicLong(0)
+  private[this] val planCacheMisses = new AtomicLong(0)
+  private[this] val planCacheEvictions = new AtomicLong(0)
+  private[this] val planCacheUnparsedHits = new AtomicLong(0)
+
   private[this] lazy val planCache = {
     val env = SparkEnv.get
     val cacheSize = if (env ne null) {
       Property.PlanCacheSize.get(env.conf)
     } else Property.PlanCacheSize.defaultValue.get
-    CacheBuilder.newBuilder().maximumSize(cacheSize).build[CachedKey, CachedDataFrame]()
+    CacheBuilder.newBuilder().maximumSize(cacheSize).removalListener(
+      new RemovalListener[CachedKey, CachedDataFrame] {
+        override def onRemoval(n: RemovalNotification[CachedKey, CachedDataFrame]): Unit = {
+          if (n.wasEvicted()) planCacheEvictions.incrementAndGet()
+        }
+      }).build[CachedKey, CachedDataFrame]()
+  }
+
+  /**
+   * Normalized plans of the queries having cached plans keyed by the query fingerprint
+   * and the session configuration (that can change the parsed plan).
+   */
+  private[this] lazy val fingerprintCache = {
+    val env = SparkEnv.get
+    val cacheSize = if (env ne null) {
+      Property.PlanCacheSize.get(env.conf)
+    } else Property.PlanCacheSize.defaultValue.get
+    CacheBuilder.newBuilder().maximumSize(cacheSize).build[(String, PlanConfSettings), FingerprintEntry]()
   }
 
   // noinspection UnstableApiUsage
   def getPlanCache: Cache[CachedKey, CachedDataFrame] = planCache
 
+  /**
+   * Hits, misses and evictions of the plan cache since this node was started where
+   * `sharedHits` are the hits on plans that were cached by another session and
+   * `unparsedHits` the hits that skipped parsing of the query.
+   */
+  def getPlanCacheStats: PlanCacheStats = PlanCacheStats(planCacheHits.get(),
+    planCacheSharedHits.get(), planCacheUnparsedHits.get(), planCacheMisses.get(),
+    planCacheEvictions.get(), planCache.size())
+
+  private[sql] def catalogSchemaVersion(session: SnappySession): Long = {
+    session.externalCatalog match {
+      case c: SnappyHiveExternalCatalog => c.getCatalogSchemaVersion
+      case _ => -1L
+    }
+  }
+
+  /**
+   * The catalog relations as (schema, table) in lower case that the analyzed plan of
+   * a query depends on including the views it references and the tables under them.
+   */
+  private[sql] def dependentRelations(session: SnappySession,
+      plan: LogicalPlan): Array[(String, String)] = {
+    val relations = new mutable.HashSet[(String, String)]
+    def addTable(schema: String, table: String): Unit =
+      relations += Utils.toLowerCase(schema) -> Utils.toLowerCase(table)
+    def addRelations(p: LogicalPlan): Unit = p.foreach { node =>
+      node match {
+        case SubqueryAlias(_, _, Some(view)) =>
+          addTable(view.database.getOrElse(session.getCurrentSchema), view.table)
+        case LogicalRelation(_, _, Some(table)) => addTable(table.database, table.identifier.table)
+        case LogicalRelation(r: PartitionedDataSourceScan, _, _) =>
+          relations += JdbcExtendedUtils.getTableWithSchema(r.table, null, Some(session))
+        case r: CatalogRelation =>
+          addTable(r.catalogTable.database, r.catalogTable.identifier.table)
+        case _ =>
+      }
+      node.expressions.foreach(_.foreach {
+        case s: SubqueryExpression => addRelations(s.plan)
+        case _ =>
+      })
+    }
+    addRelations(plan)
+    relations.toArray
+  }
+
+  /**
+   * Returns true if the plan has no references to temporary views or functions
+   * of the session, so it can be shared by all the sessions on the node.
+   */
+  private def isSharablePlan(session: SnappySession, plan: LogicalPlan): Boolean = {
+    val catalog = session.sessionCatalog
+    def isSessionLocal(p: LogicalPlan): Boolean = p.find {
+      case u: UnresolvedRelation => catalog.isLocalTemporaryView(u.tableIdentifier)
+      case q => q.expressions.exists(_.find {
+        case f: UnresolvedFunction => catalog.isTemporaryFunction(f.name)
+        case s: SubqueryExpression => isSessionLocal(s.plan)
+        case _ => false
+      }.isDefined)
+    }.isDefined
+    !isSessionLocal(plan)
+  }
+
+  /**
+   * Returns true if the analyzed plan refers to a table having row level security
+   * enabled whose plans should never be shared with other sessions.
+   */
+  private def hasRowLevelSecurity(plan: LogicalPlan): Boolean = {
+    val memStore = GemFireStore.getBootingInstance
+    if ((memStore eq null) || !memStore.isRLSEnabled) return false
+    def hasRLS(p: LogicalPlan): Boolean = p.find {
+      case LogicalRelation(r: RowLevelSecurityRelation, _, _) => r.isRowLevelSecurityEnabled
+      case q => q.expressions.exists(_.find {
+        case s: SubqueryExpression => hasRLS(s.plan)
+        case _ => false
+      }.isDefined)
+    }.isDefined
+    hasRLS(plan)
+  }
+
+  /**
+   * Lookup the cached plan for the key and return a copy for the given session. The
+   * plans cached by other sessions are used only if not being executed currently
+   * since the executions of a cached plan are serialized (see CachedDataFrame).
+   * This check is only to avoid waiting on a busy plan: the copy applies its own
+   * literals only after acquiring the execution lock of the plan, so an execution
+   * started by another session in between makes this one wait for it to finish.
+   */
+  private def lookupPlan(session: SnappySession, key: CachedKey,
+      countMiss: Boolean = true): CachedDataFrame = {
+    val cachedDF = planCache.getIfPresent(key)
+    if (cachedDF eq null) {
+      if (countMiss) planCacheMisses.incrementAndGet()
+      null
+    } else if (cachedDF.ownerSession eq session) {
+      planCacheHits.incrementAndGet()
+      cachedDF.duplicate()
+    } else if (!cachedDF.isExecuting) {
+      planCacheHits.incrementAndGet()
+      planCacheSharedHits.incrementAndGet()
+      cachedDF.duplicate(session)
+    } else {
+      if (countMiss) planCacheMisses.incrementAndGet()
+      null
+    }
+  }
+
+  /**
+   * Lookup the cached plan for a query using its fingerprint without parsing it.
+   * Returns null if there is no cached plan for the fingerprint or it cannot be used.
+   */
+  private def lookupPlanByFingerprint(session: SnappySession, sqlText: String,
+      fingerprint: QueryFingerprint, planConf: PlanConfSettings): CachedDataFrame = {
+    val entry = fingerprintCache.getIfPresent(fingerprint.text -> planConf)
+    if ((entry eq null) || !entry.types.sameElements(fingerprint.types) ||
+        fingerprint.hasEqualValues) {
+      return null
+    }
+    // same handling of session data as done by parser before parsing
+    session.synchronized {
+      session.clearQueryData()
+      session.sessionState.clearExecutionData()
+    }
+    if (!session.planCaching) return null
+    var key = new CachedKey(session, session.getCurrentSchema, entry.plan, sqlText,
+      session.queryHints.hashCode(), planConf, catalogSchemaVersion(session),
+      shared = false, entry.planHashcode)
+    if (entry.shared) {
+      if (Property.SharedPlanCaching.get(session.sessionState.conf) &&
+          isSharablePlan(session, entry.plan)) {
+        key = key.toShared
+      } else return null
+    }
+    val cachedDF = lookupPlan(session, key, countMiss = false)
+    if (cachedDF ne null) {
+      planCacheUnparsedHits.incrementAndGet()
+      logDebug(s"Using cached plan without parsing for: $sqlText")
+      handleCachedDataFrame(cachedDF, entry.plan, session,
+        CachedDataFrame.queryStringShortForm(sqlText), sqlText,
+        fingerprint.toParamLiterals(cachedDF.paramsId), cachedDF.paramsId)
+    } else null
+  }
+
   def sqlPlan(session: SnappySession, sqlText: String): CachedDataFrame = {
+    // try to find the cached plan without parsing the query
+    val fingerprint = if (session.planCaching) QueryFingerprint(sqlText) else null
+    val planConf = session.sessionState.conf.planConf
+    if (fingerprint ne null) {
+      val cachedDF = lookupPlanByFingerprint(session, sqlText, fingerprint, planConf)
+      if (cachedDF ne null) return cachedDF
+    }
     val parser = session.sessionState.sqlParser
     val sqlShortText = CachedDataFrame.queryStringShortForm(sqlText)
     val plan = parser.parsePlan(sqlText, clearExecutionData = true)
     val planCaching = session.planCaching
     val paramLiterals = parser.sqlParser.getAllLiterals
     val paramsId = parser.sqlParser.getCurrentParamsId
-    val key = CachedKey(session, session.getCurrentSchema,
+    var key = CachedKey(session, session.getCurrentSchema,
       plan, sqlText, paramLiterals, planCaching)
-    var cachedDF: CachedDataFrame = if (planCaching) planCache.getIfPresent(key) else null
+    if (planCaching && Property.SharedPlanCaching.get(session.sessionState.conf) &&
+        isSharablePlan(session, plan)) {
+      key = key.toShared
+    }
+    var cachedDF: CachedDataFrame = if (!planCaching) null
+    else if (key.shared) {
+      // plans on tables having row level security are cached only for the session
+      lookupPlan(session, key, countMiss = false) match {
+        case null => lookupPlan(session, key.toSessionLocal)
+        case df => df
+      }
+    } else lookupPlan(session, key)
     if (cachedDF eq null) {
       // evaluate the plan and cache it if required
       key.currentLiterals = paramLiterals
@@ -2596,7 +2780,15 @@ object SnappySession extends Logging {
           }
           key.currentLiterals = null
           key.currentParamsId = -1
+          // policy filters of row level security are resolved for the current user
+          if (key.shared && hasRowLevelSecurity(execution.analyzed)) key = key.toSessionLocal
+          cachedDF.dependentRelations = dependentRelations(session, execution.analyzed)
+          // a plan being executed by another session can be replaced by this one
+          // which is fine since both are equivalent
           planCache.put(key, cachedDF)
+          // plan may have been created before a concurrent catalog change that
+          // has already cleared the plans depending on the changed relations
+          if (catalogSchemaVersion(session) != key.catalogVersion) planCache.invalidate(key)
         }
       } finally {
         session.currentKey = null
@@ -2604,7 +2796,12 @@ object SnappySession extends Logging {
       }
     } else {
       logDebug(s"Using cached plan for: $sqlText (existing: ${cachedDF.queryString})")
-      cachedDF = cachedDF.duplicate()
+    }
+    // record the fingerprint for cached plan if its literals map to the ParamLiterals
+    if ((fingerprint ne null) && planCaching && cachedDF.isCached &&
+        fingerprint.matches(paramLiterals)) {
+      fingerprintCache.put(fingerprint.text -> planConf,
+        new FingerprintEntry(key.lp, key.planHashcode, key.shared, fingerprint.types))
     }
     handleCachedDataFrame(cachedDF, plan, session, sqlShortText, sqlText, paramLiterals, paramsId)
   }
@@ -2684,6 +2881,26 @@ object SnappySession extends Logging {
     foundSession
   }
 
+  /**
+   * Remove the cached plans that depend on any of the given relations (schema, table)
+   * as recorded by [[CachedDataFrame.dependentRelations]]. All the plans are removed
+   * if the relations are empty.
+   */
+  def clearPlanCache(relations: Seq[(String, String)]): Unit = {
+    if (relations.isEmpty) clearAllCache(onlyQueryPlanCache = true)
+    else {
+      val sc = SnappyContext.globalSparkContext
+      if (!SnappyTableStatsProviderService.TEST_SUSPEND_CACHE_INVALIDATION &&
+          (sc ne null) && !sc.isStopped) {
+        val names = relations.map(r => Utils.toLowerCase(r._1) -> Utils.toLowerCase(r._2))
+        val iter = planCache.asMap().values().iterator()
+        while (iter.hasNext) {
+          if (iter.next().dependsOn(names)) iter.remove()
+        }
+      }
+    }
+  }
+
   def clearAllCache(onlyQueryPlanCache: Boolean = false): Unit = {
     val sc = SnappyContext.globalSparkContext
     if (!SnappyTableStatsProviderService.TEST_SUSPEND_CACHE_INVALIDATION &&
@@ -2766,30 +2983,65 @@ object SnappySession extends Logging {
   private def nextDummyId = dummyId.decrementAndGet()
 }
 
+/**
+ * Key of the plan cache. A shared key (i.e. having `shared` as true) matches the
+ * same plan from any session having the same current schema and session configuration
+ * (including the user name) while the owner `session` is used only to clear its
+ * entries when it is closed.
+ *
+ * The `catalogVersion` is the catalog schema version when the key was created and is
+ * not a part of the key since the plans are removed by the changes to the relations
+ * they depend on (see SnappySession.clearPlanCache).
+ */
 final class CachedKey(val session: SnappySession,
-    val currSchema: String, private val lp: LogicalPlan,
-    val sqlText: String, val hintHashcode: Int) {
+    val currSchema: String, private[sql] val lp: LogicalPlan,
+    val sqlText: String, val hintHashcode: Int, val planConf: PlanConfSettings,
+    val catalogVersion: Long, val shared: Boolean, private[sql] val planHashcode: Int) {
 
   private[sql] var currentLiterals: Array[ParamLiteral] = _
   private[sql] var currentParamsId: Int = -1
 
   override val hashCode: Int = {
-    var h = ClientResolverUtils.addIntToHashOpt(session.hashCode(), 42)
+    var h = if (shared) 42 else ClientResolverUtils.addIntToHashOpt(session.hashCode(), 42)
     h = ClientResolverUtils.addIntToHashOpt(currSchema.hashCode, h)
-    h = ClientResolverUtils.addIntToHashOpt(lp.hashCode(), h)
+    h = ClientResolverUtils.addIntToHashOpt(planHashcode, h)
+    h = ClientResolverUtils.addIntToHashOpt(planConf.hashCode, h)
     ClientResolverUtils.addIntToHashOpt(hintHashcode, h)
   }
 
+  /** The key to share the plan with other sessions. */
+  private[sql] def toShared: CachedKey = if (shared) this
+  else {
+    new CachedKey(session, currSchema, lp, sqlText, hintHashcode, planConf,
+      catalogVersion, shared = true, planHashcode)
+  }
+
+  /** The key to cache the plan only for the owner session. */
+  private[sql] def toSessionLocal: CachedKey = if (!shared) this
+  else {
+    new CachedKey(session, currSchema, lp, sqlText, hintHashcode, planConf,
+      catalogVersion, shared = false, planHashcode)
+  }
+
   override def equals(obj: Any): Boolean = {
     obj match {
       case x: CachedKey =>
-        x.hintHashcode == hintHashcode && (x.session eq session) &&
+        x.hintHashcode == hintHashcode && x.shared == shared &&
+            (shared || (x.session eq session)) && x.planConf == planConf &&
             (x.currSchema == currSchema) && x.lp == lp
       case _ => false
     }
   }
 }
 
+/** Statistics of the plan cache of this node. */
+case class PlanCacheStats(hits: Long, sharedHits: Long, unparsedHits: Long, misses: Long,
+    evictions: Long, size: Long)
+
+/** Normalized plan of a cached plan for its query fingerprint. */
+private final class FingerprintEntry(val plan: LogicalPlan, val planHashcode: Int,
+    val shared: Boolean, val types: Array[DataType])
+
 object CachedKey {
   def apply(session: SnappySession, currschema: String, plan: LogicalPlan, sqlText: String,
       paramLiterals: Array[ParamLiteral], forCaching: Boolean): CachedKey = {
@@ -2824,7 +3076,9 @@ object CachedKey {
       for (l <- paramLiterals) l.tokenized = true
       plan.transform(transformExprID)
     } else plan
-    new CachedKey(session, currschema, normalizedPlan, sqlText, session.queryHints.hashCode())
+    new CachedKey(session, currschema, normalizedPlan, sqlText, session.queryHints.hashCode(),
+      session.sessionState.conf.planConf, SnappySession.catalogSchemaVersion(session),
+      shared = false, normalizedPlan.hashCode())
   }
 }
 
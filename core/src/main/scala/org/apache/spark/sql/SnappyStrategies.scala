@@ -27,7 +27,7 @@ import org.apache.spark.sql.JoinStrategy._
 import org.apache.spark.sql.catalyst.analysis
 import org.apache.spark.sql.catalyst.expressions.aggregate.{AggregateExpression, AggregateFunction, Complete, Final, ImperativeAggregate, Partial, PartialMerge}
 import org.apache.spark.sql.catalyst.expressions.codegen.CodegenFallback
-import org.apache.spark.sql.catalyst.expressions.{Alias, Expression, Literal, NamedExpression, RowOrdering}
+import org.apache.spark.sql.catalyst.expressions.{Alias, Ascending, Attribute, DynamicInSet, EqualTo, Expression, GreaterThan, GreaterThanOrEqual, In, InSet, IntegerLiteral, LessThan, LessThanOrEqual, Literal, NamedExpression, NullsLast, RowOrdering, SortOrder, StartsWith, TokenLiteral}
 import org.apache.spark.sql.catalyst.planning.{ExtractEquiJoinKeys, PhysicalAggregation}
 import org.apache.spark.sql.catalyst.plans.logical._
 import org.apache.spark.sql.catalyst.plans.physical.{ClusteredDistribution, HashPartitioning}
@@ -39,7 +39,8 @@ import org.apache.spark.sql.execution.aggregate.{AggUtils, CollectAggregateExec,
 import org.apache.spark.sql.execution.columnar.ExternalStoreUtils
 import org.apache.spark.sql.execution.datasources.LogicalRelation
 import org.apache.spark.sql.execution.exchange.{EnsureRequirements, Exchange, ShuffleExchange}
-import org.apache.spark.sql.execution.sources.PhysicalScan
+import org.apache.spark.sql.execution.row.{RowFormatRelation, RowTableIndex}
+import org.apache.spark.sql.execution.sources.{PhysicalScan, StoreDataSourceStrategy}
 import org.apache.spark.sql.hive.SnappySessionState
 import org.apache.spark.sql.internal.{JoinQueryPlanning, LogicalPlanWithHints, SQLConf}
 import org.apache.spark.sql.sources.SamplingRelation
@@ -118,8 +119,8 @@ private[sql] trait SnappyStrategies {
       case Constant.JOIN_TYPE_SORT =>
         if (RowOrdering.isOrderable(leftKeys)) {
           new joins.SnappySortMergeJoinExec(leftKeys, rightKeys, joinType, condition,
-            planLater(left), planLater(right), left.statistics.sizeInBytes,
-            right.statistics.sizeInBytes) :: Nil
+            planSortedChild(left, leftKeys), planSortedChild(right, rightKeys),
+            left.statistics.sizeInBytes, right.statistics.sizeInBytes) :: Nil
         } else Nil
       case _ => throw new ParseException(s"Unknown joinType hint '$joinHint'. " +
           s"Expected one of ${Constant.ALLOWED_JOIN_TYPE_HINTS}")
@@ -181,8 +182,8 @@ private[sql] trait SnappyStrategies {
                   joinType, joins.BuildLeft, replicatedTableJoin = false)
               } else if (RowOrdering.isOrderable(leftKeys)) {
                 new joins.SnappySortMergeJoinExec(leftKeys, rightKeys, joinType, condition,
-                  planLater(left), planLater(right), left.statistics.sizeInBytes,
-                  right.statistics.sizeInBytes) :: Nil
+                  planSortedChild(left, leftKeys), planSortedChild(right, rightKeys),
+                  left.statistics.sizeInBytes, right.statistics.sizeInBytes) :: Nil
               } else Nil
             }
             // broadcast joins preferred over exchange+local hash join or SMJ
@@ -215,8 +216,8 @@ private[sql] trait SnappyStrategies {
                 joinType, joins.BuildLeft, replicatedTableJoin = false)
             } else if (RowOrdering.isOrderable(leftKeys)) {
               new joins.SnappySortMergeJoinExec(leftKeys, rightKeys, joinType, condition,
-                planLater(left), planLater(right), left.statistics.sizeInBytes,
-                right.statistics.sizeInBytes) :: Nil
+                planSortedChild(left, leftKeys), planSortedChild(right, rightKeys),
+                left.statistics.sizeInBytes, right.statistics.sizeInBytes) :: Nil
             } else Nil
 
           case _ => Nil
@@ -342,6 +343,201 @@ private[sql] trait SnappyStrategies {
         left.statistics.sizeInBytes, right.statistics.sizeInBytes,
         replicatedTableJoin) :: Nil
     }
+
+    /**
+     * Use an index scan of a row table for a side of sort merge join if the
+     * join keys are leading columns of an index to avoid the sort. This is done
+     * only if the table is partitioned on the join keys since an exchange would
+     * otherwise be required that loses the ordering of the index scan.
+     */
+    private def planSortedChild(plan: LogicalPlan, keys: Seq[Expression]): SparkPlan =
+      planSortedScan(plan, keys.map(SortOrder(_, Ascending))) match {
+        case Some(scan) if scan.outputPartitioning.satisfies(ClusteredDistribution(keys)) =>
+          scan
+        case _ => planLater(plan)
+      }
+  }
+
+  /**
+   * Plans scans of row tables on one of their sorted indexes. An index scan reads
+   * only the range of index keys matching the filters in each bucket and returns
+   * the rows in each partition ordered on the index columns. It is chosen when the
+   * filters on leading columns of an index are estimated to be selective enough
+   * (see [[Property.RowIndexScanSelectivity]]) or when the index ordering can avoid
+   * a full scan and sort for ORDER BY ... LIMIT queries and the filters are not more
+   * selective on another index. Only the latter scans are forced on the index and
+   * return its ordering while the former leave the choice of index to the store.
+   */
+  object RowIndexScanStrategy extends Strategy {
+
+    def apply(plan: LogicalPlan): Seq[SparkPlan] = if (isDisabled) Nil else plan match {
+      case ReturnAnswer(rootPlan) => planOrderedLimit(rootPlan)
+      case _ => planOrderedLimit(plan) match {
+        case Nil => planSelectiveScan(plan)
+        case result => result
+      }
+    }
+
+    private def planOrderedLimit(plan: LogicalPlan): Seq[SparkPlan] = plan match {
+      case Limit(IntegerLiteral(limit), Sort(order, true, child)) =>
+        planOrderedLimit(limit, order, child.output, child)
+      case Limit(IntegerLiteral(limit), Project(projectList, Sort(order, true, child))) =>
+        planOrderedLimit(limit, order, projectList, child)
+      case _ => Nil
+    }
+
+    private def planOrderedLimit(limit: Int, order: Seq[SortOrder],
+        projectList: Seq[NamedExpression], child: LogicalPlan): Seq[SparkPlan] = {
+      if (hasMoreSelectiveIndex(child, order)) return Nil
+      planSortedScan(child, order) match {
+        // each partition of the index scan is already sorted so only the
+        // first limit rows of each need to be considered for the result
+        case Some(scan) => TakeOrderedAndProjectExec(limit, order, projectList,
+          LocalLimitExec(limit, scan)) :: Nil
+        case None => Nil
+      }
+    }
+
+    /**
+     * Returns true if the filters on the table are selective enough on an index other
+     * than the one having the given ordering. A scan of the fewer rows selected on
+     * that index and their sort is then preferred over reading the index having the
+     * ordering till the limit which can require scanning most of the table.
+     */
+    private def hasMoreSelectiveIndex(plan: LogicalPlan, order: Seq[SortOrder]): Boolean =
+      plan match {
+        case PhysicalScan(_, filters, l@LogicalRelation(r: RowFormatRelation, _, _))
+          if filters.nonEmpty =>
+          val maxSelectivity = Property.RowIndexScanSelectivity.get(conf)
+          maxSelectivity > 0.0 && (sortedIndex(l, r, order) match {
+            case Some(orderIndex) =>
+              val orderSelectivity = estimateSelectivity(orderIndex, filters)
+              r.sortedIndexes.exists { index =>
+                val selectivity = if (index == orderIndex) orderSelectivity
+                else estimateSelectivity(index, filters)
+                selectivity <= maxSelectivity && selectivity < orderSelectivity
+              }
+            case None => false
+          })
+        case _ => false
+      }
+
+    private def planSelectiveScan(plan: LogicalPlan): Seq[SparkPlan] = plan match {
+      case PhysicalScan(projects, filters, l@LogicalRelation(r: RowFormatRelation, _, _))
+        if filters.nonEmpty =>
+        val maxSelectivity = Property.RowIndexScanSelectivity.get(conf)
+        val indexes = if (maxSelectivity > 0.0) r.sortedIndexes else Nil
+        if (indexes.isEmpty) Nil
+        else {
+          val (index, selectivity) = indexes.map(index =>
+            index -> estimateSelectivity(index, filters)).minBy(_._2)
+          if (selectivity <= maxSelectivity) {
+            planIndexScan(l, projects, filters, r, index, ordered = false) :: Nil
+          } else Nil
+        }
+      case _ => Nil
+    }
+  }
+
+  /** estimated selectivity of equality on an index column */
+  private val EQUALITY_SELECTIVITY = 0.05
+  /** estimated selectivity of only a lower or upper bound on an index column */
+  private val RANGE_BOUND_SELECTIVITY = 1.0 / 3.0
+  /** estimated selectivity of both lower and upper bounds on an index column */
+  private val CLOSED_RANGE_SELECTIVITY = 0.25
+
+  /**
+   * Estimate the fraction of rows selected by filters on the leading columns of
+   * given index in the absence of statistics. Equality and IN filters on a column
+   * allow the filters on next index column to narrow the range further while
+   * the range filters on a column end the key range.
+   */
+  private def estimateSelectivity(index: RowTableIndex, filters: Seq[Expression]): Double = {
+    def isColumn(e: Expression, column: String): Boolean = e match {
+      case a: Attribute => a.name.equalsIgnoreCase(column)
+      case _ => false
+    }
+    def isConstant(e: Expression): Boolean = TokenLiteral.isConstant(e)
+
+    var selectivity = 1.0
+    for (column <- index.columns) {
+      var numValues = -1
+      var lowerBound = false
+      var upperBound = false
+      filters.foreach {
+        case EqualTo(a, v) if isColumn(a, column) && isConstant(v) => numValues = 1
+        case EqualTo(v, a) if isColumn(a, column) && isConstant(v) => numValues = 1
+        case In(a, list) if isColumn(a, column) && list.forall(isConstant) =>
+          if (numValues != 1) numValues = list.length
+        case InSet(a, set) if isColumn(a, column) => if (numValues != 1) numValues = set.size
+        case DynamicInSet(a, set) if isColumn(a, column) =>
+          if (numValues != 1) numValues = set.length
+        case GreaterThan(a, v) if isColumn(a, column) && isConstant(v) => lowerBound = true
+        case GreaterThanOrEqual(a, v) if isColumn(a, column) && isConstant(v) => lowerBound = true
+        case LessThan(v, a) if isColumn(a, column) && isConstant(v) => lowerBound = true
+        case LessThanOrEqual(v, a) if isColumn(a, column) && isConstant(v) => lowerBound = true
+        case LessThan(a, v) if isColumn(a, column) && isConstant(v) => upperBound = true
+        case LessThanOrEqual(a, v) if isColumn(a, column) && isConstant(v) => upperBound = true
+        case GreaterThan(v, a) if isColumn(a, column) && isConstant(v) => upperBound = true
+        case GreaterThanOrEqual(v, a) if isColumn(a, column) && isConstant(v) => upperBound = true
+        case StartsWith(a, v) if isColumn(a, column) && isConstant(v) =>
+          lowerBound = true
+          upperBound = true
+        case _ =>
+      }
+      if (numValues > 0) {
+        selectivity *= math.min(1.0, numValues * EQUALITY_SELECTIVITY)
+      } else {
+        if (lowerBound && upperBound) selectivity *= CLOSED_RANGE_SELECTIVITY
+        else if (lowerBound || upperBound) selectivity *= RANGE_BOUND_SELECTIVITY
+        return selectivity
+      }
+    }
+    selectivity
+  }
+
+  /**
+   * Plan an index scan of a row table returning rows in given ordering if it is
+   * a prefix of the columns of one of the indexes of the table (see [[sortedIndex]]).
+   */
+  private[sql] def planSortedScan(plan: LogicalPlan,
+      ordering: Seq[SortOrder]): Option[SparkPlan] = plan match {
+    case _ if isDisabled || ordering.isEmpty => None
+    case PhysicalScan(projects, filters, l@LogicalRelation(r: RowFormatRelation, _, _)) =>
+      sortedIndex(l, r, ordering).map(planIndexScan(l, projects, filters, r, _,
+        ordered = true))
+    case _ => None
+  }
+
+  /**
+   * The index of a row table whose columns have given ordering as a prefix. Nulls are
+   * sorted last by the index so the ordering should have the same for nullable columns.
+   */
+  private def sortedIndex(relation: LogicalRelation, r: RowFormatRelation,
+      ordering: Seq[SortOrder]): Option[RowTableIndex] = {
+    val columns = ordering.map {
+      case SortOrder(a: Attribute, Ascending, nullOrdering) =>
+        relation.output.find(_.exprId == a.exprId) match {
+          case Some(attr) if !attr.nullable || nullOrdering == NullsLast => attr.name
+          case _ => return None
+        }
+      case _ => return None
+    }
+    r.sortedIndexes.find(index => index.columns.length >= columns.length &&
+        columns.zip(index.columns).forall(p => p._1.equalsIgnoreCase(p._2)))
+  }
+
+  /**
+   * Plan a scan on given index of a row table. The index is forced along with the
+   * ordering of its rows only if the ordering is used by the plan (see
+   * [[RowFormatRelation.buildIndexScan]]).
+   */
+  private def planIndexScan(relation: LogicalRelation, projects: Seq[NamedExpression],
+      filters: Seq[Expression], r: RowFormatRelation, index: RowTableIndex,
+      ordered: Boolean): SparkPlan = {
+    StoreDataSourceStrategy.pruneFilterProject(relation, projects, filters,
+      r.numBuckets, r.partitionColumns, (a, f) =>
+        r.buildIndexScan(a.map(_.name).toArray, f.toArray, index, ordered) -> Nil)
   }
 
   object SnappyAggregation extends Strategy {
@@ -17,11 +17,12 @@
 package org.apache.spark.sql.execution
 
 import io.snappydata.collection.ObjectHashSet
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
 
 import org.apache.spark.sql.SnappySession
 import org.apache.spark.sql.catalyst.expressions.Expression
 import org.apache.spark.sql.catalyst.expressions.codegen.{CodegenContext, ExprCode}
-import org.apache.spark.sql.execution.columnar.encoding.ColumnEncoding
+import org.apache.spark.sql.execution.columnar.encoding.{ColumnEncoding, StringDictionary}
 import org.apache.spark.sql.types.StringType
 
 /**
@@ -58,6 +59,16 @@ import org.apache.spark.sql.types.StringType
  * the map, insert the dictionary index in those additional columns.
  * Then use those indexes for equality comparisons instead of string.
  *
+ * The first approach is used for the case where all the key columns are strings.
+ * The dictionary indexes of the key columns are combined into a single long
+ * (index of first column + (size of first dictionary + 1) * index of second
+ * column + ...) that is used as the key of a batch level [[Long2ObjectOpenHashMap]]
+ * pointing to the map entry. For the aggregation using [[SHAMapAccessor]] it is
+ * the key of a [[it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap]] pointing to the
+ * offset of the entry instead. If any of the columns is not dictionary encoded in
+ * a batch or the combined index cannot fit in a long, then the batch falls back
+ * to the normal lookup.
+ *
  * The multiple column dictionary optimization will be useful for only string
  * dictionary types where cost of looking up a string in hash map is
  * substantially higher than integer lookup. The single column optimization
@@ -74,6 +85,24 @@ object DictionaryOptimizedMapAccessor {
         keyExpressions.head.dataType.isInstanceOf[StringType]
   }
 
+  def canHaveMultiKeyCase(keyExpressions: Seq[Expression]): Boolean = {
+    keyExpressions.length > 1 &&
+        keyExpressions.forall(_.dataType.isInstanceOf[StringType])
+  }
+
+  def canHaveDictionaryCase(keyExpressions: Seq[Expression]): Boolean =
+    canHaveSingleKeyCase(keyExpressions) || canHaveMultiKeyCase(keyExpressions)
+
+  /**
+   * Java type of the batch level variable used for dictionary lookups:
+   * an array of map entries for single column case and a map from the
+   * combined dictionary indexes to the map entry for multiple columns.
+   */
+  def dictionaryTermType(keyExpressions: Seq[Expression], className: String): String = {
+    if (canHaveMultiKeyCase(keyExpressions)) classOf[Long2ObjectOpenHashMap[_]].getName
+    else s"$className[]"
+  }
+
   def checkSingleKeyCase(keyExpressions: Seq[Expression],
       keyVars: => Seq[ExprCode], ctx: CodegenContext,
       session: SnappySession): Option[DictionaryCode] = {
@@ -82,6 +111,68 @@ object DictionaryOptimizedMapAccessor {
     } else None
   }
 
+  def checkMultiKeyCase(keyExpressions: Seq[Expression],
+      keyVars: => Seq[ExprCode], ctx: CodegenContext,
+      session: SnappySession): Option[Seq[DictionaryCode]] = {
+    if (canHaveMultiKeyCase(keyExpressions)) {
+      val dictionaryKeys = keyVars.flatMap(v => session.getDictionaryCode(ctx, v.value))
+      // all of the key columns should have dictionaries
+      if (dictionaryKeys.length == keyExpressions.length) Some(dictionaryKeys) else None
+    } else None
+  }
+
+  private def distinctDictionaries(keyDictVars: Seq[DictionaryCode]): Seq[DictionaryCode] =
+    keyDictVars.zipWithIndex.collect {
+      case (d, i) if keyDictVars.indexWhere(_.dictionary.value == d.dictionary.value) == i => d
+    }
+
+  /**
+   * Generate the body of batch level initialization method for the multiple
+   * column case. It returns the cleared map from combined dictionary index to
+   * map entry (or its offset for [[SHAMapAccessor]]), or null if the optimization
+   * cannot be used for the batch. The returned sequence has the variables holding
+   * the multipliers for the dictionary indexes of second column onwards.
+   */
+  def dictionaryMapInitCode(ctx: CodegenContext, keyDictVars: Seq[DictionaryCode],
+      mapClass: String = classOf[Long2ObjectOpenHashMap[_]].getName): (String, Seq[String]) = {
+    val mapVar = ctx.freshName("dictionaryMap")
+    ctx.addMutableState(mapClass, mapVar, "")
+    val multiplier = ctx.freshName("multiplier")
+    val size = ctx.freshName("size")
+    val multiplierVars = keyDictVars.tail.map { _ =>
+      val v = ctx.freshName("dictionaryMultiplier")
+      ctx.addMutableState("long", v, "")
+      v
+    }
+    // same column may appear multiple times in the keys
+    val distinctDictVars = distinctDictionaries(keyDictVars)
+    distinctDictVars.foreach(d => ctx.addMutableState(classOf[StringDictionary].getName,
+      d.dictionary.value, ""))
+    val evalDictionaries = distinctDictVars.map(_.evaluateDictionaryCode()).mkString("\n")
+    val dictionaryVars = keyDictVars.map(_.dictionary.value)
+    // null values are at the index just beyond the dictionary
+    val multiplierCode = dictionaryVars.zipWithIndex.map { case (d, i) =>
+      s"""${if (i > 0) s"${multiplierVars(i - 1)} = $multiplier;" else ""}
+         |$size = $d.size() + 1L;
+         |if ($multiplier > Long.MAX_VALUE / $size) return null;
+         |$multiplier *= $size;""".stripMargin
+    }.mkString("\n")
+    (s"""
+       |$evalDictionaries
+       |if (${distinctDictVars.map(d => s"${d.dictionary.value} == null").mkString(" || ")}) {
+       |  return null;
+       |}
+       |long $multiplier = 1L;
+       |long $size;
+       |$multiplierCode
+       |if ($mapVar == null) {
+       |  $mapVar = new $mapClass();
+       |} else {
+       |  $mapVar.clear();
+       |}
+       |return $mapVar;""".stripMargin, multiplierVars)
+  }
+
   def dictionaryArrayGetOrInsert(ctx: CodegenContext, keyExpr: Seq[Expression],
       keyVar: ExprCode, keyDictVar: DictionaryCode, arrayVar: String,
       resultVar: String, valueInit: String, continueOnNull: Boolean,
@@ -149,4 +240,84 @@ object DictionaryOptimizedMapAccessor {
        |  }
        |}""".stripMargin
   }
+
+  /**
+   * Returns the declarations of dictionary index variables of the key columns, the
+   * code to evaluate them and the expression for their combined index using the
+   * multipliers returned by [[dictionaryMapInitCode]].
+   */
+  def combinedDictionaryIndex(keyDictVars: Seq[DictionaryCode],
+      multiplierVars: Seq[String]): (String, String, String) = {
+    val keyIndexes = keyDictVars.map(_.dictionaryIndex.value)
+    // same column may appear multiple times in the keys
+    val (dictionaryIndexInits, indexCodes) = distinctDictionaries(keyDictVars).map { d =>
+      val indexCode = d.evaluateIndexCode()
+      (if (indexCode.isEmpty) "" else s"int ${d.dictionaryIndex.value} = -1;", indexCode)
+    }.unzip
+    val combinedIndex = (s"(long)${keyIndexes.head}" +: keyIndexes.tail.zip(multiplierVars).map {
+      case (index, multiplier) => s"$multiplier * $index"
+    }).mkString(" + ")
+    (dictionaryIndexInits.mkString("\n"), indexCodes.mkString("\n"), combinedIndex)
+  }
+
+  def dictionaryMapGetOrInsert(ctx: CodegenContext, keyExpr: Seq[Expression],
+      keyVars: Seq[ExprCode], keyDictVars: Seq[DictionaryCode],
+      multiplierVars: Seq[String], mapVar: String, resultVar: String,
+      valueInit: String, continueOnNull: Boolean,
+      accessor: ObjectHashMapAccessor): String = {
+    val dictionaryKey = ctx.freshName("dictionaryKey")
+    val className = accessor.getClassName
+
+    // for the case when there is no entry in map (hash join), insert a token
+    // in the map to avoid looking up missing entries repeatedly
+    val (nullCheck, mapAssignFragment) = if (valueInit eq null) {
+      val nullCheck = if (continueOnNull) {
+        s"if ($resultVar == $className.EMPTY) continue;\n"
+      } else {
+        s"""if ($resultVar == $className.EMPTY) {
+            |  $resultVar = null;
+            |} else """.stripMargin
+      }
+      (nullCheck,
+          s"""if ($resultVar != null) {
+             |  $mapVar.put($dictionaryKey, $resultVar);
+             |} else {
+             |  // EMPTY is for no match (vs null which means "lookup map")
+             |  $mapVar.put($dictionaryKey, $className.EMPTY);
+             |}""".stripMargin)
+    } else ("", s"$mapVar.put($dictionaryKey, $resultVar);")
+
+    // use fresh variables for the keys to lookup the full map that are filled
+    // from the dictionary if the key code has not been consumed
+    val (keyAssigns, keyEvs) = keyVars.zip(keyDictVars).map { case (keyVar, keyDictVar) =>
+      val key = ctx.freshName("dictionaryKeyCol")
+      val keyNull = keyVar.isNull != "false"
+      val keyEv = ExprCode("", if (keyNull) s"($key == null)" else "false", key)
+      val keyAssign = if (keyVar.code.isEmpty) s"final UTF8String $key = ${keyVar.value};"
+      else {
+        val stringAssignCode = ColumnEncoding.stringFromDictionaryCode(
+          keyDictVar.dictionary.value, keyDictVar.bufferVar, keyDictVar.dictionaryIndex.value)
+        s"final UTF8String $key = $stringAssignCode;"
+      }
+      (keyAssign, keyEv)
+    }.unzip
+    val hashVar = Array(ctx.freshName("keyHash"))
+    val hashCode = accessor.generateHashCode(hashVar, keyEvs, keyExpr, register = false)
+    val (dictionaryIndexInits, indexCodes, combinedIndex) =
+      combinedDictionaryIndex(keyDictVars, multiplierVars)
+
+    s"""
+       |$dictionaryIndexInits
+       |if ($mapVar != null) {
+       |  $indexCodes
+       |  final long $dictionaryKey = $combinedIndex;
+       |  $resultVar = ($className)$mapVar.get($dictionaryKey);
+       |  ${nullCheck}if ($resultVar == null) {
+       |    ${keyAssigns.mkString("\n")}
+       |    $hashCode
+       |    ${accessor.mapLookup(resultVar, hashVar(0), keyExpr, keyEvs, valueInit)}
+       |    $mapAssignFragment
+       |  }
+       |}""".stripMargin
+  }
 }
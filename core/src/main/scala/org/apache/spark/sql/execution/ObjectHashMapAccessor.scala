@@ -92,6 +92,8 @@ case class ObjectHashMapAccessor(@transient session: SnappySession,
   private[execution] val keyExpressions = keyExprs.map(_.canonicalized)
   private[execution] val valueExpressions = valueExprs.map(_.canonicalized)
   private[execution] var dictionaryKey: Option[DictionaryCode] = None
+  private[execution] var dictionaryKeys: Option[Seq[DictionaryCode]] = None
+  private[this] var dictionaryKeyMultipliers: Seq[String] = Nil
 
   private[this] val valueIndex = keyExpressions.length
 
@@ -697,6 +699,33 @@ case class ObjectHashMapAccessor(@transient session: SnappySession,
     }
   }
 
+  private def initDictionaryCodeForMultiKeyCase(dictionaryMapInit: String,
+      input: Seq[ExprCode], keyExpressions: Seq[Expression] = keyExpressions,
+      output: Seq[Attribute] = output): Boolean = {
+    // make a copy of input key variables if required since this is used
+    // only for lookup and the ExprCode's code should not be cleared
+    dictionaryKeys = DictionaryOptimizedMapAccessor.checkMultiKeyCase(
+      keyExpressions, getExpressionVars(keyExpressions, input.map(_.copy()),
+        output), ctx, session)
+    dictionaryKeys match {
+      case Some(keyDictVars) =>
+        // initialize or reuse the map at batch level
+        val mapClass = DictionaryOptimizedMapAccessor.dictionaryTermType(
+          keyExpressions, className)
+        val (initCode, multiplierVars) = DictionaryOptimizedMapAccessor.dictionaryMapInitCode(
+          ctx, keyDictVars)
+        dictionaryKeyMultipliers = multiplierVars
+        ctx.addNewFunction(dictionaryMapInit,
+          s"""
+             |public $mapClass $dictionaryMapInit() {
+             |  $initCode
+             |}
+           """.stripMargin)
+        true
+      case None => false
+    }
+  }
+
   /**
    * Generate code to lookup the map or insert a new key, value if not found.
    */
@@ -710,19 +739,19 @@ case class ObjectHashMapAccessor(@transient session: SnappySession,
     // optimized path for single key string column if dictionary is present
     def mapLookupCode(keyVars: Seq[ExprCode]): String = mapLookup(objVar,
       hashVar(0), keyExpressions, keyVars, valueInit)
+    // materialize the key code explicitly if required by update expressions later (AQP-292:
+    //   it can no longer access the code since keyVars has emptied the key codes in input)
+    def evalKeyCode(keyVars: Seq[ExprCode]): String = if (evalKeys.isEmpty) ""
+    else evaluateVariables(keyVars.indices.collect {
+      case i if evalKeys(i) => keyVars(i)
+    })
     initDictionaryCodeForSingleKeyCase(dictArrayInitVar, input)
     dictionaryKey match {
       case Some(dictKey) =>
         val keyVars = getExpressionVars(keyExpressions, input)
-        // materialize the key code explicitly if required by update expressions later (AQP-292:
-        //   it can no longer access the code since keyVars has emptied the key codes in input)
-        val evalKeyCode = if (evalKeys.isEmpty) ""
-        else evaluateVariables(keyVars.indices.collect {
-          case i if evalKeys(i) => keyVars(i)
-        })
         val keyVar = keyVars.head
         s"""
-          $evalKeyCode
+          ${evalKeyCode(keyVars)}
           $className $objVar;
           ${DictionaryOptimizedMapAccessor.dictionaryArrayGetOrInsert(ctx,
             keyExpressions, keyVar, dictKey, dictArrayVar, objVar, valueInit,
@@ -734,6 +763,22 @@ case class ObjectHashMapAccessor(@transient session: SnappySession,
             ${mapLookupCode(keyVars)}
           }
         """
+      // optimized path for multiple string key columns if dictionaries are present
+      case None if initDictionaryCodeForMultiKeyCase(dictArrayInitVar, input) =>
+        val keyVars = getExpressionVars(keyExpressions, input)
+        s"""
+          ${evalKeyCode(keyVars)}
+          $className $objVar;
+          ${DictionaryOptimizedMapAccessor.dictionaryMapGetOrInsert(ctx,
+            keyExpressions, keyVars, dictionaryKeys.get, dictionaryKeyMultipliers,
+            dictArrayVar, objVar, valueInit, continueOnNull = false, this)} else {
+            // evaluate the key expressions
+            ${evaluateVariables(keyVars)}
+            // evaluate hash code of the lookup key
+            ${generateHashCode(hashVar, keyVars, keyExpressions, register = false)}
+            ${mapLookupCode(keyVars)}
+          }
+        """
       case None =>
         val inputEvals = evaluateVariables(input)
         val keyVars = getExpressionVars(keyExpressions, input)
@@ -893,6 +938,25 @@ case class ObjectHashMapAccessor(@transient session: SnappySession,
         if (keyVar.code.nonEmpty) input.find(_.value == keyVar.value)
             .foreach(_.code = keyVar.code)
         code
+      // optimized path for multiple string key columns if dictionaries are present
+      case None if initDictionaryCodeForMultiKeyCase(dictArrayInitVar, input,
+        streamKeys, streamOutput) =>
+        val code = s"""
+          ${DictionaryOptimizedMapAccessor.dictionaryMapGetOrInsert(ctx,
+            streamKeys, streamKeyVars, dictionaryKeys.get, dictionaryKeyMultipliers,
+            dictArrayVar, entryVar, valueInit = null, continueOnNull, this)} else {
+            // evaluate the key expressions
+            ${streamKeyVars.map(_.code.trim).filter(_.nonEmpty).mkString("\n")}
+            // generate hash code from stream side key columns
+            $streamHashCode
+            $lookup
+          }
+        """
+        // copy back the updated code to input if present
+        streamKeyVars.foreach(keyVar => if (keyVar.code.nonEmpty) {
+          input.find(_.value == keyVar.value).foreach(_.code = keyVar.code)
+        })
+        code
       case None =>
         s"""
           // evaluate the key expressions
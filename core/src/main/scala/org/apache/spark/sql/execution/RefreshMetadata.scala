@@ -90,10 +90,16 @@ object RefreshMetadata extends Enumeration
   def executeLocal(action: Type, args: Any): Unit = {
     action match {
       case UPDATE_CATALOG_SCHEMA_VERSION =>
-        SnappySession.clearAllCache(onlyQueryPlanCache = true)
-        CodeGeneration.clearAllCache()
         if (args != null) {
           val (version, relations) = args.asInstanceOf[(Long, Seq[(String, String)])]
+          // only the plans and generated code depending on changed relations are removed
+          if (relations.isEmpty) {
+            SnappySession.clearAllCache(onlyQueryPlanCache = true)
+            CodeGeneration.clearAllCache()
+          } else {
+            SnappySession.clearPlanCache(relations)
+            CodeGeneration.removeCache(relations)
+          }
           // update the version stored in own profile
           val profile = GemFireXDUtils.getMyProfile(false)
           if (profile ne null) {
@@ -104,6 +110,9 @@ object RefreshMetadata extends Enumeration
             if (relations.isEmpty) catalog.invalidateAll()
             else relations.foreach(catalog.invalidate)
           }
+        } else {
+          SnappySession.clearAllCache(onlyQueryPlanCache = true)
+          CodeGeneration.clearAllCache()
         }
       case FLUSH_ROW_BUFFER =>
         GfxdSystemProcedures.flushLocalBuckets(args.asInstanceOf[String], true)
@@ -54,7 +54,8 @@ case class SHAMapAccessor(@transient session: SnappySession,
   aggregateBufferVars: Seq[String], keyHolderCapacityTerm: String,
   shaMapClassName: String, useCustomHashMap: Boolean,
   previousSingleKey_Position_LenTerm: Option[(String, String, String)],
-  codeSplitFuncParamsSize: Int, splitAggCode: Boolean, splitGroupByKeyCode: Boolean)
+  codeSplitFuncParamsSize: Int, splitAggCode: Boolean, splitGroupByKeyCode: Boolean,
+  spillSizeTerm: Option[String] = None)
   extends CodegenSupport {
   val unsafeArrayClass = classOf[UnsafeArrayData].getName
   val unsafeRowClass = classOf[UnsafeRow].getName
@@ -718,7 +719,8 @@ case class SHAMapAccessor(@transient session: SnappySession,
     keysDataType: Seq[DataType], aggregateDataTypes: Seq[DataType],
     dictionaryCode: Option[DictionaryCode], dictionaryArrayTerm: String,
     dictionaryArraySizeTerm: String,
-    aggFuncDependentOnGroupByKey: Boolean): String = {
+    aggFuncDependentOnGroupByKey: Boolean,
+    multiKeyDictionary: Option[(Seq[DictionaryCode], Seq[String])] = None): String = {
     val hashVar = Array(ctx.freshName("hash"))
     val tempValueData = ctx.freshName("tempValueData")
     val linkedListClass = classOf[java.util.LinkedList[SHAMap]].getName
@@ -733,8 +735,58 @@ case class SHAMapAccessor(@transient session: SnappySession,
          | ${hashVar(0)}""".stripMargin
     }
 
-    val lookUpInsertCode =
+    val resetPreviousKeyCode = previousSingleKey_Position_LenTerm.map {
+      case (_, posTerm, _) => s"$posTerm = -1;"
+    }.getOrElse("")
+    // Spill the map to disk and reuse it instead of creating overflow maps. The overflow
+    // list is initialized with the single map so that the dictionary and previous key
+    // optimizations which cache the value offsets are skipped after the first spill.
+    val spillCode = spillSizeTerm match {
+      case Some(spillSize) =>
+        val metricAdd = org.apache.spark.sql.collection.Utils.metricMethods._1
+        s"""
+           |$spillSize.${metricAdd(s"$hashMapTerm.spill()")};
+           |if ($overflowHashMapsTerm == null) {
+           |  $overflowHashMapsTerm = new $linkedListClass<$shaMapClassName>();
+           |  $overflowHashMapsTerm.add($hashMapTerm);
+           |}
+           |$valueDataTerm = $hashMapTerm.getValueData();
+           |$vdBaseObjectTerm = $valueDataTerm.baseObject();
+           |$vdBaseOffsetTerm = $valueDataTerm.baseOffset();
+           |$valueDataCapacityTerm = $valueDataTerm.capacity();
+           |$resetPreviousKeyCode
+         """.stripMargin
+      case None => ""
+    }
+
+    val lookUpInsertCode = if (spillSizeTerm.isDefined) {
       s"""
+         |// insert or lookup spilling the map to disk if it is full or memory is short
+         |if ($hashMapTerm.spillRequested()) {
+           |$spillCode
+         |}
+         |try {
+           |$valueOffsetTerm = $hashMapTerm.putBufferIfAbsent($putBufferIfAbsentArgs);
+         |} catch ($exceptionName bsle) {
+           |$spillCode
+           |$valueOffsetTerm = $hashMapTerm.putBufferIfAbsent($putBufferIfAbsentArgs);
+         |}
+         |$keyExistedTerm = $valueOffsetTerm >= 0;
+         |if (!$keyExistedTerm) {
+           |$valueOffsetTerm = -1 * $valueOffsetTerm;
+           |if (($valueOffsetTerm + $numValueBytes + $numKeyBytesTerm) >=
+             |$valueDataCapacityTerm) {
+             |$valueDataTerm =  $hashMapTerm.getValueData();
+             |$vdBaseObjectTerm = $valueDataTerm.baseObject();
+             |$vdBaseOffsetTerm = $valueDataTerm.baseOffset();
+             |$valueDataCapacityTerm = $valueDataTerm.capacity();
+           |}
+         |}
+         |// position the offset to start of aggregate value BUT DO NOT ADD BASE OFFSET YET
+         |// AS IT IS SUBJECT TO CHANGE ON REHASH ETC. JUST ADD KEY LENGTH
+         |$valueOffsetTerm += $numKeyBytesTerm ;
+       """.stripMargin
+    } else s"""
          |// insert or lookup
          |if($overflowHashMapsTerm == null) {
            |try {
@@ -1004,14 +1056,44 @@ case class SHAMapAccessor(@transient session: SnappySession,
              }
          """.stripMargin
         }
-    }.getOrElse(lookUpInsertCode)
+    }.getOrElse(multiKeyDictionary match {
+      // dictionaryArrayTerm is the map from combined dictionary indexes of multiple
+      // string keys to the value offsets (see DictionaryOptimizedMapAccessor)
+      case Some((keyDictVars, multiplierVars)) =>
+        val dictionaryKey = ctx.freshName("dictionaryKey")
+        val (dictionaryIndexInits, indexCodes, combinedIndex) =
+          DictionaryOptimizedMapAccessor.combinedDictionaryIndex(keyDictVars, multiplierVars)
+        s"""
+           |$dictionaryIndexInits
+           |long $dictionaryKey = -1L;
+           |boolean $skipLookupTerm = false;
+           |${if (aggFuncDependentOnGroupByKey) keysPrepCodeCode else ""}
+           |if ($dictionaryArrayTerm != null && $overflowHashMapsTerm == null) {
+             |$indexCodes
+             |$dictionaryKey = $combinedIndex;
+             |$valueOffsetTerm = $dictionaryArrayTerm.get($dictionaryKey);
+             |if ($valueOffsetTerm > 0) {
+               |$skipLookupTerm = true;
+               |$keyExistedTerm = true;
+             |}
+           |}
+           |if (!$skipLookupTerm) {
+             |${if (!aggFuncDependentOnGroupByKey) keysPrepCodeCode else ""}
+             |$lookUpInsertCode
+             |if ($dictionaryArrayTerm != null && $overflowHashMapsTerm == null) {
+               |$dictionaryArrayTerm.put($dictionaryKey, $valueOffsetTerm);
+             |}
+           |}
+         """.stripMargin
+      case None => lookUpInsertCode
+    })
 
     s"""
         |${SHAMapAccessor.resetNullBitsetCode(nullKeysBitsetTerm, numBytesForNullKeyBits)}
         |${SHAMapAccessor.resetNullBitsetCode(nullAggsBitsetTerm, numBytesForNullAggBits)}
           // evaluate input row vars
         |$evaluatedInputCode
-        |${if (dictionaryCode.isEmpty) keysPrepCodeCode else ""}
+        |${if (dictionaryCode.isEmpty && multiKeyDictionary.isEmpty) keysPrepCodeCode else ""}
         |long $valueOffsetTerm = 0;
         |boolean $keyExistedTerm = false;
         |$lookUpInsertCodeWithSkip
@@ -2307,6 +2389,16 @@ object SHAMapAccessor {
         output, ctx), ctx, session)
   }
 
+  def initDictionaryCodeForMultiKeyCase(
+    input: Seq[ExprCode], keyExpressions: Seq[Expression], output: Seq[Attribute],
+    ctx: CodegenContext, session: SnappySession): Option[Seq[DictionaryCode]] = {
+    // make a copy of input key variables if required since this is used
+    // only for lookup and the ExprCode's code should not be cleared
+    DictionaryOptimizedMapAccessor.checkMultiKeyCase(
+      keyExpressions, getExpressionVars(keyExpressions, input.map(_.copy()),
+        output, ctx), ctx, session)
+  }
+
   private def getExpressionVars(expressions: Seq[Expression],
     input: Seq[ExprCode],
     output: Seq[Attribute], ctx: CodegenContext): Seq[ExprCode] = {
@@ -16,16 +16,23 @@
  */
 package org.apache.spark.sql.execution.aggregate
 
+import java.util.concurrent.Callable
+
 import scala.collection.mutable.ArrayBuffer
 
+import com.gemstone.gemfire.internal.ByteArrayDataInput
+import com.google.common.cache.CacheBuilder
+
 import org.apache.spark.rdd.RDD
+import org.apache.spark.serializer.KryoSerializerPool
 import org.apache.spark.sql.CachedDataFrame
 import org.apache.spark.sql.catalyst.InternalRow
 import org.apache.spark.sql.catalyst.expressions.Attribute
-import org.apache.spark.sql.catalyst.expressions.codegen.CodeGenerator
+import org.apache.spark.sql.catalyst.expressions.codegen.{CodeAndComment, CodeGenerator, GeneratedClass}
 import org.apache.spark.sql.catalyst.plans.physical.{Distribution, UnspecifiedDistribution}
 import org.apache.spark.sql.execution.{BufferedRowIterator, InputAdapter, PlanLater, SparkPlan, UnaryExecNode, WholeStageCodegenExec}
 import org.apache.spark.sql.hive.SnappySessionState
+import org.apache.spark.sql.store.CodeGeneration
 
 /**
  * Special plan to collect top-level aggregation on driver itself and avoid
@@ -131,3 +138,84 @@ case class CollectAggregateExec(child: SparkPlan)(
     sessionState.prepareExecution(plan).execute()
   }
 }
+
+object CollectAggregateExec {
+
+  /**
+   * Marker at the start of partial aggregation results shipped by lead for the
+   * final merge on the server node. This is in place of the uncompressed length
+   * of the first compressed block of rows (see CachedDataFrame) which is always
+   * positive so the two are never confused.
+   */
+  val PARTIAL_RESULTS_MARKER: Int = -1
+
+  /**
+   * Cache of the classes of plans shipped for final merge on the server keyed by
+   * their generated code, so the same plan is compiled only once. The references
+   * are not a part of the key since those differ across executions of a plan for
+   * the values of its parameterized literals.
+   */
+  private[this] lazy val planCache = CacheBuilder.newBuilder()
+      .maximumSize(CodeGeneration.cacheSize).build[String, GeneratedClass]()
+
+  /**
+   * Serialize the generated code of final aggregation and its references. The
+   * references have to be serialized for each execution since they can include
+   * the current values of the parameterized literals of the cached plan.
+   */
+  def serializePlan(source: CodeAndComment, references: Array[Any]): Array[Byte] = {
+    KryoSerializerPool.serialize { (kryo, output) =>
+      output.writeString(source.body)
+      kryo.writeClassAndObject(output, references)
+    }
+  }
+
+  /**
+   * Returns true if the given data (positioned after any metadata) has partial aggregation
+   * results written by [[AggregatePartialDataIterator.writeTo]] instead of the final rows.
+   */
+  def isPartialResults(input: ByteArrayDataInput): Boolean = {
+    input.available() >= 4 && {
+      val position = input.position()
+      val marker = input.readInt()
+      input.setPosition(position)
+      marker == PARTIAL_RESULTS_MARKER
+    }
+  }
+
+  /**
+   * Perform the final merge of partial aggregation results written by
+   * [[AggregatePartialDataIterator.writeTo]] returning the final result rows.
+   */
+  def mergePartialResults(input: ByteArrayDataInput): Iterator[InternalRow] = {
+    if (input.readInt() != PARTIAL_RESULTS_MARKER) {
+      throw new IllegalStateException("Expected partial aggregation results")
+    }
+    val numFields = input.readInt()
+    val planBytes = new Array[Byte](input.readInt())
+    input.readFully(planBytes)
+    val (body, references) = KryoSerializerPool.deserialize(planBytes, 0,
+      planBytes.length, (kryo, in) => in.readString() ->
+          kryo.readClassAndObject(in).asInstanceOf[Array[Any]])
+    val generatedClass = planCache.get(body, new Callable[GeneratedClass] {
+      override def call(): GeneratedClass =
+        CodeGenerator.compile(new CodeAndComment(body, Map.empty))
+    })
+    val numBlocks = input.readInt()
+    val blocks = new ArrayBuffer[Array[Byte]](numBlocks)
+    for (_ <- 0 until numBlocks) {
+      val data = new Array[Byte](input.readInt())
+      input.readFully(data)
+      blocks += data
+    }
+    val results = blocks.iterator.flatMap(data =>
+      CachedDataFrame.decodeUnsafeRows(numFields, data, 0, data.length))
+    val buffer = generatedClass.generate(references).asInstanceOf[BufferedRowIterator]
+    buffer.init(0, Array(results))
+    new Iterator[InternalRow] {
+      override def hasNext: Boolean = buffer.hasNext
+
+      override def next(): InternalRow = buffer.next()
+    }
+  }
+}
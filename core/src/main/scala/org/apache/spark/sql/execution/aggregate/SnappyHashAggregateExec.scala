@@ -43,6 +43,7 @@ import com.gemstone.gemfire.internal.cache.GemFireCacheImpl
 import com.gemstone.gemfire.internal.shared.BufferAllocator
 import io.snappydata.Property
 import io.snappydata.collection.{ByteBufferData, ObjectHashSet, SHAMap}
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap
 
 import org.apache.spark.rdd.RDD
 import org.apache.spark.sql.catalyst.InternalRow
@@ -93,6 +94,19 @@ case class SnappyHashAggregateExec(
         !useOldImplementationForSingleKey
   }
 
+  /**
+   * Whether the ByteBufferMap should be spilled to disk when it is full or execution
+   * memory is short. The spilled runs are merged by hash code when read back and the
+   * entries having the same key are combined using the merge expressions of the
+   * aggregate functions, so this works for all the aggregation modes. It needs the
+   * buffers for group by to match the aggregation buffers of the functions for the
+   * merge, and is skipped when the aggregate code is split into separate methods.
+   */
+  private def spillByteBufferMap: Boolean = !splitAggCode &&
+      declFunctions.forall(f => bufferAttributesForGroup(f).length ==
+          f.aggBufferAttributes.length) &&
+      Property.SpillOptimizedHashAggregate.get(sqlContext.sparkSession.sessionState.conf)
+
   val codeSplitFuncParamsSize = Property.TestCodeSplitFunctionParamsSizeInSHA.
     get(sqlContext.sparkSession.sessionState.conf)
 
@@ -267,11 +281,11 @@ case class SnappyHashAggregateExec(
     // check for possible optimized dictionary code path;
     // below is a loose search while actual decision will be taken as per
     // availability of ExprCodeEx with DictionaryCode in doConsume
-   val keyExprs = if (useByteBufferMapBasedAggregation) byteBufferAccessor.keyExprs
-    else keyBufferAccessor.keyExpressions
-
-    DictionaryOptimizedMapAccessor.canHaveSingleKeyCase(
-      keyExprs)
+    if (useByteBufferMapBasedAggregation) {
+      DictionaryOptimizedMapAccessor.canHaveDictionaryCase(byteBufferAccessor.keyExprs)
+    } else {
+      DictionaryOptimizedMapAccessor.canHaveDictionaryCase(keyBufferAccessor.keyExpressions)
+    }
   }
 
   override def batchConsume(ctx: CodegenContext, plan: SparkPlan,
@@ -294,14 +308,15 @@ case class SnappyHashAggregateExec(
          """.stripMargin
       } else {
         dictionaryArrayTerm = ctx.freshName("dictionaryArray")
-        val className = keyBufferAccessor.getClassName
+        val termType = DictionaryOptimizedMapAccessor.dictionaryTermType(
+          keyBufferAccessor.keyExpressions, keyBufferAccessor.getClassName)
         ctx.addNewFunction(dictionaryArrayInit,
           s"""
-             |private $className[] $dictionaryArrayInit() {
+             |private $termType $dictionaryArrayInit() {
              |  return null;
              |}
          """.stripMargin)
-        s"$className[] $dictionaryArrayTerm = $dictionaryArrayInit();"
+        s"$termType $dictionaryArrayTerm = $dictionaryArrayInit();"
       }
 
       // create an empty method to populate the dictionary array
@@ -567,7 +582,7 @@ case class SnappyHashAggregateExec(
     ctx: CodegenContext, keyBufferVars: Seq[ExprCode],
     aggBufferVars: Seq[ExprCode], iterValueOffsetTerm: String,
     stateArrayVarOptForKey: Option[String],
-    stateArrayVarOptForAggs: Option[String]): String = {
+    stateArrayVarOptForAggs: Option[String], mergeSpilledCode: String): String = {
     /* Asif: It appears that we have to put the code of materilization of each grouping column
     & aggreagte before we can send it to parent. The reason is following:
     1) In the byte buffer hashmap data is written consecitively i.e key1, key2 agg1 etc.
@@ -671,6 +686,7 @@ case class SnappyHashAggregateExec(
 
       s"""
        ${keyValueEvalCode(evaluateKeyVars, Some(evaluateBufferVars))}
+       $mergeSpilledCode
        $evaluateAggResults
        ${consume(ctx, resultVars)}
        """
@@ -689,6 +705,7 @@ case class SnappyHashAggregateExec(
       val evaluateBufferVars = evaluateVariables(bufferVars)
       s"""
        ${keyValueEvalCode(evaluateKeyVars, Some(evaluateBufferVars))}
+       $mergeSpilledCode
        ${consume(ctx, keyBufferVars ++ aggBufferVars)}
        """
     } else {
@@ -705,6 +722,7 @@ case class SnappyHashAggregateExec(
       }
       s"""
        ${keyValueEvalCode(evaluateKeyVars, None)}
+       $mergeSpilledCode
        ${consume(ctx, resultVars)}
        """
     }
@@ -905,6 +923,9 @@ case class SnappyHashAggregateExec(
          |(int)($localIterValueOffsetTerm - $localIterValueStartOffsetTerm)
          |${ if (keysToProcessSize.length > 0) s" - ($suffixSize)" else ""};""".stripMargin
     } else ""
+    val spillMap = spillByteBufferMap
+    val spilledMapTerm = ctx.freshName("spilledMap")
+    val spillSize = if (spillMap) metricTerm(ctx, "spillSize") else null
     val useCustomHashMap = groupingAttributes.size == 1 &&
       (TypeUtilities.isFixedWidth(groupingAttributes.head.dataType) ||
        groupingAttributes.head.dataType.isInstanceOf[StringType])
@@ -919,6 +940,9 @@ case class SnappyHashAggregateExec(
       s"$overflowHashMapsTerm = null;")
     ctx.addMutableState(iterClassName + s"<$hashSetClassName>", overflowMapIter,
       s"$overflowMapIter = null;")
+    if (spillMap) {
+      ctx.addMutableState(hashSetClassName, spilledMapTerm, s"$spilledMapTerm = null;")
+    }
 
     val storedAggNullBitsTerm = ctx.freshName("storedAggNullBit")
 
@@ -963,7 +987,8 @@ case class SnappyHashAggregateExec(
       if (cacheStoredKeyNullBits) Some(storedKeyNullBitsTerm) else None,
       aggregateBufferVars, keyHolderCapacityTerm, hashSetClassName,
       useCustomHashMap, previousSingleKey_Position_LengthTerm,
-      codeSplitFuncParamsSize, splitAggCode, splitGroupByKeyCode)
+      codeSplitFuncParamsSize, splitAggCode, splitGroupByKeyCode,
+      if (spillMap) Some(spillSize) else None)
 
     if (useCustomHashMap) {
       ctx.addNewFunction(hashSetClassName, byteBufferAccessor.
@@ -983,6 +1008,7 @@ case class SnappyHashAggregateExec(
         sqlContext.sparkSession.asInstanceOf[SnappySession].sessionState.conf)},
         $keyValSize, ${Property.ApproxMaxCapacityOfBBMap.get(sqlContext.sparkSession.
         asInstanceOf[SnappySession].sessionState.conf)});
+           |${if (spillMap) s"$hashMapTerm.enableSpill();" else ""}
            |$allocatorClass $allocatorTerm = $gfeCacheImplClass.
            |getCurrentBufferAllocator();
            |$byteBufferClass $keyBytesHolderVar = null;
@@ -1037,11 +1063,22 @@ case class SnappyHashAggregateExec(
            |}
          |}""".stripMargin)
 
+    // load the batches merged from the spilled runs one at a time into the same map
+    // and iterate them like the overflow maps
+    val loadSpillCode = if (spillMap) {
+      s"""
+         |if ($spilledMapTerm != null && $spilledMapTerm.loadNextSpill()) {
+           |$hashMapTerm = $spilledMapTerm;
+           |$iterValueOffsetTerm = $hashMapTerm.getValueData().baseOffset();
+           |return true;
+         |}""".stripMargin
+    } else ""
     ctx.addNewFunction(setBBMap,
       s"""private boolean $setBBMap()  {
            |if ($hashMapTerm != null) {
              |return true;
            |} else {
+             |$loadSpillCode
              |if ($overflowMapIter.hasNext()) {
                |$hashMapTerm = ($hashSetClassName)$overflowMapIter.next();
                |$bbDataClass  $valueDataTerm = $hashMapTerm.getValueData();
@@ -1080,8 +1117,51 @@ case class SnappyHashAggregateExec(
       aggBufferVarsForProcessNext.map(_._2), aggBufferVarsForProcessNext.isDefined)
 
 
+    // the entries having the same key in a batch merged from the spilled runs are
+    // adjacent, so combine their buffers with the first one before the output
+    val mergeSpilledCode = if (spillMap) {
+      val groupOffset = ctx.freshName("groupOffset")
+      val spillOffset = ctx.freshName("spillOffset")
+      val spilledBufferVars = aggregateBufferVars.indices.map(i =>
+        ctx.freshName(s"spilledBuffer_$i"))
+      val (_, spilledBufferExprs) = byteBufferAccessor.readVarsFromBBMap(aggBuffDataTypes,
+        spilledBufferVars, spillOffset, false, byteBufferAccessor.nullAggsBitsetTerm,
+        byteBufferAccessor.numBytesForNullAggBits, false, false, None)
+      val readSpilledBuffers = evaluateVariables(spilledBufferExprs)
+      ctx.INPUT_ROW = null
+      ctx.currentVars = aggregateBufferVars.map(v =>
+        ExprCode("", s"$v${SHAMapAccessor.nullVarSuffix}", v)) ++ spilledBufferExprs
+      val mergeInputAttrs = aggregateBufferAttributesForGroup ++
+          declFunctions.flatMap(_.inputAggBufferAttributes)
+      val mergeEvals = declFunctions.flatMap(_.asInstanceOf[DeclarativeAggregate]
+          .mergeExpressions).map(e => BindReferences.bindReference(e, mergeInputAttrs)
+          .genCode(ctx))
+      val updateBuffers = aggregateBufferVars.zip(mergeEvals).map { case (v, ev) =>
+        s"""$v${SHAMapAccessor.nullVarSuffix} = ${ev.isNull};
+           |if (!${ev.isNull}) $v = ${ev.value};""".stripMargin
+      }.mkString("\n")
+      s"""
+         |if ($spilledMapTerm != null) {
+         |  long $groupOffset = $localIterValueStartOffsetTerm - 4;
+         |  while ($localIterValueOffsetTerm != $endIterValueOffset &&
+         |      $spilledMapTerm.sameKeyAt($groupOffset, $localIterValueOffsetTerm)) {
+         |    // skip the key of the entry to read its buffer values
+         |    long $spillOffset = $localIterValueOffsetTerm + 4 +
+         |        $spilledMapTerm.keySizeAt($localIterValueOffsetTerm);
+         |    ${byteBufferAccessor.initKeyOrBufferVal(aggBuffDataTypes, spilledBufferVars)}
+         |    ${byteBufferAccessor.declareNullVarsForAggBuffer(spilledBufferVars)}
+         |    ${byteBufferAccessor.readNullBitsCode(spillOffset,
+                byteBufferAccessor.nullAggsBitsetTerm, byteBufferAccessor.numBytesForNullAggBits)}
+         |    $readSpilledBuffers
+         |    ${evaluateVariables(mergeEvals)}
+         |    $updateBuffers
+         |    $localIterValueOffsetTerm = $spillOffset;
+         |  }
+         |}""".stripMargin
+    } else ""
+
     val outputCode = generateResultCodeForSHAMap(ctx, keysExpr, aggsExpr, localIterValueOffsetTerm,
-      stateArrayVarOptForKey, stateArrayVarOptForAggs)
+      stateArrayVarOptForKey, stateArrayVarOptForAggs, mergeSpilledCode)
     val numOutput = metricTerm(ctx, "numOutputRows")
     val localNumRowsIterated = ctx.freshName("localNumRowsIterated")
     // The child could change `copyResult` to true, but we had already
@@ -1107,6 +1187,14 @@ case class SnappyHashAggregateExec(
         long $beforeAgg = System.nanoTime();
         $doAgg();
         $aggTime.${metricAdd(s"(System.nanoTime() - $beforeAgg) / 1000000")};
+        ${if (spillMap) {
+          s"""
+          if ($hashMapTerm.numPendingSpills() > 0) {
+            // spill the remaining data too and output the merged runs
+            $spillSize.${metricAdd(s"$hashMapTerm.spill()")};
+            $spilledMapTerm = $hashMapTerm;
+          }"""
+        } else ""}
         if ($overflowHashMapsTerm != null) {
           $overflowMapIter = $overflowHashMapsTerm.iterator();
           $hashMapTerm = ($hashSetClassName)$overflowMapIter.next();
@@ -1373,6 +1461,31 @@ case class SnappyHashAggregateExec(
       case None =>
     }
 
+    // multiple string key columns use a map from their combined dictionary indexes
+    val multiKeyDictionary = if (dictionaryCode.isDefined) None
+    else SHAMapAccessor.initDictionaryCodeForMultiKeyCase(input, byteBufferAccessor.keyExprs,
+      child.output, ctx, byteBufferAccessor.session)
+    val multiKeyDictionaryVars = multiKeyDictionary.map { keyDictVars =>
+      val mapClass = classOf[Long2LongOpenHashMap].getName
+      val (initCode, multiplierVars) = DictionaryOptimizedMapAccessor.dictionaryMapInitCode(
+        ctx, keyDictVars, mapClass)
+      dictionaryArrayTerm = ctx.freshName("dictionaryMapTerm")
+      ctx.addMutableState(mapClass, dictionaryArrayTerm, s"$dictionaryArrayTerm = null;")
+      val newDictionaryMap = ctx.freshName("newDictionaryMap")
+      ctx.addNewFunction(newDictionaryMap,
+        s"""
+           |private $mapClass $newDictionaryMap() {
+           |  $initCode
+           |}
+         """.stripMargin)
+      ctx.addNewFunction(dictionaryArrayInit,
+        s"""
+           |public void $dictionaryArrayInit() {
+           |  $dictionaryArrayTerm = $newDictionaryMap();
+           |}
+         """.stripMargin)
+      keyDictVars -> multiplierVars
+    }
 
     // generate class for key, buffer and hash code evaluation of key columns
     val inputAttr = aggregateBufferAttributesForGroup ++ child.output
@@ -1388,7 +1501,7 @@ case class SnappyHashAggregateExec(
     // evaluate map lookup code before updateEvals possibly modifies the keyVars
     val mapCode = byteBufferAccessor.generateMapGetOrInsert(initVars, initCode, evaluatedInputCode,
       keysExpr, keysDataType, aggBuffDataTypes, dictionaryCode, dictionaryArrayTerm,
-      dictionaryArraySize, aggFuncDependentOnGroupByKey)
+      dictionaryArraySize, aggFuncDependentOnGroupByKey, multiKeyDictionaryVars)
 
     // declare & initialize the buffer variables
     val bufferVarsFromInitVars = byteBufferAccessor.aggregateBufferVars.zip(initVars).
@@ -1610,7 +1723,7 @@ case class SnappyHashAggregateExec(
     // if aggregate expressions uses some of the key variables then signal those
     // to be materialized explicitly for the dictionary optimization case (AQP-292)
     val updateAttrs = AttributeSet(updateExpr)
-    val evalKeys = if (DictionaryOptimizedMapAccessor.canHaveSingleKeyCase(groupingExpressions)) {
+    val evalKeys = if (DictionaryOptimizedMapAccessor.canHaveDictionaryCase(groupingExpressions)) {
       var hasEvalKeys = false
       val keys = groupingAttributes.map { a =>
         if (updateAttrs.contains(a)) {
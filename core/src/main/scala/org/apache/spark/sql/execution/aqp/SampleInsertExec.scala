@@ -18,34 +18,111 @@ package org.apache.spark.sql.execution.aqp
 
 import org.apache.spark.rdd.RDD
 import org.apache.spark.sql.SnappySession
-import org.apache.spark.sql.catalyst.{InternalRow, TableIdentifier}
-import org.apache.spark.sql.catalyst.expressions.Attribute
+import org.apache.spark.sql.catalyst.expressions.{Attribute, ScalaUDF, SubqueryExpression}
 import org.apache.spark.sql.catalyst.plans.logical.LogicalPlan
+import org.apache.spark.sql.catalyst.plans.physical.Partitioning
+import org.apache.spark.sql.catalyst.{InternalRow, TableIdentifier}
 import org.apache.spark.sql.execution.datasources.LogicalRelation
-import org.apache.spark.sql.execution.{PlanLater, SparkPlan, WholeStageCodegenExec}
-import org.apache.spark.sql.hive.SnappySessionState
+import org.apache.spark.sql.execution.{FilterExec, InputAdapter, LocalTableScanExec, PartitionedPhysicalScan, ProjectExec, RangeExec, SparkPlan, UnaryExecNode, WholeStageCodegenExec}
 import org.apache.spark.sql.sources.SamplingRelation
 import org.apache.spark.sql.types.StructType
+import org.apache.spark.storage.StorageLevel
 
-case class SampleInsertExec (baseTableInsert: SparkPlan,
-  sourceDataPlan: SparkPlan, baseTableIdentifier: TableIdentifier,
-  aqpRelations: Seq[(LogicalPlan, String)],
-  baseTableSchema: StructType) extends SparkPlan {
+/**
+ * Insert into a table having sample tables. The source data is read through the
+ * [[SampleSourceTeeExec]] in the base table insert plan by all the inserts, which
+ * evaluates an expensive source only once.
+ */
+case class SampleInsertExec(baseTableInsert: SparkPlan,
+    baseTableIdentifier: TableIdentifier, aqpRelations: Seq[(LogicalPlan, String)],
+    baseTableSchema: StructType) extends SparkPlan {
 
   override protected def doExecute(): RDD[InternalRow] = {
-    val retVal = baseTableInsert.execute()
-    val data = sourceDataPlan.execute()
-    val ds = sqlContext.sparkSession.asInstanceOf[SnappySession].
-      internalCreateDataFrame(data, baseTableSchema)
-    val catalog = this.sqlContext.sessionState.asInstanceOf[SnappySessionState].catalog
-
-    aqpRelations.foreach {
-      case (LogicalRelation(sr: SamplingRelation, _, _), _) => sr.insert(ds, false)
+    val tee = baseTableInsert.collectFirst {
+      case t: SampleSourceTeeExec => t
+    }.getOrElse(throw new IllegalStateException(
+      s"Missing source of insert into $baseTableIdentifier in $baseTableInsert"))
+    try {
+      // the base table insert evaluates the source rows which get stored by the tee
+      val result = baseTableInsert.executeCollect()
+      val ds = sqlContext.sparkSession.asInstanceOf[SnappySession].
+          internalCreateDataFrame(tee.sourceRDD, baseTableSchema)
+      aqpRelations.foreach {
+        case (LogicalRelation(sr: SamplingRelation, _, _), _) => sr.insert(ds, false)
+      }
+      sparkContext.parallelize(result, 1)
+    } finally {
+      tee.release()
     }
-    retVal
   }
 
   override def output: Seq[Attribute] = baseTableInsert.output
 
-  override def children: Seq[SparkPlan] = Seq(baseTableInsert, sourceDataPlan)
+  override def children: Seq[SparkPlan] = baseTableInsert :: Nil
+}
+
+/**
+ * Tee of the source rows of an insert into a table having sample tables. If
+ * `storeRows` is set, each partition of the source is evaluated and stored as a block,
+ * serialized in memory with spill to disk, when first read by the base table insert.
+ * The inserts into the sample tables read the same blocks so that the source plan is
+ * not evaluated again for those. This is not a bounded buffer: the whole source is
+ * kept in the storage memory and the local disk of the executors till all the inserts
+ * are done, so it is used only for the sources that are expensive to evaluate again
+ * (see [[SampleSourceTeeExec.isExpensive]]). Others are simply evaluated by each insert.
+ */
+case class SampleSourceTeeExec(child: SparkPlan, storeRows: Boolean) extends UnaryExecNode {
+
+  @transient private[this] var teeRDD: RDD[InternalRow] = _
+
+  override def output: Seq[Attribute] = child.output
+
+  override def outputPartitioning: Partitioning = child.outputPartitioning
+
+  /**
+   * The source rows which are evaluated by the first job that reads these if stored,
+   * else by every job.
+   */
+  private[aqp] def sourceRDD: RDD[InternalRow] = synchronized {
+    if (storeRows && (teeRDD eq null)) {
+      // persist a new RDD since the one returned by child can be shared by other plans;
+      // the rows are serialized as they are stored so reused row objects need no copy
+      teeRDD = child.execute().mapPartitionsInternal(itr => itr,
+        preservesPartitioning = true).persist(StorageLevel.MEMORY_AND_DISK_SER)
+    }
+    if (storeRows) teeRDD else child.execute()
+  }
+
+  /** Remove the stored source rows. */
+  private[aqp] def release(): Unit = synchronized {
+    if (teeRDD ne null) {
+      teeRDD.unpersist(blocking = false)
+      teeRDD = null
+    }
+  }
+
+  override protected def doExecute(): RDD[InternalRow] = sourceRDD
+}
+
+object SampleSourceTeeExec {
+
+  def apply(child: SparkPlan): SampleSourceTeeExec =
+    SampleSourceTeeExec(child, storeRows = isExpensive(child))
+
+  /**
+   * Returns true if the source of an insert has to be evaluated only once, i.e. it is not
+   * just a projection or filter on local data or the store tables using deterministic
+   * expressions without UDFs or subqueries. Apart from the cost of evaluation, the sources
+   * like external tables or streams may also not give the same rows again.
+   */
+  def isExpensive(plan: SparkPlan): Boolean = plan.find {
+    case _: LocalTableScanExec | _: RangeExec | _: PartitionedPhysicalScan => false
+    case p@(_: ProjectExec | _: FilterExec) => p.expressions.exists(_.find {
+      case e if !e.deterministic => true
+      case _: ScalaUDF | _: SubqueryExpression => true
+      case _ => false
+    }.isDefined)
+    case _: WholeStageCodegenExec | _: InputAdapter => false
+    case _ => true
+  }.isDefined
 }
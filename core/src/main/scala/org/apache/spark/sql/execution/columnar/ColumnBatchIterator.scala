@@ -40,8 +40,10 @@ object ColumnBatchIterator {
 
   def apply(region: LocalRegion,
       bucketIds: java.util.Set[Integer], projection: Array[Int],
-      fullScan: Boolean, context: TaskContext): ColumnBatchIterator = {
-    new ColumnBatchIterator(region, batch = null, bucketIds, projection, fullScan, context)
+      fullScan: Boolean, context: TaskContext,
+      keyLookup: ColumnKeyLookup = null): ColumnBatchIterator = {
+    new ColumnBatchIterator(region, batch = null, bucketIds, projection, fullScan, context,
+      keyLookup)
   }
 
   def apply(batch: ColumnBatch): ColumnBatchIterator = {
@@ -52,7 +54,7 @@ object ColumnBatchIterator {
 
 final class ColumnBatchIterator(region: LocalRegion, val batch: ColumnBatch,
     bucketIds: java.util.Set[Integer], projection: Array[Int],
-    fullScan: Boolean, context: TaskContext)
+    fullScan: Boolean, context: TaskContext, keyLookup: ColumnKeyLookup = null)
     extends PRValuesIterator[ByteBuffer](container = null, region, bucketIds, context) {
 
   if (region ne null) {
@@ -70,6 +72,7 @@ final class ColumnBatchIterator(region: LocalRegion, val batch: ColumnBatch,
   private var currentKeyUUID: Long = _
   private var batchProcessed = false
   private var currentColumns: ArrayBuffer[ColumnFormatValue] = _
+  private var currentBatchHeat: ColumnBatchHeat = _
 
   override protected def createIterator(container: GemFireContainer, region: LocalRegion,
       tx: TXStateInterface): PRIterator = if (region ne null) {
@@ -78,14 +81,15 @@ final class ColumnBatchIterator(region: LocalRegion, val batch: ColumnBatch,
         java.util.Iterator[RegionEntry]] {
       override def apply(br: BucketRegion,
           numEntries: java.lang.Long): java.util.Iterator[RegionEntry] = {
-        new ColumnFormatIterator(br, projection, fullScan, txState)
+        new ColumnFormatIterator(br, projection, fullScan, txState, keyLookup)
       }
     }
     val createRemoteIterator = new BiFunction[java.lang.Integer, PRIterator,
         java.util.Iterator[RegionEntry]] {
       override def apply(bucketId: Integer,
           iter: PRIterator): java.util.Iterator[RegionEntry] = {
-        new RemoteEntriesIterator(bucketId, projection, iter.getPartitionedRegion, tx)
+        new RemoteEntriesIterator(bucketId, projection, iter.getPartitionedRegion, tx,
+          taskContext)
       }
     }
     val pr = region.asInstanceOf[PartitionedRegion]
@@ -108,6 +112,9 @@ final class ColumnBatchIterator(region: LocalRegion, val batch: ColumnBatch,
       val buffer = columnValue.getBuffer
       if (buffer.remaining() > 0) {
         currentColumns += columnValue
+        if ((currentBatchHeat ne null) && columnPosition > 0) {
+          currentBatchHeat.recordColumnAccess(columnPosition, System.currentTimeMillis())
+        }
         return buffer
       } else columnValue.release()
     }
@@ -182,6 +189,7 @@ final class ColumnBatchIterator(region: LocalRegion, val batch: ColumnBatch,
       currentColumns = new ArrayBuffer[ColumnFormatValue](math.max(1, releaseColumns()))
       currentVal = null
       currentDeltaStats = null
+      currentBatchHeat = null
       while (itr.hasNext) {
         val re = itr.next().asInstanceOf[RegionEntry]
         // the underlying ClusteredColumnIterator allows fetching entire projected
@@ -201,6 +209,12 @@ final class ColumnBatchIterator(region: LocalRegion, val batch: ColumnBatch,
               if (buffer.remaining() > 0) {
                 currentKeyPartitionId = key.partitionId
                 currentKeyUUID = key.uuid
+                // track the scans of the batch and its columns for eviction
+                if (bucketRegion ne null) {
+                  currentBatchHeat = AccessHeat.recordBatchAccess(
+                    AccessHeat.tableId(bucketRegion), key.partitionId, key.uuid,
+                    System.currentTimeMillis())
+                }
                 currentVal = buffer
                 currentColumns += columnValue
                 // check for update/delete stats row
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package org.apache.spark.sql.execution.columnar
+
+import io.snappydata.util.com.clearspring.analytics.stream.membership.BloomFilter
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet
+
+import org.apache.spark.sql.AnalysisException
+import org.apache.spark.sql.catalyst.expressions.UnsafeRow
+import org.apache.spark.sql.collection.Utils
+import org.apache.spark.sql.execution.columnar.encoding.{ColumnEncoding, ColumnStatsSchema}
+import org.apache.spark.sql.types._
+import org.apache.spark.unsafe.Platform
+import org.apache.spark.unsafe.types.UTF8String
+
+/**
+ * Optional bloom filters on the values of some columns of a column batch as
+ * specified by the [[ExternalStoreUtils.COLUMN_BLOOM_FILTERS]] table option.
+ *
+ * The filters are appended to the serialized statistics row after the UnsafeRow
+ * data so the statistics row itself is unchanged for all its readers.
+ * The layout of the appended bytes is:
+ * {{{
+ *    .----------------------- Table column index (4 bytes)
+ *   |    .------------------- Hash count (4 bytes)
+ *   |   |    .--------------- Number of words in bit set (4 bytes)
+ *   |   |   |    .----------- Unused (4 bytes)
+ *   |   |   |   |    .------- Words of the bit set (8 bytes each)
+ *   V   V   V   V    V
+ *   +---+---+---+---+-------+ ... more filters ... +---------------+-------+
+ *   |   |   |   |   |  ...  |                      | size of above | magic |
+ *   +---+---+---+---+-------+ ...              ... +---------------+-------+
+ * }}}
+ * The filters are valid only for the batch as inserted. Updates to a batch replace
+ * its statistics row by the merged one (see ColumnDelta.mergeStats) that has no filters
+ * and a negative count, so the filters are never consulted for updated batches.
+ */
+object ColumnBloomFilters {
+
+  /** Property in metadata of the table schema fields that have bloom filters. */
+  val BLOOM_FILTER_PROP = "bloomFilter"
+
+  /** Target false positive probability of the filters. */
+  val MAX_FALSE_POSITIVE_PROBABILITY = 0.01
+
+  private[columnar] val MAGIC = 0x424c4d46 // "BLMF"
+
+  private[columnar] val HEADER_SIZE = 16
+
+  private[columnar] val TRAILER_SIZE = 8
+
+  def supportsType(dataType: DataType): Boolean = Utils.getSQLDataType(dataType) match {
+    case ByteType | ShortType | IntegerType | LongType | DateType | TimestampType |
+         StringType => true
+    case _ => false
+  }
+
+  def hasBloomFilter(metadata: Metadata): Boolean = metadata.contains(BLOOM_FILTER_PROP)
+
+  /**
+   * Mark the fields of table schema listed in the given value of
+   * [[ExternalStoreUtils.COLUMN_BLOOM_FILTERS]] option as having bloom filters.
+   */
+  def markColumns(schema: StructType, columns: Option[String], table: String): StructType = {
+    val names = columns match {
+      // schema can be empty for an existing table that will be resolved later
+      case Some(c) if schema.nonEmpty => c.split(',').map(_.trim).filter(_.nonEmpty)
+      case _ => return schema
+    }
+    names.foreach(name => schema.find(_.name.equalsIgnoreCase(name)) match {
+      case None => throw new AnalysisException(s"Column '$name' specified in " +
+          s"${ExternalStoreUtils.COLUMN_BLOOM_FILTERS} not found in '$table'")
+      case Some(f) if !supportsType(f.dataType) => throw new AnalysisException(
+        s"Bloom filter not supported for column '${f.name}' of type " +
+            s"${f.dataType.simpleString} in '$table'")
+      case _ =>
+    })
+    StructType(schema.map { f =>
+      if (!hasBloomFilter(f.metadata) && names.exists(_.equalsIgnoreCase(f.name))) {
+        f.copy(metadata = new MetadataBuilder().withMetadata(f.metadata)
+            .putBoolean(BLOOM_FILTER_PROP, value = true).build())
+      } else f
+    })
+  }
+
+  def hashString(value: UTF8String): Long = {
+    val bytes = value.getBytes
+    BloomFilter.hashBytes(bytes, bytes.length)
+  }
+
+  def hash(dataType: DataType, value: Any): Long = value match {
+    case s: UTF8String => hashString(s)
+    case v: Byte => BloomFilter.hashLong(v)
+    case v: Short => BloomFilter.hashLong(v)
+    case v: Int => BloomFilter.hashLong(v)
+    case v: Long => BloomFilter.hashLong(v)
+    case _ => throw new IllegalArgumentException(
+      s"Unexpected value $value of type $dataType for bloom filter")
+  }
+
+  /** Generated code for the hash of a non-null value of given type. */
+  def genCodeHash(dataType: DataType, value: String): String =
+    Utils.getSQLDataType(dataType) match {
+      case StringType => s"${getClass.getName}.MODULE$$.hashString($value)"
+      case _ => s"${classOf[BloomFilter].getName}.hashLong((long)$value)"
+    }
+
+  /**
+   * Offset of the bloom filter of given table column (0-based) in the statistics row
+   * or -1 if there is no valid filter for the column.
+   */
+  def filterOffset(statsRow: UnsafeRow, columnIndex: Int): Long = {
+    // a negative count indicates delta updates to the batch
+    if (statsRow.getInt(ColumnStatsSchema.COUNT_INDEX_IN_SCHEMA) < 0) return -1L
+    val size = statsRow.getSizeInBytes
+    if (size < TRAILER_SIZE) return -1L
+    val baseObject = statsRow.getBaseObject
+    val endCursor = statsRow.getBaseOffset + size - TRAILER_SIZE
+    if (ColumnEncoding.readInt(baseObject, endCursor + 4) != MAGIC) return -1L
+    var cursor = endCursor - ColumnEncoding.readInt(baseObject, endCursor)
+    if (cursor < statsRow.getBaseOffset) return -1L
+    while (cursor < endCursor) {
+      if (ColumnEncoding.readInt(baseObject, cursor) == columnIndex) return cursor
+      cursor += HEADER_SIZE + (ColumnEncoding.readInt(baseObject, cursor + 8).toLong << 3)
+    }
+    -1L
+  }
+
+  /**
+   * Returns false if a value with given hash is definitely not present in
+   * the bloom filter at given offset (as returned by [[filterOffset]]).
+   */
+  def mightContain(baseObject: AnyRef, filterOffset: Long, hash: Long): Boolean = {
+    val hashCount = ColumnEncoding.readInt(baseObject, filterOffset + 4)
+    val numBuckets = ColumnEncoding.readInt(baseObject, filterOffset + 8) << 6
+    val wordsOffset = filterOffset + HEADER_SIZE
+    var i = 0
+    while (i < hashCount) {
+      val bucket = BloomFilter.bucket(hash, i, numBuckets)
+      val word = ColumnEncoding.readLong(baseObject, wordsOffset + ((bucket >>> 6) << 3))
+      if ((word & (1L << bucket)) == 0) return false
+      i += 1
+    }
+    true
+  }
+}
+
+/**
+ * Collects the hashes of the values of columns having bloom filters for
+ * the current column batch. The filters are sized for the number of distinct
+ * hashes when the batch is complete.
+ *
+ * @param columnIndexes the 0-based table column indexes having bloom filters
+ */
+final class ColumnBloomFilterBuilder(columnIndexes: Array[Int]) {
+
+  private[this] val hashes = columnIndexes.map(_ => new LongOpenHashSet())
+
+  /** Add hash of a non-null value of column at given index in `columnIndexes`. */
+  def add(index: Int, hash: Long): Unit = hashes(index).add(hash)
+
+  /**
+   * Append the bloom filters to the serialized statistics row of the batch
+   * and clear the hashes for the next batch.
+   */
+  def appendTo(statsBytes: Array[Byte]): Array[Byte] = {
+    val filters = hashes.map { set =>
+      val filter = new BloomFilter(set.size(), ColumnBloomFilters.MAX_FALSE_POSITIVE_PROBABILITY)
+      val iter = set.iterator()
+      while (iter.hasNext) filter.addHash(iter.nextLong())
+      set.clear()
+      filter
+    }
+    val filtersSize = filters.map(ColumnBloomFilters.HEADER_SIZE + _.getWords.length * 8).sum
+    val result = java.util.Arrays.copyOf(statsBytes,
+      statsBytes.length + filtersSize + ColumnBloomFilters.TRAILER_SIZE)
+    var cursor = Platform.BYTE_ARRAY_OFFSET + statsBytes.length
+    for (i <- filters.indices) {
+      val words = filters(i).getWords
+      ColumnEncoding.writeInt(result, cursor, columnIndexes(i))
+      ColumnEncoding.writeInt(result, cursor + 4, filters(i).getHashCount)
+      ColumnEncoding.writeInt(result, cursor + 8, words.length)
+      cursor += ColumnBloomFilters.HEADER_SIZE
+      for (word <- words) {
+        ColumnEncoding.writeLong(result, cursor, word)
+        cursor += 8
+      }
+    }
+    ColumnEncoding.writeInt(result, cursor, filtersSize)
+    ColumnEncoding.writeInt(result, cursor + 4, ColumnBloomFilters.MAGIC)
+    result
+  }
+}
@@ -85,6 +85,8 @@ case class ColumnInsertExec(child: SparkPlan, partitionColumns: Seq[String],
   @transient private var cursorArrayTerm: String = _
   @transient private var catalogVersion: String = _
 
+  @transient private var bloomFiltersTerm: String = _
+
   @transient private[sql] var batchIdRef = -1
 
   @transient private var batchBucketIdTerm: Option[String] = None
@@ -95,6 +97,10 @@ case class ColumnInsertExec(child: SparkPlan, partitionColumns: Seq[String],
 
   val compressionCodec: CompressionCodecId.Type = CompressionCodecId.fromName(batchParams._3)
 
+  /** Indexes of the table columns that have bloom filters in the batch statistics. */
+  @transient private lazy val bloomFilterColumns: Array[Int] = tableSchema.indices.filter(
+    i => ColumnBloomFilters.hasBloomFilter(tableSchema(i).metadata)).toArray
+
   override protected def opType: String = "Inserted"
 
   override def nodeName: String = "ColumnInsert"
@@ -564,6 +570,7 @@ case class ColumnInsertExec(child: SparkPlan, partitionColumns: Seq[String],
       val field = schema(i)
       ColumnWriter.genCodeColumnStats(ctx, field, encoderTerm)
     }
+    val bloomFiltersAdd = genCodeBloomFilters(ctx, rowReadExprs)
 
     val cursorLoopCode =
       s"""
@@ -610,7 +617,7 @@ case class ColumnInsertExec(child: SparkPlan, partitionColumns: Seq[String],
          |      new java.nio.ByteBuffer[${schema.length}];
          |  $buffersCode
          |  final $columnBatchClass $columnBatch = $columnBatchClass.apply(
-         |      $batchSizeTerm, $buffers, $statsRow.getBytes(), null);
+         |      $batchSizeTerm, $buffers, ${statsBytes(statsRow)}, null);
          |  $externalStoreTerm.storeColumnBatch($tableName, $columnBatch,
          |      $partitionIdCode, $batchUUID.longValue(), $maxDeltaRowsTerm,
          |      ${compressionCodec.id}, $numInsertRowsMetric, $numColumnBatchesMetric,
@@ -667,6 +674,7 @@ case class ColumnInsertExec(child: SparkPlan, partitionColumns: Seq[String],
        |}
        |$allRowWriteExprs
        |$writeColumns
+       |$bloomFiltersAdd
        |$batchSizeTerm++;
     """.stripMargin
   }
@@ -728,6 +736,7 @@ case class ColumnInsertExec(child: SparkPlan, partitionColumns: Seq[String],
       (init, genCodeColumnWrite(ctx, field.dataType, field.nullable, encoderTerm,
         cursorTerm, input(i)), ColumnWriter.genCodeColumnStats(ctx, field, encoderTerm))
     }.unzip3
+    val bloomFiltersAdd = genCodeBloomFilters(ctx, input)
 
     initEncoders = encodersInit.mkString("\n")
 
@@ -766,7 +775,7 @@ case class ColumnInsertExec(child: SparkPlan, partitionColumns: Seq[String],
          |      new java.nio.ByteBuffer[${schema.length}];
          |  ${buffersCode.toString()}
          |  final $columnBatchClass $columnBatch = $columnBatchClass.apply(
-         |      $batchSizeTerm, $buffers, $statsRow.getBytes(), null);
+         |      $batchSizeTerm, $buffers, ${statsBytes(statsRow)}, null);
          |  $externalStoreTerm.storeColumnBatch($tableName, $columnBatch,
          |      $partitionIdCode, $batchUUID.longValue(), $maxDeltaRowsTerm,
          |      ${compressionCodec.id}, $numInsertRowsMetric, $numColumnBatchesMetric,
@@ -817,6 +826,7 @@ case class ColumnInsertExec(child: SparkPlan, partitionColumns: Seq[String],
        |}
        |${evaluateVariables(input)}
        |${columnsWrite.mkString("\n")}
+       |$bloomFiltersAdd
        |$batchSizeTerm++;
     """.stripMargin
   }
@@ -832,6 +842,31 @@ case class ColumnInsertExec(child: SparkPlan, partitionColumns: Seq[String],
   }
 
 
+  /**
+   * Generate the code to add the values of columns having bloom filters
+   * to the [[ColumnBloomFilterBuilder]] of the current batch.
+   */
+  private def genCodeBloomFilters(ctx: CodegenContext, input: Seq[ExprCode]): String = {
+    bloomFiltersTerm = null
+    if (bloomFilterColumns.isEmpty) return ""
+    val builderClass = classOf[ColumnBloomFilterBuilder].getName
+    bloomFiltersTerm = ctx.freshName("bloomFilters")
+    ctx.addMutableState(builderClass, bloomFiltersTerm, s"$bloomFiltersTerm = " +
+        s"new $builderClass(new int[] { ${bloomFilterColumns.mkString(", ")} });")
+    bloomFilterColumns.indices.map { i =>
+      val ev = input(bloomFilterColumns(i))
+      val hash = ColumnBloomFilters.genCodeHash(
+        tableSchema(bloomFilterColumns(i)).dataType, ev.value)
+      s"if (!${ev.isNull}) $bloomFiltersTerm.add($i, $hash);"
+    }.mkString("\n")
+  }
+
+  /** Serialized statistics row of the batch including the bloom filters, if any. */
+  private def statsBytes(statsRow: String): String = {
+    if (bloomFiltersTerm eq null) s"$statsRow.getBytes()"
+    else s"$bloomFiltersTerm.appendTo($statsRow.getBytes())"
+  }
+
   private def genCodeColumnWrite(ctx: CodegenContext, dataType: DataType,
       nullable: Boolean, encoder: String, cursorTerm: String,
       ev: ExprCode): String = {
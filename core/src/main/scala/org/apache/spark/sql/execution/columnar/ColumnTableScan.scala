@@ -94,6 +94,12 @@ private[sql] final case class ColumnTableScan(
 
   @transient private val MAX_SCHEMA_LENGTH = 40
 
+  /**
+   * Number of values of a fixed width column decoded at a time by the bulk
+   * read methods of ColumnDecoder into a vector that is then read by each row.
+   */
+  @transient private val READ_VECTOR_SIZE = 1024
+
   override lazy val outputOrdering: Seq[SortOrder] = {
     val buffer = new ArrayBuffer[SortOrder](2)
     // sorted on [batchId, ordinal (position within batch)] for update/delete
@@ -335,6 +341,7 @@ private[sql] final case class ColumnTableScan(
     }
 
     val initRowTableDecoders = new StringBuilder
+    val disableReadVectors = new StringBuilder
     val bufferInitCodeBlocks = new ArrayBuffer[String]()
 
     val isWideSchema = output.length > MAX_SCHEMA_LENGTH
@@ -390,6 +397,27 @@ private[sql] final case class ColumnTableScan(
       }
       ctx.addMutableState(updatedDecoderClass, updatedDecoder, "")
 
+      // fixed width values of column batches without nulls are read in bulk into a vector
+      val readVector = Utils.getSQLDataType(attr.dataType) match {
+        case IntegerType | DateType | LongType | TimestampType | DoubleType =>
+          val vector = s"${decoder}Vector"
+          val vectorType = ctx.javaType(Utils.getSQLDataType(attr.dataType))
+          ctx.addMutableState(s"$vectorType[]", vector,
+            s"$vector = new $vectorType[$READ_VECTOR_SIZE];")
+          ctx.addMutableState("boolean", s"${vector}Enabled", "")
+          ctx.addMutableState("int", s"${vector}Start", "")
+          ctx.addMutableState("int", s"${vector}End", "")
+          disableReadVectors.append(s"${vector}Enabled = false;\n")
+          vector
+        case _ => null
+      }
+      val initReadVector = if (readVector eq null) "" else {
+        s"""
+           |${readVector}Enabled = $decoder.getNextNullPosition() == Integer.MAX_VALUE;
+           |${readVector}Start = 0;
+           |${readVector}End = 0;""".stripMargin
+      }
+
       ctx.addNewFunction(initBufferFunction,
         s"""
            |private void $initBufferFunction() {
@@ -402,7 +430,7 @@ private[sql] final case class ColumnTableScan(
            |  if ($updatedDecoder != null) {
            |    $incrementUpdatedColumnCount
            |  }
-           |  $numNullsVar = 0;
+           |  $numNullsVar = 0;$initReadVector
            |}
         """.stripMargin)
       columnBufferInit.append(s"$initBufferFunction();\n")
@@ -440,10 +468,10 @@ private[sql] final case class ColumnTableScan(
 
       if (!isWideSchema) {
         genCodeColumnBuffer(ctx, decoderLocal, updatedDecoderLocal, decoder, updatedDecoder,
-          bufferVar, batchOrdinal, numNullsVar, attr, weightVarName)
+          bufferVar, batchOrdinal, numNullsVar, attr, weightVarName, readVector, numBatchRows)
       } else {
         val ev = genCodeColumnBuffer(ctx, decoder, updatedDecoder, decoder, updatedDecoder,
-          bufferVar, batchOrdinal, numNullsVar, attr, weightVarName)
+          bufferVar, batchOrdinal, numNullsVar, attr, weightVarName, readVector, numBatchRows)
         convertExprToMethodCall(ctx, ev, attr, index, batchOrdinal)
       }
     }
@@ -567,6 +595,7 @@ private[sql] final case class ColumnTableScan(
          |private boolean $nextBatch() throws Exception {
          |  if ($buffers != null) return true;
          |  $closeDecodersFunction();
+         |  ${disableReadVectors.toString()}
          |  // get next batch or row (latter for non-batch source iteration)
          |  if ($input == null) return false;
          |  if (!$input.hasNext()) {
@@ -683,7 +712,8 @@ private[sql] final case class ColumnTableScan(
 
   private def genCodeColumnBuffer(ctx: CodegenContext, decoder: String, updateDecoder: String,
       decoderGlobal: String, mutableDecoderGlobal: String, buffer: String, batchOrdinal: String,
-      numNullsVar: String, attr: Attribute, weightVar: String): ExprCode = {
+      numNullsVar: String, attr: Attribute, weightVar: String, readVector: String,
+      numBatchRows: String): ExprCode = {
     val nonNullPosition = if (attr.nullable) s"$batchOrdinal - $numNullsVar" else batchOrdinal
     val col = ctx.freshName("col")
     val sqlType = Utils.getSQLDataType(attr.dataType)
@@ -749,6 +779,27 @@ private[sql] final case class ColumnTableScan(
     if (colAssign.isEmpty) {
       colAssign = s"$col = $decoder.read$typeName($buffer, $nonNullPosition);"
     }
+    if (readVector ne null) {
+      // vector is enabled only for batches without nulls so position is batchOrdinal
+      val bulkTypeName = sqlType match {
+        case DateType => "Int"
+        case TimestampType => "Long"
+        case _ => typeName
+      }
+      colAssign =
+        s"""
+           |if (${readVector}Enabled) {
+           |  if ($batchOrdinal >= ${readVector}End || $batchOrdinal < ${readVector}Start) {
+           |    ${readVector}Start = $batchOrdinal;
+           |    ${readVector}End = Math.min($batchOrdinal + $READ_VECTOR_SIZE, $numBatchRows);
+           |    $decoder.read${bulkTypeName}s($buffer, $batchOrdinal,
+           |        ${readVector}End - $batchOrdinal, $readVector);
+           |  }
+           |  $col = $readVector[$batchOrdinal - ${readVector}Start];
+           |} else {
+           |  $colAssign
+           |}""".stripMargin
+    }
     if (updatedAssign.isEmpty) {
       updatedAssign = s"read$typeName()"
     }
@@ -781,8 +832,11 @@ private[sql] final case class ColumnTableScan(
       var code =
         s"""
            |final $jt $col;
-           |if ($unchangedCode) $colAssign
-           |else $updatedAssign
+           |if ($unchangedCode) {
+           |  $colAssign
+           |} else {
+           |  $updatedAssign
+           |}
         """.stripMargin
       if (weightVar != null && attr.name.equalsIgnoreCase(Utils.WEIGHTAGE_COLUMN_NAME)) {
         code += s"if ($col == 1) $col = $weightVar;\n"
@@ -834,6 +888,18 @@ object ColumnTableScan extends Logging {
 
     def statsFor(a: Attribute): ColumnStatsSchema = columnBatchStatsMap(a)
 
+    // table columns having bloom filters in the stats row
+    val bloomFilterColumns = if (isColumnTable) {
+      AttributeMap(schemaAttrs.zipWithIndex.filter(p =>
+        ColumnBloomFilters.hasBloomFilter(p._1.metadata)))
+    } else null
+
+    def withBloomFilter(a: Attribute, values: Seq[Expression],
+        filter: Expression): Expression = bloomFilterColumns.get(a) match {
+      case Some(columnIndex) => And(filter, BloomFilterMightContain(columnIndex, values))
+      case None => filter
+    }
+
     def filterInList(l: Seq[Expression]): Boolean =
       l.length <= 200 && l.forall(TokenLiteral.isConstant)
 
@@ -852,14 +918,18 @@ object ColumnTableScan extends Logging {
         buildFilter(lhs) || buildFilter(rhs)
 
       case EqualTo(a: AttributeReference, l) if TokenLiteral.isConstant(l) =>
-        statsFor(a).lowerBound <= l && l <= statsFor(a).upperBound
+        withBloomFilter(a, l :: Nil,
+          statsFor(a).lowerBound <= l && l <= statsFor(a).upperBound)
       case EqualTo(l, a: AttributeReference) if TokenLiteral.isConstant(l) =>
-        statsFor(a).lowerBound <= l && l <= statsFor(a).upperBound
+        withBloomFilter(a, l :: Nil,
+          statsFor(a).lowerBound <= l && l <= statsFor(a).upperBound)
 
       case In(a: AttributeReference, l) if filterInList(l) =>
-        statsFor(a).lowerBound <= Greatest(l) && statsFor(a).upperBound >= Least(l)
+        withBloomFilter(a, l,
+          statsFor(a).lowerBound <= Greatest(l) && statsFor(a).upperBound >= Least(l))
       case DynamicInSet(a: AttributeReference, l) if filterInList(l) =>
-        statsFor(a).lowerBound <= Greatest(l) && statsFor(a).upperBound >= Least(l)
+        withBloomFilter(a, l,
+          statsFor(a).lowerBound <= Greatest(l) && statsFor(a).upperBound >= Least(l))
 
       case LessThan(a: AttributeReference, l) if TokenLiteral.isConstant(l) =>
         statsFor(a).lowerBound < l
@@ -1025,6 +1095,64 @@ case class NumBatchRows(varName: String) extends LeafExpression {
   override def sql: String = s"NumBatchRows($varName)"
 }
 
+/**
+ * Check the bloom filter of a table column in the stats row of a column batch
+ * (see [[ColumnBloomFilters]]) for any of the given constant values.
+ * Evaluates to true if the batch has no valid bloom filter for the column.
+ */
+case class BloomFilterMightContain(columnIndex: Int, values: Seq[Expression])
+    extends Expression {
+
+  // values must be constants for stats row evaluation
+  assert(values.forall(TokenLiteral.isConstant))
+
+  override def children: Seq[Expression] = values
+
+  override def foldable: Boolean = false
+
+  override def nullable: Boolean = false
+
+  override def dataType: DataType = BooleanType
+
+  override def doGenCode(ctx: CodegenContext, ev: ExprCode): ExprCode = {
+    val statsRow = ctx.INPUT_ROW
+    val bloomFilters = ColumnBloomFilters.getClass.getName + ".MODULE$"
+    val filterOffset = ctx.freshName("filterOffset")
+    val result = ev.value
+    val checks = values.map { v =>
+      val valueExpr = v.genCode(ctx)
+      val hash = ColumnBloomFilters.genCodeHash(v.dataType, valueExpr.value)
+      s"""
+         |if (!$result) {
+         |  ${valueExpr.code}
+         |  if (!${valueExpr.isNull}) {
+         |    $result = $bloomFilters.mightContain($statsRow.getBaseObject(),
+         |        $filterOffset, $hash);
+         |  }
+         |}""".stripMargin
+    }
+    val code =
+      s"""
+         |final long $filterOffset = $bloomFilters.filterOffset($statsRow, $columnIndex);
+         |boolean $result = $filterOffset == -1L;
+         |${checks.mkString("\n")}
+      """.stripMargin
+    ev.copy(code, "false", result)
+  }
+
+  override def eval(input: InternalRow): Any = {
+    val statsRow = input.asInstanceOf[UnsafeRow]
+    val filterOffset = ColumnBloomFilters.filterOffset(statsRow, columnIndex)
+    filterOffset == -1L || values.exists { v =>
+      val value = v.eval(null)
+      (value != null) && ColumnBloomFilters.mightContain(statsRow.getBaseObject,
+        filterOffset, ColumnBloomFilters.hash(v.dataType, value))
+    }
+  }
+
+  override def sql: String = s"BloomFilterMightContain($columnIndex, ${values.mkString(", ")})"
+}
+
 case class StartsWithForStats(upper: Expression, lower: Expression,
     pattern: Expression) extends Expression {
 
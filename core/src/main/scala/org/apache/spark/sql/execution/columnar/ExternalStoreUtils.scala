@@ -89,12 +89,15 @@ object ExternalStoreUtils {
   final val COLUMN_BATCH_SIZE = "column_batch_size"
   final val COLUMN_MAX_DELTA_ROWS = "column_max_delta_rows"
   final val COMPRESSION_CODEC = "compression"
+  final val COMPRESSION_LEVEL = "compression_level"
+  final val COLUMN_BLOOM_FILTERS = "column_bloom_filters"
 
   // inbuilt basic table properties
   final val PARTITION_BY = "partition_by"
   final val REPLICATE = "replicate"
   final val BUCKETS = "buckets"
   final val KEY_COLUMNS = "key_columns"
+  final val KEY_INDEX = "key_index"
 
   // these three are obsolete column table properties only for backward compatibility
   final val COLUMN_BATCH_SIZE_TRANSIENT = "column_batch_size_transient"
@@ -103,7 +106,8 @@ object ExternalStoreUtils {
 
   val ddlOptions: Seq[String] = Seq(INDEX_NAME, COLUMN_BATCH_SIZE,
     COLUMN_BATCH_SIZE_TRANSIENT, COLUMN_MAX_DELTA_ROWS,
-    COLUMN_MAX_DELTA_ROWS_TRANSIENT, COMPRESSION_CODEC, RELATION_FOR_SAMPLE, KEY_COLUMNS)
+    COLUMN_MAX_DELTA_ROWS_TRANSIENT, COMPRESSION_CODEC, COMPRESSION_LEVEL,
+    COLUMN_BLOOM_FILTERS, RELATION_FOR_SAMPLE, KEY_COLUMNS, KEY_INDEX)
 
   registerBuiltinDrivers()
 
@@ -38,6 +38,7 @@ import org.apache.spark.sql.execution.datasources.LogicalRelation
 import org.apache.spark.sql.execution.datasources.jdbc.{JDBCOptions, JdbcUtils}
 import org.apache.spark.sql.jdbc.JdbcDialect
 import org.apache.spark.sql.sources._
+import org.apache.spark.sql.store.CompressionCodecId
 import org.apache.spark.sql.types.StructType
 
 
@@ -157,10 +158,11 @@ abstract case class JDBCAppendableRelation(
   }
 
   def getCompressionCodec: String = {
-    origOptions.get(ExternalStoreUtils.COMPRESSION_CODEC) match {
-      case Some(codec) => codec
+    val codec = origOptions.get(ExternalStoreUtils.COMPRESSION_CODEC) match {
+      case Some(c) => c
       case None => Constant.DEFAULT_CODEC
     }
+    CompressionCodecId.nameWithLevel(codec, origOptions.get(ExternalStoreUtils.COMPRESSION_LEVEL))
   }
 
   protected def createTable(conn: Connection, tableStr: String, tableName: String): Unit = {
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package org.apache.spark.sql.execution.columnar.impl
+
+import com.gemstone.gemfire.internal.cache.{BucketRegion, LocalRegion}
+import com.gemstone.gemfire.internal.shared.SystemProperties
+import com.google.common.cache.{Cache, CacheBuilder}
+import com.pivotal.gemfirexd.internal.engine.Misc
+
+/**
+ * A decayed access counter as used by the LRFU policy. Each access adds one to the
+ * heat while the existing heat halves every [[AccessHeat.HALF_LIFE_MILLIS]], so the
+ * heat combines both the recency and the frequency of accesses.
+ *
+ * The updates are not atomic since a lost update only makes the heat approximate.
+ */
+final class AccessHeat {
+
+  @volatile private[this] var heat: Double = 0.0
+
+  @volatile private[this] var lastAccessTime: Long = 0L
+
+  def recordAccess(now: Long): Unit = {
+    heat = value(now) + 1.0
+    lastAccessTime = now
+  }
+
+  /** The heat decayed till the given time. */
+  def value(now: Long): Double = {
+    val last = lastAccessTime
+    if (last == 0L) 0.0
+    else if (now <= last) heat
+    else heat * math.pow(0.5, (now - last).toDouble / AccessHeat.HALF_LIFE_MILLIS)
+  }
+}
+
+/**
+ * Heat of a column batch and of each of its table columns that have been read.
+ */
+final class ColumnBatchHeat {
+
+  val batch = new AccessHeat
+
+  /** Heat of the table columns indexed by 1-based column index with nulls for others. */
+  @volatile private[this] var columns: Array[AccessHeat] = new Array[AccessHeat](0)
+
+  def recordColumnAccess(column: Int, now: Long): Unit = {
+    var heats = columns
+    if (column >= heats.length) {
+      // a concurrent resize can lose the other access which only makes the heat approximate
+      heats = java.util.Arrays.copyOf(heats, column + 1)
+      columns = heats
+    }
+    var heat = heats(column)
+    if (heat eq null) {
+      heat = new AccessHeat
+      heats(column) = heat
+    }
+    heat.recordAccess(now)
+  }
+
+  def columnHeat(column: Int, now: Long): Double = {
+    val heats = columns
+    if (column < heats.length && (heats(column) ne null)) heats(column).value(now) else 0.0
+  }
+}
+
+/**
+ * Tracks the heat of bucket regions, column batches and their columns from the scans of
+ * column tables (see ColumnFormatIterator and ColumnBatchIterator) for SnappyStorageEvictor.
+ *
+ * Regions are evicted in the order of increasing heat. The buffers of a column of a batch
+ * are spared by [[StoreCallbacksImpl.skipEvictionForEntry]] only if that column of the
+ * batch is hot, that is it has been read again recently, so the unused columns of wide
+ * tables are evicted even from the batches being scanned. A batch read only once by a
+ * large scan never becomes hot which makes the policy scan-resistant like 2Q where such
+ * batches are evicted before the ones having repeated accesses.
+ */
+object AccessHeat {
+
+  /** Time in milliseconds in which the heat decays to half. */
+  val HALF_LIFE_MILLIS: Long = math.max(1, SystemProperties.getServerInstance.getInteger(
+    "eviction.heatHalfLifeMillis", 60000))
+
+  /** Maximum number of column batches whose heat is tracked. */
+  val MAX_TRACKED_BATCHES: Int = SystemProperties.getServerInstance.getInteger(
+    "eviction.maxTrackedBatches", 100000)
+
+  /** Minimum heat of a batch or its column to spare its buffers from eviction. */
+  val HOT_THRESHOLD = 2.0
+
+  private[this] val regionHeats: Cache[LocalRegion, AccessHeat] =
+    CacheBuilder.newBuilder().weakKeys().build[LocalRegion, AccessHeat]()
+
+  // batches are identified by the table (see tableId), bucket ID and UUID
+  private[this] val batchHeats: Cache[(Int, Int, Long), ColumnBatchHeat] =
+    CacheBuilder.newBuilder().maximumSize(MAX_TRACKED_BATCHES)
+        .build[(Int, Int, Long), ColumnBatchHeat]()
+
+  /** the table whose hot batches are spared by the eviction in current thread */
+  private[this] val spareHotBatchesOf = new ThreadLocal[Integer]
+
+  /**
+   * The identity of the table of a bucket region used in the keys of batch heats.
+   * The key of an entry being evicted does not have the region so the eviction of
+   * each region is done within [[withHotBatchesSpared]] for this identity.
+   */
+  def tableId(region: LocalRegion): Int = region match {
+    case br: BucketRegion => br.getPartitionedRegion.getPRId
+    case _ => -1
+  }
+
+  def recordRegionAccess(region: LocalRegion): Unit = {
+    var heat = regionHeats.getIfPresent(region)
+    if (heat eq null) {
+      val newHeat = new AccessHeat
+      heat = regionHeats.asMap().putIfAbsent(region, newHeat)
+      if (heat eq null) heat = newHeat
+    }
+    heat.recordAccess(System.currentTimeMillis())
+  }
+
+  /**
+   * Record an access to the batch of given table (see [[tableId]]), bucket and UUID
+   * returning its heat that should be used to record the accesses to its columns.
+   */
+  def recordBatchAccess(tableId: Int, bucketId: Int, uuid: Long,
+      now: Long): ColumnBatchHeat = {
+    val key = (tableId, bucketId, uuid)
+    var heat = batchHeats.getIfPresent(key)
+    if (heat eq null) {
+      val newHeat = new ColumnBatchHeat
+      heat = batchHeats.asMap().putIfAbsent(key, newHeat)
+      if (heat eq null) heat = newHeat
+    }
+    heat.batch.recordAccess(now)
+    heat
+  }
+
+  /**
+   * Heat of given region at given time which is zero if it has never been scanned, or
+   * None if the accesses to the region are not tracked. Only the scans of the buckets
+   * of column tables are tracked.
+   */
+  def regionHeat(region: LocalRegion, now: Long): Option[Double] = region match {
+    case br: BucketRegion if ColumnFormatRelation.isColumnTable(
+      Misc.getFullTableNameFromRegionPath(br.getPartitionedRegion.getFullPath)) =>
+      regionHeats.getIfPresent(region) match {
+        case null => Some(0.0)
+        case heat => Some(heat.value(now))
+      }
+    case _ => None
+  }
+
+  /**
+   * Returns true if the buffer of given key should be spared in the current eviction
+   * pass of this thread (see [[withHotBatchesSpared]]). The buffers of table columns and
+   * their deltas are spared if the column is hot while other meta-data buffers are
+   * spared if the batch is hot.
+   */
+  def isHot(key: ColumnFormatKey): Boolean = {
+    val tableId = spareHotBatchesOf.get()
+    if (tableId eq null) false
+    else batchHeats.getIfPresent((tableId.intValue(), key.partitionId, key.uuid)) match {
+      case null => false
+      case heat =>
+        val now = System.currentTimeMillis()
+        val column = ColumnDelta.tableColumnIndex(key.columnIndex)
+        if (column > 0) heat.columnHeat(column, now) >= HOT_THRESHOLD
+        else heat.batch.value(now) >= HOT_THRESHOLD
+    }
+  }
+
+  /**
+   * Run the given eviction of a region of given table (see [[tableId]]) in current thread
+   * sparing the buffers of hot columns and batches. Evictions outside of this never spare
+   * the hot buffers so that the eviction required by the store can always make progress.
+   */
+  def withHotBatchesSpared[T](tableId: Int)(body: => T): T = {
+    spareHotBatchesOf.set(tableId)
+    try {
+      body
+    } finally {
+      spareHotBatchesOf.remove()
+    }
+  }
+}
@@ -0,0 +1,483 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package org.apache.spark.sql.execution.columnar.impl
+
+import java.nio.ByteBuffer
+import java.sql.Connection
+import java.util.concurrent.atomic.AtomicLong
+import java.util.{Timer, TimerTask}
+import javax.annotation.concurrent.GuardedBy
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable.ArrayBuffer
+import scala.util.control.NonFatal
+
+import com.gemstone.gemfire.CancelException
+import com.gemstone.gemfire.cache.EntryDestroyedException
+import com.gemstone.gemfire.internal.cache.store.SerializedDiskBuffer
+import com.gemstone.gemfire.internal.cache.{BucketRegion, GemFireCacheImpl, LocalRegion, PartitionedRegion, RegionEntry}
+import com.gemstone.gemfire.internal.shared.FetchRequest
+import com.pivotal.gemfirexd.internal.engine.Misc
+import com.pivotal.gemfirexd.internal.engine.store.GemFireContainer
+import io.snappydata.Property
+import io.snappydata.sql.catalog.CatalogObjectType
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
+
+import org.apache.spark.sql.SnappySession
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow
+import org.apache.spark.sql.collection.{SharedUtils, Utils}
+import org.apache.spark.sql.execution.columnar.encoding.{ColumnDecoder, ColumnDeleteDecoder, ColumnDeltaDecoder, ColumnEncoding, ColumnStatsSchema, UpdatedColumnDecoder, UpdatedColumnDecoderBase}
+import org.apache.spark.sql.execution.columnar.{ColumnBatchCreator, ColumnBatchRowsBuffer}
+import org.apache.spark.sql.types._
+import org.apache.spark.{Logging, SparkConf}
+
+/**
+ * Background compaction of the column batches in the primary buckets of a data server.
+ *
+ * A batch is rewritten into a fresh batch, with its deleted rows dropped and the
+ * updated values merged from the deltas into newly encoded columns, once the fraction
+ * of its rows that have been deleted or updated in any column crosses the thresholds
+ * ([[Property.ColumnCompactionDeleteRatio]], [[Property.ColumnCompactionDeltaRatio]]).
+ * Batches having fewer remaining rows than [[Property.ColumnCompactionMinBatchFill]] of
+ * the maxDeltaRows of their table are merged with the other batches rewritten in the
+ * same bucket. The old batches are removed in the same snapshot transaction that
+ * inserts the new ones, so scans see either of the two.
+ *
+ * The rewrite of a bucket holds the same table write lock that is taken by updates,
+ * deletes and puts when [[Property.SerializeWrites]] is set. The lock is only tried
+ * for a short while so the compaction backs off in favour of the foreground writes,
+ * and the compaction thread also sleeps as long as it worked after each bucket.
+ */
+object ColumnBatchCompactor extends Logging {
+
+  /** Maximum time to wait for the write lock of a table before skipping the bucket. */
+  private val LOCK_WAIT_MILLIS = 100L
+
+  /** Maximum number of batches of a bucket rewritten under one hold of the lock. */
+  private val MAX_BATCHES_PER_ROUND = 16
+
+  @GuardedBy("this")
+  private[this] var timer: Timer = _
+
+  private[this] val rewrittenBatches = new AtomicLong(0L)
+  private[this] val rewrittenRows = new AtomicLong(0L)
+  private[this] val removedRows = new AtomicLong(0L)
+  private[this] val rewrittenBytes = new AtomicLong(0L)
+
+  /** Number of batches that have been rewritten on this node. */
+  def numRewrittenBatches: Long = rewrittenBatches.get()
+
+  /** Number of remaining rows of the rewritten batches on this node. */
+  def numRewrittenRows: Long = rewrittenRows.get()
+
+  /** Number of deleted rows dropped from the rewritten batches on this node. */
+  def numRemovedRows: Long = removedRows.get()
+
+  /** Decompressed size of the column values of the rewritten batches on this node. */
+  def numRewrittenBytes: Long = rewrittenBytes.get()
+
+  /**
+   * Start the periodic compaction if [[Property.ColumnCompactionInterval]] is positive.
+   * This is a no-op if the compaction has already been started.
+   */
+  def start(conf: SparkConf): Unit = synchronized {
+    if (timer ne null) return
+    val interval = Property.ColumnCompactionInterval.get(conf) * 1000L
+    if (interval <= 0L) return
+    val deleteRatio = Property.ColumnCompactionDeleteRatio.get(conf)
+    val deltaRatio = Property.ColumnCompactionDeltaRatio.get(conf)
+    val minBatchFill = Property.ColumnCompactionMinBatchFill.get(conf)
+    timer = new Timer("ColumnBatchCompactor", true)
+    // fixed delay so that a slow round is not followed by rounds in quick succession
+    timer.schedule(new TimerTask {
+      override def run(): Unit = try {
+        compactAll(deleteRatio, deltaRatio, minBatchFill)
+      } catch {
+        case _: CancelException => // ignore
+        case NonFatal(e) => logWarning("Failed in compaction of column batches", e)
+      }
+    }, interval, interval)
+  }
+
+  def stop(): Unit = synchronized {
+    if (timer ne null) {
+      timer.cancel()
+      timer = null
+    }
+  }
+
+  /** Compact the batches in the primary buckets of all column tables on this node. */
+  def compactAll(deleteRatio: Double, deltaRatio: Double, minBatchFill: Double): Unit = {
+    val cache = GemFireCacheImpl.getInstance
+    if ((cache eq null) || cache.isClosed) return
+    for (region <- cache.getApplicationRegions.asScala) region match {
+      case pr: PartitionedRegion if pr.getLocalMaxMemory > 0 &&
+          ColumnFormatRelation.isColumnTable(Misc.getFullTableNameFromRegionPath(
+            pr.getFullPath)) =>
+        try {
+          compactTable(pr, deleteRatio, deltaRatio, minBatchFill)
+        } catch {
+          case _: CancelException => return
+          case NonFatal(e) => logWarning(s"Failed to compact column batches of $pr", e)
+        }
+      case _ =>
+    }
+  }
+
+  private def compactTable(columnRegion: PartitionedRegion, deleteRatio: Double,
+      deltaRatio: Double, minBatchFill: Double): Unit = {
+    val bufferRegion = columnRegion.getColocatedWithRegion
+    val container = bufferRegion.getUserAttribute.asInstanceOf[GemFireContainer]
+    if (container eq null) return
+    val catalogEntry = container.fetchHiveMetaData(false)
+    // sample tables have an extra weightage column while tables having dependent
+    // indexes need those updated on insert which the rows buffer does not do
+    if ((catalogEntry eq null) || catalogEntry.tableType != CatalogObjectType.Column.toString ||
+        ((catalogEntry.dependents ne null) && catalogEntry.dependents.length != 0)) {
+      return
+    }
+    val store = catalogEntry.externalStore match {
+      case s: JDBCSourceAsColumnarStore => s
+      case _ => return
+    }
+    val tableName = container.getQualifiedTableName
+    val columnTableName = Misc.getFullTableNameFromRegionPath(columnRegion.getFullPath)
+    val schema = catalogEntry.schema.asInstanceOf[StructType]
+    val minBatchRows = (minBatchFill * catalogEntry.columnMaxDeltaRows).toInt
+    lazy val batchCreator = new ColumnBatchCreator(bufferRegion, tableName, columnTableName,
+      schema, store, catalogEntry.compressionCodec)
+
+    for (bucket <- columnRegion.getDataStore.getAllLocalPrimaryBucketRegions.asScala) {
+      // check without the lock first to avoid taking it for buckets that need nothing
+      if (findCandidates(bucket, schema, deleteRatio, deltaRatio, minBatchRows).nonEmpty) {
+        val lock = PartitionedRegion.getRegionLock(SnappySession.WRITE_LOCK_PREFIX + tableName,
+          GemFireCacheImpl.getExisting)
+        val locked = try {
+          lock.lock(LOCK_WAIT_MILLIS)
+          true
+        } catch {
+          case _: CancelException => return
+          case NonFatal(e) =>
+            logDebug(s"Skipping compaction of bucket ${bucket.getId} of $tableName", e)
+            false
+        }
+        if (locked) {
+          val start = System.currentTimeMillis()
+          try {
+            // check again since writes may have changed the batches
+            val candidates = findCandidates(bucket, schema, deleteRatio, deltaRatio,
+              minBatchRows)
+            if (candidates.nonEmpty) {
+              rewriteBatches(bucket, candidates, schema, columnRegion, columnTableName,
+                store, batchCreator, bufferRegion.getColumnBatchSize)
+            }
+          } finally {
+            lock.unlock()
+          }
+          Thread.sleep(System.currentTimeMillis() - start)
+        }
+      }
+    }
+  }
+
+  /**
+   * Information of a column batch gathered from its stats row, delete mask and deltas.
+   */
+  private final class BatchInfo {
+    var statsKey: ColumnFormatKey = _
+    var deleteKey: ColumnFormatKey = _
+    val deltaKeys = new ArrayBuffer[ColumnFormatKey](2)
+    var numRows: Int = _
+    var numDeleted: Int = _
+
+    def numLiveRows: Int = numRows - numDeleted
+  }
+
+  /**
+   * Return the batches of given bucket to be rewritten. These are the batches crossing
+   * the delete or delta thresholds and the batches having less than given number of
+   * remaining rows if there is more than one batch to be rewritten.
+   */
+  private def findCandidates(bucket: BucketRegion, schema: StructType, deleteRatio: Double,
+      deltaRatio: Double, minBatchRows: Int): Seq[BatchInfo] = {
+    val batches = new Long2ObjectOpenHashMap[BatchInfo]()
+    val keys = bucket.entries.keySet().iterator()
+    while (keys.hasNext) keys.next() match {
+      case k: ColumnFormatKey =>
+        val columnIndex = k.columnIndex
+        if (columnIndex == ColumnFormatEntry.STATROW_COL_INDEX ||
+            columnIndex <= ColumnFormatEntry.DELETE_MASK_COL_INDEX) {
+          var info = batches.get(k.uuid)
+          if (info eq null) {
+            info = new BatchInfo
+            batches.put(k.uuid, info)
+          }
+          if (columnIndex == ColumnFormatEntry.STATROW_COL_INDEX) info.statsKey = k
+          else if (columnIndex == ColumnFormatEntry.DELETE_MASK_COL_INDEX) info.deleteKey = k
+          else info.deltaKeys += k
+        }
+      case _ =>
+    }
+
+    val numStatsColumns = ColumnStatsSchema.numStatsColumns(schema.length)
+    val rewrite = new ArrayBuffer[BatchInfo]
+    val undersized = new ArrayBuffer[BatchInfo]
+    val iter = batches.values().iterator()
+    while (iter.hasNext) {
+      val info = iter.next()
+      if (info.statsKey ne null) {
+        info.numRows = ColumnKeyIndex.readColumn(bucket, info.statsKey, buffer => math.abs(
+          SharedUtils.toUnsafeRow(buffer, numStatsColumns)
+              .getInt(ColumnStatsSchema.COUNT_INDEX_IN_SCHEMA)))
+        if (info.numRows > 0) {
+          if (info.deleteKey ne null) {
+            info.numDeleted = math.max(0, ColumnKeyIndex.readColumn(bucket, info.deleteKey,
+              buffer => {
+                val allocator = ColumnEncoding.getAllocator(buffer)
+                ColumnEncoding.readInt(allocator.baseObject(buffer),
+                  allocator.baseOffset(buffer) + buffer.position() + 8)
+              }))
+          }
+          var numUpdated = 0
+          for (deltaKey <- info.deltaKeys) {
+            val field = schema(ColumnDelta.tableColumnIndex(deltaKey.columnIndex) - 1)
+            numUpdated = math.max(numUpdated, ColumnKeyIndex.readColumn(bucket, deltaKey,
+              buffer => numDeltaPositions(buffer, field)))
+          }
+          if (info.numDeleted >= deleteRatio * info.numRows ||
+              numUpdated >= deltaRatio * info.numRows) {
+            rewrite += info
+          } else if (info.numLiveRows < minBatchRows) {
+            undersized += info
+          }
+        }
+      }
+    }
+    if (rewrite.isEmpty && undersized.length < 2) Nil
+    else (rewrite ++ undersized).take(MAX_BATCHES_PER_ROUND)
+  }
+
+  /** Number of updated positions in the delta buffer of given column. */
+  private def numDeltaPositions(buffer: ByteBuffer, field: StructField): Int = {
+    var numPositions = 0
+    // the delta header after the nulls has the number of base rows and positions
+    ColumnEncoding.getColumnDecoder(buffer, field, (columnBytes: AnyRef, cursor: Long) => {
+      numPositions = ColumnEncoding.readInt(columnBytes, cursor + 4)
+      cursor
+    })
+    numPositions
+  }
+
+  private def rewriteBatches(bucket: BucketRegion, batches: Seq[BatchInfo],
+      schema: StructType, columnRegion: PartitionedRegion, columnTableName: String,
+      store: JDBCSourceAsColumnarStore, batchCreator: => ColumnBatchCreator,
+      columnBatchSize: Int): Unit = {
+    val connAndTxId = store.beginTx(false)
+    val txId = connAndTxId(1).asInstanceOf[String]
+    val conn = Option(connAndTxId(0).asInstanceOf[Connection])
+    var success = false
+    try {
+      var numBytes = 0L
+      val numLiveRows = batches.map(_.numLiveRows.toLong).sum
+      if (numLiveRows > 0) {
+        val rowsBuffer = batchCreator.createColumnBatchBuffer(columnBatchSize, -1)
+        rowsBuffer.startRows(bucket.getId)
+        for (info <- batches) {
+          numBytes += appendBatchRows(bucket, info, schema, rowsBuffer)
+        }
+        rowsBuffer.endRows()
+      }
+      for (info <- batches) {
+        ColumnDelta.deleteBatch(info.statsKey, columnRegion, columnTableName)
+      }
+      success = true
+      rewrittenBatches.addAndGet(batches.length)
+      rewrittenRows.addAndGet(numLiveRows)
+      removedRows.addAndGet(batches.map(_.numDeleted.toLong).sum)
+      rewrittenBytes.addAndGet(numBytes)
+      logInfo(s"Compacted ${batches.length} batches having $numLiveRows rows " +
+          s"($numBytes bytes) in bucket ${bucket.getId} of $columnTableName")
+    } finally {
+      if (txId ne null) {
+        if (success) store.commitTx(txId, delayRollover = false, conn)
+        else store.rollbackTx(txId, conn)
+      }
+      store.closeConnection(conn)
+    }
+  }
+
+  /**
+   * Append the remaining rows of given batch, with the updated values merged from its
+   * deltas, to the rows buffer and return the total size of its column values.
+   */
+  private def appendBatchRows(bucket: BucketRegion, info: BatchInfo, schema: StructType,
+      rowsBuffer: ColumnBatchRowsBuffer): Long = {
+    val values = new BatchValues(bucket)
+    try {
+      val statsKey = info.statsKey
+      val numColumns = schema.length
+      val deleteBuffer = if (info.deleteKey ne null) values.get(info.deleteKey) else null
+      val deleteDecoder = if (deleteBuffer ne null) new ColumnDeleteDecoder(deleteBuffer) else null
+      val dataTypes = new Array[DataType](numColumns)
+      val decoders = new Array[ColumnDecoder](numColumns)
+      val columnBytes = new Array[AnyRef](numColumns)
+      val updatedDecoders = new Array[UpdatedColumnDecoderBase](numColumns)
+      for (i <- 0 until numColumns) {
+        val field = schema(i)
+        val buffer = values.get(statsKey.withColumnIndex(i + 1))
+        if (buffer eq null) {
+          throw new EntryDestroyedException(s"Compaction of column=${i + 1} " +
+              s"partition=${statsKey.partitionId} batchUUID=${statsKey.uuid} " +
+              "failed due to missing value")
+        }
+        val (decoder, bytes) = ColumnEncoding.getColumnDecoderAndBuffer(buffer, field,
+          ColumnEncoding.identityLong)
+        dataTypes(i) = Utils.getSQLDataType(field.dataType)
+        decoders(i) = decoder
+        columnBytes(i) = bytes
+        val deltaIndex = ColumnDelta.deltaColumnIndex(i, 0)
+        val delta1 = values.get(statsKey.withColumnIndex(deltaIndex))
+        val delta2 = values.get(statsKey.withColumnIndex(deltaIndex - 1))
+        if ((delta1 ne null) || (delta2 ne null)) {
+          updatedDecoders(i) = UpdatedColumnDecoder(decoder, field, delta1, delta2)
+        }
+      }
+
+      // positions of the next null and number of nulls seen so far in each column
+      // which are tracked for all rows including the deleted and updated ones
+      val nextNulls = decoders.map(_.getNextNullPosition)
+      val numNulls = new Array[Int](numColumns)
+      val row = new GenericInternalRow(numColumns)
+      var ordinal = 0
+      while (ordinal < info.numRows) {
+        val deleted = (deleteDecoder ne null) && deleteDecoder.deleted(ordinal)
+        var i = 0
+        while (i < numColumns) {
+          val decoder = decoders(i)
+          val isNull = ordinal == nextNulls(i)
+          if (isNull) {
+            numNulls(i) += 1
+            nextNulls(i) = decoder.findNextNullPosition(columnBytes(i), nextNulls(i), numNulls(i))
+          }
+          if (!deleted) {
+            val updated = updatedDecoders(i)
+            if ((updated ne null) && !updated.unchanged(ordinal)) {
+              if (updated.readNotNull) {
+                row.update(i, readDelta(updated.getCurrentDeltaBuffer, dataTypes(i)))
+              } else row.setNullAt(i)
+            } else if (isNull) row.setNullAt(i)
+            else {
+              row.update(i, readValue(decoder, columnBytes(i), dataTypes(i),
+                ordinal - numNulls(i)))
+            }
+          }
+          i += 1
+        }
+        if (!deleted) rowsBuffer.appendRow(row)
+        ordinal += 1
+      }
+      values.numBytes
+    } finally {
+      values.release()
+    }
+  }
+
+  private def readValue(decoder: ColumnDecoder, columnBytes: AnyRef, dataType: DataType,
+      position: Int): Any = dataType match {
+    case BooleanType => decoder.readBoolean(columnBytes, position)
+    case ByteType => decoder.readByte(columnBytes, position)
+    case ShortType => decoder.readShort(columnBytes, position)
+    case IntegerType => decoder.readInt(columnBytes, position)
+    case LongType => decoder.readLong(columnBytes, position)
+    case FloatType => decoder.readFloat(columnBytes, position)
+    case DoubleType => decoder.readDouble(columnBytes, position)
+    case DateType => decoder.readDate(columnBytes, position)
+    case TimestampType => decoder.readTimestamp(columnBytes, position)
+    case StringType => decoder.readUTF8String(columnBytes, position)
+    case BinaryType => decoder.readBinary(columnBytes, position)
+    case CalendarIntervalType => decoder.readInterval(columnBytes, position)
+    case d: DecimalType if d.precision <= Decimal.MAX_LONG_DIGITS =>
+      decoder.readLongDecimal(columnBytes, d.precision, d.scale, position)
+    case d: DecimalType => decoder.readDecimal(columnBytes, d.precision, d.scale, position)
+    case _: ArrayType => decoder.readArray(columnBytes, position)
+    case _: MapType => decoder.readMap(columnBytes, position)
+    case s: StructType => decoder.readStruct(columnBytes, s.length, position)
+    case _ => throw new UnsupportedOperationException(s"Cannot compact column of $dataType")
+  }
+
+  private def readDelta(delta: ColumnDeltaDecoder, dataType: DataType): Any = dataType match {
+    case BooleanType => delta.readBoolean
+    case ByteType => delta.readByte
+    case ShortType => delta.readShort
+    case IntegerType => delta.readInt
+    case LongType => delta.readLong
+    case FloatType => delta.readFloat
+    case DoubleType => delta.readDouble
+    case DateType => delta.readDate
+    case TimestampType => delta.readTimestamp
+    case StringType => delta.readUTF8String
+    case BinaryType => delta.readBinary
+    case CalendarIntervalType => delta.readInterval
+    case d: DecimalType if d.precision <= Decimal.MAX_LONG_DIGITS =>
+      delta.readLongDecimal(d.precision, d.scale)
+    case d: DecimalType => delta.readDecimal(d.precision, d.scale)
+    case _: ArrayType => delta.readArray
+    case _: MapType => delta.readMap
+    case s: StructType => delta.readStruct(s.length)
+    case _ => throw new UnsupportedOperationException(s"Cannot compact column of $dataType")
+  }
+
+  /**
+   * Decompressed values of a batch read from a bucket without faulting them in
+   * that are retained till [[release]].
+   */
+  private final class BatchValues(region: LocalRegion) {
+
+    private val retained = new ArrayBuffer[(SerializedDiskBuffer, ColumnFormatValue)]
+
+    var numBytes: Long = 0L
+
+    /** Get the buffer for given key or null if the value is missing. */
+    def get(key: ColumnFormatKey): ByteBuffer = {
+      val entry = region.entries.getEntry(key).asInstanceOf[RegionEntry]
+      if (entry eq null) return null
+      entry.getValueInVMOrDiskWithoutFaultIn(region) match {
+        case v: ColumnFormatValue =>
+          val value = v.getValueRetain(FetchRequest.DECOMPRESS)
+          retained += v -> value
+          val buffer = value.getBuffer
+          if (buffer.remaining() > 0) {
+            numBytes += buffer.remaining()
+            buffer
+          } else null
+        case s: SerializedDiskBuffer =>
+          if (GemFireCacheImpl.hasNewOffHeap) s.release()
+          null
+        case _ => null
+      }
+    }
+
+    def release(): Unit = {
+      for ((v, value) <- retained) {
+        value.release()
+        // match the retain done by getValueInVMOrDiskWithoutFaultIn
+        if (GemFireCacheImpl.hasNewOffHeap) v.release()
+      }
+      retained.clear()
+    }
+  }
+}
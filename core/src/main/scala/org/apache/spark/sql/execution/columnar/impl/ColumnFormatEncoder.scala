@@ -119,6 +119,7 @@ final class ColumnFormatEncoder extends RowEncoder {
 
   override def afterColumnStorePuts(bucket: BucketRegion,
       events: Array[EntryEventImpl]): Unit = {
+    ColumnKeyIndex.afterColumnStorePuts(bucket, events)
     // delete entire batch if all rows are marked deleted
     events.foreach(event => event.getKey match {
       case deleteKey: ColumnFormatKey
@@ -26,7 +26,7 @@ import com.gemstone.gemfire.internal.cache.store.SerializedDiskBuffer
 import com.gemstone.gemfire.internal.concurrent.CustomEntryConcurrentHashMap
 import com.google.common.primitives.Ints
 import com.pivotal.gemfirexd.internal.iapi.util.ReuseFactory
-import it.unimi.dsi.fastutil.longs.{Long2ObjectMap, Long2ObjectOpenHashMap}
+import it.unimi.dsi.fastutil.longs.{Long2ObjectMap, Long2ObjectOpenHashMap, LongOpenHashSet}
 
 import org.apache.spark.sql.catalyst.expressions.UnsafeRow
 import org.apache.spark.sql.execution.columnar.encoding.BitSet
@@ -42,9 +42,10 @@ import org.apache.spark.unsafe.Platform
  *
  * @param baseRegion usually the first bucket region being iterated
  * @param projection array of projected columns (1-based, excluding delta or meta-columns)
+ * @param keyLookup  keys of a point lookup to skip the batches not having any or null
  */
 final class ColumnFormatIterator(baseRegion: LocalRegion, projection: Array[Int],
-    fullScan: Boolean, txState: TXState)
+    fullScan: Boolean, txState: TXState, keyLookup: ColumnKeyLookup = null)
     extends ClusteredColumnIterator with DiskRegionIterator {
 
   type MapValueIterator =
@@ -95,6 +96,11 @@ final class ColumnFormatIterator(baseRegion: LocalRegion, projection: Array[Int]
     } else (0, null, null)
   }
 
+  /**
+   * Batches of the current region that do not have any of the keys of [[keyLookup]].
+   */
+  private var skipBatches: LongOpenHashSet = _
+
   // start iteration with the first provided region
   setRegion(baseRegion)
 
@@ -121,6 +127,11 @@ final class ColumnFormatIterator(baseRegion: LocalRegion, projection: Array[Int]
     }
     checkRegion(region)
     currentRegion = region
+    // track the scans of the bucket for eviction
+    AccessHeat.recordRegionAccess(region)
+    if (keyLookup ne null) {
+      skipBatches = ColumnKeyIndex.batchesWithoutKey(region, keyLookup)
+    }
     entryIterator = region.entries.regionEntries().iterator().asInstanceOf[MapValueIterator]
     advanceToNextBatchSet()
   }
@@ -212,12 +223,13 @@ final class ColumnFormatIterator(baseRegion: LocalRegion, projection: Array[Int]
         val key = aEntry.getRawKey.asInstanceOf[ColumnFormatKey]
         // check if it is one of required projection columns, their deltas or meta-columns
         val columnIndex = key.columnIndex
-        if ((columnIndex < 0 && columnIndex >= DELETE_MASK_COL_INDEX) || {
-          val tableColumn = ColumnDelta.tableColumnIndex(columnIndex)
-          tableColumn > 0 &&
-              BitSet.isSet(projectionBitSet, Platform.LONG_ARRAY_OFFSET,
-                tableColumn - 1 , projectionBitSet.length)
-        }) {
+        if (((skipBatches eq null) || !skipBatches.contains(key.uuid)) &&
+            ((columnIndex < 0 && columnIndex >= DELETE_MASK_COL_INDEX) || {
+              val tableColumn = ColumnDelta.tableColumnIndex(columnIndex)
+              tableColumn > 0 &&
+                  BitSet.isSet(projectionBitSet, Platform.LONG_ARRAY_OFFSET,
+                    tableColumn - 1, projectionBitSet.length)
+            })) {
           // note that the map used below uses value==0 to indicate free, so the
           // column indexes have to be 1-based (and negative for deltas/meta-data)
           // and so the same values as that stored in ColumnFormatKey are used
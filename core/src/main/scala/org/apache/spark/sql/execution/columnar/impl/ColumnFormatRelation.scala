@@ -118,11 +118,29 @@ abstract class BaseColumnFormatRelation(
 
     // note: filters is expected to be already split by CNF.
     // see PhysicalScan#unapply
-    super.scanTable(externalColumnTableName, requiredColumns, filters,
+    val result = super.scanTable(externalColumnTableName, requiredColumns, filters,
       () => Utils.getPrunedPartition(partitionColumns, filters, schema,
         numBuckets, partitioningColumns.length))
+    result._1 match {
+      case rdd: ColumnarStorePartitionedRDD if hasKeyIndex && (filters ne null) &&
+          filters.length > 0 =>
+        val session = sqlContext.sparkSession.asInstanceOf[SnappySession]
+        val schema = this.schema
+        val keyColumns = getPrimaryKeyColumns(session).map(k =>
+          schema.indexWhere(_.name.equalsIgnoreCase(k)) + 1).toArray
+        if (!keyColumns.contains(0)) {
+          rdd.keyLookupEvaluator = () => ColumnKeyIndex.lookupKey(keyColumns, schema, filters)
+        }
+      case _ =>
+    }
+    result
   }
 
+  /** If the table has the [[ExternalStoreUtils.KEY_INDEX]] option enabled. */
+  private[sql] lazy val hasKeyIndex: Boolean = ColumnKeyIndex.isEnabled(origOptions,
+    getPrimaryKeyColumns(sqlContext.sparkSession.asInstanceOf[SnappySession]),
+    StructType(Nil), table)
+
   override def unhandledFilters(filters: Seq[Expression]): Seq[Expression] = filters
 
   override def buildUnsafeScan(requiredColumns: Array[String],
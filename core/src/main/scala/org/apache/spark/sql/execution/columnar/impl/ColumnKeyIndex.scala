@@ -0,0 +1,461 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package org.apache.spark.sql.execution.columnar.impl
+
+import java.util.concurrent.atomic.AtomicLong
+import javax.annotation.concurrent.GuardedBy
+
+import scala.util.control.NonFatal
+
+import com.esotericsoftware.kryo.Kryo
+import com.esotericsoftware.kryo.io.{Input, Output}
+import com.gemstone.gemfire.internal.cache.{EntryEventImpl, GemFireCacheImpl, LocalRegion, RegionEntry}
+import com.gemstone.gemfire.internal.cache.store.SerializedDiskBuffer
+import com.gemstone.gemfire.internal.shared.FetchRequest
+import com.google.common.cache.{Cache, CacheBuilder, RemovalListener, RemovalNotification}
+import io.snappydata.util.com.clearspring.analytics.stream.membership.BloomFilter
+import it.unimi.dsi.fastutil.longs.{Long2ObjectOpenHashMap, LongOpenHashSet}
+
+import org.apache.spark.Logging
+import org.apache.spark.serializer.StructTypeSerializer
+import org.apache.spark.sql.AnalysisException
+import org.apache.spark.sql.catalyst.expressions.{Attribute, EqualNullSafe, EqualTo, Expression, In, InSet, TokenLiteral}
+import org.apache.spark.sql.collection.{SharedUtils, Utils}
+import org.apache.spark.sql.execution.columnar.encoding.{ColumnDecoder, ColumnEncoding, ColumnStatsSchema}
+import org.apache.spark.sql.execution.columnar.{ColumnBloomFilters, ExternalStoreUtils}
+import org.apache.spark.sql.types._
+
+/**
+ * Keys of a point lookup on all the key columns of a column table having the
+ * [[ExternalStoreUtils.KEY_INDEX]] option. The scan skips the column batches
+ * that the [[ColumnKeyIndex]] of their bucket shows do not have any of the keys.
+ *
+ * @param columns    the 1-based table column indexes of the key columns
+ * @param fields     the fields of the key columns
+ * @param numColumns the number of columns in the table
+ * @param hashes     the sorted hashes of the keys as returned by [[ColumnKeyIndex.hashKey]]
+ */
+final class ColumnKeyLookup(val columns: Array[Int], val fields: Array[StructField],
+    val numColumns: Int, val hashes: Array[Long])
+
+/**
+ * Index of the column batches of a bucket that has the sorted hashes of the keys
+ * of each batch. A batch is indexed when it is first seen by a scan having a
+ * [[ColumnKeyLookup]] which covers the batches created by inserts and by the rollover
+ * of row buffer as well as those recovered from disk. The batches whose key columns
+ * have been updated are never skipped.
+ *
+ * The batches of the bucket and those having key column updates are found by a scan
+ * of the keys of the bucket which is repeated only when the number of its entries
+ * or the [[modCount]] has changed since the last scan.
+ */
+private final class BucketKeyIndex(val columns: Array[Int], val objectName: String) {
+
+  /** Sorted hashes of the non-null keys of indexed batches keyed by batch UUID. */
+  @GuardedBy("this")
+  val batches = new Long2ObjectOpenHashMap[Array[Long]]()
+
+  /** Stats row keys of the batches found by the last scan keyed by batch UUID. */
+  @GuardedBy("this")
+  val currentBatches = new Long2ObjectOpenHashMap[ColumnFormatKey]()
+
+  /** UUIDs of the batches having updates to the key columns found by the last scan. */
+  @GuardedBy("this")
+  val updatedBatches = new LongOpenHashSet()
+
+  /** Number of entries in the bucket at the time of the last scan. */
+  @GuardedBy("this")
+  var scannedSize: Int = -1
+
+  /** The [[modCount]] at the time of the last scan. */
+  @GuardedBy("this")
+  var scannedModCount: Long = -1L
+
+  /** Count of the puts of batches or key column deltas into the bucket. */
+  val modCount = new AtomicLong(0L)
+
+  /** Memory accounted for the hashes in [[batches]]. */
+  @GuardedBy("this")
+  var memorySize: Long = 0L
+
+  def release(): Unit = synchronized {
+    if (memorySize > 0) {
+      SharedUtils.releaseStorageMemory(objectName, memorySize, offHeap = false)
+      memorySize = 0L
+    }
+    batches.clear()
+    currentBatches.clear()
+    updatedBatches.clear()
+    scannedSize = -1
+  }
+}
+
+/**
+ * Optional per-bucket index from the key columns of a column table to its column batches
+ * enabled by the [[ExternalStoreUtils.KEY_INDEX]] table option. It allows a scan with
+ * equality filters on all the key columns to read only the batches that can have the key
+ * instead of checking every row of the table. The hashes of the keys are accounted as
+ * storage memory and batches are left unindexed (and always scanned) if that fails.
+ */
+object ColumnKeyIndex extends Logging {
+
+  private[this] val MULTIPLIER = 0x9E3779B97F4A7C15L
+
+  /** Maximum number of keys in a lookup beyond which the batches are not skipped. */
+  val MAX_LOOKUP_KEYS = 1024
+
+  /** Estimated size of the map entry and array header for an indexed batch. */
+  private[this] val BATCH_OVERHEAD = 64L
+
+  private[this] val bucketIndexes: Cache[LocalRegion, BucketKeyIndex] =
+    CacheBuilder.newBuilder().weakKeys().removalListener(
+      new RemovalListener[LocalRegion, BucketKeyIndex] {
+        override def onRemoval(n: RemovalNotification[LocalRegion, BucketKeyIndex]): Unit =
+          n.getValue.release()
+      }).build[LocalRegion, BucketKeyIndex]()
+
+  /**
+   * Returns the value of [[ExternalStoreUtils.KEY_INDEX]] option checking that the
+   * key columns of the table are of the types supported by the index.
+   */
+  def isEnabled(parameters: scala.collection.Map[String, String], keyColumns: Seq[String],
+      schema: StructType, table: String): Boolean = {
+    val enabled = parameters.get(ExternalStoreUtils.KEY_INDEX) match {
+      case None => false
+      case Some(v) => Utils.toLowerCase(v.trim) match {
+        case "true" => true
+        case "false" => false
+        case _ => throw new AnalysisException(
+          s"Invalid value '$v' for ${ExternalStoreUtils.KEY_INDEX} in '$table'")
+      }
+    }
+    if (enabled) {
+      if (keyColumns.isEmpty) {
+        throw new AnalysisException(s"${ExternalStoreUtils.KEY_INDEX} requires " +
+            s"${ExternalStoreUtils.KEY_COLUMNS} to be specified for '$table'")
+      }
+      // schema can be empty for an existing table that will be resolved later
+      if (schema.nonEmpty) keyColumns.foreach(name => schema.find(_.name.equalsIgnoreCase(
+        name)) match {
+        case Some(f) if !ColumnBloomFilters.supportsType(f.dataType) =>
+          throw new AnalysisException(s"${ExternalStoreUtils.KEY_INDEX} not supported " +
+              s"for key column '${f.name}' of type ${f.dataType.simpleString} in '$table'")
+        case _ =>
+      })
+    }
+    enabled
+  }
+
+  /** Combined hash of the non-null values of the key columns. */
+  def hashKey(values: Array[Any], fields: Array[StructField]): Long = {
+    var hash = 0L
+    var i = 0
+    while (i < values.length) {
+      hash = hash * MULTIPLIER + ColumnBloomFilters.hash(fields(i).dataType, values(i))
+      i += 1
+    }
+    hash
+  }
+
+  /**
+   * Returns the lookup for given filters if those have equality or IN conditions with
+   * non-null constants on all the key columns, or null otherwise. The keys looked up
+   * are all the combinations of the values of the key columns which should not be more
+   * than [[MAX_LOOKUP_KEYS]]. This has to be evaluated for every execution since the
+   * constants can be ParamLiterals.
+   *
+   * @param keyColumns the 1-based table column indexes of the key columns
+   */
+  def lookupKey(keyColumns: Array[Int], schema: StructType,
+      filters: Array[Expression]): ColumnKeyLookup = {
+    val fields = keyColumns.map(c => schema(c - 1))
+    val keyValues = new Array[Seq[Any]](fields.length)
+    var numKeys = 1L
+    var i = 0
+    while (i < fields.length) {
+      val f = fields(i)
+      def isKey(a: Attribute): Boolean =
+        a.name.equalsIgnoreCase(f.name) && a.dataType == f.dataType
+      def isValue(v: Expression): Boolean =
+        TokenLiteral.isConstant(v) && v.dataType == f.dataType
+      filters.collectFirst {
+        case EqualTo(a: Attribute, v) if isKey(a) && isValue(v) => v.eval(null) :: Nil
+        case EqualTo(v, a: Attribute) if isKey(a) && isValue(v) => v.eval(null) :: Nil
+        case EqualNullSafe(a: Attribute, v) if isKey(a) && isValue(v) => v.eval(null) :: Nil
+        case EqualNullSafe(v, a: Attribute) if isKey(a) && isValue(v) => v.eval(null) :: Nil
+        case In(a: Attribute, list) if isKey(a) && list.forall(isValue) =>
+          list.map(_.eval(null))
+        case InSet(a: Attribute, set) if isKey(a) => set.toSeq
+      } match {
+        case Some(values) =>
+          // null keys are not indexed so cannot be looked up
+          if (values.contains(null)) return null
+          keyValues(i) = values.distinct
+          numKeys *= keyValues(i).length
+          if (numKeys == 0 || numKeys > MAX_LOOKUP_KEYS) return null
+        case None => return null
+      }
+      i += 1
+    }
+    val keys = keyValues.foldRight(Seq(List.empty[Any]))((values, suffixes) =>
+      for (v <- values; suffix <- suffixes) yield v :: suffix)
+    val hashes = keys.map(k => hashKey(k.toArray, fields)).toArray
+    java.util.Arrays.sort(hashes)
+    new ColumnKeyLookup(keyColumns, fields, schema.length, hashes)
+  }
+
+  def write(kryo: Kryo, output: Output, lookup: ColumnKeyLookup): Unit = {
+    if (lookup ne null) {
+      output.writeBoolean(true)
+      output.writeInt(lookup.columns.length)
+      output.writeInts(lookup.columns)
+      StructTypeSerializer.write(kryo, output, StructType(lookup.fields))
+      output.writeInt(lookup.numColumns)
+      output.writeInt(lookup.hashes.length)
+      output.writeLongs(lookup.hashes)
+    } else output.writeBoolean(false)
+  }
+
+  def read(kryo: Kryo, input: Input): ColumnKeyLookup = {
+    if (input.readBoolean()) {
+      val columns = input.readInts(input.readInt())
+      val fields = StructTypeSerializer.read(kryo, input, c = null).fields
+      val numColumns = input.readInt()
+      new ColumnKeyLookup(columns, fields, numColumns, input.readLongs(input.readInt()))
+    } else null
+  }
+
+  /**
+   * Bring the index of given bucket region up to date and return the UUIDs of the
+   * batches that definitely do not have any of the keys of given lookup.
+   */
+  def batchesWithoutKey(region: LocalRegion, lookup: ColumnKeyLookup): LongOpenHashSet = {
+    // values of off-heap regions need explicit release so are not indexed
+    if (region.getEnableOffHeapMemory) return null
+    var index = bucketIndexes.getIfPresent(region)
+    if ((index eq null) || !java.util.Arrays.equals(index.columns, lookup.columns)) {
+      if (index ne null) bucketIndexes.invalidate(region)
+      val newIndex = new BucketKeyIndex(lookup.columns, s"${region.getFullPath}#KEY_INDEX")
+      index = bucketIndexes.asMap().putIfAbsent(region, newIndex)
+      if (index eq null) index = newIndex
+    }
+
+    index.synchronized {
+      // read the markers before the scan so that changes during the scan lead to
+      // another scan by the next lookup
+      val size = region.entries.size()
+      val modCount = index.modCount.get()
+      if (size != index.scannedSize || modCount != index.scannedModCount) {
+        scanBatches(region, index)
+        index.scannedSize = size
+        index.scannedModCount = modCount
+      }
+
+      val result = new LongOpenHashSet()
+      val batches = index.currentBatches.values().iterator()
+      while (batches.hasNext) {
+        val statsKey = batches.next()
+        val uuid = statsKey.uuid
+        if (!index.updatedBatches.contains(uuid)) {
+          var hashes = index.batches.get(uuid)
+          if (hashes eq null) {
+            hashes = indexBatch(region, index, statsKey, lookup)
+          }
+          if ((hashes ne null) && !hasAnyKey(hashes, lookup.hashes)) {
+            result.add(uuid)
+          }
+        }
+      }
+      result
+    }
+  }
+
+  private def hasAnyKey(hashes: Array[Long], keyHashes: Array[Long]): Boolean = {
+    var i = 0
+    while (i < keyHashes.length) {
+      if (java.util.Arrays.binarySearch(hashes, keyHashes(i)) >= 0) return true
+      i += 1
+    }
+    false
+  }
+
+  /**
+   * Collect the current batches of the bucket and the ones having updates to the
+   * key columns, and remove the batches that no longer exist from the index.
+   */
+  private def scanBatches(region: LocalRegion, index: BucketKeyIndex): Unit = {
+    val currentBatches = index.currentBatches
+    val updatedBatches = index.updatedBatches
+    currentBatches.clear()
+    updatedBatches.clear()
+    val keys = region.entries.keySet().iterator()
+    while (keys.hasNext) keys.next() match {
+      case k: ColumnFormatKey =>
+        if (k.columnIndex == ColumnFormatEntry.STATROW_COL_INDEX) currentBatches.put(k.uuid, k)
+        else if (isKeyColumnDelta(k, index.columns)) updatedBatches.add(k.uuid)
+      case _ =>
+    }
+
+    val indexed = index.batches.keySet().iterator()
+    while (indexed.hasNext) {
+      val uuid = indexed.nextLong()
+      if (!currentBatches.containsKey(uuid)) {
+        val size = batchMemorySize(index.batches.get(uuid))
+        indexed.remove()
+        SharedUtils.releaseStorageMemory(index.objectName, size, offHeap = false)
+        index.memorySize -= size
+      }
+    }
+  }
+
+  private def isKeyColumnDelta(key: ColumnFormatKey, columns: Array[Int]): Boolean = {
+    val columnIndex = key.columnIndex
+    columnIndex < ColumnFormatEntry.DELETE_MASK_COL_INDEX &&
+        columns.contains(ColumnDelta.tableColumnIndex(columnIndex))
+  }
+
+  /**
+   * Invoked after puts into a bucket of the column store to mark its index (if any)
+   * for a rescan of the batches when new batches or deltas to the key columns are put.
+   */
+  private[columnar] def afterColumnStorePuts(bucket: LocalRegion,
+      events: Array[EntryEventImpl]): Unit = {
+    val index = bucketIndexes.getIfPresent(bucket)
+    if ((index ne null) && events.exists(_.getKey match {
+      case k: ColumnFormatKey => k.columnIndex == ColumnFormatEntry.STATROW_COL_INDEX ||
+          isKeyColumnDelta(k, index.columns)
+      case _ => false
+    })) {
+      index.modCount.incrementAndGet()
+    }
+  }
+
+  private def batchMemorySize(hashes: Array[Long]): Long =
+    BATCH_OVERHEAD + (hashes.length.toLong << 3)
+
+  /**
+   * Add the sorted hashes of the keys of given batch to the index returning those,
+   * or null if the batch could not be indexed.
+   */
+  private def indexBatch(region: LocalRegion, index: BucketKeyIndex, statsKey: ColumnFormatKey,
+      lookup: ColumnKeyLookup): Array[Long] = {
+    val numRows = readColumn(region, statsKey, buffer => math.abs(SharedUtils.toUnsafeRow(
+      buffer, ColumnStatsSchema.numStatsColumns(lookup.numColumns))
+        .getInt(ColumnStatsSchema.COUNT_INDEX_IN_SCHEMA)))
+    if (numRows <= 0) return null
+    val size = BATCH_OVERHEAD + (numRows.toLong << 3)
+    if (!SharedUtils.acquireStorageMemory(index.objectName, size, buffer = null,
+      shouldEvict = false, offHeap = false)) {
+      return null
+    }
+    var success = false
+    try {
+      val rowHashes = new Array[Long](numRows)
+      val nullRows = new java.util.BitSet(numRows)
+      var i = 0
+      while (i < lookup.columns.length) {
+        val field = lookup.fields(i)
+        val dataType = Utils.getSQLDataType(field.dataType)
+        val found = readColumn(region, statsKey.withColumnIndex(lookup.columns(i)), buffer => {
+          val (decoder, columnBytes) = ColumnEncoding.getColumnDecoderAndBuffer(
+            buffer, field, ColumnEncoding.identityLong)
+          var numNulls = 0
+          var row = 0
+          while (row < numRows) {
+            if (decoder.isNullAt(columnBytes, row)) {
+              nullRows.set(row)
+              numNulls += 1
+            } else {
+              rowHashes(row) = rowHashes(row) * MULTIPLIER +
+                  hashValue(decoder, columnBytes, row - numNulls, dataType)
+            }
+            row += 1
+          }
+          1
+        })
+        if (found != 1) return null
+        i += 1
+      }
+      // rows having null keys can never match an equality lookup
+      val hashes = new Array[Long](numRows - nullRows.cardinality())
+      var row = 0
+      i = 0
+      while (row < numRows) {
+        if (!nullRows.get(row)) {
+          hashes(i) = rowHashes(row)
+          i += 1
+        }
+        row += 1
+      }
+      java.util.Arrays.sort(hashes)
+      index.batches.put(statsKey.uuid, hashes)
+      success = true
+      // release the memory acquired for the rows having null keys
+      val usedSize = batchMemorySize(hashes)
+      if (usedSize < size) {
+        SharedUtils.releaseStorageMemory(index.objectName, size - usedSize, offHeap = false)
+      }
+      index.memorySize += usedSize
+      hashes
+    } catch {
+      case NonFatal(e) =>
+        logWarning(s"Failed to index column batch ${statsKey.uuid} of ${region.getFullPath}", e)
+        null
+    } finally {
+      if (!success) SharedUtils.releaseStorageMemory(index.objectName, size, offHeap = false)
+    }
+  }
+
+  private def hashValue(decoder: ColumnDecoder, columnBytes: AnyRef, position: Int,
+      dataType: DataType): Long = dataType match {
+    case StringType => ColumnBloomFilters.hashString(decoder.readUTF8String(columnBytes,
+      position))
+    case ByteType => BloomFilter.hashLong(decoder.readByte(columnBytes, position))
+    case ShortType => BloomFilter.hashLong(decoder.readShort(columnBytes, position))
+    case IntegerType => BloomFilter.hashLong(decoder.readInt(columnBytes, position))
+    case DateType => BloomFilter.hashLong(decoder.readDate(columnBytes, position))
+    case LongType => BloomFilter.hashLong(decoder.readLong(columnBytes, position))
+    case TimestampType => BloomFilter.hashLong(decoder.readTimestamp(columnBytes, position))
+    case _ => throw new IllegalStateException(s"Unexpected type $dataType for key index")
+  }
+
+  /**
+   * Apply given function to the decompressed buffer of given key reading it from disk
+   * without fault-in if required. Returns -1 if the value is missing.
+   */
+  private[columnar] def readColumn(region: LocalRegion, key: ColumnFormatKey,
+      f: java.nio.ByteBuffer => Int): Int = {
+    val entry = region.entries.getEntry(key).asInstanceOf[RegionEntry]
+    if (entry eq null) return -1
+    entry.getValueInVMOrDiskWithoutFaultIn(region) match {
+      case v: ColumnFormatValue =>
+        val value = v.getValueRetain(FetchRequest.DECOMPRESS)
+        try {
+          val buffer = value.getBuffer
+          if (buffer.remaining() > 0) f(buffer) else -1
+        } finally {
+          value.release()
+          // match the retain done by getValueInVMOrDiskWithoutFaultIn
+          if (GemFireCacheImpl.hasNewOffHeap) v.release()
+        }
+      case s: SerializedDiskBuffer =>
+        if (GemFireCacheImpl.hasNewOffHeap) s.release()
+        -1
+      case _ => -1
+    }
+  }
+}
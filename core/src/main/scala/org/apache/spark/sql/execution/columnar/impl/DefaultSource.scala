@@ -23,7 +23,7 @@ import org.apache.spark.Logging
 import org.apache.spark.sql.catalyst.util.CaseInsensitiveMap
 import org.apache.spark.sql.collection.Utils
 import org.apache.spark.sql.execution.CommonUtils
-import org.apache.spark.sql.execution.columnar.ExternalStoreUtils
+import org.apache.spark.sql.execution.columnar.{ColumnBloomFilters, ExternalStoreUtils}
 import org.apache.spark.sql.execution.columnar.ExternalStoreUtils.CaseInsensitiveMutableHashMap
 import org.apache.spark.sql.sources.{CreatableRelationProvider, DataSourceRegister, ExternalSchemaRelationProvider, JdbcExtendedUtils, SchemaRelationProvider}
 import org.apache.spark.sql.store.StoreUtils
@@ -127,7 +127,7 @@ final class DefaultSource extends ExternalSchemaRelationProvider with SchemaRela
     // so that the row buffer table can use it as part of primary key
     val (primaryKeyClause, stringPKCols) = StoreUtils.getPrimaryKeyClause(
       parameters, specifiedSchema, session)
-    val schema = if (stringPKCols.isEmpty) specifiedSchema
+    val pkSchema = if (stringPKCols.isEmpty) specifiedSchema
     else {
       StructType(specifiedSchema.map { field =>
         if (stringPKCols.contains(field)) {
@@ -136,8 +136,16 @@ final class DefaultSource extends ExternalSchemaRelationProvider with SchemaRela
         } else field
       })
     }
+    // mark the columns that need bloom filters in the column batch statistics
+    val schema = ColumnBloomFilters.markColumns(pkSchema,
+      parameters.get(ExternalStoreUtils.COLUMN_BLOOM_FILTERS), fullTableName)
     val partitioningColumns = StoreUtils.getAndSetPartitioningAndKeyColumns(session,
       schema, parameters)
+    // check the key columns if the key index has been enabled
+    ColumnKeyIndex.isEnabled(parameters, parameters.get(ExternalStoreUtils.KEY_COLUMNS) match {
+      case Some(k) => k.split(',').toSeq
+      case None => Nil
+    }, schema, fullTableName)
     val tableOptions = new CaseInsensitiveMap(parameters.toMap)
 
     val ddlExtension = StoreUtils.ddlExtensionString(parameters,
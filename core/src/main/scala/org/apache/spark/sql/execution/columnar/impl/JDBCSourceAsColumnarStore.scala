@@ -34,6 +34,7 @@ import com.pivotal.gemfirexd.internal.engine.Misc
 import com.pivotal.gemfirexd.internal.engine.ddl.catalog.GfxdSystemProcedures
 import com.pivotal.gemfirexd.internal.iapi.services.context.ContextService
 import com.pivotal.gemfirexd.internal.impl.jdbc.{EmbedConnection, EmbedConnectionContext}
+import io.snappydata.Property
 import io.snappydata.impl.SmartConnectorRDDHelper
 import io.snappydata.sql.catalog.SmartConnectorHelper
 import io.snappydata.thrift.StatementAttrs
@@ -709,6 +710,13 @@ final class ColumnarStorePartitionedRDD(
     @transient private val store: JDBCSourceAsColumnarStore)
     extends RDDKryo[Any](session.sparkContext, Nil) with KryoSerializable {
 
+  /**
+   * Evaluates the key of a point lookup using the key index of the table (if any)
+   * when the RDD is serialized for an execution.
+   */
+  @transient private[sql] var keyLookupEvaluator: () => ColumnKeyLookup = _
+  private var keyLookup: ColumnKeyLookup = _
+
   private[this] var allPartitions: Array[Partition] = _
   private val evaluatePartitions: () => Array[Partition] = () => {
     val region = Misc.getRegionForTable(tableName, true)
@@ -759,7 +767,7 @@ final class ColumnarStorePartitionedRDD(
     // val container = GemFireXDUtils.getGemFireContainer(tableName, true)
     // ColumnBatchIterator(container, bucketIds)
     val r = Misc.getRegionForTable(tableName, true).asInstanceOf[LocalRegion]
-    ColumnBatchIterator(r, bucketIds, projection, fullScan, context)
+    ColumnBatchIterator(r, bucketIds, projection, fullScan, context, keyLookup)
   }
 
   override def getPreferredLocations(split: Partition): Seq[String] = {
@@ -778,6 +786,8 @@ final class ColumnarStorePartitionedRDD(
     output.writeInt(projection.length)
     output.writeInts(projection)
     output.writeBoolean(fullScan)
+    ColumnKeyIndex.write(kryo, output,
+      if (keyLookupEvaluator ne null) keyLookupEvaluator() else null)
   }
 
   override def read(kryo: Kryo, input: Input): Unit = {
@@ -786,6 +796,7 @@ final class ColumnarStorePartitionedRDD(
     val numProjections = input.readInt
     projection = input.readInts(numProjections)
     fullScan = input.readBoolean()
+    keyLookup = ColumnKeyIndex.read(kryo, input)
   }
 }
 
@@ -812,7 +823,8 @@ final class SmartConnectorColumnRDD(
     val helper = new SmartConnectorRDDHelper
     val part = split.asInstanceOf[SmartExecutorBucketPartition]
     val (conn, txId) = helper.getConnectionAndTXId(connProperties, part, preferHostName)
-    logDebug(s"Scan for $tableName, Partition index = ${part.index}, bucketId = ${part.bucketId}")
+    logDebug(s"Scan for $tableName, Partition index = ${part.index}, " +
+        s"buckets = ${part.bucketsString}")
     val partitionId = part.bucketId
     var itr: Iterator[ByteBuffer] = null
     try {
@@ -820,7 +832,7 @@ final class SmartConnectorColumnRDD(
       val (statement, rs) = helper.prepareScan(conn, txId,
         tableName, projection, serializedFilters, part, catalogSchemaVersion)
       itr = new ColumnBatchIteratorOnRS(conn, projection, statement, rs,
-        context, partitionId)
+        context, partitionId, if (part.numBuckets > 1) part.buckets else null)
     } finally {
       if (context ne null) {
         context.addTaskCompletionListener { _ =>
@@ -864,7 +876,14 @@ final class SmartConnectorColumnRDD(
   }
 
   def getPartitionEvaluator: () => Array[Partition] = () => partitionPruner() match {
-    case -1 => allParts
+    case -1 =>
+      // club buckets on the same server like done for embedded mode when partitions
+      // need not be linked to buckets
+      val bucketsPerPartition = Property.ConnectorBucketsPerPartition.get(
+        session.sessionState.conf)
+      if (bucketsPerPartition <= 1 || session.hasLinkPartitionsToBuckets ||
+          session.preferPrimaries) allParts
+      else SmartConnectorHelper.clubBucketPartitions(allParts, bucketsPerPartition)
     case bucketId =>
       val part = allParts(bucketId).asInstanceOf[SmartExecutorBucketPartition]
       Array(new SmartExecutorBucketPartition(0, bucketId, part.hostList))
@@ -976,15 +995,14 @@ class SmartConnectorRowRDD(_session: SnappySession,
     }
     val bucketPartition = thePart.asInstanceOf[SmartExecutorBucketPartition]
     logDebug(s"Scanning row buffer for $tableName,partId=${bucketPartition.index}," +
-        s" bucketId = ${bucketPartition.bucketId}")
+        s" buckets = ${bucketPartition.bucketsString}")
     val statement = conn.createStatement()
     val thriftConn = statement match {
       case clientStmt: ClientStatement =>
         val clientConn = clientStmt.getConnection
         if (isPartitioned) {
           clientConn.setCommonStatementAttributes(ClientStatement.setLocalExecutionBucketIds(
-            new StatementAttrs(), Collections.singleton(Int.box(bucketPartition.bucketId)),
-            tableName, true).setCatalogVersion(catalogSchemaVersion))
+            new StatementAttrs(), bucketPartition.buckets, tableName, true).setCatalogVersion(catalogSchemaVersion))
         } else {
           clientConn.setCommonStatementAttributes(
             new StatementAttrs().setCatalogVersion(catalogSchemaVersion))
@@ -995,8 +1013,7 @@ class SmartConnectorRowRDD(_session: SnappySession,
     if (isPartitioned && (thriftConn eq null)) {
       val ps = conn.prepareStatement("call sys.SET_BUCKETS_FOR_LOCAL_EXECUTION(?, ?, ?)")
       ps.setString(1, tableName)
-      val bucketString = bucketPartition.bucketId.toString
-      ps.setString(2, bucketString)
+      ps.setString(2, bucketPartition.bucketsString)
       ps.setLong(3, catalogSchemaVersion)
       ps.executeUpdate()
       ps.close()
@@ -22,26 +22,59 @@ import java.util.function.{Consumer, Predicate}
 import scala.collection.AbstractIterator
 import scala.collection.JavaConverters._
 import scala.collection.mutable.ArrayBuffer
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.duration.Duration
+import scala.concurrent.{Await, Future, blocking}
 
 import com.gemstone.gemfire.internal.cache.store.SerializedDiskBuffer
-import com.gemstone.gemfire.internal.cache.{NonLocalRegionEntry, PartitionedRegion, RegionEntry, TXStateInterface}
+import com.gemstone.gemfire.internal.cache.{NonLocalRegionEntry, PartitionedRegion, RegionEntry, TXManagerImpl, TXStateInterface}
 import com.pivotal.gemfirexd.internal.engine.distributed.GfxdListResultCollector.ListResultCollectorValue
 import com.pivotal.gemfirexd.internal.engine.distributed.message.GetAllExecutorMessage
 import com.pivotal.gemfirexd.internal.engine.sql.execute.GemFireResultSet
+import io.snappydata.Constant
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap
 
-import org.apache.spark.Logging
+import org.apache.spark.memory.{MemoryConsumer, TaskMemoryManager}
+import org.apache.spark.sql.collection.SharedUtils
 import org.apache.spark.sql.execution.columnar.impl.ColumnFormatEntry._
+import org.apache.spark.{Logging, TaskContext}
 
 /**
  * A [[ClusteredColumnIterator]] that fetches entries from a remote bucket.
+ *
+ * When a TaskContext is provided, the fetches are pipelined with the consumption
+ * of the current batch: the next chunk of statistics rows is fetched in the background
+ * as soon as the previous one has been handed out, while the columns of the next batch
+ * are fetched in the background once the columns of current batch have been requested
+ * (i.e. the batch passed the scan's statistics filter). A prefetched batch that gets
+ * skipped by the scan is released and the column prefetch is suspended till a batch
+ * qualifies again, so selective scans do not pull much more data than before.
+ * The memory for prefetched columns is accounted as execution memory of the task
+ * and prefetch is skipped if the memory manager cannot grant it.
+ *
+ * At most one fetch is outstanding at any point: a background fetch is started only
+ * if the previous one has completed and the task thread waits for it before issuing
+ * a fetch of its own. The background fetch runs with the snapshot transaction of the
+ * task so the transaction is never used by two threads at the same time.
  */
 final class RemoteEntriesIterator(bucketId: Int, projection: Array[Int],
-    pr: PartitionedRegion, tx: TXStateInterface) extends ClusteredColumnIterator with Logging {
+    pr: PartitionedRegion, tx: TXStateInterface, context: TaskContext = null)
+    extends ClusteredColumnIterator with Logging {
 
   private type BatchStatsRows = (ColumnFormatKey, AnyRef, AnyRef)
 
-  private val statsRows: Iterator[BatchStatsRows] = {
+  private type BatchValues = Seq[(AnyRef, AnyRef)]
+
+  private val prefetch = (context ne null) && RemoteEntriesIterator.prefetchEnabled
+
+  private val memoryConsumer = if (prefetch) {
+    new RemotePrefetchMemoryConsumer(SharedUtils.taskMemoryManager(context))
+  } else null
+
+  // the fetch, if any, running in the background
+  private var outstandingFetch: Future[_] = _
+
+  private val statsRows = {
     val statsKeys = pr.getBucketKeys(bucketId, StatsFilter, false, tx).toArray
 
     if (isDebugEnabled) {
@@ -70,63 +103,106 @@ final class RemoteEntriesIterator(bucketId: Int, projection: Array[Int],
       }
     }
     java.util.Arrays.sort(statsKeys, comparator)
-    // get the stats rows using getAll (max 1000 at a time)
-    new AbstractIterator[BatchStatsRows] {
+    new StatsRowsIterator(statsKeys, comparator)
+  }
+
+  /**
+   * Iterator over the statistics rows (full and delta) of all batches.
+   */
+  private final class StatsRowsIterator(statsKeys: Array[AnyRef], comparator: Comparator[AnyRef])
+      extends AbstractIterator[BatchStatsRows] {
 
-      private var absoluteIndex: Int = _
-      private var currentBatch: ArrayBuffer[BatchStatsRows] = _
-      private var currentBatchIter: Iterator[BatchStatsRows] = Iterator.empty
+    private var absoluteIndex: Int = _
+    private var currentBatch: ArrayBuffer[BatchStatsRows] = _
+    private var currentBatchIter: BufferedIterator[BatchStatsRows] = Iterator.empty.buffered
+    // next chunk of stats rows being fetched in the background
+    private var pendingBatch: Future[ArrayBuffer[BatchStatsRows]] = _
 
-      fetchNextBatch()
+    fetchNextBatch()
 
-      private def fetchNextBatch(): Boolean = {
-        if (absoluteIndex >= statsKeys.length) {
-          currentBatch = null
-          currentBatchIter = Iterator.empty
-          return false
-        }
-        // check if 1000th entry marks a boundary (i.e. either both stats row
-        // of same batch are included or neither are)
-        var batchLastIndex = math.min(absoluteIndex + 1000, statsKeys.length)
-        // if previous to lastKey is same UUID then can safely include both
-        // else include only till previous to be on the safe side, but need
-        // to do this only if: a) at least two keys in batch, b) batch has not reached end
-        if (batchLastIndex > absoluteIndex + 1 && batchLastIndex < statsKeys.length) {
-          val lastKey = statsKeys(batchLastIndex - 1).asInstanceOf[ColumnFormatKey]
-          val lastButOneKey = statsKeys(batchLastIndex - 2).asInstanceOf[ColumnFormatKey]
-          if (lastButOneKey.uuid != lastKey.uuid) batchLastIndex -= 1
-        }
-        val results = fetchUsingGetAll(
-          java.util.Arrays.copyOfRange(statsKeys, absoluteIndex, batchLastIndex)).toArray
-        absoluteIndex = batchLastIndex
-        java.util.Arrays.sort(results.asInstanceOf[Array[AnyRef]], comparator)
-        currentBatch = new ArrayBuffer[BatchStatsRows](1000)
-        var i = 0
-        while (i < results.length) {
-          // check for two stats rows or only one by comparing UUIDs
-          val (k1: ColumnFormatKey, v1) = results(i)
-          var v2: AnyRef = null
-          i += 1
-          if (i < results.length) {
-            val (k2: ColumnFormatKey, v) = results(i)
-            if (k1.uuid == k2.uuid) {
-              v2 = v
-              i += 1
-            }
+    private def fetchNextBatch(): Boolean = {
+      if (pendingBatch ne null) {
+        currentBatch = Await.result(pendingBatch, Duration.Inf)
+        pendingBatch = null
+      } else if (absoluteIndex < statsKeys.length) {
+        awaitOutstandingFetch()
+        currentBatch = fetchStatsBatch(nextStatsKeys())
+      } else {
+        currentBatch = null
+        currentBatchIter = Iterator.empty.buffered
+        return false
+      }
+      // overlap fetch of next chunk with the consumption of this one
+      if (prefetch && absoluteIndex < statsKeys.length && canFetchInBackground) {
+        val keys = nextStatsKeys()
+        pendingBatch = fetchInBackground(fetchStatsBatch(keys))
+      }
+      currentBatchIter = currentBatch.iterator.buffered
+      currentBatchIter.hasNext
+    }
+
+    /** Get the keys for next chunk of statistics rows and advance the index. */
+    private def nextStatsKeys(): Array[AnyRef] = {
+      // check if 1000th entry marks a boundary (i.e. either both stats row
+      // of same batch are included or neither are)
+      var batchLastIndex = math.min(absoluteIndex + 1000, statsKeys.length)
+      // if previous to lastKey is same UUID then can safely include both
+      // else include only till previous to be on the safe side, but need
+      // to do this only if: a) at least two keys in batch, b) batch has not reached end
+      if (batchLastIndex > absoluteIndex + 1 && batchLastIndex < statsKeys.length) {
+        val lastKey = statsKeys(batchLastIndex - 1).asInstanceOf[ColumnFormatKey]
+        val lastButOneKey = statsKeys(batchLastIndex - 2).asInstanceOf[ColumnFormatKey]
+        if (lastButOneKey.uuid != lastKey.uuid) batchLastIndex -= 1
+      }
+      val keys = java.util.Arrays.copyOfRange(statsKeys, absoluteIndex, batchLastIndex)
+      absoluteIndex = batchLastIndex
+      keys
+    }
+
+    private def fetchStatsBatch(keys: Array[AnyRef]): ArrayBuffer[BatchStatsRows] = {
+      val results = fetchUsingGetAll(keys).toArray
+      java.util.Arrays.sort(results.asInstanceOf[Array[AnyRef]], comparator)
+      val batch = new ArrayBuffer[BatchStatsRows](1000)
+      var i = 0
+      while (i < results.length) {
+        // check for two stats rows or only one by comparing UUIDs
+        val (k1: ColumnFormatKey, v1) = results(i)
+        var v2: AnyRef = null
+        i += 1
+        if (i < results.length) {
+          val (k2: ColumnFormatKey, v) = results(i)
+          if (k1.uuid == k2.uuid) {
+            v2 = v
+            i += 1
           }
-          currentBatch += ((k1, v1, v2))
         }
-        currentBatchIter = currentBatch.iterator
-        currentBatchIter.hasNext
+        batch += ((k1, v1, v2))
       }
+      batch
+    }
+
+    override def hasNext: Boolean = currentBatchIter.hasNext || fetchNextBatch()
 
-      override def hasNext: Boolean = currentBatchIter.hasNext || fetchNextBatch()
+    /** Key of the statistics row that will be returned by the next call to next(). */
+    def peekKey: ColumnFormatKey =
+      if (currentBatchIter.hasNext) currentBatchIter.head._1 else null
+
+    override def next(): BatchStatsRows = {
+      val result = currentBatchIter.next()
+      if (!currentBatchIter.hasNext) fetchNextBatch()
+      result
+    }
 
-      override def next(): BatchStatsRows = {
-        val result = currentBatchIter.next()
-        if (!currentBatchIter.hasNext) fetchNextBatch()
-        result
+    /** Release the stats rows fetched but not handed out. */
+    def close(): Unit = {
+      if (pendingBatch ne null) {
+        Await.ready(pendingBatch, Duration.Inf).value.get.foreach(_.foreach(releaseStats))
+        pendingBatch = null
       }
+      currentBatchIter.foreach(releaseStats)
+      currentBatchIter = Iterator.empty.buffered
+      currentBatch = null
+      absoluteIndex = statsKeys.length
     }
   }
 
@@ -161,6 +237,49 @@ final class RemoteEntriesIterator(bucketId: Int, projection: Array[Int],
   private var currentDeltaStats: AnyRef = _
   private val currentValueMap = new Int2ObjectOpenHashMap[AnyRef](8)
 
+  // columns of the batch following the current one being fetched in the background
+  private var prefetchKey: ColumnFormatKey = _
+  private var prefetchValues: Future[BatchValues] = _
+  private var prefetchMemory: Long = _
+  // size of columns fetched for the last batch used as the estimate for prefetch
+  private var lastBatchSize: Long = _
+  /**
+   * Returns true if no fetch is running in the background so that a new one can be
+   * started without having two requests outstanding on the same transaction.
+   */
+  private def canFetchInBackground: Boolean =
+    (outstandingFetch eq null) || outstandingFetch.isCompleted
+
+  /**
+   * Run the given fetch in the background with the transaction of the task.
+   * The caller must check [[canFetchInBackground]] before invoking this.
+   */
+  private def fetchInBackground[T](fetch: => T): Future[T] = {
+    val result = Future(blocking {
+      val txMgr = if (tx ne null) tx.getTxMgr else null
+      val previousTX = if (txMgr ne null) {
+        val current = TXManagerImpl.getCurrentTXState
+        txMgr.masqueradeAs(tx)
+        current
+      } else null
+      try {
+        fetch
+      } finally {
+        if (txMgr ne null) txMgr.masqueradeAs(previousTX)
+      }
+    })
+    outstandingFetch = result
+    result
+  }
+
+  /** Wait for the fetch running in the background, if any, to complete. */
+  private def awaitOutstandingFetch(): Unit = {
+    if (outstandingFetch ne null) {
+      Await.ready(outstandingFetch, Duration.Inf)
+      outstandingFetch = null
+    }
+  }
+
   private def fetchUsingGetAll(keys: Array[AnyRef]): Seq[(AnyRef, AnyRef)] = {
     val msg = new GetAllExecutorMessage(pr, keys, null, null, null, null,
       null, null, tx, null, false, false)
@@ -176,6 +295,57 @@ final class RemoteEntriesIterator(bucketId: Int, projection: Array[Int],
     case _ =>
   }
 
+  private def releaseStats(p: BatchStatsRows): Unit = {
+    releaseBuffer(p._2)
+    releaseBuffer(p._3)
+  }
+
+  private def fetchColumns(key: ColumnFormatKey): BatchValues = {
+    // fetch all the projected columns for the batch
+    val fetchKeys = fullProjection.map(c =>
+      new ColumnFormatKey(key.uuid, key.partitionId, c): AnyRef)
+    fetchUsingGetAll(fetchKeys)
+  }
+
+  /**
+   * Start fetching the columns of the next batch in the background if the
+   * memory manager grants the memory estimated from the last batch.
+   */
+  private def prefetchNextColumns(): Unit = {
+    if (!statsRows.hasNext || !canFetchInBackground) return
+    val key = statsRows.peekKey
+    val required = lastBatchSize
+    if (required > 0) {
+      val granted = memoryConsumer.acquireMemory(required)
+      if (granted < required) {
+        memoryConsumer.freeMemory(granted)
+        return
+      }
+      prefetchMemory = granted
+    }
+    prefetchKey = key
+    prefetchValues = fetchInBackground(fetchColumns(key))
+  }
+
+  private def clearPrefetch(): Unit = {
+    prefetchKey = null
+    prefetchValues = null
+    if (prefetchMemory > 0) {
+      memoryConsumer.freeMemory(prefetchMemory)
+      prefetchMemory = 0
+    }
+  }
+
+  /** Release the prefetched columns of a batch that was skipped by the scan. */
+  private def discardPrefetch(): Unit = {
+    if (prefetchValues ne null) {
+      // a failed fetch has nothing to release
+      Await.ready(prefetchValues, Duration.Inf).value.get.foreach(
+        _.foreach(p => releaseBuffer(p._2)))
+      clearPrefetch()
+    }
+  }
+
   private def releaseValues(): Unit = {
     if (!currentValueMap.isEmpty) {
       currentValueMap.values.forEach(new Consumer[AnyRef] {
@@ -193,6 +363,9 @@ final class RemoteEntriesIterator(bucketId: Int, projection: Array[Int],
 
   override def next(): RegionEntry = {
     releaseValues()
+    // current batch was prefetched but skipped by the scan so the next batch will not
+    // be prefetched till the columns of some batch are requested
+    if ((prefetchKey ne null) && (prefetchKey eq currentStatsKey)) discardPrefetch()
     val p = statsRows.next()
     currentStatsKey = p._1
     currentStatsValue = p._2
@@ -203,22 +376,63 @@ final class RemoteEntriesIterator(bucketId: Int, projection: Array[Int],
   override def getColumnValue(column: Int): AnyRef = {
     if (column == DELTA_STATROW_COL_INDEX) return currentDeltaStats
     if (currentValueMap.isEmpty) {
-      // fetch all the projected columns for current batch
-      val fetchKeys = fullProjection.map(c =>
-        new ColumnFormatKey(currentStatsKey.uuid, currentStatsKey.partitionId, c): AnyRef)
-      fetchUsingGetAll(fetchKeys).foreach {
-        case (k: ColumnFormatKey, v) => currentValueMap.put(k.columnIndex, v)
+      val values = if (prefetchKey eq currentStatsKey) {
+        try {
+          Await.result(prefetchValues, Duration.Inf)
+        } finally {
+          clearPrefetch()
+        }
+      } else {
+        awaitOutstandingFetch()
+        fetchColumns(currentStatsKey)
       }
+      var batchSize = 0L
+      values.foreach {
+        case (k: ColumnFormatKey, v) =>
+          currentValueMap.put(k.columnIndex, v)
+          v match {
+            case s: SerializedDiskBuffer => batchSize += s.size()
+            case _ =>
+          }
+      }
+      lastBatchSize = batchSize
+      // this batch qualified for the scan so overlap the fetch of next one with it
+      if (prefetch) prefetchNextColumns()
     }
     currentValueMap.get(column)
   }
 
   override def close(): Unit = {
+    // the transaction of the task is committed after close so nothing
+    // should be running in the background beyond this point
+    awaitOutstandingFetch()
+    discardPrefetch()
+    statsRows.close()
     currentStatsKey = null
     releaseValues()
   }
 }
 
+object RemoteEntriesIterator {
+
+  /**
+   * Whether the scans of remote buckets should fetch statistics and columns
+   * ahead of their consumption (enabled by default).
+   */
+  lazy val prefetchEnabled: Boolean = java.lang.Boolean.parseBoolean(
+    System.getProperty(Constant.PROPERTY_PREFIX + "remoteScanPrefetch", "true"))
+}
+
+/**
+ * Accounts the memory of the columns prefetched by [[RemoteEntriesIterator]]. The
+ * prefetched data is released as soon as it is consumed so it cannot be spilled.
+ */
+private final class RemotePrefetchMemoryConsumer(taskMemoryManager: TaskMemoryManager)
+    extends MemoryConsumer(taskMemoryManager) {
+
+  override def spill(size: Long, trigger: MemoryConsumer): Long = 0L
+}
+
 object StatsFilter extends Predicate[AnyRef] with Serializable {
   override def test(key: AnyRef): Boolean = key match {
     case k: ColumnFormatKey =>
@@ -177,9 +177,11 @@ object StoreCallbacksImpl extends StoreCallbacks with Logging with Serializable
     ColumnFormatRelation.isColumnTable(qualifiedName)
 
   override def skipEvictionForEntry(entry: LRUEntry): Boolean = {
-    // skip eviction of stats rows (SNAP-2102)
+    // skip eviction of stats rows (SNAP-2102) and of the buffers of
+    // frequently read columns and batches when those are being spared
     entry.getRawKey match {
-      case k: ColumnFormatKey => k.columnIndex == ColumnFormatEntry.STATROW_COL_INDEX
+      case k: ColumnFormatKey =>
+        k.columnIndex == ColumnFormatEntry.STATROW_COL_INDEX || AccessHeat.isHot(k)
       case _ => false
     }
   }
@@ -48,6 +48,7 @@ import org.apache.spark.sql.execution.command.{DescribeTableCommand, DropTableCo
 import org.apache.spark.sql.execution.datasources.LogicalRelation
 import org.apache.spark.sql.internal.{BypassRowLevelSecurity, ContextJarUtils, StaticSQLConf}
 import org.apache.spark.sql.sources.DestroyRelation
+import org.apache.spark.sql.streaming.StreamView
 import org.apache.spark.sql.types._
 import org.apache.spark.storage.StorageLevel
 import org.apache.spark.streaming.{Duration, SnappyStreamingContext}
@@ -358,6 +359,28 @@ case class SnappyStreamingActionsCommand(action: Int,
   }
 }
 
+case class CreateStreamViewCommand(viewIdent: TableIdentifier, provider: Option[String],
+    options: Map[String, String], query: LogicalPlan,
+    allowExisting: Boolean) extends RunnableCommand {
+
+  override protected def innerChildren: Seq[QueryPlan[_]] = Seq(query)
+
+  override def run(session: SparkSession): Seq[Row] = {
+    StreamView.create(session.asInstanceOf[SnappySession], viewIdent, provider, options,
+      query, allowExisting)
+    Nil
+  }
+}
+
+case class DropStreamViewCommand(ifExists: Boolean,
+    viewIdent: TableIdentifier) extends RunnableCommand {
+
+  override def run(session: SparkSession): Seq[Row] = {
+    StreamView.drop(session.asInstanceOf[SnappySession], viewIdent, ifExists)
+    Nil
+  }
+}
+
 /**
  * Alternative to Spark's CacheTableCommand that shows the plan being cached
  * in the GUI rather than count() plan for InMemoryRelation.
@@ -35,7 +35,7 @@ import org.apache.spark.sql.catalyst.expressions.codegen.{CodegenContext, ExprCo
 import org.apache.spark.sql.catalyst.expressions.{AttributeSet, BindReferences, Expression, SortOrder}
 import org.apache.spark.sql.catalyst.plans._
 import org.apache.spark.sql.catalyst.plans.physical._
-import org.apache.spark.sql.collection.{MultiBucketExecutorPartition, Utils}
+import org.apache.spark.sql.collection.{MultiBucketExecutorPartition, SmartExecutorBucketPartition, Utils}
 import org.apache.spark.sql.execution._
 import org.apache.spark.sql.execution.metric.SQLMetrics
 import org.apache.spark.sql.streaming.PhysicalDStreamPlan
@@ -349,6 +349,7 @@ case class HashJoinExec(leftKeys: Seq[Expression],
         case x: ZippedPartitionsPartition => x.partitions.map(getBucketSet(_)).find(!_.isEmpty).
           getOrElse(java.util.Collections.emptySet[Integer]())
         case x: MultiBucketExecutorPartition => new java.util.HashSet[Integer](x.buckets)
+        case x: SmartExecutorBucketPartition if x.numBuckets > 1 => x.buckets
         case _ => java.util.Collections.emptySet[Integer]()
       }
     }
@@ -562,7 +563,7 @@ case class HashJoinExec(leftKeys: Seq[Expression],
     // check for possible optimized dictionary code path;
     // below is a loose search while actual decision will be taken as per
     // availability of ExprCodeEx with DictionaryCode in doConsume
-    DictionaryOptimizedMapAccessor.canHaveSingleKeyCase(streamSideKeys)
+    DictionaryOptimizedMapAccessor.canHaveDictionaryCase(streamSideKeys)
   }
 
   override def batchConsume(ctx: CodegenContext,
@@ -571,17 +572,18 @@ case class HashJoinExec(leftKeys: Seq[Expression],
     // create an empty method to populate the dictionary array
     // which will be actually filled with code in consume if the dictionary
     // optimization is possible using the incoming DictionaryCode
-    val className = mapAccessor.getClassName
-    // this array will be used at batch level for grouping if possible
+    val termType = DictionaryOptimizedMapAccessor.dictionaryTermType(
+      streamSideKeys, mapAccessor.getClassName)
+    // this array (or map for multiple keys) will be used at batch level for lookups if possible
     dictionaryArrayTerm = ctx.freshName("dictionaryArray")
     dictionaryArrayInit = ctx.freshName("dictionaryArrayInit")
     ctx.addNewFunction(dictionaryArrayInit,
       s"""
-         |private $className[] $dictionaryArrayInit() {
+         |private $termType $dictionaryArrayInit() {
          |  return null;
          |}
          """.stripMargin)
-    s"final $className[] $dictionaryArrayTerm = $dictionaryArrayInit();"
+    s"final $termType $dictionaryArrayTerm = $dictionaryArrayInit();"
   }
 
   /**
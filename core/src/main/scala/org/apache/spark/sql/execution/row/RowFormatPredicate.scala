@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package org.apache.spark.sql.execution.row
+
+import com.pivotal.gemfirexd.internal.engine.store.AbstractCompactExecRow
+import com.pivotal.gemfirexd.internal.iapi.error.StandardException
+
+import org.apache.spark.Logging
+import org.apache.spark.sql.catalyst.expressions.codegen.{CodeAndComment, CodeGenerator, CodegenContext}
+import org.apache.spark.sql.catalyst.expressions.{And, Attribute, BinaryComparison, DynamicInSet, EqualTo, Expression, GreaterThan, GreaterThanOrEqual, In, LessThan, LessThanOrEqual, Or, StartsWith, TokenLiteral}
+import org.apache.spark.sql.types._
+
+/**
+ * Base class for the generated code that evaluates the filters pushed down
+ * to a row table directly on the [[AbstractCompactExecRow]]s of a bucket scan
+ * instead of going through a query on the store.
+ */
+abstract class RowFormatPredicate {
+
+  @throws[StandardException]
+  def eval(row: AbstractCompactExecRow): Boolean
+}
+
+object RowFormatPredicate extends Logging {
+
+  /** use a hash set lookup for IN lists larger than this */
+  private val IN_LIST_SET_THRESHOLD = 10
+
+  /**
+   * Generate the code of a [[RowFormatPredicate]] for given pushed down filters
+   * on a table having given schema. Returns the code and the references to be
+   * passed to it, or None if any of the filters is not supported in which case
+   * the caller should fall back to the query on the store.
+   */
+  def generate(filters: Seq[Expression],
+      schema: StructType): Option[(CodeAndComment, Array[Any])] = {
+    if (filters.isEmpty) return None
+    val ctx = new CodegenContext
+    val row = ctx.freshName("row")
+    val holder = ctx.freshName("nullHolder")
+    val holderClass = classOf[ResultSetNullHolder].getName
+    ctx.addMutableState(holderClass, holder, s"$holder = new $holderClass();")
+    val conditions = filters.map(f => genPredicate(ctx, f, schema, row, holder))
+    if (conditions.exists(_.isEmpty)) return None
+
+    val evalCode = conditions.map(_.get).map { case (code, isTrue) =>
+      s"""
+         |$code
+         |if (!$isTrue) return false;""".stripMargin
+    }.mkString("")
+    val predicateClass = classOf[RowFormatPredicate].getName
+    val compactRowClass = classOf[AbstractCompactExecRow].getName
+    val body =
+      s"""
+         |public Object generate(Object[] references) {
+         |  return new SpecificRowFormatPredicate(references);
+         |}
+         |
+         |final class SpecificRowFormatPredicate extends $predicateClass {
+         |  private final Object[] references;
+         |  ${ctx.declareMutableStates()}
+         |
+         |  public SpecificRowFormatPredicate(Object[] references) {
+         |    this.references = references;
+         |    ${ctx.initMutableStates()}
+         |  }
+         |
+         |  ${ctx.declareAddedFunctions()}
+         |
+         |  public boolean eval($compactRowClass $row)
+         |      throws ${classOf[StandardException].getName} {
+         |    ${evalCode.trim}
+         |    return true;
+         |  }
+         |}
+      """.stripMargin
+    logDebug(s"DEBUG: For filters ${filters.mkString(", ")} generated code=$body")
+    Some(new CodeAndComment(body, Map.empty) -> ctx.references.toArray)
+  }
+
+  /** Returns true if [[generate]] can generate the code for given pushed down filter. */
+  def canGenerate(filter: Expression, schema: StructType): Boolean =
+    genPredicate(new CodegenContext, filter, schema, "row", "nullHolder").isDefined
+
+  /**
+   * Compile the code returned by [[generate]] (which is cached by Spark's
+   * CodeGenerator) and create a [[RowFormatPredicate]] for given references.
+   */
+  def compile(code: String, references: Array[Any]): RowFormatPredicate =
+    CodeGenerator.compile(new CodeAndComment(code, Map.empty))
+        .generate(references).asInstanceOf[RowFormatPredicate]
+
+  private def isSupportedType(dataType: DataType): Boolean = dataType match {
+    case IntegerType | LongType | ShortType | ByteType | BooleanType | FloatType |
+         DoubleType | StringType | DateType | TimestampType | _: DecimalType => true
+    case _ => false
+  }
+
+  /**
+   * Returns the index of given attribute in the schema. The pushed down filters
+   * have the attribute name quoted when it should be matched case-sensitively.
+   */
+  private def columnIndex(a: Attribute, schema: StructType): Int = {
+    val name = a.name
+    if (name.length > 2 && name.charAt(0) == '"' && name.charAt(name.length - 1) == '"') {
+      val col = name.substring(1, name.length - 1)
+      schema.fields.indexWhere(_.name == col) match {
+        case -1 => schema.fields.indexWhere(_.name.equalsIgnoreCase(col))
+        case index => index
+      }
+    } else schema.fields.indexWhere(_.name.equalsIgnoreCase(name))
+  }
+
+  private def literalTerm(ctx: CodegenContext, value: Any, dataType: DataType): String = {
+    val javaType = ctx.javaType(dataType)
+    val term = ctx.freshName("literal")
+    val index = ctx.references.length
+    ctx.references += value
+    if (ctx.isPrimitiveType(dataType)) {
+      ctx.addMutableState(javaType, term, s"$term = ((${ctx.boxedType(dataType)})" +
+          s"references[$index]).${javaType}Value();")
+    } else {
+      ctx.addMutableState(javaType, term, s"$term = ($javaType)references[$index];")
+    }
+    term
+  }
+
+  /**
+   * Generate code for a single predicate returning the code and the boolean
+   * variable having the result. A null result is treated as false which is
+   * fine since NOT is never pushed down.
+   */
+  private def genPredicate(ctx: CodegenContext, filter: Expression, schema: StructType,
+      row: String, holder: String): Option[(String, String)] = filter match {
+    case And(left, right) => genJunction(ctx, left, right, schema, row, holder, isAnd = true)
+    case Or(left, right) => genJunction(ctx, left, right, schema, row, holder, isAnd = false)
+
+    case _ @ BinaryComparison(_: Attribute, _: Attribute) => None
+    case EqualTo(a: Attribute, v) => genComparison(ctx, a, v, schema, row, holder,
+      (col, lit) => ctx.genEqual(a.dataType, col, lit))
+    case EqualTo(v, a: Attribute) => genComparison(ctx, a, v, schema, row, holder,
+      (col, lit) => ctx.genEqual(a.dataType, col, lit))
+    case LessThan(a: Attribute, v) => genComparison(ctx, a, v, schema, row, holder,
+      (col, lit) => s"${ctx.genComp(a.dataType, col, lit)} < 0")
+    case LessThan(v, a: Attribute) => genComparison(ctx, a, v, schema, row, holder,
+      (col, lit) => s"${ctx.genComp(a.dataType, col, lit)} > 0")
+    case GreaterThan(a: Attribute, v) => genComparison(ctx, a, v, schema, row, holder,
+      (col, lit) => s"${ctx.genComp(a.dataType, col, lit)} > 0")
+    case GreaterThan(v, a: Attribute) => genComparison(ctx, a, v, schema, row, holder,
+      (col, lit) => s"${ctx.genComp(a.dataType, col, lit)} < 0")
+    case LessThanOrEqual(a: Attribute, v) => genComparison(ctx, a, v, schema, row, holder,
+      (col, lit) => s"${ctx.genComp(a.dataType, col, lit)} <= 0")
+    case LessThanOrEqual(v, a: Attribute) => genComparison(ctx, a, v, schema, row, holder,
+      (col, lit) => s"${ctx.genComp(a.dataType, col, lit)} >= 0")
+    case GreaterThanOrEqual(a: Attribute, v) => genComparison(ctx, a, v, schema, row, holder,
+      (col, lit) => s"${ctx.genComp(a.dataType, col, lit)} >= 0")
+    case GreaterThanOrEqual(v, a: Attribute) => genComparison(ctx, a, v, schema, row, holder,
+      (col, lit) => s"${ctx.genComp(a.dataType, col, lit)} <= 0")
+    case StartsWith(a: Attribute, v) if a.dataType == StringType =>
+      genComparison(ctx, a, v, schema, row, holder, (col, lit) => s"$col.startsWith($lit)")
+    case In(a: Attribute, list) => genIn(ctx, a, list, schema, row, holder)
+    case DynamicInSet(a: Attribute, hset) => genIn(ctx, a, hset, schema, row, holder)
+    case _ => None
+  }
+
+  private def genJunction(ctx: CodegenContext, left: Expression, right: Expression,
+      schema: StructType, row: String, holder: String,
+      isAnd: Boolean): Option[(String, String)] = {
+    (genPredicate(ctx, left, schema, row, holder),
+        genPredicate(ctx, right, schema, row, holder)) match {
+      case (Some((leftCode, leftResult)), Some((rightCode, rightResult))) =>
+        val result = ctx.freshName("result")
+        Some(
+          s"""
+             |$leftCode
+             |boolean $result = $leftResult;
+             |if (${if (isAnd) result else "!" + result}) {
+             |  $rightCode
+             |  $result = $rightResult;
+             |}""".stripMargin -> result)
+      case _ => None
+    }
+  }
+
+  /**
+   * Generate code to read the column of given attribute and evaluate
+   * the condition returned by `compare` on its value if not null.
+   */
+  private def genColumnCondition(ctx: CodegenContext, a: Attribute, schema: StructType,
+      row: String, holder: String, compare: String => String): Option[(String, String)] = {
+    val index = columnIndex(a, schema)
+    if (index < 0 || schema(index).dataType != a.dataType ||
+        !isSupportedType(a.dataType)) return None
+    val col = RowTableScan.genCodeCompactRowColumn(ctx, row, holder, index,
+      a.dataType, nullable = true)
+    val result = ctx.freshName("result")
+    Some(
+      s"""
+         |boolean $result = false;
+         |{
+         |  ${col.code}
+         |  if (!${col.isNull}) {
+         |    $result = ${compare(col.value)};
+         |  }
+         |}""".stripMargin -> result)
+  }
+
+  private def genComparison(ctx: CodegenContext, a: Attribute, v: Expression,
+      schema: StructType, row: String, holder: String,
+      compare: (String, String) => String): Option[(String, String)] = {
+    if (!TokenLiteral.isConstant(v) || v.dataType != a.dataType) return None
+    v.eval() match {
+      // comparison with null is never true
+      case null => Some("" -> "false")
+      case value =>
+        val lit = literalTerm(ctx, value, a.dataType)
+        genColumnCondition(ctx, a, schema, row, holder, col => compare(col, lit))
+    }
+  }
+
+  private def genIn(ctx: CodegenContext, a: Attribute, list: Seq[Expression],
+      schema: StructType, row: String, holder: String): Option[(String, String)] = {
+    if (!list.forall(v => TokenLiteral.isConstant(v) && v.dataType == a.dataType)) {
+      return None
+    }
+    // nulls in the list can never match
+    val values = list.map(_.eval()).filter(_ != null).distinct
+    if (values.isEmpty) Some("" -> "false")
+    else if (values.length > IN_LIST_SET_THRESHOLD) {
+      val set = new java.util.HashSet[Any](values.length << 1)
+      values.foreach(set.add)
+      val setTerm = literalTerm(ctx, set, ObjectType(classOf[java.util.HashSet[_]]))
+      genColumnCondition(ctx, a, schema, row, holder, col => s"$setTerm.contains($col)")
+    } else {
+      val literals = values.map(literalTerm(ctx, _, a.dataType))
+      genColumnCondition(ctx, a, schema, row, holder, col =>
+        literals.map(lit => s"(${ctx.genEqual(a.dataType, col, lit)})").mkString(" || "))
+    }
+  }
+}
@@ -20,7 +20,8 @@ import scala.collection.mutable
 
 import com.gemstone.gemfire.internal.cache.{CacheDistributionAdvisee, LocalRegion}
 import com.pivotal.gemfirexd.internal.engine.Misc
-import io.snappydata.sql.catalog.SnappyExternalCatalog
+import io.snappydata.Property
+import io.snappydata.sql.catalog.{RelationInfo, SnappyExternalCatalog}
 
 import org.apache.spark.Partition
 import org.apache.spark.rdd.RDD
@@ -79,6 +80,50 @@ class RowFormatRelation(
 
   @transient private lazy val indexedColumns: Set[String] = relationInfo.indexCols.toSet
 
+  @transient private[this] var _sortedIndexes: (RelationInfo, Seq[RowTableIndex]) = _
+
+  /**
+   * The local sorted indexes of this table with columns in index order that can be
+   * used for index scans. Unique indexes and primary key are skipped since those can
+   * be global hash indexes for partitioned tables.
+   */
+  private[sql] def sortedIndexes: Seq[RowTableIndex] = {
+    val info = relationInfo
+    val cached = _sortedIndexes
+    if ((cached ne null) && (cached._1 eq info)) return cached._2
+
+    val indexes = if (info.indexCols.isEmpty || connectionType != ConnectionType.Embedded ||
+        schemaName == SnappyExternalCatalog.SYS_SCHEMA) Nil
+    else {
+      val connection = ConnectionPool.getPoolConnection(table, dialect,
+        connProperties.poolProps, connProperties.connProps, connProperties.hikariCP)
+      try {
+        val rs = connection.getMetaData.getIndexInfo(null, Utils.toUpperCase(schemaName),
+          Utils.toUpperCase(tableName), false, true)
+        val columns = new mutable.LinkedHashMap[String, mutable.ArrayBuffer[(Int, String)]]
+        val skipped = new mutable.HashSet[String]
+        while (rs.next()) {
+          val indexName = rs.getString(6)
+          // only ascending non-unique indexes
+          if (indexName ne null) {
+            if (rs.getBoolean(4) && rs.getString(10) != "D") {
+              columns.getOrElseUpdate(indexName, new mutable.ArrayBuffer[(Int, String)]) +=
+                  rs.getInt(8) -> rs.getString(9)
+            } else skipped += indexName
+          }
+        }
+        rs.close()
+        columns.filterKeys(!skipped.contains(_)).map { case (indexName, cols) =>
+          RowTableIndex(indexName, cols.sortBy(_._1).map(_._2))
+        }.toList
+      } finally {
+        connection.close()
+      }
+    }
+    _sortedIndexes = info -> indexes
+    indexes
+  }
+
   override def sizeInBytes: Long = schemaName match {
     // fill in some small size for system tables/VTIs
     case SnappyExternalCatalog.SYS_SCHEMA =>
@@ -107,15 +152,37 @@ class RowFormatRelation(
     }
   }
 
+  @transient private lazy val allColumns: Set[String] =
+    schema.fieldNames.toSet ++ schema.fieldNames.map(Utils.toLowerCase)
+
+  /**
+   * Split the filters into those that the store can evaluate using an index or the
+   * primary key, and the others that can be applied by a [[RowFormatPredicate]] on
+   * the rows of bucket scan (as pairs of the original and converted filter). The
+   * latter are used only when there are no filters of the first kind since the query
+   * on the store will use an index for those which is much better than a full scan.
+   */
+  private def splitFilters(filters: Seq[Expression]): (Seq[Expression],
+      Seq[(Expression, Expression)]) = {
+    val indexFilters = filters.flatMap(ExternalStoreUtils.handledFilter(_, indexedColumns
+      ++ pushdownPKColumns(filters)))
+    if (indexFilters.isEmpty && isPartitioned && connectionType == ConnectionType.Embedded &&
+        schemaName != SnappyExternalCatalog.SYS_SCHEMA &&
+        Property.RowScanFilterCodegen.get(sqlContext.conf)) {
+      indexFilters -> filters.flatMap(f => ExternalStoreUtils.handledFilter(f, allColumns)
+          .filter(RowFormatPredicate.canGenerate(_, schema)).map(f -> _))
+    } else indexFilters -> Nil
+  }
+
   override def unhandledFilters(filters: Seq[Expression]): Seq[Expression] = {
-    filters.filter(ExternalStoreUtils.unhandledFilter(_,
-      indexedColumns ++ pushdownPKColumns(filters)))
+    val predicateFilters = splitFilters(filters)._2.map(_._1)
+    filters.filter(f => ExternalStoreUtils.unhandledFilter(f,
+      indexedColumns ++ pushdownPKColumns(filters)) && !predicateFilters.contains(f))
   }
 
   override def buildUnsafeScan(requiredColumns: Array[String],
       filters: Array[Expression]): (RDD[Any], Seq[RDD[InternalRow]]) = {
-    val handledFilters = filters.flatMap(ExternalStoreUtils.handledFilter(_, indexedColumns
-      ++ pushdownPKColumns(filters)) )
+    val (handledFilters, predicateFilters) = splitFilters(filters)
     val session = sqlContext.sparkSession.asInstanceOf[SnappySession]
 
     val rdd = connectionType match {
@@ -133,12 +200,13 @@ class RowFormatRelation(
           pushProjections = pushProjections,
           useResultSet = pushProjections,
           connProperties,
-          handledFilters,
+          handledFilters.toArray,
           partitionPruner = () => Utils.getPrunedPartition(partitionColumns,
             filters, schema,
             numBuckets, relationInfo.partitioningCols.length),
           commitTx = true, delayRollover = false,
-          projection = Array.emptyIntArray, region = region)
+          projection = Array.emptyIntArray, region = region, tableSchema = schema,
+          predicateFilters = predicateFilters.map(_._2).toArray)
 
       case _ =>
         new SmartConnectorRowRDD(
@@ -147,7 +215,7 @@ class RowFormatRelation(
           isPartitioned,
           requiredColumns,
           connProperties,
-          handledFilters,
+          handledFilters.toArray,
           _partEval = () => relationInfo.partitions,
           () => Utils.getPrunedPartition(partitionColumns,
           filters, schema,
@@ -158,6 +226,34 @@ class RowFormatRelation(
     (rdd, Nil)
   }
 
+  /**
+   * Build a scan on the given index of the table. If `ordered` is true, then the scan
+   * is forced to use the index and return the rows in each partition ordered on the
+   * index columns, else the store is left to use the index for the filters.
+   */
+  def buildIndexScan(requiredColumns: Array[String], filters: Array[Expression],
+      index: RowTableIndex, ordered: Boolean): RDD[Any] = {
+    // the filters reported as handled for a bucket scan are evaluated by the query
+    val (indexFilters, predicateFilters) = splitFilters(filters)
+    val handledFilters = (indexFilters ++ predicateFilters.map(_._2)).toArray
+    val session = sqlContext.sparkSession.asInstanceOf[SnappySession]
+    new RowFormatScanRDD(
+      session,
+      resolvedName,
+      isPartitioned,
+      requiredColumns,
+      pushProjections = true,
+      useResultSet = true,
+      connProperties,
+      handledFilters,
+      partitionPruner = () => Utils.getPrunedPartition(partitionColumns,
+        filters, schema,
+        numBuckets, relationInfo.partitioningCols.length),
+      commitTx = true, delayRollover = false,
+      projection = Array.emptyIntArray, region = Some(region), index = index,
+      indexOrdered = ordered)
+  }
+
   override def partitionExpressions(relation: LogicalRelation): Seq[Expression] = {
     // use case-insensitive resolution since partitioning columns during
     // creation could be using the same as opposed to during insert
@@ -233,3 +329,8 @@ class RowFormatRelation(
     s"CREATE $indexType INDEX ${quotedName(indexName)} ON ${quotedName(baseTable)} ($columns)"
   }
 }
+
+/**
+ * A sorted index of a row table and its columns in index order.
+ */
+final case class RowTableIndex(name: String, columns: Seq[String])
@@ -47,6 +47,7 @@ import org.apache.spark.sql.execution.sources.StoreDataSourceStrategy.translateT
 import org.apache.spark.sql.execution.{BucketsBasedIterator, RDDKryo, SecurityUtils}
 import org.apache.spark.sql.sources.JdbcExtendedUtils.quotedName
 import org.apache.spark.sql.sources._
+import org.apache.spark.sql.types.StructType
 import org.apache.spark.{Partition, TaskContext, TaskContextImpl, TaskKilledException}
 
 /**
@@ -65,7 +66,11 @@ class RowFormatScanRDD(@transient val session: SnappySession,
       Array.empty[Partition], protected val partitionPruner: () => Int = () => -1,
     protected var commitTx: Boolean,
     protected var delayRollover: Boolean, protected var projection: Array[Int],
-    @transient protected val region: Option[LocalRegion])
+    @transient protected val region: Option[LocalRegion],
+    @transient protected val tableSchema: StructType = null,
+    private[sql] var index: RowTableIndex = null,
+    private[sql] var indexOrdered: Boolean = false,
+    @transient private[sql] val predicateFilters: Array[Expression] = Array.empty[Expression])
     extends RDDKryo[Any](session.sparkContext, Nil) with KryoSerializable {
 
   protected var filterWhereArgs: ArrayBuffer[Any] = _
@@ -73,6 +78,13 @@ class RowFormatScanRDD(@transient val session: SnappySession,
    * `filters`, but as a WHERE clause suitable for injection into a SQL query.
    */
   protected var filterWhereClause: String = _
+  /**
+   * Generated code to evaluate `predicateFilters` directly on the rows of bucket scan,
+   * if any, and the references (including current values of the filter literals)
+   * to be passed to it.
+   */
+  protected var filterPredicateCode: String = _
+  protected var filterPredicateRefs: Array[Any] = _
 
   protected def evaluateWhereClause(): Unit = {
     val numFilters = filters.length
@@ -89,6 +101,32 @@ class RowFormatScanRDD(@transient val session: SnappySession,
         sb.toString()
       } else ""
     } else ""
+    evaluateFilterPredicate()
+  }
+
+  /**
+   * Generate the code for [[RowFormatPredicate]] to apply `predicateFilters` on the
+   * rows of the bucket scan of a partitioned table. These are the filters that the
+   * store can only evaluate by a full scan (i.e. `filters` that can use an index
+   * are empty) as decided by [[RowFormatRelation]] which reports them as handled.
+   */
+  protected def evaluateFilterPredicate(): Unit = {
+    filterPredicateCode = null
+    filterPredicateRefs = null
+    if ((predicateFilters ne null) && predicateFilters.nonEmpty) {
+      if (pushProjections || !isPartitioned || (tableSchema eq null) ||
+          filterWhereClause.nonEmpty) {
+        throw new IllegalStateException(s"Unexpected filters for generated predicate " +
+            s"on $tableName: ${predicateFilters.mkString(", ")}")
+      }
+      RowFormatPredicate.generate(predicateFilters, tableSchema) match {
+        case Some((code, references)) =>
+          filterPredicateCode = code.body
+          filterPredicateRefs = references
+        case None => throw new IllegalStateException(s"Failed to generate predicate " +
+            s"on $tableName for filters: ${predicateFilters.mkString(", ")}")
+      }
+    }
   }
 
   protected lazy val resultSetField: Field = {
@@ -218,7 +256,15 @@ class RowFormatScanRDD(@transient val session: SnappySession,
         ps.close()
       }
     }
-    val sqlText = s"SELECT $columnList FROM ${quotedName(tableName)}$filterWhereClause"
+    val sqlText = index match {
+      case idx if (idx ne null) && indexOrdered =>
+        // force the chosen index and its order (which avoids a sort in the store)
+        val orderBy = idx.columns.map(c => "\"" + c + '"').mkString(",")
+        s"SELECT $columnList FROM ${quotedName(tableName)} --GEMFIREXD-PROPERTIES " +
+            s"index=${idx.name}\n$filterWhereClause ORDER BY $orderBy"
+      // the store will choose the index for the filters when the order is not required
+      case _ => s"SELECT $columnList FROM ${quotedName(tableName)}$filterWhereClause"
+    }
     val args = filterWhereArgs
     val stmt = conn.prepareStatement(sqlText)
     if (args ne null) {
@@ -301,7 +347,10 @@ class RowFormatScanRDD(@transient val session: SnappySession,
         }
 
         val txId = if (tx ne null) tx.getTransactionId else null
-        val itr = new CompactExecRowIteratorOnScan(container, bucketIds, txId, context)
+        val predicate = if (filterPredicateCode eq null) null
+        else RowFormatPredicate.compile(filterPredicateCode, filterPredicateRefs)
+        val itr = new CompactExecRowIteratorOnScan(container, bucketIds, txId,
+          context, predicate)
         if (useResultSet) {
           // row buffer of column table: wrap a result set around the scan
           val dataItr = itr.map(r =>
@@ -381,6 +430,12 @@ class RowFormatScanRDD(@transient val session: SnappySession,
     output.writeBoolean(delayRollover)
 
     output.writeString(columnList)
+    if (index ne null) {
+      output.writeString(index.name)
+      output.writeVarInt(index.columns.length, true)
+      index.columns.foreach(output.writeString)
+      output.writeBoolean(indexOrdered)
+    } else output.writeString(null)
     val filterArgs = filterWhereArgs
     val len = if (filterArgs eq null) 0 else filterArgs.size
     if (len == 0) {
@@ -394,6 +449,11 @@ class RowFormatScanRDD(@transient val session: SnappySession,
         i += 1
       }
     }
+    if (filterPredicateCode ne null) {
+      output.writeBoolean(true)
+      output.writeString(filterPredicateCode)
+      kryo.writeClassAndObject(output, filterPredicateRefs)
+    } else output.writeBoolean(false)
     if (useResultSet) {
       output.writeVarInt(projection.length, true)
       output.writeInts(projection, true)
@@ -414,7 +474,16 @@ class RowFormatScanRDD(@transient val session: SnappySession,
     delayRollover = input.readBoolean()
 
     columnList = input.readString()
+    val indexName = input.readString()
+    index = if (indexName ne null) {
+      val numColumns = input.readVarInt(true)
+      val idx = RowTableIndex(indexName, (0 until numColumns).map(_ => input.readString()))
+      indexOrdered = input.readBoolean()
+      idx
+    } else null
     val numFilters = input.readVarInt(true)
+    filterPredicateCode = null
+    filterPredicateRefs = null
     if (numFilters == 0) {
       filterWhereClause = ""
       filterWhereArgs = null
@@ -427,6 +496,10 @@ class RowFormatScanRDD(@transient val session: SnappySession,
         i += 1
       }
     }
+    if (input.readBoolean()) {
+      filterPredicateCode = input.readString()
+      filterPredicateRefs = kryo.readClassAndObject(input).asInstanceOf[Array[Any]]
+    }
     if (useResultSet) {
       val numProjections = input.readVarInt(true)
       projection = input.readInts(numProjections, true)
@@ -519,7 +592,8 @@ with BucketsBasedIterator {
 }
 
 final class CompactExecRowIteratorOnScan(container: GemFireContainer,
-    bucketIds: java.util.Set[Integer], txId: TXId, context: TaskContext)
+    bucketIds: java.util.Set[Integer], txId: TXId, context: TaskContext,
+    predicate: RowFormatPredicate = null)
     extends PRValuesIterator[AbstractCompactExecRow](container,
       region = null, bucketIds, context) {
 
@@ -533,7 +607,8 @@ final class CompactExecRowIteratorOnScan(container: GemFireContainer,
       val owner = itr.getHostedBucketRegion
       if (((owner ne null) || rl.isInstanceOf[NonLocalRegionEntry]) &&
           RegionEntryUtils.fillRowWithoutFaultInOptimized(container, owner,
-            rl.asInstanceOf[RowLocation], currentVal)) {
+            rl.asInstanceOf[RowLocation], currentVal) &&
+          ((predicate eq null) || predicate.eval(currentVal))) {
         return
       }
     }
@@ -23,7 +23,7 @@ import com.pivotal.gemfirexd.internal.engine.store.{AbstractCompactExecRow, Resu
 
 import org.apache.spark.rdd.RDD
 import org.apache.spark.sql.catalyst.expressions.codegen.{CodegenContext, ExprCode}
-import org.apache.spark.sql.catalyst.expressions.{Attribute, Expression}
+import org.apache.spark.sql.catalyst.expressions.{Ascending, Attribute, Expression, NullsFirst, NullsLast, SortOrder}
 import org.apache.spark.sql.catalyst.util.{SerializedArray, SerializedMap, SerializedRow}
 import org.apache.spark.sql.collection.Utils
 import org.apache.spark.sql.execution.{PartitionedDataSourceScan, PartitionedPhysicalScan, SparkPlan}
@@ -53,7 +53,31 @@ private[sql] final case class RowTableScan(
 
   override lazy val schema: StructType = _schema
 
-  override val nodeName: String = "RowTableScan"
+  private def index: RowTableIndex = dataRDD match {
+    case rowRdd: RowFormatScanRDD => rowRdd.index
+    case _ => null
+  }
+
+  private def indexOrdered: Boolean = dataRDD match {
+    case rowRdd: RowFormatScanRDD => rowRdd.indexOrdered
+    case _ => false
+  }
+
+  override lazy val nodeName: String =
+    if (index ne null) "RowTableIndexScan" else "RowTableScan"
+
+  /**
+   * An ordered index scan returns the rows in each partition ordered on the index
+   * columns (nulls are sorted last by the store).
+   */
+  override lazy val outputOrdering: Seq[SortOrder] = index match {
+    case idx if (idx eq null) || !indexOrdered => Nil
+    case idx => idx.columns.map(c => output.find(_.name.equalsIgnoreCase(c)))
+        .takeWhile(_.isDefined).map { a =>
+      val attr = a.get
+      SortOrder(attr, Ascending, if (attr.nullable) NullsLast else NullsFirst)
+    }
+  }
 
   override def sameResult(plan: SparkPlan): Boolean = plan match {
     case r: RowTableScan => r.table == table && r.numBuckets == numBuckets &&
@@ -105,7 +129,7 @@ private[sql] final case class RowTableScan(
     val holderClass = classOf[ResultSetNullHolder].getName
     val compactRowClass = classOf[AbstractCompactExecRow].getName
     val baseSchemaOutput = baseSchema.toAttributes
-    val columnsRowInput = output.map(a => genCodeCompactRowColumn(ctx,
+    val columnsRowInput = output.map(a => RowTableScan.genCodeCompactRowColumn(ctx,
       row, holder, Utils.fieldIndex(baseSchemaOutput, a.name, caseSensitive),
       a.dataType, a.nullable))
     s"""
@@ -160,69 +184,75 @@ private[sql] final case class RowTableScan(
     """.stripMargin
   }
 
-  private def genCodeCompactRowColumn(ctx: CodegenContext, rowVar: String,
+  private def genCodeResultSetColumn(ctx: CodegenContext, rsVar: String,
       holder: String, ordinal: Int, dataType: DataType,
       nullable: Boolean): ExprCode = {
     val javaType = ctx.javaType(dataType)
     val col = ctx.freshName("col")
     val pos = ordinal + 1
-    var useHolder = true
     val code = dataType match {
       case IntegerType =>
-        s"final $javaType $col = $rowVar.getAsInt($pos, $holder);"
+        s"final $javaType $col = $rsVar.getInt($pos);"
       case StringType =>
-        useHolder = false
-        s"final $javaType $col = $rowVar.getAsUTF8String($ordinal);"
+        s"final $javaType $col = UTF8String.fromString($rsVar.getString($pos));"
       case LongType =>
-        s"final $javaType $col = $rowVar.getAsLong($pos, $holder);"
+        s"final $javaType $col = $rsVar.getLong($pos);"
       case BooleanType =>
-        s"final $javaType $col = $rowVar.getAsBoolean($pos, $holder);"
+        s"final $javaType $col = $rsVar.getBoolean($pos);"
       case ShortType =>
-        s"final $javaType $col = $rowVar.getAsShort($pos, $holder);"
+        s"final $javaType $col = $rsVar.getShort($pos);"
       case ByteType =>
-        s"final $javaType $col = $rowVar.getAsByte($pos, $holder);"
+        s"final $javaType $col = $rsVar.getByte($pos);"
       case FloatType =>
-        s"final $javaType $col = $rowVar.getAsFloat($pos, $holder);"
+        s"final $javaType $col = $rsVar.getFloat($pos);"
       case DoubleType =>
-        s"final $javaType $col = $rowVar.getAsDouble($pos, $holder);"
+        s"final $javaType $col = $rsVar.getDouble($pos);"
       case d: DecimalType =>
-        useHolder = false
+        // When connecting with Oracle DB, the precision and scale of
+        // BigDecimal object returned by ResultSet.getBigDecimal is not
+        // correctly matched to the table schema reported by
+        // ResultSetMetaData.getPrecision and ResultSetMetaData.getScale.
+        // If inserting values like 19999 into a column with NUMBER(12, 2)
+        // type, you get through a BigDecimal object with scale as 0.
+        // But the DataFrame schema has correct type as DecimalType(12, 2).
+        // Thus, after saving the DataFrame into parquet file and then
+        // retrieve it, you will get wrong result 199.99. So it is needed
+        // to set precision and scale for Decimal based on metadata.
         val decVar = ctx.freshName("dec")
         s"""
-          final java.math.BigDecimal $decVar = $rowVar.getAsBigDecimal(
-            $pos, null);
+          final java.math.BigDecimal $decVar = $rsVar.getBigDecimal($pos);
           final $javaType $col = $decVar != null ? Decimal.apply($decVar,
             ${d.precision}, ${d.scale}) : null;
         """
       case DateType =>
         val cal = ctx.freshName("cal")
-        val dateMs = ctx.freshName("dateMillis")
+        val date = ctx.freshName("date")
         val calClass = classOf[GregorianCalendar].getName
         s"""
           final $calClass $cal = $holder.defaultCal();
           $cal.clear();
-          final long $dateMs = $rowVar.getAsDateMillis($ordinal, $cal, $holder);
-          final $javaType $col = org.apache.spark.sql.collection
-              .Utils.millisToDays($dateMs, $holder.defaultTZ());
+          final java.sql.Date $date = $rsVar.getDate($pos, $cal);
+          final $javaType $col = $date != null ? org.apache.spark.sql
+            .catalyst.util.DateTimeUtils.fromJavaDate($date) : 0;
         """
       case TimestampType =>
         val cal = ctx.freshName("cal")
+        val tsVar = ctx.freshName("ts")
         val calClass = classOf[GregorianCalendar].getName
         s"""
           final $calClass $cal = $holder.defaultCal();
           $cal.clear();
-          final $javaType $col = $rowVar.getAsTimestampMicros(
-            $ordinal, $cal, $holder);
+          final java.sql.Timestamp $tsVar = $rsVar.getTimestamp($pos, $cal);
+          final $javaType $col = $tsVar != null ? org.apache.spark.sql
+            .catalyst.util.DateTimeUtils.fromJavaTimestamp($tsVar) : 0L;
         """
       case BinaryType =>
-        useHolder = false
-        s"final $javaType $col = $rowVar.getAsBytes($pos, null);"
+        s"final $javaType $col = $rsVar.getBytes($pos);"
       case _: ArrayType =>
-        useHolder = false
         val bytes = ctx.freshName("bytes")
         val arrayClass = classOf[SerializedArray].getName
         s"""
-          final byte[] $bytes = $rowVar.getAsBytes($pos, null);
+          final byte[] $bytes = $rsVar.getBytes($pos);
           final $arrayClass $col;
           if ($bytes != null) {
             $col = new $arrayClass(8); // includes size
@@ -232,11 +262,10 @@ private[sql] final case class RowTableScan(
           }
         """
       case _: MapType =>
-        useHolder = false
         val bytes = ctx.freshName("bytes")
         val mapClass = classOf[SerializedMap].getName
         s"""
-          final byte[] $bytes = $rowVar.getAsBytes($pos, null);
+          final byte[] $bytes = $rsVar.getBytes($pos);
           final $mapClass $col;
           if ($bytes != null) {
             $col = new $mapClass();
@@ -246,11 +275,10 @@ private[sql] final case class RowTableScan(
           }
         """
       case s: StructType =>
-        useHolder = false
         val bytes = ctx.freshName("bytes")
         val structClass = classOf[SerializedRow].getName
         s"""
-          final byte[] $bytes = $rowVar.getAsBytes($pos, null);
+          final byte[] $bytes = $rsVar.getBytes($pos);
           final $structClass $col;
           if ($bytes != null) {
             $col = new $structClass(4, ${s.length}); // includes size
@@ -260,92 +288,86 @@ private[sql] final case class RowTableScan(
           }
         """
       case _ =>
-        useHolder = false
-        s"$javaType $col = ($javaType)$rowVar.getAsObject($pos, null);"
+        s"final $javaType $col = ($javaType)$rsVar.getObject($pos);"
     }
     if (nullable) {
       val isNullVar = ctx.freshName("isNull")
-      if (useHolder) {
-        ExprCode(s"$code\nfinal boolean $isNullVar = $holder.wasNullAndClear();",
-          isNullVar, col)
-      } else {
-        ExprCode(s"$code\nfinal boolean $isNullVar = $col == null;",
-          isNullVar, col)
-      }
+      ExprCode(code + s"\nfinal boolean $isNullVar = $rsVar.wasNull();",
+        isNullVar, col)
     } else {
       ExprCode(code, "false", col)
     }
   }
+}
 
-  private def genCodeResultSetColumn(ctx: CodegenContext, rsVar: String,
+private[sql] object RowTableScan {
+
+  /**
+   * Generate code to read a column with given ordinal from a CompactExecRow.
+   */
+  private[row] def genCodeCompactRowColumn(ctx: CodegenContext, rowVar: String,
       holder: String, ordinal: Int, dataType: DataType,
       nullable: Boolean): ExprCode = {
     val javaType = ctx.javaType(dataType)
     val col = ctx.freshName("col")
     val pos = ordinal + 1
+    var useHolder = true
     val code = dataType match {
       case IntegerType =>
-        s"final $javaType $col = $rsVar.getInt($pos);"
+        s"final $javaType $col = $rowVar.getAsInt($pos, $holder);"
       case StringType =>
-        s"final $javaType $col = UTF8String.fromString($rsVar.getString($pos));"
+        useHolder = false
+        s"final $javaType $col = $rowVar.getAsUTF8String($ordinal);"
       case LongType =>
-        s"final $javaType $col = $rsVar.getLong($pos);"
+        s"final $javaType $col = $rowVar.getAsLong($pos, $holder);"
       case BooleanType =>
-        s"final $javaType $col = $rsVar.getBoolean($pos);"
+        s"final $javaType $col = $rowVar.getAsBoolean($pos, $holder);"
       case ShortType =>
-        s"final $javaType $col = $rsVar.getShort($pos);"
+        s"final $javaType $col = $rowVar.getAsShort($pos, $holder);"
       case ByteType =>
-        s"final $javaType $col = $rsVar.getByte($pos);"
+        s"final $javaType $col = $rowVar.getAsByte($pos, $holder);"
       case FloatType =>
-        s"final $javaType $col = $rsVar.getFloat($pos);"
+        s"final $javaType $col = $rowVar.getAsFloat($pos, $holder);"
       case DoubleType =>
-        s"final $javaType $col = $rsVar.getDouble($pos);"
+        s"final $javaType $col = $rowVar.getAsDouble($pos, $holder);"
       case d: DecimalType =>
-        // When connecting with Oracle DB, the precision and scale of
-        // BigDecimal object returned by ResultSet.getBigDecimal is not
-        // correctly matched to the table schema reported by
-        // ResultSetMetaData.getPrecision and ResultSetMetaData.getScale.
-        // If inserting values like 19999 into a column with NUMBER(12, 2)
-        // type, you get through a BigDecimal object with scale as 0.
-        // But the DataFrame schema has correct type as DecimalType(12, 2).
-        // Thus, after saving the DataFrame into parquet file and then
-        // retrieve it, you will get wrong result 199.99. So it is needed
-        // to set precision and scale for Decimal based on metadata.
+        useHolder = false
         val decVar = ctx.freshName("dec")
         s"""
-          final java.math.BigDecimal $decVar = $rsVar.getBigDecimal($pos);
+          final java.math.BigDecimal $decVar = $rowVar.getAsBigDecimal(
+            $pos, null);
           final $javaType $col = $decVar != null ? Decimal.apply($decVar,
             ${d.precision}, ${d.scale}) : null;
         """
       case DateType =>
         val cal = ctx.freshName("cal")
-        val date = ctx.freshName("date")
+        val dateMs = ctx.freshName("dateMillis")
         val calClass = classOf[GregorianCalendar].getName
         s"""
           final $calClass $cal = $holder.defaultCal();
           $cal.clear();
-          final java.sql.Date $date = $rsVar.getDate($pos, $cal);
-          final $javaType $col = $date != null ? org.apache.spark.sql
-            .catalyst.util.DateTimeUtils.fromJavaDate($date) : 0;
+          final long $dateMs = $rowVar.getAsDateMillis($ordinal, $cal, $holder);
+          final $javaType $col = org.apache.spark.sql.collection
+              .Utils.millisToDays($dateMs, $holder.defaultTZ());
         """
       case TimestampType =>
         val cal = ctx.freshName("cal")
-        val tsVar = ctx.freshName("ts")
         val calClass = classOf[GregorianCalendar].getName
         s"""
           final $calClass $cal = $holder.defaultCal();
           $cal.clear();
-          final java.sql.Timestamp $tsVar = $rsVar.getTimestamp($pos, $cal);
-          final $javaType $col = $tsVar != null ? org.apache.spark.sql
-            .catalyst.util.DateTimeUtils.fromJavaTimestamp($tsVar) : 0L;
+          final $javaType $col = $rowVar.getAsTimestampMicros(
+            $ordinal, $cal, $holder);
         """
       case BinaryType =>
-        s"final $javaType $col = $rsVar.getBytes($pos);"
+        useHolder = false
+        s"final $javaType $col = $rowVar.getAsBytes($pos, null);"
       case _: ArrayType =>
+        useHolder = false
         val bytes = ctx.freshName("bytes")
         val arrayClass = classOf[SerializedArray].getName
         s"""
-          final byte[] $bytes = $rsVar.getBytes($pos);
+          final byte[] $bytes = $rowVar.getAsBytes($pos, null);
           final $arrayClass $col;
           if ($bytes != null) {
             $col = new $arrayClass(8); // includes size
@@ -355,10 +377,11 @@ private[sql] final case class RowTableScan(
           }
         """
       case _: MapType =>
+        useHolder = false
         val bytes = ctx.freshName("bytes")
         val mapClass = classOf[SerializedMap].getName
         s"""
-          final byte[] $bytes = $rsVar.getBytes($pos);
+          final byte[] $bytes = $rowVar.getAsBytes($pos, null);
           final $mapClass $col;
           if ($bytes != null) {
             $col = new $mapClass();
@@ -368,10 +391,11 @@ private[sql] final case class RowTableScan(
           }
         """
       case s: StructType =>
+        useHolder = false
         val bytes = ctx.freshName("bytes")
         val structClass = classOf[SerializedRow].getName
         s"""
-          final byte[] $bytes = $rsVar.getBytes($pos);
+          final byte[] $bytes = $rowVar.getAsBytes($pos, null);
           final $structClass $col;
           if ($bytes != null) {
             $col = new $structClass(4, ${s.length}); // includes size
@@ -381,12 +405,18 @@ private[sql] final case class RowTableScan(
           }
         """
       case _ =>
-        s"final $javaType $col = ($javaType)$rsVar.getObject($pos);"
+        useHolder = false
+        s"$javaType $col = ($javaType)$rowVar.getAsObject($pos, null);"
     }
     if (nullable) {
       val isNullVar = ctx.freshName("isNull")
-      ExprCode(code + s"\nfinal boolean $isNullVar = $rsVar.wasNull();",
-        isNullVar, col)
+      if (useHolder) {
+        ExprCode(s"$code\nfinal boolean $isNullVar = $holder.wasNullAndClear();",
+          isNullVar, col)
+      } else {
+        ExprCode(s"$code\nfinal boolean $isNullVar = $col == null;",
+          isNullVar, col)
+      }
     } else {
       ExprCode(code, "false", col)
     }
@@ -92,7 +92,7 @@ private[sql] object StoreDataSourceStrategy extends Strategy {
     case _ => Nil
   }
 
-  private def pruneFilterProject(
+  private[sql] def pruneFilterProject(
       relation: LogicalRelation,
       projects: Seq[NamedExpression],
       filterPredicates: Seq[Expression],
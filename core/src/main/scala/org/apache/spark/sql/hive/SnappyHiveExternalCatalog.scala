@@ -437,8 +437,8 @@ class SnappyHiveExternalCatalog private[hive](val conf: SparkConf,
           ignoreIfNotExists = true, purge = true))
     }
 
-    SnappySession.clearAllCache(onlyQueryPlanCache = true)
-    CodeGeneration.clearAllCache()
+    SnappySession.clearPlanCache(schema -> table :: Nil)
+    CodeGeneration.removeCache(schema -> table :: Nil)
     invalidate(schema -> table)
   }
 
@@ -780,17 +780,18 @@ class SnappyHiveExternalCatalog private[hive](val conf: SparkConf,
 
   override def createFunction(schema: String, funcDefinition: CatalogFunction): Unit = {
     withHiveExceptionHandling(super.createFunction(schema, funcDefinition))
-    SnappySession.clearAllCache()
+    // generated code of CodeGeneration does not depend on functions
+    SnappySession.clearAllCache(onlyQueryPlanCache = true)
   }
 
   override def dropFunction(schema: String, name: String): Unit = {
     withHiveExceptionHandling(super.dropFunction(schema, name))
-    SnappySession.clearAllCache()
+    SnappySession.clearAllCache(onlyQueryPlanCache = true)
   }
 
   override def renameFunction(schema: String, oldName: String, newName: String): Unit = {
     withHiveExceptionHandling(super.renameFunction(schema, oldName, newName))
-    SnappySession.clearAllCache()
+    SnappySession.clearAllCache(onlyQueryPlanCache = true)
   }
 
   override def getFunction(schema: String, funcName: String): CatalogFunction = {
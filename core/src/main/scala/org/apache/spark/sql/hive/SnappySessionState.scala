@@ -729,7 +729,8 @@ class SnappySessionState(val snappySession: SnappySession)
 
   private lazy val initSnappyStrategies: Unit = {
     val storeOptimizedRules: Seq[Strategy] =
-      Seq(StoreDataSourceStrategy, SnappyAggregation, HashJoinStrategies)
+      Seq(RowIndexScanStrategy, StoreDataSourceStrategy, SnappyAggregation,
+        HashJoinStrategies)
 
     experimentalMethods.extraStrategies = experimentalMethods.extraStrategies ++
         Seq(new HiveConditionalStrategy(_.HiveTableScans, this),
@@ -759,6 +760,12 @@ class SnappySessionState(val snappySession: SnappySession)
 
   def getTablePartitions(region: PartitionedRegion): Array[Partition] = {
     val leaderRegion = ColocationHelper.getLeaderRegion(region)
+    val sharedPlanLinkPartitions = CachedDataFrame.sharedPlanLinkPartitions.get()
+    // partitions for a plan of this session being executed by another session
+    if (sharedPlanLinkPartitions ne null) {
+      return StoreUtils.getPartitionsPartitionedTable(leaderRegion,
+        sharedPlanLinkPartitions.booleanValue(), snappySession.preferPrimaries)
+    }
     leaderPartitions.computeIfAbsent(leaderRegion,
       new java.util.function.Function[PartitionedRegion, Array[Partition]] {
         override def apply(pr: PartitionedRegion): Array[Partition] = {
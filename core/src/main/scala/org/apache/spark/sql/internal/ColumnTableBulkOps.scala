@@ -16,6 +16,7 @@
  */
 package org.apache.spark.sql.internal
 
+import scala.collection.mutable
 import scala.collection.mutable.ArrayBuffer
 
 import io.snappydata.Property
@@ -25,15 +26,19 @@ import it.unimi.dsi.fastutil.objects.ObjectOpenCustomHashSet
 import org.apache.spark.sql.catalyst.InternalRow
 import org.apache.spark.sql.catalyst.analysis.{Analyzer, UnresolvedRelation}
 import org.apache.spark.sql.catalyst.encoders.RowEncoder
-import org.apache.spark.sql.catalyst.expressions.{Alias, And, Attribute, AttributeReference, AttributeSet, BindReferences, EmptyRow, EqualTo, Expression, JoinedRow, Murmur3Hash, UnsafeProjection}
+import org.apache.spark.sql.catalyst.expressions.aggregate.{Max, Min}
+import org.apache.spark.sql.catalyst.expressions.{Alias, And, Attribute, AttributeReference, AttributeSet, BindReferences, CurrentDate, CurrentTimestamp, EmptyRow, EqualTo, Expression, GreaterThanOrEqual, In, JoinedRow, LessThanOrEqual, Literal, Murmur3Hash, SubqueryExpression, UnsafeProjection}
 import org.apache.spark.sql.catalyst.optimizer.{CollapseProject, RemoveRedundantProject, SimplifyCasts}
-import org.apache.spark.sql.catalyst.plans.logical.{BinaryNode, Join, LocalRelation, LogicalPlan, OneRowRelation, OverwriteOptions, Project}
+import org.apache.spark.sql.catalyst.plans.logical.{Aggregate, BinaryNode, Filter, Join, LocalRelation, LogicalPlan, OneRowRelation, OverwriteOptions, Project}
 import org.apache.spark.sql.catalyst.plans.{Inner, LeftAnti}
+import org.apache.spark.sql.catalyst.util.TypeUtils
 import org.apache.spark.sql.collection.Utils
+import org.apache.spark.sql.execution.PartitionedDataSourceScan
 import org.apache.spark.sql.execution.columnar.ExternalStoreUtils
+import org.apache.spark.sql.execution.columnar.impl.{BaseColumnFormatRelation, ColumnKeyIndex}
 import org.apache.spark.sql.execution.datasources.LogicalRelation
 import org.apache.spark.sql.sources._
-import org.apache.spark.sql.types.{DataType, LongType, StructType}
+import org.apache.spark.sql.types.{DataType, DateType, LongType, NumericType, StringType, StructType, TimestampType}
 import org.apache.spark.sql.{AnalysisException, CachedDataFrame, Dataset, JoinStrategy, Row, SnappySession, SparkSession}
 
 /**
@@ -60,7 +65,14 @@ object ColumnTableBulkOps {
         val condition = prepareCondition(session, table, subQuery, putKeys)
 
         val keyColumns = getKeyColumns(table)
-        var updateSubQuery: LogicalPlan = Join(table, subQuery, Inner, condition)
+        // restrict the scan of table for the update to the range of keys being put
+        val updateTable = if (Property.PutIntoKeyRangeFilter.get(session.sessionState.conf)) {
+          keyRangeFilter(session, table, subQuery, putKeys) match {
+            case Some(filter) => Filter(filter, table)
+            case None => table
+          }
+        } else table
+        var updateSubQuery: LogicalPlan = Join(updateTable, subQuery, Inner, condition)
         val updateColumns = table.output.filterNot(a => keyColumns.contains(a.name))
         val updateExpressions = subQueryOutput.filterNot(a => keyColumns.contains(a.name))
         if (updateExpressions.isEmpty) {
@@ -195,6 +207,124 @@ object ColumnTableBulkOps {
     transFormedPlan
   }
 
+  /**
+   * Filter on the put key columns of the table for the range of the non-null values of
+   * those keys in the data being put. This allows the scan of the table for the update
+   * join to skip the column batches outside of the range using their statistics which
+   * avoids a full scan of a large table when keys are ordered like by time. Returns None
+   * if any of the keys is of a type not having its bounds in the statistics, or if the
+   * data being put may not give the same keys on every evaluation since then the keys
+   * outside of the range would get inserted as duplicates.
+   *
+   * The bounds of local data are determined on the driver along with the keys themselves
+   * which are added as equality or IN filters for a table having the key index (see
+   * ColumnKeyIndex) so that its scan reads only the batches having those keys. For other
+   * data the bounds are aggregated by a job like the one that caches the update join (see
+   * cachePutInto) which is skipped for data small enough to be broadcast since the job then
+   * costs more than the scan it saves, and for a table having the key index since that
+   * cannot use a range.
+   */
+  private def keyRangeFilter(session: SnappySession, table: LogicalPlan,
+      subQuery: LogicalPlan, putKeys: Seq[String]): Option[Expression] = {
+    val analyzer = session.sessionState.analyzer
+    val tableKeys = findJoinKeys(analyzer, table, putKeys, "left")
+    val dataKeys = findJoinKeys(analyzer, subQuery, putKeys, "right")
+    val hasBounds = tableKeys.zip(dataKeys).forall { case (t, d) =>
+      t.dataType == d.dataType && (d.dataType match {
+        case _: NumericType | StringType | DateType | TimestampType => true
+        case _ => false
+      })
+    }
+    if (!hasBounds || !isRepeatable(subQuery)) return None
+    val hasKeyIndex = table match {
+      case LogicalRelation(r: BaseColumnFormatRelation, _, _) => r.hasKeyIndex
+      case _ => false
+    }
+    val ordinals = dataKeys.map(k => subQuery.output.indexWhere(_.exprId == k.exprId))
+    // distinct values of each key for the key index lookup
+    var keyValues: Array[mutable.HashSet[Any]] = null
+    val bounds: Seq[(Any, Any)] = localData(subQuery) match {
+      case Some(rows) =>
+        val orderings = dataKeys.map(k => TypeUtils.getInterpretedOrdering(k.dataType))
+        val bounds = Array.fill[(Any, Any)](dataKeys.length)(null -> null)
+        if (hasKeyIndex) keyValues = Array.fill(dataKeys.length)(new mutable.HashSet[Any])
+        rows.foreach { row =>
+          var i = 0
+          while (i < ordinals.length) {
+            val v = row.get(ordinals(i), dataKeys(i).dataType)
+            if (v != null) {
+              bounds(i) match {
+                case (null, _) => bounds(i) = v -> v
+                case (min, max) =>
+                  if (orderings(i).lt(v, min)) bounds(i) = v -> max
+                  else if (orderings(i).gt(v, max)) bounds(i) = min -> v
+              }
+              if ((keyValues ne null) && keyValues(i).add(v) &&
+                  keyValues(i).size > ColumnKeyIndex.MAX_LOOKUP_KEYS) {
+                keyValues = null
+              }
+            }
+            i += 1
+          }
+        }
+        bounds
+      case None if hasKeyIndex || subQuery.statistics.sizeInBytes <=
+          session.sessionState.conf.autoBroadcastJoinThreshold => return None
+      case None =>
+        val aggregates = dataKeys.flatMap(k => Seq(Alias(Min(k).toAggregateExpression(),
+          s"min_${k.name}")(), Alias(Max(k).toAggregateExpression(), s"max_${k.name}")()))
+        val row = session.sessionState.executePlan(Aggregate(Nil, aggregates, subQuery))
+            .executedPlan.executeCollect().head
+        dataKeys.indices.map(i => row.get(2 * i, dataKeys(i).dataType) ->
+            row.get(2 * i + 1, dataKeys(i).dataType))
+    }
+    // the key index looks up all the combinations of the values of the keys
+    if ((keyValues ne null) && keyValues.foldLeft(1L)(_ * _.size) >
+        ColumnKeyIndex.MAX_LOOKUP_KEYS) {
+      keyValues = null
+    }
+    val filters = tableKeys.zip(bounds).zipWithIndex.map { case ((key, (min, max)), i) =>
+      // null bounds indicate no non-null values so nothing can match the key
+      if (min == null) Literal(false)
+      else if (min == max) EqualTo(key, Literal(min, key.dataType))
+      else {
+        val range = And(GreaterThanOrEqual(key, Literal(min, key.dataType)),
+          LessThanOrEqual(key, Literal(max, key.dataType)))
+        if (keyValues eq null) range
+        else And(range, In(key, keyValues(i).toSeq.map(Literal(_, key.dataType))))
+      }
+    }
+    Some(filters.reduce(And))
+  }
+
+  /**
+   * Returns true if the data being put gives the same rows on every evaluation i.e. it
+   * has no non-deterministic expressions or ones depending on the time of evaluation, and
+   * reads only from local data or the store tables.
+   */
+  private def isRepeatable(plan: LogicalPlan): Boolean = plan.find {
+    case _: LocalRelation | OneRowRelation => false
+    case LogicalRelation(_: PartitionedDataSourceScan, _, _) => false
+    // streams, external sources among others
+    case p if p.children.isEmpty => true
+    case p => p.expressions.exists(_.find {
+      case e if !e.deterministic => true
+      case _: CurrentTimestamp | _: CurrentDate | _: SubqueryExpression => true
+      case _ => false
+    }.isDefined)
+  }.isEmpty
+
+  /** The rows of the data being put if those are available locally. */
+  private def localData(plan: LogicalPlan): Option[Iterator[InternalRow]] = plan match {
+    case LocalRelation(_, data) => Some(data.iterator)
+    case Project(exprs, lr: LocalRelation) =>
+      val projection = UnsafeProjection.create(exprs, lr.output)
+      Some(lr.data.iterator.map(row => projection(row).copy()))
+    case Project(exprs, OneRowRelation) =>
+      Some(Iterator(UnsafeProjection.create(exprs).apply(EmptyRow).copy()))
+    case _ => None
+  }
+
   private def localAntiJoin(sparkSession: SparkSession, joinData: LocalRelation,
       putData: Iterator[InternalRow], putAttrs: Seq[Attribute], condition: Expression,
       putKeys: Seq[String]): LogicalPlan = {
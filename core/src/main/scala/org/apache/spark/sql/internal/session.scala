@@ -20,6 +20,7 @@ package org.apache.spark.sql.internal
 import java.util.Properties
 import java.util.function.BiConsumer
 
+import scala.collection.mutable.ArrayBuffer
 import scala.reflect.{ClassTag, classTag}
 
 import com.pivotal.gemfirexd.internal.engine.Misc
@@ -76,6 +77,12 @@ class SnappyConf(@transient val session: SnappySession)
    */
   @volatile private[this] var dynamicCpusPerTask: Int = _
 
+  /**
+   * The explicitly set properties used to match the cached plans of other
+   * sessions. A null value indicates that it has to be recalculated.
+   */
+  @volatile private[this] var planConfSettings: PlanConfSettings = _
+
   SQLConf.SHUFFLE_PARTITIONS.defaultValue match {
     case Some(d) if (session ne null) && super.numShufflePartitions == d =>
       dynamicShufflePartitions = coreCountForShuffle
@@ -311,9 +318,30 @@ class SnappyConf(@transient val session: SnappySession)
 
   def activeSchedulerPool: String = schedulerPool
 
+  /**
+   * All the properties set in this session (except for those set dynamically for
+   * each execution) that should match for the plans shared across sessions in the
+   * plan cache. This includes the user name of the session when set.
+   */
+  private[sql] def planConf: PlanConfSettings = {
+    var conf = planConfSettings
+    if (conf eq null) {
+      val settings = new ArrayBuffer[(String, String)]
+      foreach { (k, v) =>
+        if (k != Constant.CPUS_PER_TASK_PROP) settings += k -> v
+      }
+      conf = PlanConfSettings(settings.sortBy(_._1).toList)
+      planConfSettings = conf
+    }
+    conf
+  }
+
+  private def invalidateConfHash(): Unit = planConfSettings = null
+
   override def setConfString(key: String, value: String): Unit = {
     val rkey = keyUpdateActions(key, Some(value), doSet = true)
     super.setConfString(rkey, value)
+    invalidateConfHash()
     if (session.enableHiveSupport) hiveConf.setConfString(rkey, value)
   }
 
@@ -325,23 +353,27 @@ class SnappyConf(@transient val session: SnappySession)
       case Some(_) => super.setConf(entry, value)
       case None => super.setConf(entry.asInstanceOf[ConfigEntry[Option[T]]], Some(value))
     }
+    invalidateConfHash()
     if (session.enableHiveSupport) hiveConf.setConf(entry, value)
   }
 
   override def setConf(props: Properties): Unit = {
     super.setConf(props)
+    invalidateConfHash()
     if (session.enableHiveSupport) hiveConf.setConf(props)
   }
 
   override def unsetConf(key: String): Unit = {
     val rkey = keyUpdateActions(key, None, doSet = false)
     super.unsetConf(rkey)
+    invalidateConfHash()
     if (session.enableHiveSupport) hiveConf.unsetConf(rkey)
   }
 
   override def unsetConf(entry: ConfigEntry[_]): Unit = {
     keyUpdateActions(entry.key, None, doSet = false, search = false)
     super.unsetConf(entry)
+    invalidateConfHash()
     if (session.enableHiveSupport) hiveConf.unsetConf(entry)
   }
 
@@ -354,9 +386,19 @@ class SnappyConf(@transient val session: SnappySession)
   override def clear(): Unit = {
     super.clear()
     resetOverrides()
+    invalidateConfHash()
   }
 }
 
+/**
+ * The explicitly set properties of a session sorted on the key. These are compared
+ * in full (rather than just the hash) so that a plan is never shared with a session
+ * of another user or one having different properties that happen to have same hash.
+ */
+private[sql] final case class PlanConfSettings(settings: List[(String, String)]) {
+  override val hashCode: Int = settings.hashCode()
+}
+
 class SQLConfigEntry private(private[sql] val entry: ConfigEntry[_]) {
 
   def key: String = entry.key
@@ -30,7 +30,7 @@ import org.apache.spark.sql._
 import org.apache.spark.sql.catalyst.expressions.{Attribute, Expression, SortDirection}
 import org.apache.spark.sql.catalyst.{InternalRow, TableIdentifier}
 import org.apache.spark.sql.execution.SparkPlan
-import org.apache.spark.sql.execution.aqp.SampleInsertExec
+import org.apache.spark.sql.execution.aqp.{SampleInsertExec, SampleSourceTeeExec}
 import org.apache.spark.sql.execution.columnar.impl.BaseColumnFormatRelation
 import org.apache.spark.sql.execution.datasources.LogicalRelation
 import org.apache.spark.sql.execution.datasources.jdbc.{JDBCOptions, JDBCRDD}
@@ -59,7 +59,6 @@ trait PlanInsertableRelation extends DestroyRelation with InsertableRelation {
    * be a count of number of inserted rows.
    */
   def getInsertPlan(relation: LogicalRelation, child: SparkPlan): SparkPlan = {
-    val baseTableInsert = getBasicInsertPlan(relation, child);
     val catalog = child.sqlContext.sessionState.catalog.asInstanceOf[SnappySessionCatalog]
     val fqn = resolvedName
     val dot = fqn.indexOf('.')
@@ -71,9 +70,11 @@ trait PlanInsertableRelation extends DestroyRelation with InsertableRelation {
     val ti = TableIdentifier(tableName, schemaName)
     val sampleRelations = catalog.getSampleRelations(ti)
     if (sampleRelations.isEmpty) {
-      baseTableInsert
+      getBasicInsertPlan(relation, child)
     } else {
-      SampleInsertExec (baseTableInsert, child, ti, sampleRelations, relation.schema)
+      // evaluate the source once for the inserts into base table and all its samples
+      val baseTableInsert = getBasicInsertPlan(relation, SampleSourceTeeExec(child))
+      SampleInsertExec(baseTableInsert, ti, sampleRelations, relation.schema)
     }
   }
 
@@ -36,6 +36,7 @@ import org.apache.spark.sql.catalyst.util.{ArrayData, DateTimeUtils, MapData, Se
 import org.apache.spark.sql.collection.Utils
 import org.apache.spark.sql.execution.columnar.ColumnWriter
 import org.apache.spark.sql.execution.columnar.encoding.UncompressedEncoder
+import org.apache.spark.sql.execution.columnar.impl.ColumnFormatRelation
 import org.apache.spark.sql.jdbc.JdbcDialect
 import org.apache.spark.sql.row.SnappyStoreDialect
 import org.apache.spark.sql.sources.JdbcExtendedUtils
@@ -443,7 +444,7 @@ object CodeGeneration extends Logging {
         .asInstanceOf[SerializeComplexType]
   }
 
-  private[this] def executeUpdate(name: String, stmt: PreparedStatement,
+  private[sql] def executeUpdate(name: String, stmt: PreparedStatement,
       rows: java.util.Iterator[InternalRow], multipleRows: Boolean,
       batchSize: Int, schema: Array[StructField], dialect: JdbcDialect): Int = {
     val result = cache.get(new ExecuteKey(name, schema, dialect))
@@ -499,6 +500,27 @@ object CodeGeneration extends Logging {
     indexCache.invalidate(new ExecuteKey(name, null, null, true))
   }
 
+  /**
+   * Remove the generated code for the given tables from all the caches. This
+   * includes the code for their column stores and indexes (that are also tables).
+   */
+  def removeCache(relations: Seq[(String, String)]): Unit = {
+    val tables = relations.flatMap { case (schema, table) =>
+      val name = Utils.toUpperCase(schema) + '.' + Utils.toUpperCase(table)
+      name :: ColumnFormatRelation.columnBatchTableName(name) :: Nil
+    }
+    def remove(keys: java.util.Set[ExecuteKey]): Unit = {
+      val iter = keys.iterator()
+      while (iter.hasNext) {
+        val key = iter.next()
+        if (tables.exists(key.isForTable)) iter.remove()
+      }
+    }
+    remove(cache.asMap().keySet())
+    remove(codeCache.asMap().keySet())
+    remove(indexCache.asMap().keySet())
+  }
+
   def clearAllCache(skipTypeCache: Boolean = true): Unit = {
     cache.invalidateAll()
     codeCache.invalidateAll()
@@ -550,4 +572,11 @@ final class ExecuteKey(val name: String,
     case s: String => name == s
     case _ => false
   }
+
+  /**
+   * Returns true if this is the code generated for given fully qualified table
+   * where the name of key is either the table or has it as the prefix.
+   */
+  def isForTable(table: String): Boolean = name.regionMatches(true, 0, table, 0, table.length) &&
+      (name.length == table.length || name.charAt(table.length) == '.')
 }
@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package org.apache.spark.sql.store
+
+import java.io._
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, StandardCopyOption}
+import java.security.MessageDigest
+import java.util.{Properties, Timer, TimerTask}
+import javax.annotation.concurrent.GuardedBy
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+import scala.util.control.NonFatal
+
+import com.google.common.cache.Cache
+import io.snappydata.Property
+import org.codehaus.janino.ByteArrayClassLoader
+
+import org.apache.spark.sql.catalyst.expressions.codegen.{CodeAndComment, CodeGenerator, GeneratedClass}
+import org.apache.spark.util.{Utils => SparkUtils}
+import org.apache.spark.{Logging, SPARK_VERSION, SparkConf}
+
+/**
+ * An optional on-disk cache of the classes compiled by Spark's CodeGenerator, which
+ * includes the whole-stage generated code, so that those need not be compiled again
+ * after a restart of the node. It is enabled by setting [[Property.CodeCacheDir]].
+ *
+ * The bytecode of the classes in the cache of CodeGenerator is periodically written
+ * to files named by the hash of their source in a sub-directory for the current product
+ * version (as in SnappyDataVersion.properties), so the stored classes are never used
+ * by a different version. Each file also has the source which is the key to load the
+ * classes back into the cache of CodeGenerator.
+ *
+ * Number of the periodic saves that found a class in the cache (i.e. it was not evicted
+ * by newer code) is its usage count. The [[Property.CodeCacheWarmupSize]] classes having
+ * the largest counts are loaded in the background at the startup of the node.
+ *
+ * The stored classes are always loaded under the Spark class loader since the loaders
+ * of the user jars may not be available at the startup. So the classes referring to any
+ * class that the Spark class loader cannot resolve (e.g. the UDFs of user jars) are not
+ * stored, and the references of the stored classes are checked again when loading.
+ */
+object PersistentCodeCache extends Logging {
+
+  private val VERSION_PROPERTIES = "io/snappydata/SnappyDataVersion.properties"
+
+  private val VERSION_DIR_PREFIX = "v-"
+
+  private val USAGE_FILE = "usage"
+
+  private val ENTRY_SUFFIX = ".code"
+
+  private val MAGIC = 0x53434331 // "SCC1"
+
+  private val SAVE_INTERVAL = 60000L
+
+  @GuardedBy("this")
+  private[this] var directory: File = _
+
+  @GuardedBy("this")
+  private[this] var timer: Timer = _
+
+  /** Usage counts of the stored classes keyed by the hash of their source. */
+  @GuardedBy("this")
+  private[this] val usageCounts = new mutable.HashMap[String, Long]
+
+  /** Hashes of the sources in the cache of CodeGenerator to avoid computing those again. */
+  @GuardedBy("this")
+  private[this] val sourceIds = new java.util.WeakHashMap[CodeAndComment, String]()
+
+  /** Hashes of the sources whose classes could not be stored. */
+  @GuardedBy("this")
+  private[this] val skipped = new mutable.HashSet[String]
+
+  // access the private cache of CodeGenerator by reflection like CodeGeneration.codeCache
+  private[sql] lazy val codeGeneratorCache: Cache[CodeAndComment, GeneratedClass] = {
+    val allFields = CodeGenerator.getClass.getDeclaredFields.toSeq
+    val field = allFields.find(_.getName.endsWith("cache"))
+        .getOrElse(sys.error(s"Failed to find field 'cache' in " +
+            s"CodeGenerator (fields=$allFields)"))
+    field.setAccessible(true)
+    field.get(CodeGenerator).asInstanceOf[Cache[CodeAndComment, GeneratedClass]]
+  }
+
+  private[this] lazy val classesField = {
+    val field = classOf[ByteArrayClassLoader].getDeclaredField("classes")
+    field.setAccessible(true)
+    field
+  }
+
+  /** The product version that the generated code depends on, or null if not known. */
+  private def productVersion: String = {
+    val in = getClass.getClassLoader.getResourceAsStream(VERSION_PROPERTIES)
+    if (in eq null) null
+    else try {
+      val props = new Properties()
+      props.load(in)
+      (Seq("Product-Version", "Build-Id", "Source-Revision").map(props.getProperty(_, "")) :+
+          SPARK_VERSION).mkString("|")
+    } finally {
+      in.close()
+    }
+  }
+
+  private[sql] def sourceHash(source: String): String = {
+    val digest = MessageDigest.getInstance("SHA-256")
+    digest.digest(source.getBytes(StandardCharsets.UTF_8)).map("%02x".format(_)).mkString
+  }
+
+  /**
+   * Start the cache if [[Property.CodeCacheDir]] is set and load the most used classes
+   * in the background. This is a no-op if the cache has already been started.
+   */
+  def start(conf: SparkConf): Unit = start(conf, productVersion)
+
+  private[sql] def start(conf: SparkConf, version: String): Unit = synchronized {
+    if (directory ne null) return
+    val dir = Property.CodeCacheDir.getOption(conf) match {
+      case Some(d) if !d.trim.isEmpty => d.trim
+      case _ => return
+    }
+    if (version eq null) {
+      logWarning(s"Disabling ${Property.CodeCacheDir} since product version is not known")
+      return
+    }
+    val versionDir = new File(dir, VERSION_DIR_PREFIX + sourceHash(version).substring(0, 16))
+        .getAbsoluteFile
+    if (!versionDir.isDirectory && !versionDir.mkdirs()) {
+      logWarning(s"Disabling ${Property.CodeCacheDir} since $versionDir could not be created")
+      return
+    }
+    directory = versionDir
+    readUsageCounts()
+    logInfo(s"Using $directory to store generated code having ${usageCounts.size} entries")
+
+    val warmupSize = Property.CodeCacheWarmupSize.get(conf)
+    timer = new Timer("PersistentCodeCache", true)
+    if (warmupSize > 0 && usageCounts.nonEmpty) {
+      timer.schedule(new TimerTask {
+        override def run(): Unit = warmUp(warmupSize)
+      }, 0L)
+    }
+    timer.schedule(new TimerTask {
+      override def run(): Unit = save()
+    }, SAVE_INTERVAL, SAVE_INTERVAL)
+  }
+
+  /** Save the classes in the cache of CodeGenerator for the last time and stop. */
+  def stop(): Unit = synchronized {
+    if (directory ne null) {
+      timer.cancel()
+      save()
+      timer = null
+      directory = null
+      usageCounts.clear()
+      sourceIds.clear()
+      skipped.clear()
+    }
+  }
+
+  private def readUsageCounts(): Unit = {
+    val file = new File(directory, USAGE_FILE)
+    if (file.isFile) {
+      try {
+        for (line <- Files.readAllLines(file.toPath, StandardCharsets.UTF_8).asScala) {
+          val sep = line.indexOf(' ')
+          if (sep > 0) usageCounts(line.substring(0, sep)) = line.substring(sep + 1).toLong
+        }
+      } catch {
+        case NonFatal(e) => logWarning(s"Ignoring the usage counts in $file", e)
+      }
+    }
+  }
+
+  private def writeUsageCounts(): Unit = {
+    val file = new File(directory, USAGE_FILE)
+    val tmp = File.createTempFile(USAGE_FILE, ".tmp", directory)
+    Files.write(tmp.toPath, usageCounts.map(e => s"${e._1} ${e._2}").asJava,
+      StandardCharsets.UTF_8)
+    Files.move(tmp.toPath, file.toPath, StandardCopyOption.REPLACE_EXISTING)
+  }
+
+  /** The directory for the current version if the cache has been started, else null. */
+  private[sql] def currentDirectory: File = synchronized(directory)
+
+  /** Load the given number of the most used classes into the cache of CodeGenerator. */
+  private[sql] def warmUp(size: Int): Int = {
+    val ids = synchronized {
+      if (directory eq null) return 0
+      usageCounts.toSeq.sortBy(-_._2).take(size).map(_._1)
+    }
+    val start = System.nanoTime()
+    var numLoaded = 0
+    for (id <- ids) synchronized {
+      if (directory eq null) return numLoaded
+      read(id) match {
+        case Some((code, clazz)) =>
+          if (codeGeneratorCache.getIfPresent(code) eq null) codeGeneratorCache.put(code, clazz)
+          numLoaded += 1
+        case None => remove(id)
+      }
+    }
+    val elapsed = (System.nanoTime() - start).toDouble / 1000000.0
+    logInfo(s"Loaded $numLoaded generated classes from $directory in $elapsed ms")
+    numLoaded
+  }
+
+  /**
+   * Write the classes in the cache of CodeGenerator that are not stored yet and
+   * increment the usage counts of others.
+   */
+  def save(): Unit = synchronized {
+    if (directory eq null) return
+    try {
+      val iter = codeGeneratorCache.asMap().entrySet().iterator()
+      while (iter.hasNext) {
+        val entry = iter.next()
+        var id = sourceIds.get(entry.getKey)
+        if (id eq null) {
+          id = sourceHash(entry.getKey.body)
+          sourceIds.put(entry.getKey, id)
+        }
+        usageCounts.get(id) match {
+          case Some(count) => usageCounts(id) = count + 1
+          case None =>
+            if (!skipped.contains(id)) {
+              if (write(id, entry.getKey.body, entry.getValue)) usageCounts(id) = 1L
+              else skipped += id
+            }
+        }
+      }
+      // remove the least used classes beyond the maximum size of code cache
+      val maxSize = CodeGeneration.codeCacheSize
+      if (usageCounts.size > maxSize) {
+        usageCounts.toSeq.sortBy(_._2).take(usageCounts.size - maxSize).foreach(e => remove(e._1))
+      }
+      writeUsageCounts()
+    } catch {
+      case NonFatal(e) => logWarning(s"Failed to save generated code in $directory", e)
+    }
+  }
+
+  private def write(id: String, source: String, clazz: GeneratedClass): Boolean = {
+    val classes = clazz.getClass.getClassLoader match {
+      case loader: ByteArrayClassLoader =>
+        classesField.get(loader).asInstanceOf[java.util.Map[String, Array[Byte]]]
+      case _ => return false
+    }
+    if (!canResolve(classes, SparkUtils.getSparkClassLoader)) return false
+    val tmp = File.createTempFile(id, ".tmp", directory)
+    val out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))
+    try {
+      val sourceBytes = source.getBytes(StandardCharsets.UTF_8)
+      out.writeInt(MAGIC)
+      out.writeInt(sourceBytes.length)
+      out.write(sourceBytes)
+      out.writeUTF(clazz.getClass.getName)
+      out.writeInt(classes.size())
+      for ((name, bytes) <- classes.asScala) {
+        out.writeUTF(name)
+        out.writeInt(bytes.length)
+        out.write(bytes)
+      }
+    } finally {
+      out.close()
+    }
+    Files.move(tmp.toPath, new File(directory, id + ENTRY_SUFFIX).toPath,
+      StandardCopyOption.REPLACE_EXISTING)
+    true
+  }
+
+  private def read(id: String): Option[(CodeAndComment, GeneratedClass)] = {
+    val file = new File(directory, id + ENTRY_SUFFIX)
+    if (!file.isFile) return None
+    try {
+      val in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))
+      try {
+        def readBytes(): Array[Byte] = {
+          val bytes = new Array[Byte](in.readInt())
+          in.readFully(bytes)
+          bytes
+        }
+        if (in.readInt() != MAGIC) return None
+        val source = new String(readBytes(), StandardCharsets.UTF_8)
+        if (sourceHash(source) != id) return None
+        val className = in.readUTF()
+        val numClasses = in.readInt()
+        val classes = new java.util.HashMap[String, Array[Byte]](numClasses)
+        for (_ <- 0 until numClasses) classes.put(in.readUTF(), readBytes())
+        val parent = SparkUtils.getSparkClassLoader
+        if (!canResolve(classes, parent)) {
+          logWarning(s"Dropping generated code in $file referring to unavailable classes")
+          return None
+        }
+        val loader = new ByteArrayClassLoader(classes, parent)
+        // link the classes resolving the types in their signatures to fail early
+        classes.keySet().asScala.foreach { name =>
+          val c = loader.loadClass(name.replace('/', '.'))
+          c.getDeclaredFields
+          c.getDeclaredMethods
+        }
+        val clazz = loader.loadClass(className).newInstance().asInstanceOf[GeneratedClass]
+        Some(new CodeAndComment(source, Map.empty) -> clazz)
+      } finally {
+        in.close()
+      }
+    } catch {
+      case e@(NonFatal(_) | _: LinkageError) =>
+        logWarning(s"Failed to load generated code from $file", e)
+        None
+    }
+  }
+
+  /**
+   * Returns true if all the classes referred to by the given generated classes, other
+   * than themselves, can be loaded by the given class loader.
+   */
+  private def canResolve(classes: java.util.Map[String, Array[Byte]],
+      loader: ClassLoader): Boolean = {
+    val generated = classes.keySet().asScala.map(_.replace('/', '.'))
+    classes.values().asScala.forall { bytes =>
+      val references = try Some(referencedClasses(bytes)) catch {
+        case NonFatal(e) => logWarning("Failed to read a generated class file", e); None
+      }
+      references.exists(_.forall(name => generated.contains(name) || (try {
+        Class.forName(name, false, loader)
+        true
+      } catch {
+        case _: ClassNotFoundException | _: LinkageError => false
+      })))
+    }
+  }
+
+  /** Names of the classes in the constant pool of the given class file. */
+  private def referencedClasses(bytes: Array[Byte]): Seq[String] = {
+    val in = new DataInputStream(new ByteArrayInputStream(bytes))
+    // skip magic and version
+    in.skipBytes(8)
+    val poolSize = in.readUnsignedShort()
+    val utf8 = new Array[String](poolSize)
+    val classNameIndexes = new mutable.ArrayBuffer[Int]
+    var i = 1
+    while (i < poolSize) {
+      in.readUnsignedByte() match {
+        case 1 => utf8(i) = in.readUTF()
+        case 7 => classNameIndexes += in.readUnsignedShort()
+        case 8 | 16 | 19 | 20 => in.skipBytes(2)
+        case 15 => in.skipBytes(3)
+        case 3 | 4 | 9 | 10 | 11 | 12 | 17 | 18 => in.skipBytes(4)
+        case 5 | 6 => in.skipBytes(8); i += 1 // takes two entries
+        case tag => throw new IOException(s"Unknown constant pool tag $tag")
+      }
+      i += 1
+    }
+    classNameIndexes.flatMap { index =>
+      // element type of arrays which are like [[Ljava/lang/String;
+      val name = utf8(index).dropWhile(_ == '[')
+      if (name.startsWith("L") && name.endsWith(";")) {
+        Some(name.substring(1, name.length - 1).replace('/', '.'))
+      } else if (name.length == 1 && utf8(index).length > 1) None // primitive array
+      else Some(name.replace('/', '.'))
+    }
+  }
+
+  private def remove(id: String): Unit = {
+    usageCounts.remove(id)
+    new File(directory, id + ENTRY_SUFFIX).delete()
+  }
+}
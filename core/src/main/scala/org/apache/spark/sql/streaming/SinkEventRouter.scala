@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package org.apache.spark.sql.streaming
+
+import java.sql.PreparedStatement
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable.ArrayBuffer
+
+import org.apache.spark.Logging
+import org.apache.spark.rdd.RDD
+import org.apache.spark.sql.catalyst.InternalRow
+import org.apache.spark.sql.catalyst.expressions.{BoundReference, UnsafeProjection, UnsafeRow}
+import org.apache.spark.sql.execution.columnar.ExternalStoreUtils
+import org.apache.spark.sql.execution.datasources.LogicalRelation
+import org.apache.spark.sql.execution.row.RowFormatRelation
+import org.apache.spark.sql.sources.{ConnectionProperties, JdbcExtendedUtils}
+import org.apache.spark.sql.store.CodeGeneration
+import org.apache.spark.sql.streaming.SnappyStoreSinkProvider.EventType._
+import org.apache.spark.sql.streaming.SnappyStoreSinkProvider._
+import org.apache.spark.sql.types.StructType
+import org.apache.spark.sql.{DataFrame, SnappySession}
+
+/**
+ * Processes a streaming batch of [[DefaultSnappySinkCallback]] in a single scan
+ * when the `singlePass` option of the sink is enabled.
+ *
+ * For row tables each partition of the batch is scanned once and every event
+ * is routed to the insert, put or delete statement of the table in the order of
+ * arrival, so there are no separate jobs to determine the event types or to filter
+ * the batch for each of them. Column tables still need the insert/put/delete plans
+ * so for those the batch is materialized once while recording the event types seen.
+ *
+ * Conflation is done by a single hash pass on the key columns in each partition.
+ */
+private[streaming] final class SinkEventRouter(session: SnappySession, tableName: String,
+    df: DataFrame, keyColumns: Seq[(String, Int)], eventTypeColumnAvailable: Boolean,
+    conflation: Boolean) extends Logging {
+
+  private val schema = df.schema
+
+  private val eventTypeIndex =
+    if (eventTypeColumnAvailable) schema.fieldIndex(EVENT_TYPE_COLUMN) else -1
+
+  // the columns of incoming data are matched by position with those of the table
+  private val dataIndexes = schema.fields.indices.filter(_ != eventTypeIndex).toArray
+
+  private val keyIndexes = keyColumns.map(p => dataIndexes(p._2)).toArray
+
+  /** The incoming rows conflated by key, if required, in a single pass. */
+  private val rows: RDD[InternalRow] = {
+    val input = df.queryExecution.toRdd
+    if (conflation) {
+      val keyIndexes = this.keyIndexes
+      val eventTypeIndex = this.eventTypeIndex
+      val schema = this.schema
+      input.mapPartitions(SinkEventRouter.conflate(_, keyIndexes, eventTypeIndex, schema))
+    } else input
+  }
+
+  private val relation = session.sessionCatalog.resolveRelation(
+    session.tableIdentifier(tableName)) match {
+    case LogicalRelation(r: RowFormatRelation, _, _) => Some(r)
+    case _ => None
+  }
+
+  private val eventCounts = Array.fill(3)(session.sparkContext.longAccumulator)
+
+  def isRowTable: Boolean = relation.isDefined
+
+  /**
+   * Route all the events of the batch to the row table in a single job.
+   * Returns the total number of rows affected.
+   */
+  def routeToRowTable(possibleDuplicate: Boolean): Long = {
+    val r = relation.get
+    val table = r.table
+    val connProperties = r.connProperties
+    // statements indexed by the event type
+    val statements = new Array[String](3)
+    statements(INSERT) = JdbcExtendedUtils.getInsertOrPutString(table, r.schema, putInto = false)
+    statements(UPDATE) = JdbcExtendedUtils.getInsertOrPutString(table, r.schema, putInto = true)
+    statements(DELETE) = keyColumns.map(p =>
+      "\"" + JdbcExtendedUtils.toUpperCase(p._1) + "\"=?").mkString(
+      s"DELETE FROM ${JdbcExtendedUtils.quotedName(table)} WHERE ", " AND ", "")
+    val schema = this.schema
+    val eventTypeIndex = this.eventTypeIndex
+    val dataIndexes = this.dataIndexes
+    val keyIndexes = this.keyIndexes
+    val numRows = session.sparkContext.runJob(rows, (iter: Iterator[InternalRow]) =>
+      SinkEventRouter.routeRows(iter, table, connProperties, statements, schema,
+        eventTypeIndex, dataIndexes, keyIndexes, possibleDuplicate)).sum
+    logDebug(s"Applied $numRows changes to $tableName in a single pass")
+    numRows
+  }
+
+  /**
+   * DataFrame on the conflated rows that records the event types as
+   * the rows are scanned (which will be once when the result is persisted).
+   */
+  def singlePassDataFrame: DataFrame = {
+    if (eventTypeIndex == -1) session.internalCreateDataFrame(rows, schema)
+    else {
+      val eventTypeIndex = this.eventTypeIndex
+      val eventCounts = this.eventCounts
+      session.internalCreateDataFrame(rows.mapPartitions(_.map { row =>
+        if (!row.isNullAt(eventTypeIndex)) {
+          val eventType = row.getInt(eventTypeIndex)
+          if (eventType >= INSERT && eventType <= DELETE) eventCounts(eventType).add(1L)
+        }
+        row
+      }), schema)
+    }
+  }
+
+  /**
+   * The event types seen in the scan of [[singlePassDataFrame]]. Should
+   * be invoked only after the DataFrame has been materialized.
+   */
+  def incomingEventTypes: Set[Int] = Set(INSERT, UPDATE, DELETE).filter(eventCounts(_).value > 0)
+}
+
+private[streaming] object SinkEventRouter {
+
+  private final class ConflatedEvent(var row: InternalRow, var count: Int)
+
+  /**
+   * Keep only the last event for each key in a partition. An insert as the last
+   * event is converted to an update (i.e. put) if there are multiple events on the key.
+   */
+  def conflate(iter: Iterator[InternalRow], keyIndexes: Array[Int], eventTypeIndex: Int,
+      schema: StructType): Iterator[InternalRow] = {
+    val keyProjection = projection(keyIndexes, schema)
+    val events = new java.util.LinkedHashMap[UnsafeRow, ConflatedEvent]()
+    while (iter.hasNext) {
+      val row = iter.next()
+      val key = keyProjection(row)
+      val event = events.get(key)
+      if (event eq null) events.put(key.copy(), new ConflatedEvent(row.copy(), 1))
+      else {
+        event.row = row.copy()
+        event.count += 1
+      }
+    }
+    events.values().asScala.iterator.map { event =>
+      val row = event.row
+      if (event.count > 1 && eventTypeIndex != -1 && !row.isNullAt(eventTypeIndex) &&
+          row.getInt(eventTypeIndex) == INSERT) {
+        row.setInt(eventTypeIndex, UPDATE)
+      }
+      row
+    }
+  }
+
+  private def projection(indexes: Array[Int], schema: StructType): UnsafeProjection = {
+    UnsafeProjection.create(indexes.map { i =>
+      val f = schema.fields(i)
+      BoundReference(i, f.dataType, f.nullable)
+    }.toSeq)
+  }
+
+  /**
+   * Apply the events in a partition to the row table in the order of arrival batching
+   * the consecutive events of the same type. Rows without event type column are put.
+   */
+  def routeRows(iter: Iterator[InternalRow], table: String,
+      connProperties: ConnectionProperties, statements: Array[String], schema: StructType,
+      eventTypeIndex: Int, dataIndexes: Array[Int], keyIndexes: Array[Int],
+      possibleDuplicate: Boolean): Long = {
+    val dataProjection = projection(dataIndexes, schema)
+    val keyProjection = projection(keyIndexes, schema)
+    val dataFields = dataIndexes.map(schema.fields(_))
+    val keyFields = keyIndexes.map(schema.fields(_))
+    val conn = ExternalStoreUtils.getConnection(table, connProperties, forExecutor = true)
+    val batchSize = connProperties.executorConnProps.getProperty("batchsize", "1000").toInt
+    val preparedStatements = new Array[PreparedStatement](statements.length)
+    val pending = new ArrayBuffer[InternalRow]()
+    var pendingType = -1
+    var numRows = 0L
+
+    def flush(): Unit = if (pending.nonEmpty) {
+      var stmt = preparedStatements(pendingType)
+      if (stmt eq null) {
+        stmt = conn.prepareStatement(statements(pendingType))
+        preparedStatements(pendingType) = stmt
+      }
+      val (name, fields) = if (pendingType == DELETE) statements(DELETE) -> keyFields
+      else table -> dataFields
+      numRows += CodeGeneration.executeUpdate(name, stmt, pending.iterator.asJava,
+        multipleRows = true, batchSize, fields, connProperties.dialect)
+      pending.clear()
+    }
+
+    try {
+      while (iter.hasNext) {
+        val row = iter.next()
+        val eventType = if (eventTypeIndex == -1) UPDATE
+        else if (row.isNullAt(eventTypeIndex)) -1
+        else row.getInt(eventTypeIndex) match {
+          case INSERT => if (possibleDuplicate) UPDATE else INSERT
+          case t@(UPDATE | DELETE) => t
+          case _ => -1
+        }
+        if (eventType != -1) {
+          if (eventType != pendingType || pending.length >= batchSize) {
+            flush()
+            pendingType = eventType
+          }
+          pending += (if (eventType == DELETE) keyProjection(row).copy()
+          else dataProjection(row).copy())
+        }
+      }
+      flush()
+      numRows
+    } finally {
+      try {
+        preparedStatements.foreach(s => if (s ne null) s.close())
+        conn.commit()
+      } finally {
+        conn.close()
+      }
+    }
+  }
+}
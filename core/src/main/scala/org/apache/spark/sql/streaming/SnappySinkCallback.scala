@@ -124,6 +124,7 @@ private[streaming] object SnappyStoreSinkProvider {
   val SINK_CALLBACK = "sinkCallback"
   val STATE_TABLE_SCHEMA = "stateTableSchema"
   val CONFLATION = "conflation"
+  val SINGLE_PASS = "singlePass"
   val EVENT_COUNT_COLUMN = s"${INTERNAL_SUFFIX}event_count"
   val QUERY_ID_COLUMN = "stream_query_id"
   val BATCH_ID_COLUMN = "batch_id"
@@ -244,6 +245,7 @@ class DefaultSnappySinkCallback extends SnappySinkCallback with Logging {
     val keyColumns = snappySession.sessionCatalog.getKeyColumnsAndPositions(tableName)
     val eventTypeColumnAvailable = df.schema.map(_.name).contains(EVENT_TYPE_COLUMN)
     val conflationEnabled = parameters.getOrElse(CONFLATION, "false").toBoolean
+    val singlePass = parameters.getOrElse(SINGLE_PASS, "false").toBoolean
     if (conflationEnabled && keyColumns.isEmpty) {
       val msg = "Key column(s) or primary key must be defined on table in order " +
           "to perform conflation."
@@ -253,11 +255,24 @@ class DefaultSnappySinkCallback extends SnappySinkCallback with Logging {
     logDebug(s"keycolumns: '${keyColumns.map(p => s"${p._1.name}(${p._2})").mkString(",")}'" +
         s", eventTypeColumnAvailable:$eventTypeColumnAvailable,possible duplicate: $posDup")
 
-    if (keyColumns.nonEmpty) {
-      val dataFrame: DataFrame = persist(if (conflationEnabled) getConflatedDf else df)
+    val router = if (singlePass && keyColumns.nonEmpty) {
+      new SinkEventRouter(snappySession, tableName, df, keyColumns.map(p => p._1.name -> p._2),
+        eventTypeColumnAvailable, conflationEnabled)
+    } else null
+
+    if ((router ne null) && router.isRowTable) {
+      router.routeToRowTable(posDup)
+    } else if (keyColumns.nonEmpty) {
+      val dataFrame: DataFrame = persist(if (router ne null) router.singlePassDataFrame
+      else if (conflationEnabled) getConflatedDf else df)
       try {
         if (eventTypeColumnAvailable) {
-          processDataWithEventType(dataFrame)
+          val incomingEventTypes = if (router ne null) {
+            // materialize the batch which also records the event types
+            dataFrame.count()
+            router.incomingEventTypes
+          } else getIncomingEventTypes(dataFrame)
+          processDataWithEventType(dataFrame, incomingEventTypes)
         } else {
           if (dataFrame.count() != 0) dataFrame.write.putInto(tableName)
         }
@@ -321,10 +336,13 @@ class DefaultSnappySinkCallback extends SnappySinkCallback with Logging {
       df.persist(StorageLevel.OFF_HEAP)
     } else df.persist()
 
-    def processDataWithEventType(dataFrame: DataFrame): Unit = {
-      val incomingEventTypes = dataFrame.filter(dataFrame(EVENT_TYPE_COLUMN)
+    def getIncomingEventTypes(dataFrame: DataFrame): Set[Int] = {
+      dataFrame.filter(dataFrame(EVENT_TYPE_COLUMN)
           .isin(INSERT, UPDATE, DELETE)).groupBy(dataFrame(EVENT_TYPE_COLUMN)).count()
           .select(EVENT_TYPE_COLUMN).collect().map(r => r(0).asInstanceOf[Int]).toSet[Int]
+    }
+
+    def processDataWithEventType(dataFrame: DataFrame, incomingEventTypes: Set[Int]): Unit = {
       if (incomingEventTypes.contains(DELETE)) {
         val deleteDf = dataFrame.filter(dataFrame(EVENT_TYPE_COLUMN) === DELETE)
             .drop(EVENT_TYPE_COLUMN)
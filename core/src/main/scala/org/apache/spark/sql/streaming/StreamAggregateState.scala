@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package org.apache.spark.sql.streaming
+
+import com.gemstone.gemfire.internal.shared.unsafe.DirectBufferAllocator
+import io.snappydata.collection.ByteBufferHashMap
+
+import org.apache.spark.sql.catalyst.expressions.UnsafeRow
+import org.apache.spark.sql.execution.columnar.encoding.ColumnEncoding
+import org.apache.spark.unsafe.Platform
+
+/**
+ * Off-heap state of the aggregates of a [[StreamView]] keyed on the values of
+ * its grouping columns. Each entry has the serialized [[UnsafeRow]] of the
+ * grouping key followed by a fixed number of 8 byte slots which are zero
+ * for a newly inserted key. The interpretation of the slots is left to the
+ * [[StreamView]] while this only provides for their lookup and update.
+ *
+ * Entries are never removed from the map so the owner should create a new
+ * map with only the live entries using [[copyTo]] when required.
+ */
+final class StreamAggregateState(initialCapacity: Int, numKeyFields: Int,
+    val numSlots: Int) extends ByteBufferHashMap(initialCapacity, 0.7, 0,
+  (numSlots << 3) + 16, DirectBufferAllocator.instance()) {
+
+  private[this] val slotsSize = numSlots << 3
+  private[this] var keyBuffer: Array[Byte] = _
+
+  override protected def handleExisting(mapKeyObject: AnyRef, mapKeyOffset: Long,
+      valueStartOffset: Int): Int = valueStartOffset
+
+  override protected def handleNew(mapKeyObject: AnyRef, mapKeyOffset: Long,
+      valueStartOffset: Int): Int = {
+    handleNewInsert()
+    valueStartOffset
+  }
+
+  /**
+   * Get the offset of the slots for the given grouping key inserting a new
+   * entry with all slots as zero if not present. The offset remains valid
+   * across inserts but the slots should only be accessed using the methods
+   * of this class since the underlying data can be moved when it grows.
+   */
+  def getOrInsert(key: UnsafeRow): Int = {
+    val keySize = key.getSizeInBytes
+    val numBytes = keySize + slotsSize
+    if ((keyBuffer eq null) || keyBuffer.length < numBytes) {
+      keyBuffer = new Array[Byte](math.max(numBytes, 64))
+    } else {
+      java.util.Arrays.fill(keyBuffer, keySize, numBytes, 0.toByte)
+    }
+    Platform.copyMemory(key.getBaseObject, key.getBaseOffset, keyBuffer,
+      Platform.BYTE_ARRAY_OFFSET, keySize)
+    putBufferIfAbsent(keyBuffer, Platform.BYTE_ARRAY_OFFSET, keySize, numBytes,
+      key.hashCode()) + keySize
+  }
+
+  def getLong(offset: Int, slot: Int): Long = {
+    val data = getValueData
+    Platform.getLong(data.baseObject, data.baseOffset + offset + (slot << 3))
+  }
+
+  def putLong(offset: Int, slot: Int, value: Long): Unit = {
+    val data = getValueData
+    Platform.putLong(data.baseObject, data.baseOffset + offset + (slot << 3), value)
+  }
+
+  def getDouble(offset: Int, slot: Int): Double =
+    java.lang.Double.longBitsToDouble(getLong(offset, slot))
+
+  def putDouble(offset: Int, slot: Int, value: Double): Unit =
+    putLong(offset, slot, java.lang.Double.doubleToLongBits(value))
+
+  /**
+   * Invoke the given function for the grouping key and the offset of slots
+   * of each entry in insertion order. The key row points to the off-heap data
+   * of the map so it should be copied if used beyond the function call, and
+   * the function should not insert any new entries in this map.
+   */
+  def foreach(f: (UnsafeRow, Int) => Unit): Unit = {
+    val data = getValueData
+    val baseObject = data.baseObject
+    val baseOffset = data.baseOffset
+    val endOffset = valueDataSize
+    val key = new UnsafeRow(numKeyFields)
+    var offset = 0L
+    while (offset < endOffset) {
+      val keySize = ColumnEncoding.readInt(baseObject, baseOffset + offset)
+      val keyOffset = offset + 4
+      key.pointTo(baseObject, baseOffset + keyOffset, keySize)
+      f(key, (keyOffset + keySize).toInt)
+      offset = keyOffset + keySize + slotsSize
+    }
+  }
+
+  /** Copy the entries of this map selected by the given filter to the target map. */
+  def copyTo(target: StreamAggregateState, filter: Int => Boolean): Unit = {
+    foreach { (key, offset) =>
+      if (filter(offset)) {
+        val targetOffset = target.getOrInsert(key)
+        var slot = 0
+        while (slot < numSlots) {
+          target.putLong(targetOffset, slot, getLong(offset, slot))
+          slot += 1
+        }
+      }
+    }
+  }
+}
@@ -33,6 +33,7 @@ object StreamSqlHelper {
 
   def clearStreams(): Unit = {
     StreamBaseRelation.clearStreams()
+    StreamView.clearViews()
   }
 
   /**
@@ -0,0 +1,601 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package org.apache.spark.sql.streaming
+
+import java.math.RoundingMode
+
+import scala.collection.mutable
+
+import org.apache.spark.Logging
+import org.apache.spark.rdd.RDD
+import org.apache.spark.sql.catalyst.{InternalRow, TableIdentifier}
+import org.apache.spark.sql.catalyst.expressions.aggregate.{AggregateExpression, AggregateFunction, Average, Complete, Count, Max, Min, Sum}
+import org.apache.spark.sql.catalyst.expressions.{Alias, GenericInternalRow, Literal, NamedExpression, UnsafeProjection, UnsafeRow}
+import org.apache.spark.sql.catalyst.plans.logical.{Aggregate, LogicalPlan}
+import org.apache.spark.sql.collection.Utils
+import org.apache.spark.sql.execution.columnar.ExternalStoreUtils
+import org.apache.spark.sql.execution.datasources.LogicalRelation
+import org.apache.spark.sql.snappy._
+import org.apache.spark.sql.types._
+import org.apache.spark.sql.{SnappyParserConsts, SnappySession}
+import org.apache.spark.streaming.dstream.DStream
+import org.apache.spark.streaming.{Duration, SnappyStreamingContext, StreamUtils, StreamingContextState, Time}
+
+/**
+ * A continuous materialized view of GROUP BY aggregates over a stream that is
+ * maintained incrementally into a row or column table created for the view.
+ *
+ * Each batch of the stream is aggregated separately into partial aggregates
+ * (e.g. sum and count for AVG) that are merged into the state of the view kept
+ * off-heap in a [[StreamAggregateState]]. For a sliding window the partial
+ * aggregates of each batch are retained till the batch falls out of the window
+ * when they are retracted from the state, while the state of a tumbling window
+ * is cleared after the end of each window. The groups changed since the last
+ * window (or batch when there is no window) are then written to the table with
+ * a PUT INTO while the groups that no longer have any rows are deleted.
+ *
+ * The state of the view is held by the driver so the number of groups should
+ * be modest, which is normally the case for dashboards over high-rate streams.
+ */
+final class StreamView private(val tableName: String,
+    context: SnappyStreamingContext,
+    private val stream: DStream[InternalRow],
+    batchPlan: LogicalPlan,
+    numKeys: Int,
+    aggregates: Array[StreamView.ViewAggregate],
+    outputs: Array[Int],
+    private val viewSchema: StructType,
+    window: Option[(Duration, Duration)]) extends Logging {
+
+  import StreamView._
+
+  private[this] val numSlots = AGGREGATE_SLOTS + (aggregates.length << 1)
+  private val keySchema = StructType(outputs.indices.filter(outputs(_) >= 0)
+      .sortBy(outputs(_)).map(viewSchema(_)))
+  private[this] val keyProjection = {
+    val attrs = batchPlan.output
+    UnsafeProjection.create(attrs.take(numKeys), attrs)
+  }
+  private[this] val outputProjection = UnsafeProjection.create(viewSchema)
+
+  private[this] val isSliding = window.exists(w => w._2 < w._1)
+  private[this] val isTumbling = window.isDefined && !isSliding
+
+  private[this] var state = new StreamAggregateState(INITIAL_CAPACITY, numKeys, numSlots)
+  /** partial aggregates of the batches in the current sliding window */
+  private[this] val batches = new java.util.ArrayDeque[(Time, StreamAggregateState)]()
+
+  private def onBatch(time: Time): Unit = synchronized {
+    if (state eq null) return // dropped
+    StreamBaseRelation.setValidTime(time)
+    val batch = new StreamAggregateState(INITIAL_CAPACITY, numKeys, numSlots)
+    var retainBatch = false
+    try {
+      context.snappySession.sessionState.executePlan(batchPlan).executedPlan
+          .executeCollect().foreach(mergeRow(batch, _))
+      mergeState(batch, state, sign = 1)
+      if (isSliding) {
+        batches.addLast(time -> batch)
+        retainBatch = true
+        // retract the batches that have fallen out of the window
+        val expiryTime = time - window.get._1
+        while (!batches.isEmpty && batches.peekFirst()._1 <= expiryTime) {
+          val expired = batches.pollFirst()._2
+          mergeState(expired, state, sign = -1)
+          expired.release()
+        }
+      }
+      if (window.isEmpty ||
+          (time - StreamUtils.getZeroTime(stream)).isMultipleOf(window.get._2)) {
+        writeChanges()
+        if (isTumbling) clearState()
+      }
+    } finally {
+      if (!retainBatch) batch.release()
+    }
+  }
+
+  /** Merge the partial aggregates of a group in a batch into the given state. */
+  private def mergeRow(target: StreamAggregateState, row: InternalRow): Unit = {
+    val offset = target.getOrInsert(keyProjection(row))
+    target.putLong(offset, ROW_COUNT, target.getLong(offset, ROW_COUNT) + row.getLong(numKeys))
+    var i = 0
+    while (i < aggregates.length) {
+      val agg = aggregates(i)
+      val column = numKeys + 1 + (i << 1)
+      val count = row.getLong(column + 1)
+      val value = if (!row.isNullAt(column)) readValue(row, column, agg.valueType)
+      // null decimal sum of non-null values is an overflow
+      else if (count > 0 && agg.decimalLimit != 0) OVERFLOW
+      else 0L
+      combine(target, offset, AGGREGATE_SLOTS + (i << 1), agg, value, count, sign = 1)
+      i += 1
+    }
+  }
+
+  /** Add (sign = 1) or retract (sign = -1) the source state from the target. */
+  private def mergeState(source: StreamAggregateState, target: StreamAggregateState,
+      sign: Int): Unit = source.foreach { (key, sourceOffset) =>
+    val offset = target.getOrInsert(key)
+    target.putLong(offset, FLAGS, target.getLong(offset, FLAGS) | DIRTY)
+    target.putLong(offset, ROW_COUNT, target.getLong(offset, ROW_COUNT) +
+        sign * source.getLong(sourceOffset, ROW_COUNT))
+    var i = 0
+    while (i < aggregates.length) {
+      val slot = AGGREGATE_SLOTS + (i << 1)
+      combine(target, offset, slot, aggregates(i), source.getLong(sourceOffset, slot),
+        source.getLong(sourceOffset, slot + 1), sign)
+      i += 1
+    }
+  }
+
+  /**
+   * Write the groups changed since the last call to the table deleting the
+   * groups that no longer have any rows.
+   */
+  private def writeChanges(): Unit = {
+    val upserts = new mutable.ArrayBuffer[InternalRow]
+    val deletes = new mutable.ArrayBuffer[InternalRow]
+    var numDead = 0
+    val state = this.state
+    state.foreach { (key, offset) =>
+      val flags = state.getLong(offset, FLAGS)
+      val rowCount = state.getLong(offset, ROW_COUNT)
+      if ((flags & DIRTY) != 0) {
+        if (rowCount > 0) {
+          upserts += outputProjection(outputRow(key, offset)).copy()
+          state.putLong(offset, FLAGS, IN_TABLE)
+        } else {
+          if ((flags & IN_TABLE) != 0) deletes += key.copy()
+          state.putLong(offset, FLAGS, 0L)
+        }
+      }
+      if (rowCount == 0) numDead += 1
+    }
+    val session = context.snappySession
+    if (deletes.nonEmpty) {
+      session.internalCreateDataFrame(deletes, keySchema).write.deleteFrom(tableName)
+    }
+    if (upserts.nonEmpty) {
+      session.internalCreateDataFrame(upserts, viewSchema).write.putInto(tableName)
+    }
+    logDebug(s"Stream view $tableName: updated ${upserts.length} and " +
+        s"deleted ${deletes.length} groups")
+    // drop the groups without any rows if they dominate the map
+    if (numDead > INITIAL_CAPACITY && numDead > (state.size >> 1)) {
+      val newState = new StreamAggregateState(math.max(state.size - numDead,
+        INITIAL_CAPACITY), numKeys, numSlots)
+      state.copyTo(newState, offset =>
+        state.getLong(offset, ROW_COUNT) != 0 || state.getLong(offset, FLAGS) != 0)
+      state.release()
+      this.state = newState
+    }
+  }
+
+  /** Clear the aggregates at the end of a tumbling window. */
+  private def clearState(): Unit = {
+    val state = this.state
+    state.foreach { (_, offset) =>
+      val flags = state.getLong(offset, FLAGS)
+      var slot = ROW_COUNT
+      while (slot < numSlots) {
+        state.putLong(offset, slot, 0L)
+        slot += 1
+      }
+      // groups not seen in the next window will be deleted
+      if ((flags & IN_TABLE) != 0) state.putLong(offset, FLAGS, flags | DIRTY)
+    }
+  }
+
+  private def outputRow(key: UnsafeRow, offset: Int): InternalRow = {
+    val row = new GenericInternalRow(outputs.length)
+    var i = 0
+    while (i < outputs.length) {
+      val index = outputs(i)
+      if (index >= 0) {
+        row.update(i, key.get(index, keySchema(index).dataType))
+      } else {
+        val aggIndex = -index - 1
+        row.update(i, resultValue(offset, AGGREGATE_SLOTS + (aggIndex << 1),
+          aggregates(aggIndex)))
+      }
+      i += 1
+    }
+    row
+  }
+
+  private def resultValue(offset: Int, slot: Int, agg: ViewAggregate): Any = {
+    if (agg.function == COUNT) return state.getLong(offset, slot)
+    val count = state.getLong(offset, slot + 1)
+    if (count == 0 || (agg.decimalLimit != 0 && state.getLong(offset, slot) == OVERFLOW)) null
+    else if (agg.function == AVG) agg.resultType match {
+      case d: DecimalType =>
+        val sum = java.math.BigDecimal.valueOf(state.getLong(offset, slot), agg.scale)
+        Decimal(sum.divide(java.math.BigDecimal.valueOf(count), d.scale,
+          RoundingMode.HALF_UP), d.precision, d.scale)
+      case _ if agg.isDouble => state.getDouble(offset, slot) / count
+      case _ => state.getLong(offset, slot).toDouble / count
+    } else {
+      val value = state.getLong(offset, slot)
+      agg.resultType match {
+        case LongType => value
+        case IntegerType => value.toInt
+        case ShortType => value.toShort
+        case ByteType => value.toByte
+        case FloatType => java.lang.Double.longBitsToDouble(value).toFloat
+        case DoubleType => java.lang.Double.longBitsToDouble(value)
+        case d: DecimalType => Decimal(value, d.precision, d.scale)
+      }
+    }
+  }
+
+  private def stop(): Unit = synchronized {
+    if (state ne null) {
+      state.release()
+      state = null
+    }
+    while (!batches.isEmpty) batches.pollFirst()._2.release()
+  }
+}
+
+object StreamView extends Logging {
+
+  private val INITIAL_CAPACITY = 1024
+
+  // the slots of each group in the state
+  private val FLAGS = 0
+  private val ROW_COUNT = 1
+  private val AGGREGATE_SLOTS = 2
+
+  // flags of a group in the state
+  private val DIRTY = 0x1L
+  private val IN_TABLE = 0x2L
+
+  private val COUNT = 0
+  private val SUM = 1
+  private val AVG = 2
+  private val MIN = 3
+  private val MAX = 4
+
+  /**
+   * Value of a decimal SUM or AVG that has exceeded the precision of the sum for
+   * which the result is null like in Spark. It stays so till all the rows of the
+   * group are retracted.
+   */
+  private val OVERFLOW = Long.MinValue
+
+  /**
+   * An aggregate of a stream view having a value and count slot in the state.
+   * The value is a long or the bits of a double, with decimals as unscaled longs
+   * which is why those are limited to a precision of [[Decimal.MAX_LONG_DIGITS]].
+   */
+  private[streaming] final case class ViewAggregate(function: Int, resultType: DataType,
+      valueType: DataType, scale: Int) {
+    val isDouble: Boolean = valueType == FloatType || valueType == DoubleType
+    /** the exclusive limit of the unscaled decimal sum or zero if not a decimal */
+    val decimalLimit: Long = valueType match {
+      case d: DecimalType => math.pow(10, d.precision).toLong
+      case _ => 0L
+    }
+  }
+
+  /**
+   * Property of the table of a stream view having the schema of the view. It marks
+   * the table as one maintained by a stream view, including the ones that are not
+   * maintained any longer after the streaming context or cluster was restarted.
+   */
+  private val VIEW_SCHEMA_PROPERTY = "stream_view_schema"
+
+  private[this] val views = new mutable.HashMap[String, StreamView]
+
+  private def readValue(row: InternalRow, column: Int, dataType: DataType): Long =
+    dataType match {
+      case LongType => row.getLong(column)
+      case IntegerType => row.getInt(column)
+      case ShortType => row.getShort(column)
+      case ByteType => row.getByte(column)
+      case FloatType => java.lang.Double.doubleToLongBits(row.getFloat(column))
+      case DoubleType => java.lang.Double.doubleToLongBits(row.getDouble(column))
+      case d: DecimalType => row.getDecimal(column, d.precision, d.scale).toUnscaledLong
+    }
+
+  private def combine(target: StreamAggregateState, offset: Int, slot: Int,
+      agg: ViewAggregate, value: Long, count: Long, sign: Int): Unit = agg.function match {
+    case COUNT => target.putLong(offset, slot, target.getLong(offset, slot) + sign * value)
+    case SUM | AVG =>
+      val newCount = target.getLong(offset, slot + 1) + sign * count
+      target.putLong(offset, slot + 1, newCount)
+      // reset the value when there are no rows to avoid accumulating rounding errors
+      if (newCount == 0) target.putLong(offset, slot, 0L)
+      else if (agg.isDouble) {
+        target.putDouble(offset, slot, target.getDouble(offset, slot) +
+            sign * java.lang.Double.longBitsToDouble(value))
+      } else if (agg.decimalLimit != 0) {
+        // both are below 10^18 in magnitude so the sum cannot overflow a long
+        val current = target.getLong(offset, slot)
+        val sum = if (current == OVERFLOW || value == OVERFLOW) OVERFLOW
+        else current + sign * value
+        target.putLong(offset, slot,
+          if (sum != OVERFLOW && math.abs(sum) >= agg.decimalLimit) OVERFLOW else sum)
+      } else target.putLong(offset, slot, target.getLong(offset, slot) + sign * value)
+    case _ =>
+      // MIN/MAX are never retracted
+      if (count > 0) {
+        val current = target.getLong(offset, slot + 1)
+        if (current == 0) target.putLong(offset, slot, value)
+        else {
+          val oldValue = target.getLong(offset, slot)
+          val cmp = if (agg.isDouble) {
+            java.lang.Double.compare(java.lang.Double.longBitsToDouble(value),
+              java.lang.Double.longBitsToDouble(oldValue))
+          } else java.lang.Long.compare(value, oldValue)
+          if ((agg.function == MIN && cmp < 0) || (agg.function == MAX && cmp > 0)) {
+            target.putLong(offset, slot, value)
+          }
+        }
+        target.putLong(offset, slot + 1, current + count)
+      }
+  }
+
+  private def onBatch(tableName: String, time: Time): Unit = {
+    views.synchronized(views.get(tableName)) match {
+      case Some(view) => view.onBatch(time)
+      case None => // dropped
+    }
+  }
+
+  /** The schema of the stream view stored in given table or None if not a view table. */
+  private def viewSchemaOfTable(session: SnappySession,
+      tableIdent: TableIdentifier): Option[String] = {
+    session.externalCatalog.getTableOption(tableIdent.database.get, tableIdent.table)
+        .flatMap(_.properties.get(VIEW_SCHEMA_PROPERTY))
+  }
+
+  /**
+   * Create a stream view for the given GROUP BY query over a stream and the table
+   * maintained by it. This should be done before the streaming context is started
+   * since the view registers an output operation on the stream.
+   *
+   * The views are not retained when the streaming context is stopped while their
+   * tables are, so with IF NOT EXISTS a view whose table exists without the view
+   * (e.g. after a restart) is attached to the table again after emptying it, since
+   * the aggregates of the earlier groups are lost. This requires the query of the
+   * view to have the same schema as the one that created the table.
+   */
+  def create(session: SnappySession, viewIdent: TableIdentifier, provider: Option[String],
+      options: Map[String, String], query: LogicalPlan, allowExisting: Boolean): Unit = {
+    val context = SnappyStreamingContext.getInstance() match {
+      case Some(c) => c
+      case None => throw Utils.analysisException(
+        "CREATE STREAM VIEW requires an initialized streaming context")
+    }
+    if (context.getState() != StreamingContextState.INITIALIZED) {
+      throw Utils.analysisException(
+        "CREATE STREAM VIEW should be done before the streaming context is started")
+    }
+    val tableIdent = session.sessionCatalog.resolveTableIdentifier(viewIdent)
+    val tableName = tableIdent.unquotedString
+    if (views.synchronized(views.contains(tableName))) {
+      if (allowExisting) return
+      throw Utils.analysisException(s"Stream view $tableName already exists")
+    }
+    val existingSchema = if (session.sessionCatalog.tableExists(tableIdent)) {
+      viewSchemaOfTable(session, tableIdent) match {
+        case None => throw Utils.analysisException(
+          s"Table or view $tableName already exists")
+        case s if allowExisting => s
+        case _ => throw Utils.analysisException(s"Table $tableName of a stream view " +
+            "already exists (use IF NOT EXISTS to maintain it again or DROP STREAM VIEW)")
+      }
+    } else None
+    val tableProvider = provider.map(Utils.toLowerCase).getOrElse(SnappyParserConsts.ROW_SOURCE)
+    if (tableProvider != SnappyParserConsts.ROW_SOURCE &&
+        tableProvider != SnappyParserConsts.COLUMN_SOURCE) {
+      throw Utils.analysisException(s"CREATE STREAM VIEW supports only " +
+          s"${SnappyParserConsts.ROW_SOURCE} or ${SnappyParserConsts.COLUMN_SOURCE} " +
+          s"tables but got '$tableProvider'")
+    }
+
+    val qe = session.sessionState.executePlan(query)
+    qe.assertAnalyzed()
+    val view = newView(tableName, context, qe.analyzed)
+    val viewSchema = view.viewSchema.json
+    existingSchema match {
+      case Some(schema) =>
+        if (schema != viewSchema) {
+          throw Utils.analysisException(s"Table $tableName was created by a stream view " +
+              "having a different schema (use DROP STREAM VIEW to drop it)")
+        }
+        // the table has the aggregates of an earlier instance of the view
+        session.truncateTable(tableName)
+      case None =>
+        // create the table with grouping columns as the primary key
+        val keyColumns = view.keySchema.fieldNames
+        val columns = view.viewSchema.fields.map(f =>
+          s"${f.name} ${f.dataType.sql}${if (f.nullable) "" else " NOT NULL"}")
+        val (schemaString, tableOptions) =
+          if (tableProvider == SnappyParserConsts.ROW_SOURCE) {
+            (columns :+ keyColumns.mkString("PRIMARY KEY (", ", ", ")")).mkString(", ") ->
+                options
+          } else {
+            columns.mkString(", ") ->
+                (options + (ExternalStoreUtils.KEY_COLUMNS -> keyColumns.mkString(",")))
+          }
+        val optionsString = if (tableOptions.isEmpty) ""
+        else tableOptions.map(p => s"${p._1} '${p._2.replace("'", "''")}'")
+            .mkString(" OPTIONS (", ", ", ")")
+        session.sql(s"CREATE TABLE $tableName ($schemaString) USING $tableProvider$optionsString")
+        val catalogTable = session.externalCatalog.getTable(tableIdent.database.get,
+          tableIdent.table)
+        session.sessionCatalog.alterTable(catalogTable.copy(properties =
+            catalogTable.properties + (VIEW_SCHEMA_PROPERTY -> viewSchema)))
+    }
+
+    views.synchronized(views.put(tableName, view))
+    view.stream.foreachRDD((_: RDD[InternalRow], time: Time) => onBatch(tableName, time))
+    logInfo(s"Created stream view $tableName for the query: ${qe.analyzed}")
+  }
+
+  /**
+   * Stop the maintenance of a stream view and drop its table. The table of a view that
+   * is no longer maintained (e.g. after a restart) is also dropped.
+   */
+  def drop(session: SnappySession, viewIdent: TableIdentifier, ifExists: Boolean): Unit = {
+    val tableIdent = session.sessionCatalog.resolveTableIdentifier(viewIdent)
+    val tableName = tableIdent.unquotedString
+    views.synchronized(views.remove(tableName)) match {
+      case Some(view) =>
+        view.stop()
+        session.dropTable(tableName, ifExists = true)
+      case None =>
+        if (session.sessionCatalog.tableExists(tableIdent) &&
+            viewSchemaOfTable(session, tableIdent).isDefined) {
+          session.dropTable(tableName, ifExists = true)
+        } else if (!ifExists) {
+          throw Utils.analysisException(s"Stream view $tableName does not exist")
+        }
+    }
+  }
+
+  /** Stop the maintenance of all stream views when the streaming context is stopped. */
+  private[streaming] def clearViews(): Unit = views.synchronized {
+    views.values.foreach(_.stop())
+    views.clear()
+  }
+
+  private def isSupportedInput(dataType: DataType): Boolean = dataType match {
+    case d: DecimalType => d.precision <= Decimal.MAX_LONG_DIGITS
+    case _: NumericType => true
+    case _ => false
+  }
+
+  private def scaleOf(dataType: DataType): Int = dataType match {
+    case d: DecimalType => d.scale
+    case _ => 0
+  }
+
+  /**
+   * Create the [[StreamView]] for the analyzed plan of its query. The query should
+   * be a GROUP BY over a single stream with the select list having all the grouping
+   * expressions and the COUNT, SUM, AVG, MIN or MAX aggregates. MIN and MAX are not
+   * supported for sliding windows since those cannot be retracted.
+   */
+  private def newView(tableName: String, context: SnappyStreamingContext,
+      plan: LogicalPlan): StreamView = {
+    def unsupported(reason: String): Nothing = throw Utils.analysisException(
+      s"CREATE STREAM VIEW $tableName: $reason")
+
+    val (groupingExpressions, aggregateExpressions, child) = plan match {
+      case Aggregate(g, a, c) if g.nonEmpty => (g, a, c)
+      case _ => unsupported("query should be a GROUP BY with aggregates over a stream")
+    }
+    if (groupingExpressions.exists(_.nullable)) {
+      unsupported("grouping expressions should be non-nullable (use COALESCE or declare " +
+          s"the stream columns as NOT NULL): ${groupingExpressions.mkString(", ")}")
+    }
+
+    // windows are applied by the view itself
+    val windows = child.collect { case w: WindowLogicalPlan => w }
+    if (windows.length > 1) unsupported("query should have a single window")
+    val streams = child.collect {
+      case LogicalDStreamPlan(_, s) => s
+      case LogicalRelation(r: StreamPlan, _, _) => r.rowStream
+    }.distinct
+    if (streams.length != 1) unsupported("query should be on a single stream")
+    val stream = streams.head
+    val batchDuration = stream.slideDuration
+    val window = windows.headOption.map { w =>
+      val slide = w.slideDuration.getOrElse(batchDuration)
+      if (!w.windowDuration.isMultipleOf(batchDuration) ||
+          !slide.isMultipleOf(batchDuration) || slide > w.windowDuration) {
+        unsupported(s"window duration ${w.windowDuration} and slide $slide should be " +
+            s"multiples of the batch interval $batchDuration with slide <= duration")
+      }
+      w.windowDuration -> slide
+    }
+    val isSliding = window.exists(w => w._2 < w._1)
+    // aggregate each batch separately
+    val batchChild = child transform {
+      case w: WindowLogicalPlan => w.child
+      case l@LogicalRelation(r: StreamPlan, _, _) =>
+        LogicalDStreamPlan(l.output, r.rowStream)(context)
+    }
+
+    val aggregates = new mutable.ArrayBuffer[ViewAggregate]
+    val partials = new mutable.ArrayBuffer[AggregateFunction]
+    val outputs = aggregateExpressions.map { e =>
+      if (!e.name.matches("[a-zA-Z_][a-zA-Z0-9_]*")) {
+        unsupported(s"column '${e.name}' should be given an alias")
+      }
+      val expr = e match {
+        case Alias(c, _) => c
+        case _ => e
+      }
+      groupingExpressions.indexWhere(_.semanticEquals(expr)) match {
+        case -1 =>
+          val (agg, partial) = expr match {
+            case AggregateExpression(f, Complete, false, _) => f match {
+              case c: Count => ViewAggregate(COUNT, LongType, LongType, 0) -> (c, c)
+              case Sum(c) if isSupportedInput(c.dataType) &&
+                  isSupportedInput(Sum(c).dataType) =>
+                val sum = Sum(c)
+                ViewAggregate(SUM, f.dataType, sum.dataType, scaleOf(sum.dataType)) ->
+                    (sum, Count(c))
+              case Average(c) if isSupportedInput(c.dataType) &&
+                  isSupportedInput(Sum(c).dataType) =>
+                val sum = Sum(c)
+                ViewAggregate(AVG, f.dataType, sum.dataType, scaleOf(sum.dataType)) ->
+                    (sum, Count(c))
+              case _: Min | _: Max if isSliding => unsupported(
+                s"$f cannot be maintained for a sliding window (use a tumbling window)")
+              case Min(c) if isSupportedInput(c.dataType) =>
+                ViewAggregate(MIN, c.dataType, c.dataType, scaleOf(c.dataType)) ->
+                    (Min(c), Count(c))
+              case Max(c) if isSupportedInput(c.dataType) =>
+                ViewAggregate(MAX, c.dataType, c.dataType, scaleOf(c.dataType)) ->
+                    (Max(c), Count(c))
+              case _ => unsupported(s"unsupported aggregate $f (arguments should be " +
+                  s"numeric with decimal sums limited to ${Decimal.MAX_LONG_DIGITS} digits)")
+            }
+            case _ => unsupported(s"$e should be a grouping expression or an aggregate " +
+                "(COUNT, SUM, AVG, MIN or MAX without DISTINCT)")
+          }
+          aggregates += agg
+          partials += partial._1
+          partials += partial._2
+          -aggregates.length
+        case index => index
+      }
+    }.toArray
+    (0 until groupingExpressions.length).find(!outputs.contains(_)) match {
+      case Some(index) => unsupported(
+        s"grouping expression ${groupingExpressions(index)} should be in the select list")
+      case None =>
+    }
+
+    val partialExpressions: Seq[NamedExpression] = groupingExpressions.zipWithIndex.map {
+      case (g, i) => Alias(g, s"key$i")()
+    } ++ (Count(Literal(1)) +: partials).zipWithIndex.map {
+      case (f, i) => Alias(f.toAggregateExpression(), s"partial$i")()
+    }
+    val batchPlan = Aggregate(groupingExpressions, partialExpressions, batchChild)
+    val viewSchema = StructType(aggregateExpressions.map(e =>
+      StructField(e.name, e.dataType, e.nullable)))
+    new StreamView(tableName, context, stream, batchPlan, groupingExpressions.length,
+      aggregates.toArray, outputs, viewSchema, window)
+  }
+}
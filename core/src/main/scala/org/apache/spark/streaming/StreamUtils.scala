@@ -37,6 +37,9 @@ object StreamUtils {
   def getOrCompute[T: ClassTag](dStream: DStream[T],
       time: Time): Option[RDD[T]] = dStream.getOrCompute(time)
 
+  /** Get the time of the first batch interval of a started <code>DStream</code> */
+  def getZeroTime(dStream: DStream[_]): Time = dStream.zeroTime
+
   def getGeneratedRDDs[T: ClassTag](dStream: DStream[T]): mutable.Map[Time,
       RDD[T]] = {
     // using reflection here since Spark's object is a HashMap while it is
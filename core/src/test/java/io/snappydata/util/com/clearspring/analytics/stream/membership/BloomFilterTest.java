@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package io.snappydata.util.com.clearspring.analytics.stream.membership;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BloomFilterTest {
+
+    private BloomFilter bf;
+
+    @Before
+    public void clear() {
+        bf = new BloomFilter(FilterTest.ELEMENTS, FilterTest.spec.bucketsPerElement);
+    }
+
+    @Test
+    public void testOne() {
+        bf.add("a");
+        assertTrue(bf.isPresent("a"));
+        assertFalse(bf.isPresent("b"));
+    }
+
+    @Test
+    public void testFalsePositivesInt() {
+        FilterTest.testFalsePositives(bf, FilterTest.intKeys(), FilterTest.randomKeys2());
+    }
+
+    @Test
+    public void testFalsePositivesRandom() {
+        FilterTest.testFalsePositives(bf, FilterTest.randomKeys(), FilterTest.randomKeys2());
+    }
+
+    @Test
+    public void testLongKeys() {
+        for (long key = 0; key < FilterTest.ELEMENTS; key++) {
+            bf.add(key * 31L);
+        }
+        for (long key = 0; key < FilterTest.ELEMENTS; key++) {
+            assertTrue(bf.isPresent(key * 31L));
+        }
+        int fp = 0;
+        for (long key = 0; key < FilterTest.ELEMENTS; key++) {
+            if (bf.isPresent(key * 31L + 7L)) {
+                fp++;
+            }
+        }
+        double expected = FilterTest.ELEMENTS * BloomCalculations.probs[
+                FilterTest.spec.bucketsPerElement][FilterTest.spec.K];
+        assertTrue("False positives: " + fp, fp < expected * 1.5);
+    }
+
+    @Test
+    public void testSerialize() throws IOException {
+        BloomFilter f = (BloomFilter)FilterTest.testSerialize(bf);
+        assertEquals(bf.getHashCount(), f.getHashCount());
+        assertEquals(bf.emptyBuckets(), f.emptyBuckets());
+    }
+}
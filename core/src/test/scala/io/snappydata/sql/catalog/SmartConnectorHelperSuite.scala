@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package io.snappydata.sql.catalog
+
+import scala.collection.JavaConverters._
+
+import io.snappydata.SnappyFunSuite
+
+import org.apache.spark.Partition
+import org.apache.spark.serializer.KryoSerializerPool
+import org.apache.spark.sql.collection.SmartExecutorBucketPartition
+
+class SmartConnectorHelperSuite extends SnappyFunSuite {
+
+  private val server1 = Seq("host1" -> "jdbc:snappydata://host1[1527]/")
+  private val server2 = Seq("host2" -> "jdbc:snappydata://host2[1527]/")
+
+  private def partitions(hosts: Seq[Seq[(String, String)]]): Array[Partition] =
+    hosts.zipWithIndex.map { case (hostList, bucketId) =>
+      new SmartExecutorBucketPartition(bucketId, bucketId, hostList): Partition
+    }.toArray
+
+  private def buckets(p: Partition): Set[Int] =
+    p.asInstanceOf[SmartExecutorBucketPartition].buckets.asScala.map(_.intValue()).toSet
+
+  test("club buckets hosted on the same server") {
+    val parts = partitions(Seq(server1, server2, server1, server1, server2, server1, server1))
+    assert(SmartConnectorHelper.clubBucketPartitions(parts, 1) eq parts)
+
+    val clubbed = SmartConnectorHelper.clubBucketPartitions(parts, 2)
+    assert(clubbed.map(_.index).toSeq === clubbed.indices)
+    assert(clubbed.map(buckets).toSeq === Seq(Set(0, 2), Set(3, 5), Set(6), Set(1, 4)))
+    for (p <- clubbed.map(_.asInstanceOf[SmartExecutorBucketPartition])) {
+      assert(p.numBuckets === p.buckets.size())
+      assert(p.bucketId === p.bucketsString.split(',').head.toInt)
+      assert(p.hostList === (if (p.buckets.contains(1)) server2 else server1))
+    }
+
+    // the full set of buckets is always covered
+    val all = SmartConnectorHelper.clubBucketPartitions(parts, 100)
+    assert(all.length === 2)
+    assert(all.map(buckets).reduce(_ ++ _) === parts.indices.toSet)
+  }
+
+  test("buckets without any server stay as separate partitions") {
+    val parts = partitions(Seq(server1, Nil, server1, Nil, server1))
+    val clubbed = SmartConnectorHelper.clubBucketPartitions(parts, 4)
+    assert(clubbed.map(_.index).toSeq === clubbed.indices)
+    assert(clubbed.map(buckets).toSeq === Seq(Set(1), Set(3), Set(0, 2, 4)))
+    val noHosts = clubbed.take(2).map(_.asInstanceOf[SmartExecutorBucketPartition])
+    for (p <- noHosts) {
+      assert(p.hostList.isEmpty)
+      assert(p.numBuckets === 1)
+      assert(p.bucketsString === p.bucketId.toString)
+    }
+  }
+
+  test("serialization of partitions having multiple buckets") {
+    def roundTrip(p: SmartExecutorBucketPartition): SmartExecutorBucketPartition = {
+      val bytes = KryoSerializerPool.serialize((kryo, out) => p.write(kryo, out))
+      KryoSerializerPool.deserialize(bytes, 0, bytes.length, (kryo, in) => {
+        val result = new SmartExecutorBucketPartition(0, 0, Nil)
+        result.read(kryo, in)
+        result
+      })
+    }
+
+    val multi = new SmartExecutorBucketPartition(3, Array(7, 2, 11), server1 ++ server2)
+    val multiResult = roundTrip(multi)
+    assert(multiResult.index === 3)
+    assert(multiResult.bucketId === 7)
+    assert(multiResult.numBuckets === 3)
+    assert(multiResult.bucketsString === "7,2,11")
+    assert(multiResult.hostList === server1 ++ server2)
+    assert(multiResult.toString === multi.toString)
+
+    val single = new SmartExecutorBucketPartition(5, 9, Nil)
+    val singleResult = roundTrip(single)
+    assert(singleResult.index === 5)
+    assert(singleResult.bucketId === 9)
+    assert(singleResult.numBuckets === 1)
+    assert(singleResult.bucketsString === "9")
+    assert(singleResult.hostList.isEmpty)
+  }
+}
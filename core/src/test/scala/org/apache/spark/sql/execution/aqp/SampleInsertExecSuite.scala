@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package org.apache.spark.sql.execution.aqp
+
+import io.snappydata.SnappyFunSuite
+
+import org.apache.spark.rdd.RDD
+import org.apache.spark.sql.catalyst.TableIdentifier
+import org.apache.spark.sql.catalyst.expressions.Attribute
+import org.apache.spark.sql.execution.CollapseCodegenStages
+import org.apache.spark.sql.execution.columnar.impl.BaseColumnFormatRelation
+import org.apache.spark.sql.execution.datasources.LogicalRelation
+import org.apache.spark.sql.functions.{col, concat, lit, udf}
+import org.apache.spark.sql.sources.{InsertableRelation, PlanInsertableRelation, SamplingRelation}
+import org.apache.spark.sql.types.StructType
+import org.apache.spark.sql.{DataFrame, Row, SQLContext, SparkSession}
+
+class SampleInsertExecSuite extends SnappyFunSuite {
+
+  /**
+   * Insert given source into the base table and two test sample tables through the tee
+   * checking the rows inserted into all of them. Returns the number of RDDs that were
+   * persisted when the sample tables were inserted into.
+   */
+  private def insertWithSamples(source: DataFrame, numRows: Int): Int = {
+    val session = snc.snappySession
+    val baseTable = session.table("sampleInsertBase").queryExecution.analyzed.collectFirst {
+      case l@LogicalRelation(_: PlanInsertableRelation, _, _) => l
+    }.get
+    val relation = baseTable.relation.asInstanceOf[PlanInsertableRelation]
+    val samples = Seq.fill(2)(new TestSamplingRelation(snc, relation.schema))
+
+    SparkSession.setActiveSession(session)
+    val baseTableInsert = CollapseCodegenStages(session.sessionState.conf).apply(
+      relation.getBasicInsertPlan(baseTable,
+        SampleSourceTeeExec(source.queryExecution.sparkPlan)))
+    val insert = SampleInsertExec(baseTableInsert, TableIdentifier("sampleInsertBase"),
+      samples.zipWithIndex.map(p => LogicalRelation(p._1) -> s"sample${p._2}"),
+      relation.schema)
+    val numPersisted = sc.getPersistentRDDs.size
+
+    assert(insert.executeCollect().map(_.getLong(0)).sum === numRows)
+    // the stored source rows should be removed at the end
+    assert(sc.getPersistentRDDs.size === numPersisted)
+
+    val expected = (0 until numRows).map(id => Row(id.toLong, s"data$id"))
+    assert(session.table("sampleInsertBase").collect().sortBy(_.getLong(0)).toSeq ===
+        expected)
+    for (sample <- samples) {
+      assert(sample.insertedRows.sortBy(_.getLong(0)).toSeq === expected)
+    }
+    samples.head.numPersistedAtInsert - numPersisted
+  }
+
+  test("source of insert into table with samples is evaluated once") {
+    val session = snc.snappySession
+    val numRows = 10000
+    session.sql("create table sampleInsertBase (id bigint, data varchar(20)) using row")
+    try {
+      val evaluations = sc.longAccumulator("sourceEvaluations")
+      val countEval = udf { (id: Long) => evaluations.add(1); id }
+      val source = session.range(numRows).select(countEval(col("id")).as("id"),
+        concat(lit("data"), col("id")).as("data"))
+      assert(SampleSourceTeeExec(source.queryExecution.sparkPlan).storeRows)
+
+      assert(insertWithSamples(source, numRows) === 1)
+      // source rows should have been evaluated only by the base table insert
+      assert(evaluations.value === numRows)
+    } finally {
+      session.sql("drop table sampleInsertBase")
+    }
+  }
+
+  test("cheap source of insert into table with samples is not stored") {
+    val session = snc.snappySession
+    val numRows = 1000
+    session.sql("create table sampleInsertBase (id bigint, data varchar(20)) using row")
+    try {
+      val source = session.range(numRows).select(col("id"),
+        concat(lit("data"), col("id")).as("data"))
+      assert(!SampleSourceTeeExec(source.queryExecution.sparkPlan).storeRows)
+      // non-deterministic sources have to be stored to insert the same rows in all
+      assert(SampleSourceTeeExec(session.range(numRows).selectExpr("id", "rand() as r")
+          .queryExecution.sparkPlan).storeRows)
+
+      assert(insertWithSamples(source, numRows) === 0)
+    } finally {
+      session.sql("drop table sampleInsertBase")
+    }
+  }
+}
+
+/** A [[SamplingRelation]] that only keeps the rows inserted into it. */
+final class TestSamplingRelation(override val sqlContext: SQLContext,
+    override val schema: StructType) extends SamplingRelation {
+
+  @volatile var insertedRows: Array[Row] = Array.empty
+
+  /** Number of the persisted RDDs at the time of the last insert. */
+  @volatile var numPersistedAtInsert: Int = -1
+
+  override def insert(data: DataFrame, overwrite: Boolean): Unit = {
+    numPersistedAtInsert = sqlContext.sparkContext.getPersistentRDDs.size
+    insertedRows = data.collect()
+  }
+
+  override def insertableRelation(
+      sourceSchema: Seq[Attribute]): Option[InsertableRelation] = Some(this)
+
+  override def append(rows: RDD[Row], time: Long): Unit = insertedRows ++= rows.collect()
+
+  override def samplingOptions: Map[String, Any] = Map.empty
+
+  override def qcs: Array[String] = Array.empty
+
+  override def baseTable: Option[String] = Some("sampleInsertBase")
+
+  override def baseRelation: BaseColumnFormatRelation =
+    throw new UnsupportedOperationException("no column table for test sample")
+
+  override def isPartitioned: Boolean = false
+
+  override def isReservoirAsRegion: Boolean = false
+
+  override def canBeOnBuildSide: Boolean = false
+}
@@ -1533,6 +1533,58 @@ class ColumnTableTest
       assertEquals("bb", row.getAs[String]("str"))
     }
   }
+
+  test("bloom filters in column batch statistics") {
+    val session = new SnappySession(snc.sparkContext)
+    session.sql("drop table if exists bloomTable")
+    session.sql("create table bloomTable (id int, name string, value long) using column " +
+        "options (buckets '1', column_batch_size '20k', column_max_delta_rows '1000', " +
+        "column_bloom_filters 'id, name')")
+    // only even values so that min/max statistics cannot skip any batch for the odd ones
+    session.range(20000).selectExpr("cast(id * 2 as int)", "concat('name', id * 2)", "id")
+        .write.insertInto("bloomTable")
+
+    def batchesSeenAndSkipped(query: String, expectedRows: Int): (Long, Long) = {
+      val df = session.sql(query)
+      assert(df.collect().length === expectedRows)
+      val metrics = df.queryExecution.executedPlan.collectLeaves().head.metrics
+      (metrics("columnBatchesSeen").value, metrics("columnBatchesSkipped").value)
+    }
+
+    var (seen, skipped) = batchesSeenAndSkipped(
+      "select * from bloomTable where id = 12000", 1)
+    assert(seen > 2)
+    assert(skipped >= seen - 2)
+    // odd values are absent in all batches so almost all should be skipped
+    seen = 0
+    skipped = 0
+    for (i <- 1 until 20) {
+      val (n, s) = batchesSeenAndSkipped(
+        s"select * from bloomTable where id = ${i * 2000 + 1}", 0)
+      seen += n
+      skipped += s
+    }
+    assert(skipped > seen * 9 / 10, s"skipped=$skipped seen=$seen")
+    val (seenStr, skippedStr) = batchesSeenAndSkipped(
+      "select * from bloomTable where name in ('name3', 'name1001', 'name20001')", 0)
+    assert(skippedStr >= seenStr - 2)
+    assert(session.sql("select * from bloomTable where " +
+        "name in ('name4', 'name1001', 'name20002')").collect().length === 2)
+
+    // filters should no longer be used for updated batches
+    session.sql("update bloomTable set id = 3, name = 'name3' where id = 12000")
+    assert(session.sql("select value from bloomTable where id = 3").collect() ===
+        Array(Row(6000L)))
+    assert(session.sql("select value from bloomTable where name = 'name3'").collect() ===
+        Array(Row(6000L)))
+
+    // unknown columns or unsupported types
+    intercept[AnalysisException](session.sql("create table bloomTable2 (id int, " +
+        "name string) using column options (column_bloom_filters 'id, other')"))
+    intercept[AnalysisException](session.sql("create table bloomTable2 (id int, " +
+        "value double) using column options (column_bloom_filters 'value')"))
+    session.sql("drop table bloomTable")
+  }
 }
 
 case class Record(id: Int, data: Employee)
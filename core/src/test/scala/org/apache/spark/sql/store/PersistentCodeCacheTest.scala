@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package org.apache.spark.sql.store
+
+import java.io.File
+import java.nio.file.{Files, StandardCopyOption}
+
+import scala.collection.JavaConverters._
+
+import io.snappydata.{Property, SnappyFunSuite}
+import org.codehaus.janino.{ByteArrayClassLoader, SimpleCompiler}
+import org.scalatest.BeforeAndAfter
+
+import org.apache.spark.SparkConf
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.catalyst.expressions.codegen.{CodeAndComment, CodeGenerator, GeneratedClass}
+import org.apache.spark.util.Utils
+
+class PersistentCodeCacheTest extends SnappyFunSuite with BeforeAndAfter {
+
+  private var cacheDir: File = _
+
+  private def codeCache = PersistentCodeCache.codeGeneratorCache
+
+  private def cacheConf: SparkConf = new SparkConf(loadDefaults = false)
+      .set(Property.CodeCacheDir.name, cacheDir.getAbsolutePath)
+      .set(Property.CodeCacheWarmupSize.name, "0")
+
+  private def cachedSources: Set[String] =
+    codeCache.asMap().keySet().asScala.map(_.body).toSet
+
+  private def entryFile(dir: File, source: String): File =
+    new File(dir, PersistentCodeCache.sourceHash(source) + ".code")
+
+  private def runQuery(multiplier: Int): Array[Row] =
+    snc.range(1000).selectExpr(s"id * $multiplier as v").filter("v % 2 = 0")
+        .selectExpr("sum(v)").collect()
+
+  private def runGroupByQuery(): Array[Row] =
+    snc.range(1000).selectExpr("id % 7 as k", "id as v").groupBy("k").count().collect()
+
+  before {
+    PersistentCodeCache.stop()
+    codeCache.invalidateAll()
+    cacheDir = Utils.createTempDir()
+  }
+
+  after {
+    PersistentCodeCache.stop()
+    Utils.deleteRecursively(cacheDir)
+  }
+
+  test("generated code stored and loaded back after restart") {
+    val expected = runQuery(3)
+    val sources = cachedSources
+    assert(sources.nonEmpty)
+
+    PersistentCodeCache.start(cacheConf, "v1")
+    PersistentCodeCache.save()
+    val versionDir = PersistentCodeCache.currentDirectory
+    assert(versionDir ne null)
+    for (source <- sources) assert(entryFile(versionDir, source).isFile)
+    PersistentCodeCache.stop()
+
+    // simulate restart of the node
+    codeCache.invalidateAll()
+    PersistentCodeCache.start(cacheConf, "v1")
+    assert(PersistentCodeCache.currentDirectory === versionDir)
+    assert(PersistentCodeCache.warmUp(Int.MaxValue) === sources.size)
+    assert(cachedSources === sources)
+    codeCache.asMap().values().asScala.foreach(c =>
+      assert(c.getClass.getClassLoader.isInstanceOf[ByteArrayClassLoader]))
+    // the loaded classes should be used by the query without compilation
+    assert(runQuery(3) === expected)
+    assert(cachedSources === sources)
+  }
+
+  test("entries of another version or having mismatched source are rejected") {
+    runQuery(5)
+    val sources = cachedSources.toSeq
+    assert(sources.nonEmpty)
+
+    PersistentCodeCache.start(cacheConf, "v1")
+    val v1Dir = PersistentCodeCache.currentDirectory
+    PersistentCodeCache.stop()
+    for (source <- sources) assert(entryFile(v1Dir, source).isFile)
+
+    // a different product or Spark version should not see the entries of v1
+    codeCache.invalidateAll()
+    PersistentCodeCache.start(cacheConf, "v2")
+    val v2Dir = PersistentCodeCache.currentDirectory
+    assert(v2Dir !== v1Dir)
+    assert(PersistentCodeCache.warmUp(Int.MaxValue) === 0)
+    assert(codeCache.size() === 0)
+    PersistentCodeCache.stop()
+    for (source <- sources) assert(entryFile(v1Dir, source).isFile)
+
+    // an entry whose source does not match its name should be removed
+    if (sources.length > 1) {
+      Files.copy(entryFile(v1Dir, sources.head).toPath, entryFile(v1Dir, sources(1)).toPath,
+        StandardCopyOption.REPLACE_EXISTING)
+      codeCache.invalidateAll()
+      PersistentCodeCache.start(cacheConf, "v1")
+      assert(PersistentCodeCache.warmUp(Int.MaxValue) === sources.length - 1)
+      assert(!cachedSources.contains(sources(1)))
+      assert(!entryFile(v1Dir, sources(1)).exists())
+    }
+  }
+
+  test("classes that cannot be stored are skipped") {
+    val source = "class NotCompiledByJanino {}"
+    val clazz = new GeneratedClass {
+      override def generate(references: Array[Any]): Any = null
+    }
+    codeCache.put(new CodeAndComment(source, Map.empty), clazz)
+
+    PersistentCodeCache.start(cacheConf, "v1")
+    val versionDir = PersistentCodeCache.currentDirectory
+    PersistentCodeCache.save()
+    assert(!entryFile(versionDir, source).exists())
+    PersistentCodeCache.save()
+    PersistentCodeCache.stop()
+    assert(!entryFile(versionDir, source).exists())
+    val usage = Files.readAllLines(new File(versionDir, "usage").toPath).asScala
+    assert(!usage.exists(_.startsWith(PersistentCodeCache.sourceHash(source))))
+
+    codeCache.invalidateAll()
+    PersistentCodeCache.start(cacheConf, "v1")
+    assert(PersistentCodeCache.warmUp(Int.MaxValue) === 0)
+  }
+
+  test("classes referring to the classes of user jars are not stored") {
+    // compile against a class loader like the one having the user jars
+    val userJar = new SimpleCompiler()
+    userJar.cook("public class UserJarClass { public long value() { return 1L; } }")
+    val source = "public Object generate(Object[] references) { " +
+        "return new Long(new UserJarClass().value()); }"
+    val thread = Thread.currentThread()
+    val contextLoader = thread.getContextClassLoader
+    thread.setContextClassLoader(userJar.getClassLoader)
+    val clazz = try {
+      CodeGenerator.compile(new CodeAndComment(source, Map.empty))
+    } finally {
+      thread.setContextClassLoader(contextLoader)
+    }
+    assert(clazz.generate(Array.empty) === 1L)
+    runQuery(11)
+    val sources = cachedSources - source
+    assert(sources.nonEmpty)
+
+    PersistentCodeCache.start(cacheConf, "v1")
+    val versionDir = PersistentCodeCache.currentDirectory
+    PersistentCodeCache.save()
+    PersistentCodeCache.stop()
+    assert(!entryFile(versionDir, source).exists())
+    for (s <- sources) assert(entryFile(versionDir, s).isFile)
+
+    codeCache.invalidateAll()
+    PersistentCodeCache.start(cacheConf, "v1")
+    assert(PersistentCodeCache.warmUp(Int.MaxValue) === sources.size)
+    assert(cachedSources === sources)
+  }
+
+  test("warm-up loads the most used classes") {
+    runQuery(7)
+    val mostUsed = cachedSources
+    PersistentCodeCache.start(cacheConf, "v1")
+    PersistentCodeCache.save()
+    runGroupByQuery()
+    val lessUsed = cachedSources -- mostUsed
+    assert(lessUsed.nonEmpty)
+    PersistentCodeCache.save()
+    PersistentCodeCache.stop()
+
+    codeCache.invalidateAll()
+    PersistentCodeCache.start(cacheConf, "v1")
+    assert(PersistentCodeCache.warmUp(mostUsed.size) === mostUsed.size)
+    assert(cachedSources === mostUsed)
+
+    // warm-up at the startup of the node loads in the background
+    PersistentCodeCache.stop()
+    codeCache.invalidateAll()
+    PersistentCodeCache.start(cacheConf.set(Property.CodeCacheWarmupSize.name, "100"), "v1")
+    val loaded = mostUsed ++ lessUsed
+    var waited = 0
+    while (cachedSources != loaded && waited < 30000) {
+      Thread.sleep(100)
+      waited += 100
+    }
+    assert(cachedSources === loaded)
+  }
+}
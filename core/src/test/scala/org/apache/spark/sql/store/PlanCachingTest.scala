@@ -16,12 +16,15 @@
  */
 package org.apache.spark.sql.store
 
+import com.gemstone.gemfire.internal.shared.Version
+import com.gemstone.gemfire.internal.{ByteArrayDataInput, HeapDataOutputStream}
 import io.snappydata.Property.PlanCaching
 import io.snappydata.SnappyFunSuite
 import org.scalatest.{BeforeAndAfter, BeforeAndAfterAll}
 
-import org.apache.spark.Logging
-import org.apache.spark.sql.SnappySession
+import org.apache.spark.sql.execution.aggregate.CollectAggregateExec
+import org.apache.spark.sql.{AggregatePartialDataIterator, CachedDataFrame, SnappySession}
+import org.apache.spark.{Logging, SparkEnv}
 
 class PlanCachingTest extends SnappyFunSuite
     with Logging
@@ -39,6 +42,12 @@ class PlanCachingTest extends SnappyFunSuite
   override def afterAll(): Unit = {
     PlanCaching.set(snc.sessionState.conf, planCaching)
     snc.sql("drop table if exists tcol")
+    snc.sql("drop table if exists tagg")
+    snc.sql("drop table if exists tshared")
+    snc.sql("drop table if exists tfingerprint")
+    snc.sql("drop view if exists vscoped2")
+    snc.sql("drop table if exists tscoped1")
+    snc.sql("drop table if exists tscoped2")
     super.afterAll()
   }
 
@@ -62,4 +71,215 @@ class PlanCachingTest extends SnappyFunSuite
 
     assert(cacheMap.size() == 2)
   }
+
+  test("final merge of top-level aggregate shipped with partial results") {
+    val session = snc.snappySession
+    session.sql("create table tagg(id int, val long) using column options (buckets '4')")
+    session.range(1000).selectExpr("cast(id as int)", "id * 2").write.insertInto("tagg")
+    val cacheMap = SnappySession.getPlanCache.asMap()
+    cacheMap.clear()
+
+    // partial results written by lead and merged as done on the server node
+    def mergeShipped(query: String): (Long, Long) = {
+      val df = session.sql(query).asInstanceOf[CachedDataFrame]
+      val bm = SparkEnv.get.blockManager
+      val results = df.collectWithHandler(CachedDataFrame,
+        CachedDataFrame.localBlockStoreResultHandler(df.rddId, bm),
+        CachedDataFrame.localBlockStoreDecoder(df.schema.length, bm),
+        skipLocalCollectProcessing = true)
+      assert(results.isInstanceOf[AggregatePartialDataIterator])
+      val out = new HeapDataOutputStream(Version.CURRENT)
+      results.asInstanceOf[AggregatePartialDataIterator].writeTo(out, bm)
+      val bytes = out.toByteArray
+      val input = new ByteArrayDataInput
+      input.initialize(bytes, 0, bytes.length, null)
+      assert(CollectAggregateExec.isPartialResults(input))
+      val rows = CollectAggregateExec.mergePartialResults(input).map(r =>
+        r.getLong(0) -> r.getLong(1)).toList
+      assert(rows.length === 1)
+      rows.head
+    }
+
+    assert(mergeShipped("select sum(val), count(*) from tagg where id < 500") === 249500L -> 500L)
+    // cached plan with different literal value should ship its current value
+    assert(mergeShipped("select sum(val), count(*) from tagg where id < 100") === 9900L -> 100L)
+    assert(cacheMap.size() === 1)
+    assert(mergeShipped("select sum(val), count(*) from tagg where id < 500") === 249500L -> 500L)
+  }
+
+  test("cached plans shared across sessions") {
+    snc.sql("create table tshared(id int, val long) using column options (buckets '4')")
+    snc.range(1000).selectExpr("cast(id as int)", "id * 2").write.insertInto("tshared")
+    val session1 = new SnappySession(snc.sparkContext)
+    val session2 = new SnappySession(snc.sparkContext)
+    PlanCaching.set(session1.sessionState.conf, true)
+    PlanCaching.set(session2.sessionState.conf, true)
+    val cacheMap = SnappySession.getPlanCache.asMap()
+    cacheMap.clear()
+    val stats = SnappySession.getPlanCacheStats
+
+    def count(session: SnappySession, query: String): Long =
+      session.sql(query).collect().head.getLong(0)
+
+    assert(count(session1, "select count(*) from tshared where id < 10") === 10)
+    assert(count(session2, "select count(*) from tshared where id < 20") === 20)
+    assert(count(session1, "select count(*) from tshared where id < 30") === 30)
+    assert(cacheMap.size() === 1)
+    val newStats = SnappySession.getPlanCacheStats
+    assert(newStats.misses - stats.misses === 1)
+    assert(newStats.hits - stats.hits === 2)
+    assert(newStats.sharedHits - stats.sharedHits === 1)
+
+    // plans on temporary views of a session are not shared
+    session1.sql("create temporary view vshared as select * from tshared where id < 100")
+    session2.sql("create temporary view vshared as select * from tshared where id >= 900")
+    cacheMap.clear()
+    assert(count(session1, "select count(*) from vshared where id > 50") === 49)
+    assert(count(session2, "select count(*) from vshared where id > 50") === 100)
+    assert(count(session1, "select count(*) from vshared where id > 90") === 9)
+    assert(count(session2, "select count(*) from vshared where id > 990") === 9)
+
+    // no sharing with a session having different configuration
+    session2.sql("set snappydata.sql.hashJoinSize=1m")
+    cacheMap.clear()
+    assert(count(session1, "select count(*) from tshared where id < 10") === 10)
+    assert(count(session2, "select count(*) from tshared where id < 20") === 20)
+    assert(cacheMap.size() === 2)
+
+    // no sharing with a session having different properties with the same hash
+    session2.conf.unset("snappydata.sql.hashJoinSize")
+    assert("Aa".hashCode === "BB".hashCode)
+    session1.sql("set spark.test.planConf=Aa")
+    session2.sql("set spark.test.planConf=BB")
+    cacheMap.clear()
+    val sharedHits = SnappySession.getPlanCacheStats.sharedHits
+    assert(count(session1, "select count(*) from tshared where id < 10") === 10)
+    assert(count(session2, "select count(*) from tshared where id < 20") === 20)
+    assert(cacheMap.size() === 2)
+    assert(SnappySession.getPlanCacheStats.sharedHits === sharedHits)
+
+    // concurrent executions of a shared plan with different literals in each session
+    session1.conf.unset("spark.test.planConf")
+    session2.conf.unset("spark.test.planConf")
+    cacheMap.clear()
+    val sessions = Seq(session1, session2) ++ (1 to 2).map { _ =>
+      val session = new SnappySession(snc.sparkContext)
+      PlanCaching.set(session.sessionState.conf, true)
+      session
+    }
+    val failures = new java.util.concurrent.ConcurrentLinkedQueue[String]()
+    val threads = sessions.zipWithIndex.map { case (session, i) =>
+      new Thread(new Runnable {
+        override def run(): Unit = {
+          for (j <- 1 to 50) {
+            val limit = (i + 1) * 100 + j
+            val result = count(session, s"select count(*) from tshared where id < $limit")
+            if (result != limit) failures.add(s"session$i: expected $limit, got $result")
+          }
+        }
+      })
+    }
+    threads.foreach(_.start())
+    threads.foreach(_.join())
+    assert(failures.isEmpty, failures.toString)
+    assert(cacheMap.size() === 1)
+
+    sessions.foreach(_.clear())
+  }
+
+  test("cached plans found without parsing") {
+    val session = snc.snappySession
+    session.sql("create table tfingerprint(id int, name string) using column " +
+        "options (buckets '4')")
+    session.range(100).selectExpr("cast(id as int)", "concat('name', id)")
+        .write.insertInto("tfingerprint")
+    SnappySession.getPlanCache.asMap().clear()
+
+    def count(query: String): Long = session.sql(query).collect().head.getLong(0)
+
+    def unparsedHits: Long = SnappySession.getPlanCacheStats.unparsedHits
+
+    var hits = unparsedHits
+    assert(count("select count(*) from tfingerprint where id < 10 and name <> 'name1'") === 9)
+    assert(unparsedHits === hits)
+    assert(count("select  count(*) from tfingerprint\n where id < 20 and " +
+        "name <> 'name15'") === 19)
+    assert(unparsedHits === hits + 1)
+    assert(count("select count(*) from tfingerprint where id < 5 and name <> 'it''s'") === 5)
+    assert(unparsedHits === hits + 2)
+
+    // equal values need to be parsed since those can change the plan
+    hits = unparsedHits
+    assert(count("select count(*) from tfingerprint where id < 30 and id > 30") === 0)
+    assert(count("select count(*) from tfingerprint where id < 30 and id > 20") === 9)
+    assert(count("select count(*) from tfingerprint where id < 40 and id > 25") === 14)
+    assert(count("select count(*) from tfingerprint where id < 30 and id > 30") === 0)
+    assert(unparsedHits === hits + 1)
+
+    // LIKE patterns and signed literals are always parsed
+    hits = unparsedHits
+    assert(count("select count(*) from tfingerprint where name like 'name1%'") === 11)
+    assert(count("select count(*) from tfingerprint where name like 'name2'") === 1)
+    assert(count("select count(*) from tfingerprint where id > -1") === 100)
+    assert(count("select count(*) from tfingerprint where id > -50") === 100)
+    assert(unparsedHits === hits)
+
+    // fingerprints are not matched across sessions with properties of the same hash
+    val session1 = new SnappySession(snc.sparkContext)
+    val session2 = new SnappySession(snc.sparkContext)
+    PlanCaching.set(session1.sessionState.conf, true)
+    PlanCaching.set(session2.sessionState.conf, true)
+    session1.sql("set spark.test.planConf=Aa")
+    session2.sql("set spark.test.planConf=BB")
+    hits = unparsedHits
+    assert(session1.sql("select count(*) from tfingerprint where id < 10")
+        .collect().head.getLong(0) === 10)
+    assert(session2.sql("select count(*) from tfingerprint where id < 20")
+        .collect().head.getLong(0) === 20)
+    assert(unparsedHits === hits)
+    assert(session1.sql("select count(*) from tfingerprint where id < 30")
+        .collect().head.getLong(0) === 30)
+    assert(unparsedHits === hits + 1)
+    session1.clear()
+    session2.clear()
+  }
+
+  test("cached plans removed only for the changed relations") {
+    val session = snc.snappySession
+    session.sql("create table tscoped1(id int, name string) using column " +
+        "options (buckets '4')")
+    session.sql("create table tscoped2(id int, name string) using row")
+    session.sql("create view vscoped2 as select * from tscoped2 where id > 0")
+    session.sql("insert into tscoped1 values (1, 'name1'), (2, 'name2')")
+    session.sql("insert into tscoped2 values (1, 'name1'), (2, 'name2')")
+    val cacheMap = SnappySession.getPlanCache.asMap()
+    cacheMap.clear()
+
+    def count(query: String): Long = session.sql(query).collect().head.getLong(0)
+
+    def hits: Long = SnappySession.getPlanCacheStats.hits
+
+    assert(count("select count(*) from tscoped1 where id < 10") === 2)
+    assert(count("select count(*) from vscoped2 where id < 10") === 2)
+    assert(cacheMap.size() === 2)
+
+    // DDL on an unrelated table keeps the cached plans
+    session.sql("create table tscoped3(id int) using row")
+    session.sql("alter table tscoped3 add column name varchar(10)")
+    session.sql("drop table tscoped3")
+    assert(cacheMap.size() === 2)
+    val prevHits = hits
+    assert(count("select count(*) from tscoped1 where id < 2") === 1)
+    assert(count("select count(*) from vscoped2 where id < 2") === 1)
+    assert(hits === prevHits + 2)
+
+    // change to the table under a view removes the plans on the view
+    session.sql("alter table tscoped2 add column age int")
+    assert(cacheMap.size() === 1)
+    assert(count("select count(*) from tscoped1 where id < 10") === 2)
+    assert(hits === prevHits + 3)
+    assert(count("select count(*) from vscoped2 where id < 10") === 2)
+    assert(hits === prevHits + 3)
+    assert(cacheMap.size() === 2)
+  }
 }
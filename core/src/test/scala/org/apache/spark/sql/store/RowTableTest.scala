@@ -20,11 +20,12 @@ import java.sql.SQLException
 
 import scala.util.{Failure, Success, Try}
 
-import io.snappydata.SnappyFunSuite
+import io.snappydata.{Property, QueryHint, SnappyFunSuite}
 import io.snappydata.core.{Data, TRIPDATA}
 import org.scalatest.{BeforeAndAfter, BeforeAndAfterAll}
 
 import org.apache.spark.sql._
+import org.apache.spark.sql.execution.row.{RowFormatScanRDD, RowTableScan}
 import org.apache.spark.sql.snappy._
 import org.apache.spark.sql.types.{DateType, FloatType, IntegerType, StringType, StructField, StructType, TimestampType}
 
@@ -933,6 +934,182 @@ class RowTableTest
     assert(cnt == 100, s"Expected count is 100 but actual count is $cnt")
   }
 
+  test("filters on partitioned row table evaluated on bucket scan") {
+    val session = this.snc.snappySession
+    session.sql("create table rowFilter1 (id int not null primary key, " +
+        "name varchar(20), code varchar(20), price decimal(10, 2), ts timestamp) " +
+        "using row options (partition_by 'id', buckets '8')")
+    session.sql("create index rowFilter1_name on rowFilter1 (name)")
+    session.sql("insert into rowFilter1 select id, concat('name', cast(id % 100 as string)), " +
+        "concat('code', cast(id % 100 as string)), cast(id / 10 as decimal(10, 2)), " +
+        "cast(null as timestamp) from range(10000)")
+    session.sql("insert into rowFilter1 values (10000, null, null, null, null)")
+
+    /** Returns the index/primary key filters of the query and the generated predicate ones. */
+    def scanFilters(df: DataFrame): (Seq[String], Seq[String]) = {
+      val plan = df.queryExecution.executedPlan
+      val rdd = plan.collectFirst {
+        case s: RowTableScan => s.dataRDD.asInstanceOf[RowFormatScanRDD]
+      }.getOrElse(fail(s"No row table scan in $plan"))
+      rdd.filters.map(_.sql).toSeq -> rdd.predicateFilters.map(_.sql).toSeq
+    }
+
+    // filters on the columns without any index are applied on the bucket scan
+    val predicateQueries = Seq(
+      "select count(*) from rowFilter1 where code = 'code7'" -> 100L,
+      "select count(*) from rowFilter1 where code like 'code7%'" -> 1100L,
+      "select count(*) from rowFilter1 where price < 100.5" -> 1005L,
+      "select count(*) from rowFilter1 where 100.5 >= price" -> 1006L,
+      "select count(*) from rowFilter1 where price > 990" -> 99L,
+      "select count(*) from rowFilter1 where code in ('code1', 'code2', null)" -> 200L,
+      "select count(*) from rowFilter1 where code in ('code1', 'code2', 'code3', 'code4', " +
+          "'code5', 'code6', 'code7', 'code8', 'code9', 'code10', 'code11', 'code12')" -> 1200L,
+      "select count(*) from rowFilter1 where code = 'code7' and price < 500" -> 50L)
+    // filters on the index or primary key use the query on the store
+    val indexQueries = Seq(
+      "select count(*) from rowFilter1 where name = 'name7'" -> 100L,
+      "select count(*) from rowFilter1 where name = 'name7' and price < 500" -> 50L,
+      "select count(*) from rowFilter1 where name in ('name1', 'name2') and code = 'code1'" ->
+          100L,
+      "select count(*) from rowFilter1 where id = 777" -> 1L)
+    try {
+      for ((query, expected) <- predicateQueries; codegen <- Seq(true, false)) {
+        session.conf.set(Property.RowScanFilterCodegen.name, codegen.toString)
+        val df = session.sql(query)
+        val (indexFilters, predicateFilters) = scanFilters(df)
+        assert(indexFilters.isEmpty, query)
+        assert(predicateFilters.nonEmpty === codegen, query)
+        assert(df.collect()(0).getLong(0) === expected, query)
+      }
+      session.conf.unset(Property.RowScanFilterCodegen.name)
+      for ((query, expected) <- indexQueries) {
+        val df = session.sql(query)
+        val (indexFilters, predicateFilters) = scanFilters(df)
+        assert(indexFilters.nonEmpty, query)
+        assert(predicateFilters.isEmpty, query)
+        assert(df.collect()(0).getLong(0) === expected, query)
+      }
+    } finally {
+      session.conf.unset(Property.RowScanFilterCodegen.name)
+      session.sql("drop table rowFilter1")
+    }
+  }
+
+  test("index scans on row table chosen by the planner") {
+    val session = this.snc.snappySession
+    session.sql("create table rowIndex1 (id int not null primary key, " +
+        "code int not null, name varchar(20)) " +
+        "using row options (partition_by 'id', buckets '8')")
+    session.sql("create index rowIndex1_code on rowIndex1 (code)")
+    session.sql("create index rowIndex1_name on rowIndex1 (name)")
+    session.sql("insert into rowIndex1 select id, id % 1000, " +
+        "concat('name', cast(id as string)) from range(10000)")
+
+    def checkPlan(query: String, indexScan: Boolean): Array[Row] = {
+      val df = session.sql(query)
+      val plan = df.queryExecution.executedPlan.treeString
+      assert(plan.contains("RowTableIndexScan") === indexScan, plan)
+      df.collect()
+    }
+
+    val selective = "select id, name from rowIndex1 where code = 7"
+    val range = "select count(*) from rowIndex1 where code >= 100 and code < 200"
+    val ordered = "select code, id from rowIndex1 order by code limit 25"
+    try {
+      val selectiveResult = checkPlan(selective, indexScan = true)
+      assert(selectiveResult.map(_.getInt(0)).sorted === (7 until 10000 by 1000).toArray)
+      // only the scans for ordering are forced on the index and are ordered
+      val selectivePlan = session.sql(selective).queryExecution.executedPlan
+      assert(selectivePlan.collectFirst { case s: RowTableScan => s }.get
+          .outputOrdering.isEmpty, selectivePlan.treeString)
+      // a closed range is estimated to be as selective as a single range bound
+      assert(checkPlan(range, indexScan = false)(0).getLong(0) === 1000L)
+      val orderedResult = checkPlan(ordered, indexScan = true)
+      assert(orderedResult.map(_.getInt(0)) === Array.fill(10)(0) ++
+          Array.fill(10)(1) ++ Array.fill(5)(2))
+      val orderedPlan = session.sql(ordered).queryExecution.executedPlan
+      assert(orderedPlan.collectFirst { case s: RowTableScan => s }.get
+          .outputOrdering.nonEmpty, orderedPlan.treeString)
+
+      // selective filters on another index are preferred over the index for ordering
+      val otherIndex = session.sql("select code, id from rowIndex1 " +
+          "where name = 'name1007' order by code limit 5")
+      val otherPlan = otherIndex.queryExecution.executedPlan
+      assert(otherPlan.collectFirst { case s: RowTableScan => s }.get
+          .outputOrdering.isEmpty, otherPlan.treeString)
+      assert(otherIndex.collect() === Array(Row(7, 1007)))
+
+      // a non-selective filter should use a full scan
+      checkPlan("select count(*) from rowIndex1 where code > 10", indexScan = false)
+      // unless the estimate of a closed range is within the limit
+      session.conf.set(Property.RowIndexScanSelectivity.name, "0.25")
+      assert(checkPlan(range, indexScan = true)(0).getLong(0) === 1000L)
+
+      // results should be the same without index scans for filters
+      session.conf.set(Property.RowIndexScanSelectivity.name, "0")
+      assert(checkPlan(selective, indexScan = false).sortBy(_.getInt(0)) ===
+          selectiveResult.sortBy(_.getInt(0)))
+      assert(checkPlan(range, indexScan = false)(0).getLong(0) === 1000L)
+      assert(checkPlan(ordered, indexScan = true).map(_.getInt(0)) ===
+          orderedResult.map(_.getInt(0)))
+    } finally {
+      session.conf.unset(Property.RowIndexScanSelectivity.name)
+      session.sql("drop table rowIndex1")
+    }
+  }
+
+  test("index scans on row tables for sort merge join") {
+    val session = this.snc.snappySession
+    for (t <- Seq("rowJoin1", "rowJoin2")) {
+      session.sql(s"create table $t (id int not null primary key, " +
+          "code int not null, name varchar(20)) " +
+          "using row options (partition_by 'code', buckets '8')")
+      session.sql(s"create index ${t}_code on $t (code)")
+    }
+    session.sql("create table rowJoin3 (id int not null primary key, " +
+        "code int not null, name varchar(20)) " +
+        "using row options (partition_by 'id', buckets '8')")
+    session.sql("create index rowJoin3_code on rowJoin3 (code)")
+    for (t <- Seq("rowJoin1", "rowJoin2", "rowJoin3")) {
+      session.sql(s"insert into $t select id, id % 500, " +
+          "concat('name', cast(id as string)) from range(5000)")
+    }
+
+    def checkPlan(query: String, numIndexScans: Int): Array[Row] = {
+      val df = session.sql(query)
+      val plan = df.queryExecution.executedPlan
+      val nodes = plan.collect { case p => p.nodeName }
+      assert(nodes.contains("SortMergeJoin"), plan.treeString)
+      assert(nodes.count(_ == "RowTableIndexScan") === numIndexScans, plan.treeString)
+      if (numIndexScans == 2) {
+        // neither exchange nor sort should be required on the index scans
+        assert(!nodes.exists(n => n == "Exchange" || n.endsWith("Sort")), plan.treeString)
+      }
+      df.collect()
+    }
+
+    def joinQuery(t1: String, t2: String): String =
+      s"select t1.id, t2.id from $t1 t1 join $t2 t2 /*+ ${QueryHint.JoinType}(sort) */ " +
+          "on t1.code = t2.code where t1.id < 1000"
+
+    val expected = (for (id1 <- 0 until 1000; id2 <- (id1 % 500) until 5000 by 500)
+      yield (id1, id2)).sorted
+    try {
+      // tables partitioned on the join key can use the ordering of index scans
+      val collocated = checkPlan(joinQuery("rowJoin1", "rowJoin2"), numIndexScans = 2)
+      assert(collocated.map(r => r.getInt(0) -> r.getInt(1)).sorted.toSeq === expected)
+
+      // index scan of a table not partitioned on the join key would be shuffled
+      // and sorted again so should not be used
+      val shuffled = checkPlan(joinQuery("rowJoin1", "rowJoin3"), numIndexScans = 1)
+      assert(shuffled.map(r => r.getInt(0) -> r.getInt(1)).sorted.toSeq === expected)
+      val shuffled2 = checkPlan(joinQuery("rowJoin3", "rowJoin2"), numIndexScans = 1)
+      assert(shuffled2.map(r => r.getInt(0) -> r.getInt(1)).sorted.toSeq === expected)
+    } finally {
+      for (t <- Seq("rowJoin1", "rowJoin2", "rowJoin3")) session.sql(s"drop table $t")
+    }
+  }
+
   test("create table without explicit schema (SNAP-2047)") {
     val hfile = getClass.getResource("/2015.parquet").getPath
     val session = this.snc
@@ -359,6 +359,52 @@ class SnappyStoreSinkProviderSuite extends SnappyFunSuite
     assertData(Array(Row(1, "name1", 1, "lname1")))
   }
 
+  test("single pass, _eventType column: present, table type: row") {
+    val testId = testIdGenerator.getAndIncrement()
+    createTable()(isRowTable = true)
+    val topic = getTopic(testId)
+    kafkaTestUtils.createTopic(topic, partitions = 1)
+
+    val dataBatch1 = Seq(Seq(1, "name1", 20, "lname1", 0), Seq(2, "name2", 10, "lname2", 0))
+    kafkaTestUtils.sendMessages(topic, dataBatch1.map(r => r.mkString(",")).toArray, Some(0))
+
+    val streamingQuery = createAndStartStreamingQuery(topic, testId,
+      options = Map("singlePass" -> "true"))
+    waitTillTheBatchIsPickedForProcessing(0, testId)
+
+    // events are applied in the order of arrival so insert followed by delete removes the row
+    val dataBatch2 = Seq(Seq(1, "name11", 30, "lname1", 1), Seq(2, "name2", 13, "lname2", 2),
+      Seq(3, "name3", 30, "lname3", 0), Seq(4, "name4", 10, "lname4", 0),
+      Seq(4, "name4", 10, "lname4", 2))
+    kafkaTestUtils.sendMessages(topic, dataBatch2.map(r => r.mkString(",")).toArray, Some(0))
+    streamingQuery.processAllAvailable()
+    streamingQuery.stop()
+    assertData(Array(Row(1, "name11", 30, "lname1"), Row(3, "name3", 30, "lname3")))
+  }
+
+  test("single pass with conflation, table type: row and column") {
+    for (isRowTable <- Seq(true, false)) {
+      val testId = testIdGenerator.getAndIncrement()
+      createTable()(isRowTable)
+      val topic = getTopic(testId)
+      kafkaTestUtils.createTopic(topic, partitions = 1)
+
+      kafkaTestUtils.sendMessages(topic, (0 to 999)
+          .map(i => s"1,name$i,$i,lname1,${i % 3}").toArray, Some(0))
+      kafkaTestUtils.sendMessages(topic, Array("2,name2,2,lname2,2", "2,name2,2,lname2,0",
+        "3,name3,3,lname3,0", "3,name3,3,lname3,2"), Some(0))
+
+      val streamingQuery = createAndStartStreamingQuery(topic, testId,
+        options = Map("conflation" -> "true", "singlePass" -> "true"))
+
+      streamingQuery.processAllAvailable()
+      streamingQuery.stop()
+      assertData(Array(Row(1, "name999", 999, "lname1"), Row(2, "name2", 2, "lname2")))
+      session.sql(s"drop table $tableName")
+      Path(checkpointDirectory).deleteRecursively()
+    }
+  }
+
   test("queryName not specified") {
     val testId = testIdGenerator.getAndIncrement()
     createTable()()
@@ -25,8 +25,9 @@ import org.scalatest.concurrent.Eventually
 import org.scalatest.{BeforeAndAfter, BeforeAndAfterAll}
 
 import org.apache.spark.rdd.RDD
-import org.apache.spark.sql.types.{IntegerType, StringType, StructField, StructType}
-import org.apache.spark.sql.{Row, SnappyContext}
+import org.apache.spark.sql.catalyst.TableIdentifier
+import org.apache.spark.sql.types.{DecimalType, IntegerType, StringType, StructField, StructType}
+import org.apache.spark.sql.{AnalysisException, Row, SnappyContext}
 import org.apache.spark.streaming.{Duration, Seconds, SnappyStreamingContext}
 
 class SnappyStreamingAPISuite extends SnappyFunSuite with Eventually
@@ -249,6 +250,108 @@ class SnappyStreamingAPISuite extends SnappyFunSuite with Eventually
     ssnc.start()
     ssnc.awaitTerminationOrTimeout(3000)
   }
+
+  test("stream views maintaining aggregates") {
+    val queue = new scala.collection.mutable.Queue[RDD[Row]]
+    for (_ <- 1 to 12) {
+      queue.enqueue(sc.parallelize(1 to 10).map(i =>
+        Row(i % 2, i, new java.math.BigDecimal(i).multiply(new java.math.BigDecimal("1.5")),
+          new java.math.BigDecimal(i))))
+    }
+    val schema = StructType(Seq(StructField("grp", IntegerType, nullable = false),
+      StructField("value", IntegerType, nullable = false),
+      StructField("amount", DecimalType(8, 2), nullable = false),
+      StructField("wide", DecimalType(20, 18), nullable = false)))
+    ssnc.createSchemaDStream(ssnc.queueStream[Row](queue), schema)
+        .registerAsTable("valueStream")
+
+    ssnc.sql("create stream view totalView as select grp, count(*) as cnt, " +
+        "sum(value) as total, min(value) as low, avg(value) as average, " +
+        "sum(amount) as amountTotal, avg(amount) as amountAverage " +
+        "from valueStream group by grp")
+    ssnc.sql("create stream view slidingView using column as select grp, " +
+        "count(*) as cnt, sum(value) as total from valueStream " +
+        "window (duration 2 seconds, slide 1 seconds) group by grp")
+    // MIN/MAX cannot be retracted from a sliding window
+    intercept[AnalysisException](ssnc.sql("create stream view minView as " +
+        "select grp, min(value) as low from valueStream " +
+        "window (duration 2 seconds, slide 1 seconds) group by grp"))
+    // decimal sums are limited to the precision of a long
+    intercept[AnalysisException](ssnc.sql("create stream view wideView as " +
+        "select grp, sum(wide) as total from valueStream group by grp"))
+
+    ssnc.start()
+    eventually(timeout(100000.milliseconds), interval(1000.milliseconds)) {
+      val totals = ssnc.sql("select * from totalView order by grp").collect()
+      assert(totals === Array(
+        Row(0, 60L, 360L, 2, 6.0, new java.math.BigDecimal("540.00"),
+          new java.math.BigDecimal("9.000000")),
+        Row(1, 60L, 300L, 1, 5.0, new java.math.BigDecimal("450.00"),
+          new java.math.BigDecimal("7.500000"))))
+    }
+    // groups are deleted once the batches fall out of the window
+    eventually(timeout(100000.milliseconds), interval(1000.milliseconds)) {
+      assert(ssnc.sql("select * from slidingView").count() === 0)
+    }
+    ssnc.stop(stopSparkContext = false)
+
+    snc.dropTable("totalView", ifExists = true)
+    snc.dropTable("slidingView", ifExists = true)
+  }
+
+  test("stream view tables left after a restart") {
+    val schema = StructType(Seq(StructField("grp", IntegerType, nullable = false),
+      StructField("value", IntegerType, nullable = false)))
+    def registerStream(name: String, numBatches: Int): Unit = {
+      val queue = new scala.collection.mutable.Queue[RDD[Row]]
+      for (_ <- 1 to numBatches) {
+        queue.enqueue(sc.parallelize(1 to 10).map(i => Row(i % 2, i)))
+      }
+      ssnc.createSchemaDStream(ssnc.queueStream[Row](queue), schema).registerAsTable(name)
+    }
+
+    registerStream("firstStream", 2)
+    ssnc.sql("create stream view countView as select grp, count(*) as cnt " +
+        "from firstStream group by grp")
+    ssnc.start()
+    eventually(timeout(100000.milliseconds), interval(1000.milliseconds)) {
+      assert(ssnc.sql("select * from countView order by grp").collect() ===
+          Array(Row(0, 10L), Row(1, 10L)))
+    }
+    // the table is retained without the view
+    ssnc.stop(stopSparkContext = false)
+    assert(snc.sql("select * from countView").count() === 2)
+
+    ssnc = SnappyStreamingContext.getActiveOrCreate(creatingFunc)
+    registerStream("secondStream", 1)
+    intercept[AnalysisException](ssnc.sql("create stream view countView as " +
+        "select grp, count(*) as cnt from secondStream group by grp"))
+    intercept[AnalysisException](ssnc.sql("create stream view if not exists countView as " +
+        "select grp, sum(value) as total from secondStream group by grp"))
+    // the view is attached again to its emptied table
+    ssnc.sql("create stream view if not exists countView as " +
+        "select grp, count(*) as cnt from secondStream group by grp")
+    assert(snc.sql("select * from countView").count() === 0)
+
+    // tables not created by a stream view are neither used nor dropped
+    snc.sql("create table plainTable (grp int, cnt bigint) using row")
+    intercept[AnalysisException](ssnc.sql("create stream view if not exists plainTable " +
+        "as select grp, count(*) as cnt from secondStream group by grp"))
+    intercept[AnalysisException](ssnc.sql("drop stream view plainTable"))
+    snc.dropTable("plainTable")
+
+    ssnc.start()
+    eventually(timeout(100000.milliseconds), interval(1000.milliseconds)) {
+      assert(ssnc.sql("select * from countView order by grp").collect() ===
+          Array(Row(0, 5L), Row(1, 5L)))
+    }
+    ssnc.stop(stopSparkContext = false)
+
+    // the table left without the view is dropped by DROP STREAM VIEW
+    snc.sql("drop stream view countView")
+    assert(!snc.snappySession.sessionCatalog.tableExists(TableIdentifier("countView")))
+  }
+
   //  test("stream adhoc query plan caching")
   //  test("window units syntax variations")
   //  test("tumbling window join")
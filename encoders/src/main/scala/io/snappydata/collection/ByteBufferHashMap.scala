@@ -17,14 +17,16 @@
 
 package io.snappydata.collection
 
+import java.io.{BufferedInputStream, BufferedOutputStream, DataInputStream, DataOutputStream, File,
+    FileInputStream, FileOutputStream}
 import java.nio.ByteBuffer
 
 import com.gemstone.gemfire.internal.cache.GemFireCacheImpl
 import com.gemstone.gemfire.internal.shared.unsafe.DirectBufferAllocator
 import com.gemstone.gemfire.internal.shared.{BufferAllocator, BufferSizeLimitExceededException}
 
-import org.apache.spark.TaskContext
 import org.apache.spark.memory.{MemoryConsumer, TaskMemoryManager}
+import org.apache.spark.{SparkEnv, TaskContext}
 import org.apache.spark.sql.collection.SharedUtils
 import org.apache.spark.sql.execution.columnar.encoding.ColumnEncoding
 import org.apache.spark.unsafe.Platform
@@ -59,6 +61,21 @@ import org.apache.spark.unsafe.array.ByteArrayMethods
  * fields to create a new array as per the new hash locations.
  * The value fields are left untouched with the headers of keys having the
  * offsets into value array as before the rehash.
+ *
+ * If spilling has been enabled using [[enableSpill]], then the owner can
+ * invoke [[spill]] to write out the entries of the value data (which has all
+ * the keys and values) sorted by their hash codes as a run to a local disk
+ * file and reset the map for reuse. The map itself never spills on its own
+ * since callers hold offsets into the value data, but it will flag
+ * [[spillRequested]] when execution memory runs short. A spill also shrinks
+ * the key and value data back to their initial sizes releasing the execution
+ * memory acquired for their growth.
+ *
+ * Once all the input has been consumed and the remaining data spilled too, the
+ * runs are merged by hash code using [[loadNextSpill]] which loads a batch of
+ * entries at a time into the value data. A key is never split across batches
+ * and the entries having the same key are adjacent in a batch (see
+ * [[sameKeyAt]]), so the owner can combine them into a single result.
  */
 class ByteBufferHashMap(initialCapacity: Int, val loadFactor: Double,
     keySize: Int, protected val valueSize: Int,
@@ -71,9 +88,18 @@ class ByteBufferHashMap(initialCapacity: Int, val loadFactor: Double,
   val taskContext: TaskContext = TaskContext.get()
   private var _maxSizeReached: Boolean = false
   private[this] val consumer = if ((taskContext ne null) && !GemFireCacheImpl.hasNewOffHeap) {
-    new ByteBufferHashMapMemoryConsumer(SharedUtils.taskMemoryManager(taskContext))
+    new ByteBufferHashMapMemoryConsumer(SharedUtils.taskMemoryManager(taskContext), this)
   } else null
 
+  private var _spillEnabled: Boolean = false
+  private var _spillRequested: Boolean = false
+  /** the spilled runs yet to be merged by [[loadNextSpill]] */
+  private[this] var spillFiles: java.util.ArrayDeque[File] = _
+  /** readers of the spilled runs being merged ordered by the hash of their next entry */
+  private[this] var spillReaders: java.util.PriorityQueue[SpilledRunReader] = _
+  /** size of the largest spilled run which is used as the size of the merged batches */
+  private[this] var maxSpillSize: Long = _
+
   if ((taskContext ne null)) {
     freeMemoryOnTaskCompletion()
   }
@@ -86,6 +112,8 @@ class ByteBufferHashMap(initialCapacity: Int, val loadFactor: Double,
 
   private var mask = _capacity - 1
   private[this] var _maxMemory: Long = _
+  /** the execution memory currently acquired from the memory manager */
+  private[this] var acquiredMemory: Long = _
 
   if (keyData eq null) {
     val buffer = allocator.allocate(_capacity * fixedKeySize, "HASHMAP")
@@ -103,7 +131,10 @@ class ByteBufferHashMap(initialCapacity: Int, val loadFactor: Double,
     acquireMemory(valueData.capacity)
     _maxMemory += valueData.capacity
   }
-
+  // sizes to which the key and value data are shrunk back after a spill
+  private[this] val initialMapCapacity = _capacity
+  private[this] val initialKeyDataSize = keyData.capacity
+  private[this] val initialValueDataSize = valueData.capacity
 
 
   final def getKeyData: ByteBufferData = this.keyData
@@ -117,6 +148,246 @@ class ByteBufferHashMap(initialCapacity: Int, val loadFactor: Double,
   final def capacity: Int = _capacity
   def maxMemory: Long = _maxMemory
 
+  /**
+   * Allow this map to be spilled by the owner using [[spill]]. Should only be
+   * enabled when the owner can combine the entries having the same key in the
+   * batches loaded by [[loadNextSpill]].
+   */
+  final def enableSpill(): Unit = _spillEnabled = true
+
+  final def spillEnabled: Boolean = _spillEnabled
+
+  /**
+   * Returns true if spilling is enabled and execution memory has run short,
+   * so the owner should invoke [[spill]] at the next opportunity.
+   */
+  final def spillRequested: Boolean = _spillRequested
+
+  private[collection] def requestSpill(): Unit = {
+    if (_spillEnabled) _spillRequested = true
+  }
+
+  final def numPendingSpills: Int = if (spillFiles eq null) 0 else spillFiles.size()
+
+  /**
+   * Write out the entries of this map sorted by their hash codes to a local disk
+   * file and reset the map shrinking its key and value data back to their initial
+   * sizes. Any offsets into the map or references to its key or value data held
+   * by caller are invalid after this call.
+   *
+   * @return the number of bytes of the value data that were spilled
+   */
+  final def spill(): Long = {
+    val numBytes = valueDataSize
+    if (numBytes > 0) {
+      val file = ByteBufferHashMap.createSpillFile()
+      val out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file), ByteBufferHashMap.SPILL_BUFFER_SIZE))
+      try {
+        writeSortedEntries(out)
+      } catch {
+        case t: Throwable =>
+          out.close()
+          file.delete()
+          throw t
+      }
+      out.close()
+      if (spillFiles eq null) spillFiles = new java.util.ArrayDeque[File](4)
+      spillFiles.addLast(file)
+      maxSpillSize = math.max(maxSpillSize, numBytes)
+      if (taskContext ne null) {
+        taskContext.taskMetrics().incMemoryBytesSpilled(numBytes)
+        taskContext.taskMetrics().incDiskBytesSpilled(file.length())
+      }
+    }
+    shrink()
+    reset()
+    _spillRequested = false
+    numBytes
+  }
+
+  /**
+   * Write the entries of the value data in the order of their hash codes with
+   * each entry prefixed by its hash code and size. The size of an entry is not
+   * known to the map so it is determined from the offset of the next entry
+   * since the entries are written back-to-back into the value data.
+   */
+  private def writeSortedEntries(out: DataOutputStream): Unit = {
+    // the key headers having the entry offset in MSB and the hash code in LSB
+    val headers = new Array[Long](_size)
+    val keyObject = keyData.baseObject
+    val fixedKeySize = this.fixedKeySize
+    var keyOffset = keyData.baseOffset
+    val keyEndPosition = keyData.endPosition
+    var numEntries = 0
+    while (keyOffset < keyEndPosition) {
+      val key = Platform.getLong(keyObject, keyOffset)
+      if (key != 0L) {
+        headers(numEntries) = key
+        numEntries += 1
+      }
+      keyOffset += fixedKeySize
+    }
+    // sort by offset to get the sizes and then by hash code (with index) to write
+    java.util.Arrays.sort(headers, 0, numEntries)
+    val order = new Array[Long](numEntries)
+    var i = 0
+    while (i < numEntries) {
+      order(i) = (headers(i).toInt.toLong << 32L) | i
+      i += 1
+    }
+    java.util.Arrays.sort(order)
+
+    val valueObject = valueData.baseObject
+    val valueOffset = valueData.baseOffset
+    val dataSize = valueDataSize
+    var bytes = new Array[Byte](64)
+    i = 0
+    while (i < numEntries) {
+      val index = order(i).toInt
+      val header = headers(index)
+      // an entry starts with the key size that precedes the offset in its header
+      val start = (header >>> 32L) - 4
+      val end = if (index + 1 < numEntries) (headers(index + 1) >>> 32L) - 4 else dataSize
+      val size = (end - start).toInt
+      if (bytes.length < size) bytes = new Array[Byte](size)
+      Platform.copyMemory(valueObject, valueOffset + start, bytes,
+        Platform.BYTE_ARRAY_OFFSET, size)
+      out.writeInt(header.toInt)
+      out.writeInt(size)
+      out.write(bytes, 0, size)
+      i += 1
+    }
+  }
+
+  /**
+   * Replace the key and value data grown beyond their initial sizes with new
+   * ones of the initial sizes and release the memory acquired for the growth.
+   */
+  private def shrink(): Unit = {
+    var freed = 0L
+    if (keyData.capacity > initialKeyDataSize) {
+      val buffer = allocator.allocate(initialKeyDataSize, "HASHMAP")
+      freed += keyData.capacity - initialKeyDataSize
+      keyData.release(allocator)
+      // key data is cleared by reset()
+      keyData = new ByteBufferData(buffer, allocator)
+      _capacity = initialMapCapacity
+      growThreshold = (loadFactor * _capacity).toInt
+      mask = _capacity - 1
+    }
+    if (valueData.capacity > initialValueDataSize) {
+      val buffer = allocator.allocate(initialValueDataSize, "HASHMAP")
+      freed += valueData.capacity - initialValueDataSize
+      valueData.release(allocator)
+      valueData = new ByteBufferData(buffer, allocator)
+      valueDataPosition = valueData.baseOffset
+    }
+    freeMemory(freed)
+  }
+
+  /**
+   * Replace the value data with the next batch of entries merged from the runs
+   * written by [[spill]], if any, for iteration. The entries of a batch are in
+   * the order of their hash codes with all the entries of a hash code from all
+   * the runs loaded in the same batch, and those having the same key adjacent
+   * to each other. The size of a batch is limited to the size of the largest
+   * run except that a hash code is never split across batches. The key data is
+   * not restored so no lookups are possible.
+   *
+   * @return true if a batch was loaded and false if there are no more entries
+   */
+  final def loadNextSpill(): Boolean = {
+    if (spillReaders eq null) {
+      if (numPendingSpills == 0) return false
+      spillReaders = new java.util.PriorityQueue[SpilledRunReader](spillFiles.size(),
+        new java.util.Comparator[SpilledRunReader] {
+          override def compare(r1: SpilledRunReader, r2: SpilledRunReader): Int =
+            Integer.compare(r1.hash, r2.hash)
+        })
+      while (!spillFiles.isEmpty) {
+        val reader = new SpilledRunReader(spillFiles.pollFirst())
+        if (reader.next()) spillReaders.add(reader) else reader.close()
+      }
+    }
+    if (spillReaders.isEmpty) return false
+
+    val batchSize = math.max(maxSpillSize, initialValueDataSize)
+    valueDataPosition = valueData.baseOffset
+    val entries = new java.util.ArrayList[Array[Byte]](4)
+    while (!spillReaders.isEmpty && valueDataSize < batchSize) {
+      val hash = spillReaders.peek().hash
+      while (!spillReaders.isEmpty && spillReaders.peek().hash == hash) {
+        val reader = spillReaders.poll()
+        entries.add(reader.readEntry())
+        if (reader.next()) spillReaders.add(reader) else reader.close()
+      }
+      appendGroupedByKey(entries)
+      entries.clear()
+    }
+    true
+  }
+
+  /** Append the entries having the same hash code with the same keys adjacent. */
+  private def appendGroupedByKey(entries: java.util.ArrayList[Array[Byte]]): Unit = {
+    val numEntries = entries.size()
+    var i = 0
+    while (i < numEntries) {
+      val entry = entries.get(i)
+      if (entry ne null) {
+        appendEntry(entry)
+        var j = i + 1
+        while (j < numEntries) {
+          val other = entries.get(j)
+          if ((other ne null) && ByteBufferHashMap.sameKey(entry, other)) {
+            appendEntry(other)
+            entries.set(j, null)
+          }
+          j += 1
+        }
+      }
+      i += 1
+    }
+  }
+
+  private def appendEntry(entry: Array[Byte]): Unit = {
+    val dataSize = valueDataSize
+    if (valueDataPosition + entry.length > valueData.endPosition) {
+      val oldCapacity = valueData.capacity
+      valueData = valueData.resize(entry.length, allocator, approxMaxCapacity)
+      acquireMemory(valueData.capacity - oldCapacity)
+      _maxMemory += valueData.capacity - oldCapacity
+    }
+    Platform.copyMemory(entry, Platform.BYTE_ARRAY_OFFSET, valueData.baseObject,
+      valueData.baseOffset + dataSize, entry.length)
+    valueDataPosition = valueData.baseOffset + dataSize + entry.length
+  }
+
+  /**
+   * Returns true if the entries starting at the given absolute offsets into the
+   * value data (i.e. at their key sizes) have the same key.
+   */
+  final def sameKeyAt(offset1: Long, offset2: Long): Boolean = {
+    val baseObject = valueData.baseObject
+    val numKeyBytes = ColumnEncoding.readInt(baseObject, offset1)
+    ColumnEncoding.readInt(baseObject, offset2) == numKeyBytes &&
+        ByteArrayMethods.arrayEquals(baseObject, offset1 + 4, baseObject, offset2 + 4,
+          numKeyBytes)
+  }
+
+  /** The size of the key of the entry starting at the given absolute offset. */
+  final def keySizeAt(offset: Long): Int =
+    ColumnEncoding.readInt(valueData.baseObject, offset)
+
+  private def deleteSpills(): Unit = {
+    if (spillReaders ne null) {
+      while (!spillReaders.isEmpty) spillReaders.poll().close()
+    }
+    if (spillFiles ne null) {
+      while (!spillFiles.isEmpty) spillFiles.pollFirst().delete()
+    }
+  }
+
   /**
    * Insert raw bytes with given hash code into the map if not present.
    * The key bytes for comparison is assumed to be at the start having
@@ -305,16 +576,26 @@ class ByteBufferHashMap(initialCapacity: Int, val loadFactor: Double,
 
   protected def acquireMemory(required: Long): Unit = {
     if (consumer ne null) {
-      consumer.acquireMemory(required)
+      val granted = consumer.acquireMemory(required)
+      acquiredMemory += granted
+      // request a spill if execution memory is running short
+      if (granted < required) requestSpill()
+    }
+  }
+
+  private def freeMemory(size: Long): Unit = {
+    if ((consumer ne null) && size > 0) {
+      val freed = math.min(size, acquiredMemory)
+      consumer.freeMemory(freed)
+      acquiredMemory -= freed
     }
   }
 
   private def freeMemoryOnTaskCompletion(): Unit = {
     taskContext.addTaskCompletionListener { _ =>
-      if (consumer ne null) {
-        consumer.freeMemory(_maxMemory)
-      }
+      freeMemory(acquiredMemory)
       this.release()
+      deleteSpills()
     }
   }
 }
@@ -384,10 +665,75 @@ final class ByteBufferData private(val buffer: ByteBuffer,
 
 object ByteBufferHashMap {
   val bsle = new BufferSizeLimitExceededException("ByteBufferData capacity reached to max")
+
+  private[collection] val SPILL_BUFFER_SIZE = 64 * 1024
+
+  /** Returns true if the given serialized entries (starting with key size) have same key. */
+  private def sameKey(entry1: Array[Byte], entry2: Array[Byte]): Boolean = {
+    val numKeyBytes = ColumnEncoding.readInt(entry1, Platform.BYTE_ARRAY_OFFSET)
+    ColumnEncoding.readInt(entry2, Platform.BYTE_ARRAY_OFFSET) == numKeyBytes &&
+        ByteArrayMethods.arrayEquals(entry1, Platform.BYTE_ARRAY_OFFSET + 4,
+          entry2, Platform.BYTE_ARRAY_OFFSET + 4, numKeyBytes)
+  }
+
+  private def createSpillFile(): File = SparkEnv.get match {
+    case null => File.createTempFile("snappy-hashmap-spill", ".tmp")
+    case env => env.blockManager.diskBlockManager.createTempLocalBlock()._2
+  }
 }
 
 
-final class ByteBufferHashMapMemoryConsumer(taskMemoryManager: TaskMemoryManager)
-  extends MemoryConsumer(taskMemoryManager) {
-  override def spill(size: Long, trigger: MemoryConsumer): Long = 0L
+/**
+ * Reads the entries of a run written by [[ByteBufferHashMap.spill]] one at a time
+ * in the order of their hash codes. The file is deleted when the reader is closed.
+ */
+private final class SpilledRunReader(file: File) {
+
+  private[this] val in = new DataInputStream(new BufferedInputStream(
+    new FileInputStream(file), ByteBufferHashMap.SPILL_BUFFER_SIZE))
+  private[this] var remaining = file.length()
+
+  /** hash code of the current entry */
+  var hash: Int = _
+  private[this] var size: Int = _
+
+  /** Move to the next entry returning false if there are no more. */
+  def next(): Boolean = {
+    if (remaining > 0) {
+      hash = in.readInt()
+      size = in.readInt()
+      remaining -= 8 + size
+      true
+    } else false
+  }
+
+  /** Read the bytes of the current entry. */
+  def readEntry(): Array[Byte] = {
+    val entry = new Array[Byte](size)
+    in.readFully(entry)
+    entry
+  }
+
+  def close(): Unit = {
+    try {
+      in.close()
+    } finally {
+      file.delete()
+    }
+  }
+}
+
+final class ByteBufferHashMapMemoryConsumer(taskMemoryManager: TaskMemoryManager,
+    map: ByteBufferHashMap) extends MemoryConsumer(taskMemoryManager) {
+
+  /**
+   * The map cannot be spilled from here since the generated code holds offsets
+   * into it, so only flag the map for spill which will be done by the owner
+   * before the next insert. The memory released by that spill is returned to
+   * the memory manager directly by the map hence this always returns zero.
+   */
+  override def spill(size: Long, trigger: MemoryConsumer): Long = {
+    map.requestSpill()
+    0L
+  }
 }
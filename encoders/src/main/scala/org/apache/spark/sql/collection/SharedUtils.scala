@@ -123,10 +123,38 @@ final class SmartExecutorBucketPartition(private var _index: Int, private var _b
     var hostList: Seq[(String, String)])
     extends Partition with KryoSerializable {
 
+  /**
+   * All the buckets to be fetched by this partition when multiple buckets hosted on
+   * the same server have been clubbed together, else null when only [[bucketId]] is to
+   * be fetched. The first one is always the same as [[bucketId]].
+   */
+  private var _buckets: Array[Int] = _
+
+  def this(index: Int, buckets: Array[Int], hostList: Seq[(String, String)]) = {
+    this(index, buckets(0), hostList)
+    if (buckets.length > 1) _buckets = buckets
+  }
+
   override def index: Int = _index
 
   def bucketId: Int = _bucketId
 
+  def numBuckets: Int = if (_buckets eq null) 1 else _buckets.length
+
+  /** The set of buckets to be fetched by this partition. */
+  def buckets: java.util.Set[Integer] = {
+    if (_buckets eq null) java.util.Collections.singleton(Int.box(_bucketId))
+    else {
+      val set = new java.util.HashSet[Integer](_buckets.length << 1)
+      for (b <- _buckets) set.add(Int.box(b))
+      set
+    }
+  }
+
+  /** The comma separated list of buckets as required by SET_BUCKETS_FOR_LOCAL_EXECUTION. */
+  def bucketsString: String =
+    if (_buckets eq null) Integer.toString(_bucketId) else _buckets.mkString(",")
+
   override def write(kryo: Kryo, output: Output): Unit = {
     output.writeVarInt(_index, true)
     output.writeVarInt(_bucketId, true)
@@ -136,6 +164,11 @@ final class SmartExecutorBucketPartition(private var _index: Int, private var _b
       output.writeString(host)
       output.writeString(url)
     }
+    if (_buckets eq null) output.writeVarInt(0, true)
+    else {
+      output.writeVarInt(_buckets.length, true)
+      output.writeInts(_buckets, true)
+    }
   }
 
   override def read(kryo: Kryo, input: Input): Unit = {
@@ -149,8 +182,12 @@ final class SmartExecutorBucketPartition(private var _index: Int, private var _b
       hostList += host -> url
     }
     this.hostList = hostList
+    val numBuckets = input.readVarInt(true)
+    _buckets = if (numBuckets > 0) input.readInts(numBuckets, true) else null
   }
 
-  override def toString: String =
-    s"SmartExecutorBucketPartition($index, $bucketId, $hostList)"
+  override def toString: String = {
+    if (_buckets eq null) s"SmartExecutorBucketPartition($index, $bucketId, $hostList)"
+    else s"SmartExecutorBucketPartition($index, ${_buckets.mkString("[", ",", "]")}, $hostList)"
+  }
 }
@@ -115,9 +115,12 @@ abstract class ResultSetIterator[A](conn: Connection,
 
 final class ColumnBatchIteratorOnRS(conn: Connection,
                                     projection: Array[Int], stmt: Statement, rs: ResultSet,
-                                    context: TaskContext, partitionId: Int)
+                                    context: TaskContext, partitionId: Int,
+                                    buckets: java.util.Set[Integer] = null)
   extends ResultSetIterator[ByteBuffer](conn, stmt, rs, context) {
   private var currentUUID: Long = _
+  // bucket of the current batch which can change when multiple buckets are being fetched
+  private var currentBucketId: Int = partitionId
   // upto three deltas for each column and a deleted mask
   private val totalColumns = (projection.length * (ColumnDelta.MAX_DEPTH + 1)) + 1
   private val allocator = GemFireCacheImpl.getCurrentBufferAllocator
@@ -125,10 +128,11 @@ final class ColumnBatchIteratorOnRS(conn: Connection,
   private var currentStats: ByteBuffer = _
   private var currentDeltaStats: ByteBuffer = _
   private var rsHasNext: Boolean = rs.next()
-  def getBucketSet(): java.util.Set[Integer] = java.util.Collections.singleton(getCurrentBucketId)
+  def getBucketSet(): java.util.Set[Integer] =
+    if (buckets ne null) buckets else java.util.Collections.singleton(getCurrentBucketId)
   def getCurrentBatchId: Long = currentUUID
 
-  def getCurrentBucketId: Int = partitionId
+  def getCurrentBucketId: Int = currentBucketId
 
   private def decompress(buffer: ByteBuffer): ByteBuffer = {
     if ((buffer ne null) && buffer.remaining() > 0) {
@@ -163,7 +167,7 @@ final class ColumnBatchIteratorOnRS(conn: Connection,
     else {
       // empty buffer indicates value removed from region
       throw new EntryDestroyedException(s"Iteration on column=${columnIndex + 1} " +
-        s"bucket=$partitionId uuid=$currentUUID failed due to missing value")
+        s"bucket=$currentBucketId uuid=$currentUUID failed due to missing value")
     }
   }
 
@@ -238,6 +242,7 @@ final class ColumnBatchIteratorOnRS(conn: Connection,
     releaseColumns()
     if (rsHasNext) {
       currentUUID = rs.getLong(1)
+      currentBucketId = rs.getInt(2)
       // create a new map instead of clearing old one to help young gen GC
       colBuffers = new Int2ObjectOpenHashMap[ByteBuffer](totalColumns + 1)
       // keep reading next till its still part of current column batch; if UUID changes
@@ -246,7 +251,7 @@ final class ColumnBatchIteratorOnRS(conn: Connection,
       do {
         readColumnData()
         rsHasNext = rs.next()
-      } while (rsHasNext && rs.getLong(1) == currentUUID)
+      } while (rsHasNext && rs.getLong(1) == currentUUID && rs.getInt(2) == currentBucketId)
       true
     } else false
   }
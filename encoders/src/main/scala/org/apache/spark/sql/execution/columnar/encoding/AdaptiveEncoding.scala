@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package org.apache.spark.sql.execution.columnar.encoding
+
+import java.nio.ByteBuffer
+
+import com.gemstone.gemfire.internal.shared.BufferAllocator
+import com.gemstone.gnu.trove.TLongArrayList
+import io.snappydata.collection.ObjectHashSet
+
+import org.apache.spark.sql.types._
+
+final class AdaptiveEncoder
+    extends NotNullEncoder with AdaptiveEncoderBase
+
+final class AdaptiveEncoderNullable
+    extends NullableEncoder with AdaptiveEncoderBase
+
+/**
+ * Encoder for integral types that chooses the encoding separately for each batch.
+ * The values are written uncompressed to the buffer as usual while tracking the
+ * lower/upper limits in the stats. Then [[finish]] makes a second pass over the
+ * values to determine the number of runs and the range of differences between
+ * consecutive values, and if required the number of distinct values (bounded
+ * by the best size seen so far). The smallest of frame-of-reference,
+ * [[DeltaValueEncoding]], run-length and dictionary encodings is then chosen.
+ * If that does not save a reasonable amount of space, then the uncompressed
+ * data is returned as is.
+ */
+trait AdaptiveEncoderBase extends ColumnEncoder {
+
+  /** width in bytes of the values written uncompressed */
+  private final var valueWidth: Int = _
+  /** offset of the start of data from columnBeginPosition */
+  private final var dataOffset: Long = _
+  private final var encodedTypeId: Int = _
+
+  private final var dictionaryMap: ObjectHashSet[LongIndexKey] = _
+  private final var dictionaryValues: TLongArrayList = _
+
+  override def typeId: Int = encodedTypeId
+
+  override final def supports(dataType: DataType): Boolean = dataType match {
+    case ShortType | IntegerType | DateType | LongType | TimestampType => true
+    case _ => false
+  }
+
+  override def initialize(dataType: DataType, nullable: Boolean, initSize: Int,
+      withHeader: Boolean, allocator: BufferAllocator, minBufferSize: Int): Long = {
+    valueWidth = dataType match {
+      case ShortType => 2
+      case IntegerType | DateType => 4
+      case LongType | TimestampType => 8
+      case _ => throw new UnsupportedOperationException(
+        s"AdaptiveEncoder not supported for $dataType")
+    }
+    // header is written as uncompressed and switched in finish if required
+    encodedTypeId = ColumnEncoding.UNCOMPRESSED_TYPE_ID
+    val cursor = super.initialize(dataType, nullable, initSize, withHeader,
+      allocator, minBufferSize)
+    dataOffset = cursor - columnBeginPosition
+    cursor
+  }
+
+  override final def writeShort(cursor: Long, value: Short): Long = {
+    var position = cursor
+    if (position + 2 > columnEndPosition) {
+      position = expand(position, 2)
+    }
+    ColumnEncoding.writeShort(columnBytes, position, value)
+    updateLongStats(value)
+    position + 2
+  }
+
+  override final def writeInt(cursor: Long, value: Int): Long = {
+    var position = cursor
+    if (position + 4 > columnEndPosition) {
+      position = expand(position, 4)
+    }
+    ColumnEncoding.writeInt(columnBytes, position, value)
+    updateLongStats(value)
+    position + 4
+  }
+
+  override final def writeLong(cursor: Long, value: Long): Long = {
+    var position = cursor
+    if (position + 8 > columnEndPosition) {
+      position = expand(position, 8)
+    }
+    ColumnEncoding.writeLong(columnBytes, position, value)
+    updateLongStats(value)
+    position + 8
+  }
+
+  private def readValue(columnBytes: AnyRef, cursor: Long): Long = valueWidth match {
+    case 2 => ColumnEncoding.readShort(columnBytes, cursor)
+    case 4 => ColumnEncoding.readInt(columnBytes, cursor)
+    case _ => ColumnEncoding.readLong(columnBytes, cursor)
+  }
+
+  private def writeValue(columnBytes: AnyRef, cursor: Long, value: Long): Long = {
+    valueWidth match {
+      case 2 => ColumnEncoding.writeShort(columnBytes, cursor, value.toShort)
+      case 4 => ColumnEncoding.writeInt(columnBytes, cursor, value.toInt)
+      case _ => ColumnEncoding.writeLong(columnBytes, cursor, value)
+    }
+    cursor + valueWidth
+  }
+
+  /**
+   * Fill in the dictionary for the values returning the encoded size if it is
+   * less than given maximum size else -1 (in which case dictionary is not retained).
+   */
+  private def buildDictionary(columnBytes: AnyRef, dataBeginPosition: Long,
+      endPosition: Long, numValues: Int, maxSize: Long): Long = {
+    // limit number of elements to those that can possibly give smaller size
+    // than maxSize with 2 byte indexes
+    val maxElements = (maxSize - 4L - (numValues.toLong << 1)) / valueWidth
+    val initSize = math.min(math.max(numValues >>> 4, 128), 1024)
+    val map = new ObjectHashSet[LongIndexKey](initSize, 0.6, 1, false)
+    val values = new TLongArrayList(initSize)
+    var position = dataBeginPosition
+    while (position < endPosition) {
+      val key = map.addLong(readValue(columnBytes, position), LongInit)
+      if (key.index == -1) {
+        if (values.size >= maxElements) return -1L
+        key.index = values.size
+        values.add(key.l)
+      }
+      position += valueWidth
+    }
+    val numElements = values.size
+    // 2 byte indexes for short dictionary while 4 bytes for big dictionary
+    val numIndexBytes = if (numElements <= Short.MaxValue) numValues.toLong << 1
+    else numValues.toLong << 2
+    val size = 4L + numElements.toLong * valueWidth + numIndexBytes
+    if (size < maxSize) {
+      dictionaryMap = map
+      dictionaryValues = values
+      size
+    } else -1L
+  }
+
+  override abstract def finish(cursor: Long): ByteBuffer = {
+    val columnBytes = this.columnBytes
+    val dataBeginPosition = columnBeginPosition + dataOffset
+    val dataSize = cursor - dataBeginPosition
+    val numValues = (dataSize / valueWidth).toInt
+    if (numValues == 0) return super.finish(cursor)
+
+    // second pass to determine the number of runs and range of differences
+    var numRuns = 1
+    var minDelta = Long.MaxValue
+    var maxDelta = Long.MinValue
+    var previous = readValue(columnBytes, dataBeginPosition)
+    var position = dataBeginPosition + valueWidth
+    while (position < cursor) {
+      val value = readValue(columnBytes, position)
+      val delta = value - previous
+      if (delta != 0L) numRuns += 1
+      if (delta < minDelta) minDelta = delta
+      if (delta > maxDelta) maxDelta = delta
+      previous = value
+      position += valueWidth
+    }
+
+    val frameBitWidth = FrameOfReferenceEncoding.bitWidth(lowerLong, upperLong)
+    var bestTypeId = ColumnEncoding.FRAME_OF_REFERENCE_TYPE_ID
+    var bestSize = 16L + FrameOfReferenceEncoding.packedSize(numValues, frameBitWidth)
+    val deltaBitWidth =
+      if (numValues > 1) FrameOfReferenceEncoding.bitWidth(minDelta, maxDelta) else 0
+    val deltaSize = 24L + FrameOfReferenceEncoding.packedSize(numValues - 1, deltaBitWidth)
+    if (deltaSize < bestSize) {
+      bestTypeId = ColumnEncoding.DELTA_VALUE_TYPE_ID
+      bestSize = deltaSize
+    }
+    val runLengthSize = numRuns.toLong * (valueWidth + 4)
+    if (runLengthSize < bestSize) {
+      bestTypeId = ColumnEncoding.RUN_LENGTH_TYPE_ID
+      bestSize = runLengthSize
+    }
+    // dictionary is not supported for shorts and skip the hash map
+    // building if even a single element dictionary cannot do better
+    if (valueWidth >= 4 && 4L + valueWidth + (numValues.toLong << 1) < bestSize) {
+      val dictionarySize = buildDictionary(columnBytes, dataBeginPosition, cursor,
+        numValues, bestSize)
+      if (dictionarySize > 0) {
+        bestTypeId = if (dictionaryValues.size <= Short.MaxValue) {
+          ColumnEncoding.DICTIONARY_TYPE_ID
+        } else ColumnEncoding.BIG_DICTIONARY_TYPE_ID
+        bestSize = dictionarySize
+      }
+    }
+    // decoding is a bit more expensive for all encodings so switch only
+    // if it saves at least a quarter of the space
+    if (bestSize > (dataSize * 3) / 4) {
+      dictionaryMap = null
+      dictionaryValues = null
+      return super.finish(cursor)
+    }
+
+    encodedTypeId = bestTypeId
+    val numNullWords = getNumNullWords
+    val numNullBytes = numNullWords << 3
+    val storageAllocator = this.storageAllocator
+    val columnData = storageAllocator.allocateForStorage(ColumnEncoding
+        .checkBufferSize(8L + numNullBytes + bestSize))
+    val destBytes = storageAllocator.baseObject(columnData)
+    var destPosition = storageAllocator.baseOffset(columnData)
+    // header
+    ColumnEncoding.writeInt(destBytes, destPosition, encodedTypeId)
+    destPosition += 4
+    ColumnEncoding.writeInt(destBytes, destPosition, numNullBytes)
+    destPosition += 4
+    destPosition = writeNulls(destBytes, destPosition, numNullWords)
+    val endPosition = destPosition + bestSize
+
+    position = dataBeginPosition
+    encodedTypeId match {
+      case ColumnEncoding.FRAME_OF_REFERENCE_TYPE_ID =>
+        val baseValue = lowerLong
+        ColumnEncoding.writeLong(destBytes, destPosition, baseValue)
+        ColumnEncoding.writeInt(destBytes, destPosition + 8, frameBitWidth)
+        ColumnEncoding.writeInt(destBytes, destPosition + 12, numValues)
+        val packer = new BitPacker(destBytes, destPosition + 16, frameBitWidth)
+        while (position < cursor) {
+          packer.write(readValue(columnBytes, position) - baseValue)
+          position += valueWidth
+        }
+        destPosition = packer.finish(endPosition)
+
+      case ColumnEncoding.DELTA_VALUE_TYPE_ID =>
+        previous = readValue(columnBytes, position)
+        position += valueWidth
+        ColumnEncoding.writeLong(destBytes, destPosition, previous)
+        ColumnEncoding.writeLong(destBytes, destPosition + 8,
+          if (numValues > 1) minDelta else 0L)
+        ColumnEncoding.writeInt(destBytes, destPosition + 16, deltaBitWidth)
+        ColumnEncoding.writeInt(destBytes, destPosition + 20, numValues)
+        val packer = new BitPacker(destBytes, destPosition + 24, deltaBitWidth)
+        while (position < cursor) {
+          val value = readValue(columnBytes, position)
+          packer.write(value - previous - minDelta)
+          previous = value
+          position += valueWidth
+        }
+        destPosition = packer.finish(endPosition)
+
+      case ColumnEncoding.RUN_LENGTH_TYPE_ID =>
+        // each run is written as the value followed by the run length
+        previous = readValue(columnBytes, position)
+        position += valueWidth
+        var run = 1
+        while (position < cursor) {
+          val value = readValue(columnBytes, position)
+          if (value == previous) run += 1
+          else {
+            destPosition = writeValue(destBytes, destPosition, previous)
+            ColumnEncoding.writeInt(destBytes, destPosition, run)
+            destPosition += 4
+            previous = value
+            run = 1
+          }
+          position += valueWidth
+        }
+        destPosition = writeValue(destBytes, destPosition, previous)
+        ColumnEncoding.writeInt(destBytes, destPosition, run)
+        destPosition += 4
+
+      case _ =>
+        val dictionaryMap = this.dictionaryMap
+        val dictionaryValues = this.dictionaryValues
+        val numElements = dictionaryValues.size
+        ColumnEncoding.writeInt(destBytes, destPosition, numElements)
+        destPosition += 4
+        var index = 0
+        while (index < numElements) {
+          destPosition = writeValue(destBytes, destPosition, dictionaryValues.getQuick(index))
+          index += 1
+        }
+        val isShortDictionary = encodedTypeId == ColumnEncoding.DICTIONARY_TYPE_ID
+        while (position < cursor) {
+          index = dictionaryMap.addLong(readValue(columnBytes, position), LongInit).index
+          if (isShortDictionary) {
+            ColumnEncoding.writeShort(destBytes, destPosition, index.toShort)
+            destPosition += 2
+          } else {
+            ColumnEncoding.writeInt(destBytes, destPosition, index)
+            destPosition += 4
+          }
+          position += valueWidth
+        }
+        this.dictionaryMap = null
+        this.dictionaryValues = null
+    }
+    assert(destPosition == endPosition, s"Mismatch in encoded size for typeId = " +
+        s"$encodedTypeId: expected end = $endPosition, actual = $destPosition")
+
+    // reuse this columnData in next round if possible
+    releaseForReuse(ColumnEncoding.checkBufferSize(cursor - columnBeginPosition))
+    columnData
+  }
+
+  override private[sql] def close(releaseData: Boolean): Unit = {
+    super.close(releaseData)
+    dictionaryMap = null
+    dictionaryValues = null
+  }
+}
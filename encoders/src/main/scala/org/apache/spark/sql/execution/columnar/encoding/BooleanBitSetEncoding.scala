@@ -57,6 +57,23 @@ abstract class BooleanBitSetDecoderBase(columnBytes: AnyRef, startCursor: Long,
   override final def readBoolean(columnBytes: AnyRef, nonNullPosition: Int): Boolean = {
     BitSet.isSet(columnBytes, baseCursor, nonNullPosition)
   }
+
+  override final def readBooleans(columnBytes: AnyRef, nonNullPosition: Int, count: Int,
+      result: Array[Boolean]): Unit = {
+    // read a word at a time and expand its bits
+    var i = 0
+    while (i < count) {
+      val position = nonNullPosition + i
+      var bits = ColumnEncoding.readLong(columnBytes,
+        baseCursor + ((position >> 6) << 3)) >>> (position & 0x3f)
+      val end = math.min(count, i + 64 - (position & 0x3f))
+      while (i < end) {
+        result(i) = (bits & 1L) != 0
+        bits >>>= 1
+        i += 1
+      }
+    }
+  }
 }
 
 trait BooleanBitSetEncoderBase
@@ -159,7 +159,7 @@ final class ColumnDeltaEncoder(val hierarchyDepth: Int) extends ColumnEncoder {
     this.allocator = allocator
     this.maxSize = initSize
     allocatePositions(initSize << 2)
-    realEncoder = ColumnEncoding.getColumnEncoder(dataType, nullable)
+    realEncoder = ColumnEncoding.getDeltaColumnEncoder(dataType, nullable)
     val cursor = realEncoder.initialize(dataType, nullable,
       initSize, withHeader, allocator, minBufferSize)
     dataOffset = realEncoder.offset(cursor)
@@ -391,7 +391,7 @@ final class ColumnDeltaEncoder(val hierarchyDepth: Int) extends ColumnEncoder {
     val existingValueSize = existingValue.remaining()
 
     val nullable = field.nullable && (decoder1.hasNulls || decoder2.hasNulls)
-    realEncoder = ColumnEncoding.getColumnEncoder(dataType, nullable)
+    realEncoder = ColumnEncoding.getDeltaColumnEncoder(dataType, nullable)
     // Set the source of encoder with an upper limit for bytes that also avoids
     // checking buffer limit when writing position integers.
     // realEncoder will contain the intermediate and final merged and encoded delta.
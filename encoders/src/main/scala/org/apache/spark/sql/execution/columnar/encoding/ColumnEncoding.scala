@@ -167,6 +167,65 @@ abstract class ColumnDecoder(columnDataRef: AnyRef, startCursor: Long,
       nonNullPosition: Int): InternalRow =
     throw new UnsupportedOperationException(s"readStruct for $toString")
 
+  /**
+   * Fill the null indicators of `count` positions from given position into
+   * `result` returning the number of nulls among them.
+   */
+  def readNulls(columnBytes: AnyRef, position: Int, count: Int,
+      result: Array[Boolean]): Int = {
+    var numNulls = 0
+    var i = 0
+    while (i < count) {
+      val isNull = isNullAt(columnBytes, position + i)
+      result(i) = isNull
+      if (isNull) numNulls += 1
+      i += 1
+    }
+    numNulls
+  }
+
+  // Bulk reads of `count` consecutive non-null values from given nonNullPosition
+  // into start of the result array. The default implementations invoke the
+  // single value methods while column batch decoders override these with tight
+  // loops on the encoded data. Like the single value methods, dates and timestamps
+  // are read using the int and long variants respectively for column batches.
+
+  def readBooleans(columnBytes: AnyRef, nonNullPosition: Int, count: Int,
+      result: Array[Boolean]): Unit = {
+    var i = 0
+    while (i < count) {
+      result(i) = readBoolean(columnBytes, nonNullPosition + i)
+      i += 1
+    }
+  }
+
+  def readInts(columnBytes: AnyRef, nonNullPosition: Int, count: Int,
+      result: Array[Int]): Unit = {
+    var i = 0
+    while (i < count) {
+      result(i) = readInt(columnBytes, nonNullPosition + i)
+      i += 1
+    }
+  }
+
+  def readLongs(columnBytes: AnyRef, nonNullPosition: Int, count: Int,
+      result: Array[Long]): Unit = {
+    var i = 0
+    while (i < count) {
+      result(i) = readLong(columnBytes, nonNullPosition + i)
+      i += 1
+    }
+  }
+
+  def readDoubles(columnBytes: AnyRef, nonNullPosition: Int, count: Int,
+      result: Array[Double]): Unit = {
+    var i = 0
+    while (i < count) {
+      result(i) = readDouble(columnBytes, nonNullPosition + i)
+      i += 1
+    }
+  }
+
   /**
    * Close and relinquish all resources of this encoder.
    * The encoder may no longer be usable after this call.
@@ -737,10 +796,18 @@ trait ColumnEncoder extends ColumnEncoding {
 
 object ColumnEncoding {
 
+  private[columnar] val UNCOMPRESSED_TYPE_ID = 0
+
+  private[columnar] val RUN_LENGTH_TYPE_ID = 1
+
   private[columnar] val DICTIONARY_TYPE_ID = 2
 
   private[columnar] val BIG_DICTIONARY_TYPE_ID = 3
 
+  private[columnar] val FRAME_OF_REFERENCE_TYPE_ID = 5
+
+  private[columnar] val DELTA_VALUE_TYPE_ID = 6
+
   private[columnar] val BUFFER_OWNER = "ENCODER"
 
   private[columnar] val BITS_PER_LONG = 64
@@ -769,7 +836,9 @@ object ColumnEncoding {
     createRunLengthDecoder,
     createDictionaryDecoder,
     createBigDictionaryDecoder,
-    createBooleanBitSetDecoder
+    createBooleanBitSetDecoder,
+    createFrameOfReferenceDecoder,
+    createDeltaValueDecoder
   )
 
   final def checkBufferSize(size: Long): Int = {
@@ -836,6 +905,21 @@ object ColumnEncoding {
 
   def getColumnEncoder(dataType: DataType, nullable: Boolean): ColumnEncoder = {
     // TODO: SW: add RunLength by default
+    dataType match {
+      case StringType => createDictionaryEncoder(StringType, nullable)
+      case BooleanType => createBooleanBitSetEncoder(BooleanType, nullable)
+      case ShortType | IntegerType | DateType | LongType | TimestampType =>
+        createAdaptiveEncoder(dataType, nullable)
+      case _ => createUncompressedEncoder(dataType, nullable)
+    }
+  }
+
+  /**
+   * Get the encoder to use for delta values. These are merged and copied by
+   * [[ColumnDeltaEncoder]] in their encoded form so only encoders that write
+   * the final layout as they go (apart from internals like dictionary) are used.
+   */
+  def getDeltaColumnEncoder(dataType: DataType, nullable: Boolean): ColumnEncoder = {
     dataType match {
       case StringType => createDictionaryEncoder(StringType, nullable)
       case BooleanType => createBooleanBitSetEncoder(BooleanType, nullable)
@@ -890,6 +974,26 @@ object ColumnEncoding {
       s"BooleanBitSetDecoder not supported for $dataType")
   }
 
+  private[columnar] def createFrameOfReferenceDecoder(columnBytes: AnyRef, cursor: Long,
+      field: StructField, initDelta: (AnyRef, Long) => Long,
+      dataType: DataType, nullable: Boolean): ColumnDecoder = dataType match {
+    case ShortType | IntegerType | DateType | LongType | TimestampType =>
+      if (nullable) new FrameOfReferenceDecoderNullable(columnBytes, cursor, field, initDelta)
+      else new FrameOfReferenceDecoder(columnBytes, cursor, field, initDelta)
+    case _ => throw new UnsupportedOperationException(
+      s"FrameOfReferenceDecoder not supported for $dataType")
+  }
+
+  private[columnar] def createDeltaValueDecoder(columnBytes: AnyRef, cursor: Long,
+      field: StructField, initDelta: (AnyRef, Long) => Long,
+      dataType: DataType, nullable: Boolean): ColumnDecoder = dataType match {
+    case ShortType | IntegerType | DateType | LongType | TimestampType =>
+      if (nullable) new DeltaValueDecoderNullable(columnBytes, cursor, field, initDelta)
+      else new DeltaValueDecoder(columnBytes, cursor, field, initDelta)
+    case _ => throw new UnsupportedOperationException(
+      s"DeltaValueDecoder not supported for $dataType")
+  }
+
   private[columnar] def createUncompressedEncoder(dataType: DataType,
       nullable: Boolean): ColumnEncoder =
     if (nullable) new UncompressedEncoderNullable else new UncompressedEncoder
@@ -910,6 +1014,14 @@ object ColumnEncoding {
       s"BooleanBitSetEncoder not supported for $dataType")
   }
 
+  private[columnar] def createAdaptiveEncoder(dataType: DataType,
+      nullable: Boolean): ColumnEncoder = dataType match {
+    case ShortType | IntegerType | DateType | LongType | TimestampType =>
+      if (nullable) new AdaptiveEncoderNullable else new AdaptiveEncoder
+    case _ => throw new UnsupportedOperationException(
+      s"AdaptiveEncoder not supported for $dataType")
+  }
+
   @inline final def readShort(columnBytes: AnyRef,
       cursor: Long): Short = if (littleEndian) {
     Platform.getShort(columnBytes, cursor)
@@ -1057,6 +1169,12 @@ trait NotNullDecoder extends ColumnDecoder {
   override final def numNulls(columnBytes: AnyRef, ordinal: Int, num: Int): Int = 0
 
   override final def isNullAt(columnBytes: AnyRef, position: Int): Boolean = false
+
+  override final def readNulls(columnBytes: AnyRef, position: Int, count: Int,
+      result: Array[Boolean]): Int = {
+    java.util.Arrays.fill(result, 0, count, false)
+    0
+  }
 }
 
 /**
@@ -1140,6 +1258,35 @@ trait NullableDecoder extends ColumnDecoder {
     dataCursor != Long.MaxValue &&
         BitSet.isSet(columnBytes, dataCursor, position, numNullWords)
   }
+
+  override final def readNulls(columnBytes: AnyRef, position: Int, count: Int,
+      result: Array[Boolean]): Int = {
+    if (dataCursor == Long.MaxValue) {
+      java.util.Arrays.fill(result, 0, count, false)
+      return 0
+    }
+    // read a word at a time and expand its bits
+    val numWords = numNullWords
+    var numNulls = 0
+    var i = 0
+    while (i < count) {
+      val bitPosition = position + i
+      val wordIndex = bitPosition >> 6
+      val word = if (wordIndex < numWords) {
+        ColumnEncoding.readLong(columnBytes, dataCursor + (wordIndex << 3))
+      } else 0L
+      val end = math.min(count, i + 64 - (bitPosition & 0x3f))
+      var bits = word >>> (bitPosition & 0x3f)
+      while (i < end) {
+        val isNull = (bits & 1L) != 0
+        result(i) = isNull
+        if (isNull) numNulls += 1
+        bits >>>= 1
+        i += 1
+      }
+    }
+    numNulls
+  }
 }
 
 trait NotNullEncoder extends ColumnEncoder {
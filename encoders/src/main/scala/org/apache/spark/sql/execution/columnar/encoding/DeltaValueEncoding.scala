@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package org.apache.spark.sql.execution.columnar.encoding
+
+import org.apache.spark.sql.types._
+
+/**
+ * Encoding of integral types as differences between consecutive values which
+ * suits sorted or slowly changing columns like time-series timestamps. Not to be
+ * confused with the [[ColumnDeltaEncoder]] used for updates.
+ *
+ * The differences are stored as offsets from the minimum difference bit-packed
+ * like in [[FrameOfReferenceEncoding]]. The layout of the body after the
+ * standard header and null bitset is:
+ * {{{
+ *    .----------------------- First value (8 bytes)
+ *   |    .------------------- Minimum difference (8 bytes)
+ *   |   |    .--------------- Bit width of each packed offset (4 bytes)
+ *   |   |   |    .----------- Number of non-null values (4 bytes)
+ *   |   |   |   |    .------- Packed offsets of differences
+ *   V   V   V   V    V
+ *   +---+---+---+---+-----------+
+ *   |   |   |   |   | ... ...   |
+ *   +---+---+---+---+-----------+
+ * }}}
+ * The differences use wrapping arithmetic so overflow of long values is not an issue.
+ * Reads are efficient only for sequential access since the decoder has to
+ * start from the first value if an earlier position is requested.
+ */
+trait DeltaValueEncoding extends ColumnEncoding {
+
+  override final def typeId: Int = ColumnEncoding.DELTA_VALUE_TYPE_ID
+
+  override final def supports(dataType: DataType): Boolean = dataType match {
+    case ShortType | IntegerType | DateType | LongType | TimestampType => true
+    case _ => false
+  }
+}
+
+final class DeltaValueDecoder(columnBytes: AnyRef, startCursor: Long,
+    field: StructField, initDelta: (AnyRef, Long) => Long = ColumnEncoding.identityLong)
+    extends DeltaValueDecoderBase(columnBytes, startCursor, field,
+      initDelta) with NotNullDecoder
+
+final class DeltaValueDecoderNullable(columnBytes: AnyRef, startCursor: Long,
+    field: StructField, initDelta: (AnyRef, Long) => Long = ColumnEncoding.identityLong)
+    extends DeltaValueDecoderBase(columnBytes, startCursor, field,
+      initDelta) with NullableDecoder
+
+abstract class DeltaValueDecoderBase(columnDataRef: AnyRef, startCursor: Long,
+    field: StructField, initDelta: (AnyRef, Long) => Long)
+    extends ColumnDecoder(columnDataRef, startCursor, field,
+      initDelta) with DeltaValueEncoding {
+
+  private[this] final var firstValue: Long = _
+  private[this] final var minDelta: Long = _
+  private[this] final var bitWidth: Int = _
+  private[this] final var valueMask: Long = _
+  private[this] final var currentPosition: Int = _
+  private[this] final var currentValue: Long = _
+
+  override protected[sql] def initializeCursor(columnBytes: AnyRef, cursor: Long,
+      dataType: DataType): Long = {
+    firstValue = ColumnEncoding.readLong(columnBytes, cursor)
+    minDelta = ColumnEncoding.readLong(columnBytes, cursor + 8)
+    bitWidth = ColumnEncoding.readInt(columnBytes, cursor + 16)
+    valueMask = FrameOfReferenceEncoding.valueMask(bitWidth)
+    currentPosition = 0
+    currentValue = firstValue
+    // skip the number of values which is only informational for now
+    cursor + 24
+  }
+
+  override final def readShort(columnBytes: AnyRef, nonNullPosition: Int): Short =
+    readLong(columnBytes, nonNullPosition).toShort
+
+  override final def readInt(columnBytes: AnyRef, nonNullPosition: Int): Int =
+    readLong(columnBytes, nonNullPosition).toInt
+
+  override final def readLong(columnBytes: AnyRef, nonNullPosition: Int): Long = {
+    var position = currentPosition
+    if (position == nonNullPosition) currentValue
+    else {
+      var value = currentValue
+      if (nonNullPosition < position) {
+        // restart from the first value
+        position = 0
+        value = firstValue
+      }
+      // offset at index i is the difference between values at i + 1 and i
+      while (position < nonNullPosition) {
+        value += minDelta + FrameOfReferenceEncoding.unpack(columnBytes, baseCursor,
+          position, bitWidth, valueMask)
+        position += 1
+      }
+      currentPosition = position
+      currentValue = value
+      value
+    }
+  }
+}
@@ -136,6 +136,28 @@ abstract class DictionaryDecoderBase(columnDataRef: AnyRef, startCursor: Long,
   override def readLong(columnBytes: AnyRef, nonNullPosition: Int): Long =
     longDictionary(ColumnEncoding.readShort(columnBytes, baseCursor + (nonNullPosition << 1)))
 
+  override def readInts(columnBytes: AnyRef, nonNullPosition: Int, count: Int,
+      result: Array[Int]): Unit = {
+    val dictionary = intDictionary
+    val cursor = baseCursor + (nonNullPosition << 1)
+    var i = 0
+    while (i < count) {
+      result(i) = dictionary(ColumnEncoding.readShort(columnBytes, cursor + (i << 1)))
+      i += 1
+    }
+  }
+
+  override def readLongs(columnBytes: AnyRef, nonNullPosition: Int, count: Int,
+      result: Array[Long]): Unit = {
+    val dictionary = longDictionary
+    val cursor = baseCursor + (nonNullPosition << 1)
+    var i = 0
+    while (i < count) {
+      result(i) = dictionary(ColumnEncoding.readShort(columnBytes, cursor + (i << 1)))
+      i += 1
+    }
+  }
+
   override def close(): Unit = {
     super.close()
     if (stringDictionary ne null) {
@@ -163,6 +185,28 @@ abstract class BigDictionaryDecoderBase(columnDataRef: AnyRef, startCursor: Long
 
   override final def readLong(columnBytes: AnyRef, nonNullPosition: Int): Long =
     longDictionary(ColumnEncoding.readInt(columnBytes, baseCursor + (nonNullPosition << 2)))
+
+  override final def readInts(columnBytes: AnyRef, nonNullPosition: Int, count: Int,
+      result: Array[Int]): Unit = {
+    val dictionary = intDictionary
+    val cursor = baseCursor + (nonNullPosition << 2)
+    var i = 0
+    while (i < count) {
+      result(i) = dictionary(ColumnEncoding.readInt(columnBytes, cursor + (i << 2)))
+      i += 1
+    }
+  }
+
+  override final def readLongs(columnBytes: AnyRef, nonNullPosition: Int, count: Int,
+      result: Array[Long]): Unit = {
+    val dictionary = longDictionary
+    val cursor = baseCursor + (nonNullPosition << 2)
+    var i = 0
+    while (i < count) {
+      result(i) = dictionary(ColumnEncoding.readInt(columnBytes, cursor + (i << 2)))
+      i += 1
+    }
+  }
 }
 
 trait DictionaryEncoderBase extends ColumnEncoder with DictionaryEncoding {
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2017-2019 TIBCO Software Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package org.apache.spark.sql.execution.columnar.encoding
+
+import org.apache.spark.sql.types._
+
+/**
+ * Frame-of-reference encoding for integral types. Each batch stores the minimum
+ * value as the base followed by the offsets from the base bit-packed into longs
+ * using the minimum number of bits required for (upper - lower) of the batch.
+ * The layout of the body after the standard header and null bitset is:
+ * {{{
+ *    .----------------------- Base value (8 bytes)
+ *   |    .------------------- Bit width of each packed offset (4 bytes)
+ *   |   |    .--------------- Number of non-null values (4 bytes)
+ *   |   |   |    .----------- Packed offsets as little-endian longs
+ *   V   V   V    V
+ *   +---+---+---+-----------+
+ *   |   |   |   | ... ...   |
+ *   +---+---+---+-----------+
+ * }}}
+ * The offsets are written using [[BitPacker]].
+ */
+trait FrameOfReferenceEncoding extends ColumnEncoding {
+
+  override final def supports(dataType: DataType): Boolean = dataType match {
+    case ShortType | IntegerType | DateType | LongType | TimestampType => true
+    case _ => false
+  }
+}
+
+final class FrameOfReferenceDecoder(columnBytes: AnyRef, startCursor: Long,
+    field: StructField, initDelta: (AnyRef, Long) => Long = ColumnEncoding.identityLong)
+    extends FrameOfReferenceDecoderBase(columnBytes, startCursor, field,
+      initDelta) with NotNullDecoder
+
+final class FrameOfReferenceDecoderNullable(columnBytes: AnyRef, startCursor: Long,
+    field: StructField, initDelta: (AnyRef, Long) => Long = ColumnEncoding.identityLong)
+    extends FrameOfReferenceDecoderBase(columnBytes, startCursor, field,
+      initDelta) with NullableDecoder
+
+abstract class FrameOfReferenceDecoderBase(columnDataRef: AnyRef, startCursor: Long,
+    field: StructField, initDelta: (AnyRef, Long) => Long)
+    extends ColumnDecoder(columnDataRef, startCursor, field,
+      initDelta) with FrameOfReferenceEncoding {
+
+  private[this] final var baseValue: Long = _
+  private[this] final var bitWidth: Int = _
+  private[this] final var valueMask: Long = _
+
+  override def typeId: Int = ColumnEncoding.FRAME_OF_REFERENCE_TYPE_ID
+
+  override protected[sql] def initializeCursor(columnBytes: AnyRef, cursor: Long,
+      dataType: DataType): Long = {
+    baseValue = ColumnEncoding.readLong(columnBytes, cursor)
+    bitWidth = ColumnEncoding.readInt(columnBytes, cursor + 8)
+    valueMask = FrameOfReferenceEncoding.valueMask(bitWidth)
+    // skip the number of values which is only informational for now
+    cursor + 16
+  }
+
+  override final def readShort(columnBytes: AnyRef, nonNullPosition: Int): Short =
+    readLong(columnBytes, nonNullPosition).toShort
+
+  override final def readInt(columnBytes: AnyRef, nonNullPosition: Int): Int =
+    readLong(columnBytes, nonNullPosition).toInt
+
+  override final def readLong(columnBytes: AnyRef, nonNullPosition: Int): Long =
+    baseValue + FrameOfReferenceEncoding.unpack(columnBytes, baseCursor,
+      nonNullPosition, bitWidth, valueMask)
+}
+
+object FrameOfReferenceEncoding {
+
+  /** Size in bytes of the packed data for given number of values and bit width. */
+  def packedSize(numValues: Int, bitWidth: Int): Long = {
+    // always write at least one word so that decoder need not check for zero bitWidth
+    math.max((numValues.toLong * bitWidth + 63) >>> 6, 1L) << 3
+  }
+
+  /**
+   * Number of bits required to store offsets of values in range [lower, upper].
+   * The difference is treated as unsigned so overflow is not an issue.
+   */
+  def bitWidth(lower: Long, upper: Long): Int =
+    ColumnEncoding.BITS_PER_LONG - java.lang.Long.numberOfLeadingZeros(upper - lower)
+
+  def valueMask(bitWidth: Int): Long =
+    if (bitWidth >= ColumnEncoding.BITS_PER_LONG) -1L else (1L << bitWidth) - 1L
+
+  /** Read the packed offset at given index written by [[BitPacker]]. */
+  @inline final def unpack(columnBytes: AnyRef, dataCursor: Long, index: Int,
+      bitWidth: Int, valueMask: Long): Long = {
+    val bitPosition = index.toLong * bitWidth
+    val cursor = dataCursor + ((bitPosition >>> 6) << 3)
+    val shift = (bitPosition & 0x3f).toInt
+    var packed = ColumnEncoding.readLong(columnBytes, cursor) >>> shift
+    if (shift + bitWidth > ColumnEncoding.BITS_PER_LONG) {
+      // remaining bits are in the next word
+      packed |= ColumnEncoding.readLong(columnBytes, cursor + 8) <<
+          (ColumnEncoding.BITS_PER_LONG - shift)
+    }
+    packed & valueMask
+  }
+}
+
+/**
+ * Writes offsets bit-packed into little-endian longs. An offset can span two
+ * consecutive longs in which case the lower bits are in the high end of the
+ * first long and remaining bits at the low end of next one.
+ */
+final class BitPacker(columnBytes: AnyRef, startCursor: Long, bitWidth: Int) {
+
+  private[this] var cursor = startCursor
+  private[this] var word = 0L
+  private[this] var bitsInWord = 0
+
+  def write(offset: Long): Unit = {
+    word |= offset << bitsInWord
+    bitsInWord += bitWidth
+    if (bitsInWord >= ColumnEncoding.BITS_PER_LONG) {
+      ColumnEncoding.writeLong(columnBytes, cursor, word)
+      cursor += 8
+      bitsInWord -= ColumnEncoding.BITS_PER_LONG
+      // carry over the high bits that did not fit in the last word
+      word = if (bitsInWord > 0) offset >>> (bitWidth - bitsInWord) else 0L
+    }
+  }
+
+  /** Flush any pending bits and pad with zeros till the given end position. */
+  def finish(endCursor: Long): Long = {
+    while (cursor < endCursor) {
+      ColumnEncoding.writeLong(columnBytes, cursor, word)
+      word = 0L
+      cursor += 8
+    }
+    cursor
+  }
+}
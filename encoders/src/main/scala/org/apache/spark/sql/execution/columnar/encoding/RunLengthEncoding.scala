@@ -22,7 +22,7 @@ import org.apache.spark.unsafe.types.UTF8String
 
 trait RunLengthEncoding extends ColumnEncoding {
 
-  override final def typeId: Int = 1
+  override final def typeId: Int = ColumnEncoding.RUN_LENGTH_TYPE_ID
 
   override final def supports(dataType: DataType): Boolean = dataType match {
     case BooleanType | ByteType | ShortType |
@@ -155,6 +155,41 @@ abstract class RunLengthDecoderBase(columnBytes: AnyRef, startCursor: Long,
     }
   }
 
+  // bulk reads fill in the values of a run at a time
+
+  override final def readBooleans(columnBytes: AnyRef, nonNullPosition: Int, count: Int,
+      result: Array[Boolean]): Unit = {
+    var i = 0
+    while (i < count) {
+      val value = readByte(columnBytes, nonNullPosition + i) == 1
+      val end = math.min(count, runLengthEndPosition - nonNullPosition + 1)
+      java.util.Arrays.fill(result, i, end, value)
+      i = end
+    }
+  }
+
+  override final def readInts(columnBytes: AnyRef, nonNullPosition: Int, count: Int,
+      result: Array[Int]): Unit = {
+    var i = 0
+    while (i < count) {
+      val value = readInt(columnBytes, nonNullPosition + i)
+      val end = math.min(count, runLengthEndPosition - nonNullPosition + 1)
+      java.util.Arrays.fill(result, i, end, value)
+      i = end
+    }
+  }
+
+  override final def readLongs(columnBytes: AnyRef, nonNullPosition: Int, count: Int,
+      result: Array[Long]): Unit = {
+    var i = 0
+    while (i < count) {
+      val value = readLong(columnBytes, nonNullPosition + i)
+      val end = math.min(count, runLengthEndPosition - nonNullPosition + 1)
+      java.util.Arrays.fill(result, i, end, value)
+      i = end
+    }
+  }
+
   override final def readUTF8String(columnBytes: AnyRef, nonNullPosition: Int): UTF8String = {
     if (runLengthEndPosition >= nonNullPosition) {
       currentValueString
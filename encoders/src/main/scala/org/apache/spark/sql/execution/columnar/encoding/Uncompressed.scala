@@ -28,7 +28,7 @@ import org.apache.spark.unsafe.types.{CalendarInterval, UTF8String}
 
 trait Uncompressed extends ColumnEncoding {
 
-  final def typeId: Int = 0
+  final def typeId: Int = ColumnEncoding.UNCOMPRESSED_TYPE_ID
 
   final def supports(dataType: DataType): Boolean = true
 }
@@ -92,6 +92,60 @@ abstract class UncompressedDecoderBase(columnDataRef: AnyRef, startCursor: Long,
   override def readDouble(columnBytes: AnyRef, nonNullPosition: Int): Double =
     ColumnEncoding.readDouble(columnBytes, baseCursor + (nonNullPosition << 3))
 
+  override def readBooleans(columnBytes: AnyRef, nonNullPosition: Int, count: Int,
+      result: Array[Boolean]): Unit = {
+    val cursor = baseCursor + nonNullPosition
+    var i = 0
+    while (i < count) {
+      result(i) = Platform.getByte(columnBytes, cursor + i) == 1
+      i += 1
+    }
+  }
+
+  // fixed width values in native byte order can be copied as is
+
+  override def readInts(columnBytes: AnyRef, nonNullPosition: Int, count: Int,
+      result: Array[Int]): Unit = {
+    val cursor = baseCursor + (nonNullPosition << 2)
+    if (littleEndian) {
+      Platform.copyMemory(columnBytes, cursor, result, Platform.INT_ARRAY_OFFSET, count << 2)
+    } else {
+      var i = 0
+      while (i < count) {
+        result(i) = ColumnEncoding.readInt(columnBytes, cursor + (i << 2))
+        i += 1
+      }
+    }
+  }
+
+  override def readLongs(columnBytes: AnyRef, nonNullPosition: Int, count: Int,
+      result: Array[Long]): Unit = {
+    val cursor = baseCursor + (nonNullPosition << 3)
+    if (littleEndian) {
+      Platform.copyMemory(columnBytes, cursor, result, Platform.LONG_ARRAY_OFFSET, count << 3)
+    } else {
+      var i = 0
+      while (i < count) {
+        result(i) = ColumnEncoding.readLong(columnBytes, cursor + (i << 3))
+        i += 1
+      }
+    }
+  }
+
+  override def readDoubles(columnBytes: AnyRef, nonNullPosition: Int, count: Int,
+      result: Array[Double]): Unit = {
+    val cursor = baseCursor + (nonNullPosition << 3)
+    if (littleEndian) {
+      Platform.copyMemory(columnBytes, cursor, result, Platform.DOUBLE_ARRAY_OFFSET, count << 3)
+    } else {
+      var i = 0
+      while (i < count) {
+        result(i) = ColumnEncoding.readDouble(columnBytes, cursor + (i << 3))
+        i += 1
+      }
+    }
+  }
+
   override def readLongDecimal(columnBytes: AnyRef, precision: Int,
       scale: Int, nonNullPosition: Int): Decimal =
     Decimal.createUnsafe(ColumnEncoding.readLong(columnBytes,
@@ -271,6 +271,14 @@ class ColumnFormatValue extends SerializedDiskBuffer
   @transient protected[columnar] final var compressionCodecId: Byte =
     CompressionCodecId.DEFAULT.id.toByte
 
+  /**
+   * Compression level for [[compressionCodecId]] as configured for the region
+   * using the "compression_level" table option.
+   */
+  @volatile
+  @transient protected[columnar] final var compressionLevel: Byte =
+    CompressionCodecId.DEFAULT_LEVEL.toByte
+
   /**
    * This keeps track of whether the buffer is compressed or not.
    * In addition it keeps a count of how many times compression was done on
@@ -605,6 +613,7 @@ class ColumnFormatValue extends SerializedDiskBuffer
     var maxCompressionsExceeded = false
     var context: RegionEntryContext = null
     var codecId = 0
+    var level = CompressionCodecId.DEFAULT_LEVEL
     var doReplace = false
 
     // First sync block to check if compression is required and whether underlying
@@ -623,6 +632,7 @@ class ColumnFormatValue extends SerializedDiskBuffer
           maxCompressionsExceeded = state > ColumnFormatEntry.MAX_CONSECUTIVE_COMPRESSIONS
           context = this.regionContext
           codecId = this.compressionCodecId
+          level = this.compressionLevel
           // check if buffer is stored in region and should also be replaced (if multiple
           // consecutive compressions done and no other thread is reading or this is a heap buffer)
           doReplace = maxCompressionsExceeded && (buffer.hasArray || this.refCount <= 2) &&
@@ -637,7 +647,7 @@ class ColumnFormatValue extends SerializedDiskBuffer
     val perfStats = getCachePerfStats(context)
     // all memory acquire/release/change operations should be done outside of sync block
     var compressed = CompressionUtils.acquireBufferForCompress(codecId, buffer,
-      buffer.remaining(), allocator)
+      buffer.remaining(), allocator, level)
     // check the case when compression is to be skipped due to small size
     if (compressed eq buffer) return this
     try {
@@ -653,7 +663,7 @@ class ColumnFormatValue extends SerializedDiskBuffer
         val bufferLen = buffer.remaining()
         val startCompression = perfStats.startCompression()
         compressed = CompressionUtils.codecCompress(codecId, buffer, bufferLen,
-          compressed, allocator)
+          compressed, allocator, level)
         // update compression stats
         perfStats.endCompression(startCompression, bufferLen, compressed.limit())
         if (compressed ne buffer) {
@@ -735,6 +745,7 @@ class ColumnFormatValue extends SerializedDiskBuffer
       val codec = context.getColumnCompressionCodec
       if (codec ne null) {
         this.compressionCodecId = CompressionCodecId.fromName(codec).id.toByte
+        this.compressionLevel = CompressionCodecId.levelFromName(codec).toByte
       }
     }
   }
@@ -24,19 +24,42 @@ import org.apache.spark.sql.sources.JdbcExtendedUtils
 
 /**
  * Compression schemes supported by snappy-store.
+ *
+ * The scheme for a table can optionally be specified with a level in the form
+ * "codec:level" (see [[fromName]] and [[levelFromName]]) where a level of zero
+ * means the default level of the codec.
  */
 object CompressionCodecId extends Enumeration {
   type Type = Value
 
   val LZ4_ID = 1
   val SNAPPY_ID = 2
+  /**
+   * LZ4 high compression mode. The output of this is decompressed using the normal
+   * LZ4 decompressor so compressed buffers are written with [[LZ4_ID]] in the header
+   * and hence can be read by older releases too.
+   */
+  val LZ4_HC_ID = 3
+  val ZSTD_ID = 4
 
   // keep below updated with the max ID above
-  private val MAX_ID = SNAPPY_ID
+  private val MAX_ID = ZSTD_ID
+
+  /** the level to use for a codec when none has been specified explicitly */
+  val DEFAULT_LEVEL = 0
+  /** default compression level for [[LZ4_HC_ID]] */
+  val LZ4_HC_DEFAULT_LEVEL = 9
+  /** default compression level for [[ZSTD_ID]] */
+  val ZSTD_DEFAULT_LEVEL = 3
+
+  private val MAX_LZ4_HC_LEVEL = 17
+  private val MAX_ZSTD_LEVEL = 22
 
   val None: Type = Value(0, "None")
   val LZ4: Type = Value(LZ4_ID, "LZ4")
   val Snappy: Type = Value(SNAPPY_ID, "Snappy")
+  val LZ4HC: Type = Value(LZ4_HC_ID, "LZ4HC")
+  val ZSTD: Type = Value(ZSTD_ID, "ZSTD")
 
   /** the [[CompressionCodecId]] of default compression scheme ([[Constant.DEFAULT_CODEC]]) */
   val DEFAULT: CompressionCodecId.Type = CompressionCodecId.fromName(Constant.DEFAULT_CODEC)
@@ -52,13 +75,67 @@ object CompressionCodecId extends Enumeration {
    */
   def isCompressed(codec: Int): Boolean = codec > 0 && codec <= MAX_ID
 
+  /**
+   * The codec ID that is written in the header of a compressed buffer which
+   * can be different from the configured codec if the two have the same format.
+   */
+  def headerId(codecId: Int): Int =
+    if (codecId == LZ4_HC_ID) LZ4_ID else codecId
+
   def fromName(name: String): CompressionCodecId.Type =
     if (name eq null) DEFAULT
-    else JdbcExtendedUtils.toLowerCase(name) match {
-      case "lz4" => LZ4
-      case "snappy" => Snappy
-      case "none" | "uncompressed" => None
-      case _ => throw new IllegalArgumentException(
-        s"Unknown compression scheme '$name'")
+    else {
+      val levelIndex = name.indexOf(':')
+      val codec = if (levelIndex == -1) name else name.substring(0, levelIndex)
+      JdbcExtendedUtils.toLowerCase(codec.trim) match {
+        case "lz4" => LZ4
+        case "snappy" => Snappy
+        case "lz4hc" | "lz4-hc" => LZ4HC
+        case "zstd" | "zstandard" => ZSTD
+        case "none" | "uncompressed" => None
+        case _ => throw new IllegalArgumentException(
+          s"Unknown compression scheme '$name'")
+      }
+    }
+
+  /**
+   * Get the compression level from a name of the form "codec:level" as returned by
+   * [[nameWithLevel]]. Returns [[DEFAULT_LEVEL]] if no level has been specified.
+   */
+  def levelFromName(name: String): Int = {
+    val levelIndex = if (name eq null) -1 else name.indexOf(':')
+    if (levelIndex == -1) DEFAULT_LEVEL
+    else checkLevel(fromName(name), name.substring(levelIndex + 1).trim)
+  }
+
+  /**
+   * Append the given compression level, if any, to the codec name in a form
+   * that can be parsed by [[fromName]] and [[levelFromName]].
+   */
+  def nameWithLevel(name: String, level: Option[String]): String = level match {
+    case Some(l) if name ne null =>
+      val codec = fromName(name)
+      val levelIndex = name.indexOf(':')
+      val codecName = if (levelIndex == -1) name else name.substring(0, levelIndex)
+      s"$codecName:${checkLevel(codec, l.trim)}"
+    case _ => name
+  }
+
+  private def checkLevel(codec: CompressionCodecId.Type, level: String): Int = {
+    val maxLevel = codec.id match {
+      case LZ4_HC_ID => MAX_LZ4_HC_LEVEL
+      case ZSTD_ID => MAX_ZSTD_LEVEL
+      case _ => 0
+    }
+    val result = try {
+      Integer.parseInt(level)
+    } catch {
+      case _: NumberFormatException => -1
+    }
+    if (result < 0 || result > maxLevel) {
+      throw new IllegalArgumentException(s"Invalid compression level '$level' for " +
+          s"compression scheme $codec (allowed levels: 0 to $maxLevel where 0 means default)")
     }
+    result
+  }
 }
@@ -20,9 +20,10 @@ package org.apache.spark.sql.store
 import java.nio.{ByteBuffer, ByteOrder}
 
 import com.gemstone.gemfire.internal.shared.{BufferAllocator, HeapBufferAllocator, SystemProperties}
+import com.github.luben.zstd.Zstd
 import com.ning.compress.lzf.{LZFDecoder, LZFEncoder}
 import io.snappydata.Constant
-import net.jpountz.lz4.LZ4Factory
+import net.jpountz.lz4.{LZ4Compressor, LZ4Factory}
 import org.xerial.snappy.Snappy
 
 import org.apache.spark.io.{CompressionCodec, LZ4CompressionCodec, LZFCompressionCodec, SnappyCompressionCodec}
@@ -60,28 +61,50 @@ object CompressionUtils {
     buffer.putInt(4, uncompressedLen)
   }
 
+  private def lz4Compressor(codecId: Int, level: Int): LZ4Compressor = {
+    if (codecId == CompressionCodecId.LZ4_HC_ID) {
+      LZ4Factory.fastestInstance().highCompressor(
+        if (level == CompressionCodecId.DEFAULT_LEVEL) CompressionCodecId.LZ4_HC_DEFAULT_LEVEL
+        else level)
+    } else LZ4Factory.fastestInstance().fastCompressor()
+  }
+
+  private def zstdLevel(level: Int): Int =
+    if (level == CompressionCodecId.DEFAULT_LEVEL) CompressionCodecId.ZSTD_DEFAULT_LEVEL
+    else level
+
+  private def checkZstdResult(result: Long, op: String): Int = {
+    if (Zstd.isError(result)) {
+      throw new IllegalStateException(s"ZSTD $op failed: ${Zstd.getErrorName(result)}")
+    }
+    result.toInt
+  }
+
   def acquireBufferForCompress(codecId: Int, input: ByteBuffer, len: Int,
-      allocator: BufferAllocator): ByteBuffer = {
+      allocator: BufferAllocator, level: Int = CompressionCodecId.DEFAULT_LEVEL): ByteBuffer = {
     if (len < MIN_COMPRESSION_SIZE) input
     else codecId match {
-      case CompressionCodecId.LZ4_ID =>
-        val compressor = LZ4Factory.fastestInstance().fastCompressor()
+      case CompressionCodecId.LZ4_ID | CompressionCodecId.LZ4_HC_ID =>
+        val compressor = lz4Compressor(codecId, level)
         val maxLength = compressor.maxCompressedLength(len)
         val maxTotal = maxLength + COMPRESSION_HEADER_SIZE
         allocateExecutionMemory(maxTotal, COMPRESSION_OWNER, allocator)
       case CompressionCodecId.SNAPPY_ID =>
         val maxTotal = Snappy.maxCompressedLength(len) + COMPRESSION_HEADER_SIZE
         allocateExecutionMemory(maxTotal, COMPRESSION_OWNER, allocator)
+      case CompressionCodecId.ZSTD_ID =>
+        val maxTotal = Zstd.compressBound(len).toInt + COMPRESSION_HEADER_SIZE
+        allocateExecutionMemory(maxTotal, COMPRESSION_OWNER, allocator)
       case _ => throw new IllegalStateException(s"Unknown compression codec $codecId")
     }
   }
 
-  def codecCompress(codecId: Int, input: ByteBuffer, len: Int,
-      result: ByteBuffer, allocator: BufferAllocator): ByteBuffer = {
+  def codecCompress(codecId: Int, input: ByteBuffer, len: Int, result: ByteBuffer,
+      allocator: BufferAllocator, level: Int = CompressionCodecId.DEFAULT_LEVEL): ByteBuffer = {
     val position = input.position()
     val resultLen = try codecId match {
-      case CompressionCodecId.LZ4_ID =>
-        val compressor = LZ4Factory.fastestInstance().fastCompressor()
+      case CompressionCodecId.LZ4_ID | CompressionCodecId.LZ4_HC_ID =>
+        val compressor = lz4Compressor(codecId, level)
         val maxLength = compressor.maxCompressedLength(len)
         compressor.compress(input, position, len,
           result, COMPRESSION_HEADER_SIZE, maxLength)
@@ -93,6 +116,15 @@ object CompressionUtils {
           Snappy.compress(input.array(), input.arrayOffset() + position,
             len, result.array(), COMPRESSION_HEADER_SIZE)
         }
+      case CompressionCodecId.ZSTD_ID =>
+        val maxLength = result.capacity() - COMPRESSION_HEADER_SIZE
+        checkZstdResult(if (input.isDirect) {
+          Zstd.compressDirectByteBuffer(result, COMPRESSION_HEADER_SIZE, maxLength,
+            input, position, len, zstdLevel(level))
+        } else {
+          Zstd.compressByteArray(result.array(), result.arrayOffset() + COMPRESSION_HEADER_SIZE,
+            maxLength, input.array(), input.arrayOffset() + position, len, zstdLevel(level))
+        }, "compression")
     } finally {
       // reset the position/limit of input buffer in case it was changed by compressor
       input.position(position)
@@ -100,7 +132,7 @@ object CompressionUtils {
     // check if there was some decent reduction else return uncompressed input itself
     if (resultLen.toDouble <= len * MIN_COMPRESSION_RATIO) {
       // caller should trim the buffer (can skip if written to output stream right away)
-      writeCompressionHeader(codecId, len, result)
+      writeCompressionHeader(CompressionCodecId.headerId(codecId), len, result)
       result.limit(resultLen + COMPRESSION_HEADER_SIZE)
       result
     } else {
@@ -148,7 +180,7 @@ object CompressionUtils {
   def codecDecompress(input: ByteBuffer, result: ByteBuffer, outputLen: Int,
       position: Int, codecId: Int): Unit = {
     try codecId match {
-      case CompressionCodecId.LZ4_ID =>
+      case CompressionCodecId.LZ4_ID | CompressionCodecId.LZ4_HC_ID =>
         LZ4Factory.fastestInstance().fastDecompressor().decompress(input,
           position + 8, result, 0, outputLen)
       case CompressionCodecId.SNAPPY_ID =>
@@ -159,6 +191,15 @@ object CompressionUtils {
           Snappy.uncompress(input.array(), input.arrayOffset() +
               input.position(), input.remaining(), result.array(), 0)
         }
+      case CompressionCodecId.ZSTD_ID =>
+        val inputLen = input.limit() - position - 8
+        checkZstdResult(if (input.isDirect) {
+          Zstd.decompressDirectByteBuffer(result, 0, outputLen,
+            input, position + 8, inputLen)
+        } else {
+          Zstd.decompressByteArray(result.array(), result.arrayOffset(), outputLen,
+            input.array(), input.arrayOffset() + position + 8, inputLen)
+        }, "decompression")
     } finally {
       // reset the position/limit of input buffer in case it was changed by de-compressor
       input.position(position)